@@ -0,0 +1,62 @@
+package admin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks that account numbers hash onto. A posting holds the stripe of every
+ * account it touches, so postings on unrelated accounts proceed in parallel while each
+ * balance check and its posting stay atomic. Two stripes are always taken in ascending index
+ * order, so transfers in opposite directions cannot deadlock.
+ * Stripe count is -Dpayment.locks.stripes (default 256, rounded up to a power of two).
+ */
+public class AccountLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public AccountLocks(int stripes) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) this.stripes[i] = new ReentrantLock();
+        this.mask = size - 1;
+    }
+
+    public static AccountLocks fromSystemProperties() {
+        return new AccountLocks(Integer.getInteger("payment.locks.stripes", 256));
+    }
+
+    int stripeOf(String accountNo) {
+        int h = accountNo.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public void lock(String accountNo) {
+        stripes[stripeOf(accountNo)].lock();
+    }
+
+    public void unlock(String accountNo) {
+        stripes[stripeOf(accountNo)].unlock();
+    }
+
+    /** Waits at most {@code millis} for the account's stripe; false if it stayed held. */
+    public boolean tryLock(String accountNo, long millis) throws InterruptedException {
+        return stripes[stripeOf(accountNo)].tryLock(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Locks both accounts' stripes, lower index first; one lock if they share a stripe. */
+    public void lock(String a, String b) {
+        int i = stripeOf(a), j = stripeOf(b);
+        stripes[Math.min(i, j)].lock();
+        if (i != j) stripes[Math.max(i, j)].lock();
+    }
+
+    public void unlock(String a, String b) {
+        int i = stripeOf(a), j = stripeOf(b);
+        if (i != j) stripes[Math.max(i, j)].unlock();
+        stripes[Math.min(i, j)].unlock();
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+}
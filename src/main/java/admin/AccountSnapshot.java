@@ -0,0 +1,75 @@
+package admin;
+
+import client.Money;
+import client.User;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Binary image of every account as of one journal sequence number. Loading it is much
+ * cheaper than parsing users.txt, and only journal records after {@link #seq} need replaying.
+ */
+public class AccountSnapshot {
+    public static final String SNAPSHOT_FILE = "src/main/java/accounts.snap";
+
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int VERSION = 2;  // balances as long cents; version 1 stored doubles
+
+    public final AccountStore store;
+    public final long seq;
+
+    private AccountSnapshot(AccountStore store, long seq) {
+        this.store = store;
+        this.seq = seq;
+    }
+
+    /** Returns null if there is no usable snapshot, so the caller can fall back to users.txt. */
+    public static AccountSnapshot read(File file) {
+        if (!file.exists()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) return null;
+            int version = in.readInt();
+            if (version != 1 && version != VERSION) return null;
+            long seq = in.readLong();
+            int count = in.readInt();
+            AccountStore store = new AccountStore();
+            for (int i = 0; i < count; i++) {
+                User user = new User(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), 0);
+                user.balanceCents = version == 1 ? Money.fromDouble(in.readDouble()) : in.readLong();
+                store.add(user);
+            }
+            return new AccountSnapshot(store, seq);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void write(File file, List<User> accounts, long seq) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seq);
+            out.writeInt(accounts.size());
+            for (User user : accounts) {
+                out.writeUTF(user.accountNo);
+                out.writeUTF(user.role);
+                out.writeUTF(user.username);
+                out.writeUTF(user.password);
+                out.writeUTF(user.fullName);
+                out.writeLong(user.balanceCents);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,51 @@
+package admin;
+
+import client.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Account operations the socket server needs. {@link JournaledAccountStorage} keeps users.txt
+ * as the durable copy, {@link MappedAccountStorage} keeps fixed-width slots in a mapped file.
+ * Callers serialize check-then-post sequences themselves.
+ */
+public interface AccountStorage extends Closeable {
+    User findByAccountNo(String accountNo);
+
+    User authenticate(String username, String hashedPassword);
+
+    boolean usernameExists(String username);
+
+    /** Returns the balance in cents, or -1 if the account does not exist. */
+    long getBalance(String accountNo);
+
+    /** Returns the full name, or an empty string if the account does not exist. */
+    String getFullName(String accountNo);
+
+    int size();
+
+    /** Every account with its current balance, in registration order. */
+    List<User> accounts();
+
+    /** Returns false if the account number is already taken. */
+    boolean register(User user) throws IOException;
+
+    /** Durably sets the balances, in cents, of the given accounts as one posting. */
+    void postBalances(User[] accounts, long[] balances) throws IOException;
+
+    /** Posts several postings in order, made durable together rather than one at a time. */
+    default void postBalances(List<User[]> accounts, List<long[]> balances) throws IOException {
+        for (int i = 0; i < accounts.size(); i++) postBalances(accounts.get(i), balances.get(i));
+    }
+
+    /** Folds pending changes into the durable account file. Called periodically by the server. */
+    void checkpoint() throws IOException;
+
+    /** Where the accounts were recovered from at startup, for the admin log. */
+    String describeRecovery();
+
+    /** Number of journal records replayed at startup. */
+    long getReplayedRecords();
+}
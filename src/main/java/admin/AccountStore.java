@@ -0,0 +1,128 @@
+package admin;
+
+import client.Money;
+import client.User;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resident copy of users.txt. The file is parsed once at startup and every lookup
+ * after that is served from two hash indexes (account number and lower-cased username).
+ * Writers must keep the store in step with whatever they persist.
+ */
+public class AccountStore {
+    public static final String HEADER = "# AccNo,Role,Username,Password,FullName,Balance";
+
+    private final Map<String, User> byAccountNo = new ConcurrentHashMap<>();
+    private final Map<String, User> byUsername = new ConcurrentHashMap<>();
+    private final List<User> accounts = new ArrayList<>(); // file order, guarded by itself
+
+    public static AccountStore load(File file) throws IOException {
+        AccountStore store = new AccountStore();
+        if (!file.exists()) return store;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                User user = parseUserLine(line);
+                if (user != null) store.add(user);
+            }
+        }
+        return store;
+    }
+
+    /** Parses one CSV account line, returning null for headers, blanks and malformed rows. */
+    public static User parseUserLine(String line) {
+        if (line == null) return null;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#") || line.startsWith("AccountNo")) return null;
+
+        String[] parts = line.split(",");
+        if (parts.length < 6) return null;
+        try {
+            return new User(
+                    parts[0].trim(),  // account number
+                    parts[1].trim(),  // role
+                    parts[2].trim(),  // username
+                    parts[3].trim(),  // password (hashed)
+                    parts[4].trim(),  // full name
+                    Money.parse(parts[5].trim())  // balance
+            );
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static String toUserLine(User user) {
+        return String.join(",", user.accountNo, user.role, user.username, user.password,
+                user.fullName, Money.format(user.balanceCents));
+    }
+
+    /** Adds an account to both indexes. Returns false if the account number is already taken. */
+    public boolean add(User user) {
+        if (byAccountNo.putIfAbsent(user.accountNo, user) != null) return false;
+        byUsername.putIfAbsent(user.username.toLowerCase(Locale.ROOT), user);
+        synchronized (accounts) {
+            accounts.add(user);
+        }
+        return true;
+    }
+
+    public User findByAccountNo(String accountNo) {
+        return accountNo == null ? null : byAccountNo.get(accountNo.trim());
+    }
+
+    public User authenticate(String username, String hashedPassword) {
+        if (username == null) return null;
+        User user = byUsername.get(username.toLowerCase(Locale.ROOT));
+        if (user != null && user.username.equals(username) && user.password.equals(hashedPassword)) {
+            return user;
+        }
+        return null;
+    }
+
+    public boolean usernameExists(String username) {
+        return username != null && byUsername.containsKey(username.trim().toLowerCase(Locale.ROOT));
+    }
+
+    public long getBalance(String accountNo) {
+        User user = findByAccountNo(accountNo);
+        return user == null ? -1 : user.balanceCents;
+    }
+
+    public String getFullName(String accountNo) {
+        User user = findByAccountNo(accountNo);
+        return user == null ? "" : user.fullName;
+    }
+
+    public void setBalance(User user, long balanceCents) {
+        user.balanceCents = balanceCents;
+    }
+
+    public List<User> snapshot() {
+        synchronized (accounts) {
+            return new ArrayList<>(accounts);
+        }
+    }
+
+    public int size() {
+        return byAccountNo.size();
+    }
+
+    /** Rewrites the whole account file from the store. */
+    public void writeTo(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (User user : snapshot()) {
+                writer.write(toUserLine(user));
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package admin;
+
+import client.BinaryProtocol;
+import client.Money;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ToLongFunction;
+
+/**
+ * The clients watching accounts (SUBSCRIBE on a framed connection) and the updates they are
+ * owed. {@link #publish} runs on the commit path, often the ledger thread, so it only notes
+ * the change; the push frame is built and sent later through the connection's
+ * {@link PushChannel}. Until that happens, further changes coalesce into the same push: the
+ * balance is read when the push is built, so only the latest goes out, and new transactions
+ * queue up, at most {@link #MAX_PENDING_TRANSACTIONS} of them, past which the oldest are
+ * dropped and the push says so. A client too far behind on reading for even that is
+ * unsubscribed, with a last frame telling it so.
+ *
+ * <p>A push frame is {@link BinaryProtocol#PUSH} under the SUBSCRIBE's id. Its text is the
+ * balance line, then "MISSED_TRANSACTIONS" if any were dropped, then the new transactions as
+ * GET_TRANSACTIONS blocks. The last frame of a subscription reads "UNSUBSCRIBED".
+ */
+final class AccountSubscriptions {
+    static final int MAX_PENDING_TRANSACTIONS = 64;
+
+    private final ToLongFunction<String> balances;
+    private final Map<String, Set<Subscriber>> byAccount = new ConcurrentHashMap<>();
+
+    AccountSubscriptions(ToLongFunction<String> balances) {
+        this.balances = balances;
+    }
+
+    /**
+     * Subscribes the client that {@code out} answers to {@code accountNo}, or returns null if
+     * it is not on a framed connection. Pushes wait until {@link Subscriber#start}, which the
+     * caller invokes once the reply has gone, so nothing overtakes it.
+     */
+    Subscriber subscribe(String accountNo, PrintWriter out) {
+        if (!(out instanceof FramedReply)) return null;
+        FramedReply reply = (FramedReply) out;
+        Subscriber subscriber = new Subscriber(accountNo, reply.requestId(), reply.channel());
+        byAccount.compute(accountNo, (key, subscribers) -> {
+            if (subscribers == null) subscribers = ConcurrentHashMap.newKeySet();
+            subscribers.add(subscriber);
+            return subscribers;
+        });
+        reply.channel().onClose(subscriber::cancel);
+        return subscriber;
+    }
+
+    /** Ends every subscription to {@code accountNo} on the connection {@code out} answers. */
+    void unsubscribe(String accountNo, PrintWriter out) {
+        if (!(out instanceof FramedReply)) return;
+        Set<Subscriber> subscribers = byAccount.get(accountNo);
+        if (subscribers == null) return;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.channel == ((FramedReply) out).channel()) subscriber.end();
+        }
+    }
+
+    /** Notes that {@code accountNo} changed, with the record of the transaction that changed it. */
+    void publish(String accountNo, String transactionRecord) {
+        Set<Subscriber> subscribers = byAccount.get(accountNo);
+        if (subscribers == null) return;
+        for (Subscriber subscriber : subscribers) subscriber.changed(transactionRecord);
+    }
+
+    int getSubscriberCount() {
+        int count = 0;
+        for (Set<Subscriber> subscribers : byAccount.values()) count += subscribers.size();
+        return count;
+    }
+
+    /** One SUBSCRIBE, and the changes it has not been sent yet. */
+    final class Subscriber {
+        final String accountNo;
+        final int requestId;
+        final PushChannel channel;
+        // guarded by this
+        private final List<String> pending = new ArrayList<>();
+        private boolean started, changed, missed, scheduled;
+        private volatile boolean cancelled;
+
+        Subscriber(String accountNo, int requestId, PushChannel channel) {
+            this.accountNo = accountNo;
+            this.requestId = requestId;
+            this.channel = channel;
+        }
+
+        void start() {
+            synchronized (this) {
+                started = true;
+                if (!changed || scheduled) return;
+                scheduled = true;
+            }
+            schedule();
+        }
+
+        private void changed(String transactionRecord) {
+            synchronized (this) {
+                if (cancelled) return;
+                changed = true;
+                if (pending.size() == MAX_PENDING_TRANSACTIONS) {
+                    pending.remove(0);
+                    missed = true;
+                }
+                pending.add(transactionRecord);
+                if (!started || scheduled) return; // coalesces into the push already on its way
+                scheduled = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            try {
+                channel.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                cancel(); // the server is shutting down
+            }
+        }
+
+        /** Sends what has changed, again and again until nothing has. */
+        private void flush() {
+            while (true) {
+                List<String> records;
+                boolean dropped;
+                synchronized (this) {
+                    if (cancelled || !changed) {
+                        scheduled = false;
+                        return;
+                    }
+                    records = new ArrayList<>(pending);
+                    dropped = missed;
+                    pending.clear();
+                    changed = missed = false;
+                }
+                StringBuilder text = new StringBuilder(64);
+                text.append(Money.format(balances.applyAsLong(accountNo))).append('\n');
+                if (dropped) text.append("MISSED_TRANSACTIONS\n");
+                for (String record : records) text.append(record);
+                if (!channel.push(BinaryProtocol.encode(requestId, BinaryProtocol.PUSH, text.toString()))) {
+                    end();
+                    return;
+                }
+            }
+        }
+
+        /** Cancels the subscription and tells the client. */
+        private void end() {
+            cancel();
+            channel.pushLast(BinaryProtocol.encode(requestId, BinaryProtocol.PUSH, "UNSUBSCRIBED\n"));
+        }
+
+        void cancel() {
+            cancelled = true;
+            byAccount.computeIfPresent(accountNo, (key, subscribers) -> {
+                subscribers.remove(this);
+                return subscribers.isEmpty() ? null : subscribers;
+            });
+        }
+    }
+}
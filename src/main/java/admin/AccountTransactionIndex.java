@@ -0,0 +1,81 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Account number to the positions of every transaction the account sent or received.
+ * A position packs a segment id and a byte offset into one long; segment id 0 is the
+ * active text file, whose entries are dropped wholesale when it is sealed.
+ */
+public class AccountTransactionIndex {
+    public static final int ACTIVE_SEGMENT = 0;
+
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final Map<String, PositionList> sealed = new HashMap<>();
+    private final Map<String, PositionList> active = new HashMap<>();
+
+    public static long position(int segmentId, long offset) {
+        return ((long) segmentId << OFFSET_BITS) | offset;
+    }
+
+    public static int segmentOf(long position) {
+        return (int) (position >>> OFFSET_BITS);
+    }
+
+    public static long offsetOf(long position) {
+        return position & OFFSET_MASK;
+    }
+
+    public synchronized void addSealed(int segmentId, long offset, Transaction t) {
+        add(sealed, position(segmentId, offset), t);
+    }
+
+    public synchronized void addActive(long offset, Transaction t) {
+        add(active, position(ACTIVE_SEGMENT, offset), t);
+    }
+
+    private static void add(Map<String, PositionList> map, long position, Transaction t) {
+        map.computeIfAbsent(t.senderAccountNo, k -> new PositionList()).add(position);
+        if (!t.recipientAccountNo.equals(t.senderAccountNo)) {
+            map.computeIfAbsent(t.recipientAccountNo, k -> new PositionList()).add(position);
+        }
+    }
+
+    /** Drops a segment's entries once it has been archived. */
+    public synchronized void removeSealed(int segmentId) {
+        sealed.values().removeIf(list -> list.removeSegment(segmentId) == 0);
+    }
+
+    /** Called once the active file has been moved aside for sealing. */
+    public synchronized void clearActive() {
+        active.clear();
+    }
+
+    public synchronized void clear() {
+        sealed.clear();
+        active.clear();
+    }
+
+    /** Positions of the account's transactions, sealed segments first, each in log order. */
+    public synchronized long[] lookup(String accountNo) {
+        PositionList s = sealed.get(accountNo), a = active.get(accountNo);
+        int sealedSize = s == null ? 0 : s.size();
+        long[] result = new long[sealedSize + (a == null ? 0 : a.size())];
+        if (s != null) s.copyTo(result, 0);
+        if (a != null) a.copyTo(result, sealedSize);
+        return result;
+    }
+
+    public synchronized int accountCount() {
+        int count = sealed.size();
+        for (String accountNo : active.keySet()) {
+            if (!sealed.containsKey(accountNo)) count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,82 @@
+package admin;
+
+import client.User;
+
+import java.io.IOException;
+import java.util.function.ToLongFunction;
+
+/**
+ * Balance-changing requests against an {@link AccountStorage}. Each one checks and posts while
+ * holding the {@link AccountLocks} stripes of the accounts it touches, so a balance can never
+ * be spent twice and money only moves between accounts, while unrelated accounts are not
+ * serialized behind each other. Amounts are cents; non-positive amounts are rejected. A debit
+ * must leave whatever is on hold on the account, such as a cross-node transfer being prepared.
+ */
+public class AccountTransfers {
+    private final AccountStorage storage;
+    private final AccountLocks locks;
+    private final ToLongFunction<String> held;
+
+    public AccountTransfers(AccountStorage storage, AccountLocks locks) {
+        this(storage, locks, accountNo -> 0);
+    }
+
+    /** {@code held} gives the cents on hold on an account; it is asked under the account's lock. */
+    public AccountTransfers(AccountStorage storage, AccountLocks locks, ToLongFunction<String> held) {
+        this.storage = storage;
+        this.locks = locks;
+        this.held = held;
+    }
+
+    /**
+     * Moves {@code amountCents} between two distinct accounts. Returns the sender, or null if
+     * either account is missing or the sender cannot cover the amount.
+     * Throws ArithmeticException if the recipient's balance would overflow.
+     */
+    public User transfer(String from, String to, long amountCents) throws IOException {
+        if (amountCents <= 0 || from.equals(to)) return null;
+        locks.lock(from, to);
+        try {
+            User sender = storage.findByAccountNo(from);
+            User recipient = storage.findByAccountNo(to);
+            if (sender == null || recipient == null
+                    || sender.balanceCents - held.applyAsLong(from) < amountCents) return null;
+            storage.postBalances(new User[]{sender, recipient},
+                    new long[]{sender.balanceCents - amountCents, Math.addExact(recipient.balanceCents, amountCents)});
+            return sender;
+        } finally {
+            locks.unlock(from, to);
+        }
+    }
+
+    /** Returns the account, or null if it is missing or cannot cover the amount. */
+    public User withdraw(String accountNo, long amountCents) throws IOException {
+        if (amountCents <= 0) return null;
+        locks.lock(accountNo);
+        try {
+            User account = storage.findByAccountNo(accountNo);
+            if (account == null || account.balanceCents - held.applyAsLong(accountNo) < amountCents) return null;
+            storage.postBalances(new User[]{account}, new long[]{account.balanceCents - amountCents});
+            return account;
+        } finally {
+            locks.unlock(accountNo);
+        }
+    }
+
+    /**
+     * Returns the account, or null if it is missing.
+     * Throws ArithmeticException if the balance would overflow.
+     */
+    public User deposit(String accountNo, long amountCents) throws IOException {
+        if (amountCents <= 0) return null;
+        locks.lock(accountNo);
+        try {
+            User account = storage.findByAccountNo(accountNo);
+            if (account == null) return null;
+            storage.postBalances(new User[]{account}, new long[]{Math.addExact(account.balanceCents, amountCents)});
+            return account;
+        } finally {
+            locks.unlock(accountNo);
+        }
+    }
+}
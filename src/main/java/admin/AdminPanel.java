@@ -1,5 +1,6 @@
 package admin;
 
+import client.Money;
 import client.User;
 
 import javax.swing.*;
@@ -8,17 +9,14 @@ import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class AdminPanel extends JFrame {
@@ -26,17 +24,30 @@ public class AdminPanel extends JFrame {
     private JTable transactionTable;
     private DefaultTableModel tableModel;
     private ExecutorService executorService;
+    private boolean virtualThreads;
     private ScheduledExecutorService scheduledExecutor;
     private final Set<String> displayedTransactions = ConcurrentHashMap.newKeySet();
-    private int lastLineCount = 0;
-    private final Lock fileLock = new ReentrantLock();
     private static final ZoneId MALAYSIA_ZONE = ZoneId.of("Asia/Kuala_Lumpur");
     private static final DateTimeFormatter DISPLAY_DATE_FORMATTER = DateTimeFormatter.ofPattern("MM-dd");
     private static final DateTimeFormatter LOG_TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    private static final ReentrantLock userFileLock = new ReentrantLock();
-    private static final ReentrantLock transactionFileLock = new ReentrantLock();
+    private static final String USER_FILE = "src/main/java/users.txt";
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 30;
+    private static final String TRANSACTION_FILE = "src/main/java/transactions.txt";
+    private AccountStorage accountStorage;
+    private AccountTransfers accountTransfers;
+    private AsyncLedger asyncLedger; // set when -Dpayment.ledger=sequencer or shards
+    private ClusterNode clusterNode; // set when -Dpayment.cluster names more than this server
+    private ReplicationSource replicationSource; // set when -Dpayment.replication.port is given
+    private ReplicationStandby standby; // set when -Dpayment.standby.primary is given
+    private final JButton promoteButton = new JButton("Promote Standby");
+    private TransactionLogWriter transactionLog;
+    private SegmentedTransactionLog transactionSegments;
+    private TransactionTailer transactionTailer;
+    private final ParallelTransactionLoader transactionLoader = ParallelTransactionLoader.fromSystemProperties();
+    private final AccountSubscriptions subscriptions = new AccountSubscriptions(this::lookupBalance);
 
     public AdminPanel() {
+        long startupNanos = System.nanoTime();
         setTitle("Admin Transaction Monitor");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
@@ -100,12 +111,16 @@ public class AdminPanel extends JFrame {
         JButton openUserPanelButton = new JButton("Open User Control Panel");
         openUserPanelButton.addActionListener(this::openUserPanel);
 
+        promoteButton.setEnabled(false); // until this server turns out to be a standby
+        promoteButton.addActionListener(this::promoteStandby);
+
         JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         topPanel.add(showTodayButton);
         topPanel.add(showAllButton);
         topPanel.add(new JLabel("Filter by Type:"));
         topPanel.add(filterDropdown);
         topPanel.add(openUserPanelButton);
+        topPanel.add(promoteButton);
 
         add(topPanel, BorderLayout.NORTH);
         add(new JScrollPane(logArea), BorderLayout.SOUTH);
@@ -113,69 +128,275 @@ public class AdminPanel extends JFrame {
         setSize(950, 500);
         setLocationRelativeTo(null);
 
-        executorService = Executors.newCachedThreadPool();
+        executorService = newExecutorService();
         scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
 
         addLog("Application started.");
+        openTransactionLog(); // before accounts: cluster recovery may record credits in it
+        loadAccounts();
+        openTransactionTailer();
         loadTransactions();
         startRealTimeTransactionMonitor();
         startSocketTransactionServer();
+        addLog(String.format("Startup completed in %d ms.", (System.nanoTime() - startupNanos) / 1_000_000));
     }
 
     private void openUserPanel(ActionEvent e) {
-        SwingUtilities.invokeLater(() -> new UsersControlPanel().setVisible(true));
+        if (accountStorage == null) {
+            addLog("Accounts are not loaded.");
+            return;
+        }
+        AccountStorage storage = accountStorage;
+        SwingUtilities.invokeLater(() -> new UsersControlPanel(storage).setVisible(true));
+    }
+
+    /**
+     * Makes this standby the primary. Nothing stops the old primary taking writes too, so the
+     * admin confirms it is down or cut off from the clients first.
+     */
+    private void promoteStandby(ActionEvent e) {
+        ReplicationStandby current = standby;
+        if (current == null || current.isPromoted()) return;
+        int answer = JOptionPane.showConfirmDialog(this,
+                "Promote this standby to primary?\nStop the old primary first: if it is still reachable by clients, "
+                        + "both servers will take writes and their balances will diverge.",
+                "Promote Standby", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+        if (answer == JOptionPane.OK_OPTION) current.promote();
+    }
+
+    private void loadAccounts() {
+        long start = System.nanoTime();
+        try {
+            accountStorage = openAccountStorage();
+            startReplication();
+            AccountLocks locks = AccountLocks.fromSystemProperties();
+            accountTransfers = new AccountTransfers(accountStorage, locks);
+            String ledgerMode = System.getProperty("payment.ledger", "locks");
+            if (standby != null) {
+                // A standby's storage is written by replication, and after promotion under locks.
+                if (!"locks".equalsIgnoreCase(ledgerMode)) addLog("Ledger mode " + ledgerMode + " ignored on a standby.");
+                standby.start();
+            } else if ((clusterNode = ClusterNode.fromSystemProperties(accountStorage, locks, this::logRemoteCredit)) != null) {
+                accountStorage = clusterNode.storage(); // only this node's accounts from here on
+                accountTransfers = new AccountTransfers(accountStorage, locks, clusterNode::held);
+                addLog("Cluster " + clusterNode.self() + "; " + clusterNode.preparedCount()
+                        + " prepared and " + clusterNode.unacknowledgedCount() + " unacknowledged transfers recovered.");
+                if (!"locks".equalsIgnoreCase(ledgerMode)) addLog("Ledger mode " + ledgerMode + " ignored: cluster nodes post under locks.");
+            } else if ("sequencer".equalsIgnoreCase(ledgerMode)) {
+                LedgerSequencer sequencer = LedgerSequencer.fromSystemProperties(accountStorage);
+                addLog("Ledger mode: sequencer (ring of " + sequencer.getRingSize() + " slots).");
+                asyncLedger = sequencer;
+            } else if ("shards".equalsIgnoreCase(ledgerMode)) {
+                ShardedLedger sharded = ShardedLedger.fromSystemProperties(accountStorage);
+                addLog("Ledger mode: shards (" + sharded.getShardCount() + " shards).");
+                asyncLedger = sharded;
+            }
+            long elapsed = System.nanoTime() - start;
+            long replayed = accountStorage.getReplayedRecords();
+            addLog(String.format("Recovered %d accounts from %s in %d ms (replay %.0f records/s).",
+                    accountStorage.size(), accountStorage.describeRecovery(), elapsed / 1_000_000,
+                    replayed == 0 ? 0.0 : replayed * 1e9 / elapsed));
+        } catch (IOException e) {
+            addLog("Error loading accounts: " + e.getMessage());
+            return;
+        }
+        startCheckpointer();
+    }
+
+    /**
+     * Starts shipping every posting and transaction record to standbys when this server has a
+     * replication port, and following a primary when it is a standby.
+     */
+    private void startReplication() throws IOException {
+        replicationSource = ReplicationSource.fromSystemProperties(accountStorage);
+        if (replicationSource != null) {
+            accountStorage = new ReplicatedAccountStorage(accountStorage, replicationSource);
+            TransactionLogWriter.AppendListener segments = transactionSegments;
+            ReplicationSource source = replicationSource;
+            if (transactionLog != null) {
+                transactionLog.setAppendListener((offset, record) -> {
+                    if (segments != null) segments.appended(offset, record);
+                    source.appended(offset, record);
+                });
+            }
+            addLog("Replication: shipping to standbys on port " + replicationSource.getPort() + ".");
+        }
+        standby = ReplicationStandby.fromSystemProperties(accountStorage, record -> {
+                    if (transactionLog == null) throw new IOException("Transaction log is not open");
+                    transactionLog.append(record);
+                },
+                () -> {
+                    addLog("This standby is now the primary and accepts writes.");
+                    SwingUtilities.invokeLater(() -> promoteButton.setEnabled(false));
+                });
+        if (standby != null) {
+            addLog("Replication: read-only standby of " + System.getProperty("payment.standby.primary") + ".");
+            SwingUtilities.invokeLater(() -> promoteButton.setEnabled(true));
+        }
+        if (replicationSource != null || standby != null) {
+            scheduledExecutor.scheduleWithFixedDelay(() -> addLog(replicationStatus()), 10, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    private String replicationStatus() {
+        StringBuilder sb = new StringBuilder();
+        if (standby != null) sb.append(standby.describe());
+        if (replicationSource != null) sb.append(sb.length() > 0 ? " " : "").append(replicationSource.describe());
+        return sb.length() > 0 ? sb.toString() : "Replication: off.";
+    }
+
+    /** In a cluster, whether this node owns {@code accountNo}; requests for another node's accounts are refused. */
+    private boolean ownsAccount(String accountNo) {
+        if (clusterNode == null || clusterNode.owns(accountNo)) return true;
+        addLog("Refused a request for account " + accountNo + ", which belongs to another node.");
+        return false;
+    }
+
+    /** A standby that has not been promoted answers reads only. */
+    private boolean isReadOnly() {
+        return standby != null && !standby.isPromoted();
+    }
+
+    /** Picks the account storage with -Dpayment.storage=csv (default) or mapped. */
+    private AccountStorage openAccountStorage() throws IOException {
+        if ("mapped".equalsIgnoreCase(System.getProperty("payment.storage", "csv"))) {
+            addLog("Using memory-mapped account table.");
+            return MappedAccountStorage.openOrImport(new File(MappedAccountStorage.ACCOUNT_FILE), new File(USER_FILE));
+        }
+        return JournaledAccountStorage.open(new File(USER_FILE), new File(BalanceJournal.JOURNAL_FILE),
+                new File(AccountSnapshot.SNAPSHOT_FILE));
+    }
+
+    private void openTransactionLog() {
+        try {
+            transactionLog = TransactionLogWriter.fromSystemProperties(new File(TRANSACTION_FILE));
+            addLog("Transaction log durability: " + transactionLog.getDurability());
+            long start = System.nanoTime();
+            transactionSegments = SegmentedTransactionLog.fromSystemProperties(new File(TRANSACTION_FILE));
+            transactionLog.setSegmentRoller(transactionSegments);
+            transactionLog.setAppendListener(transactionSegments);
+            addLog(String.format("Sealed transaction segments: %d, archives: %d; indexed %d accounts in %d ms.",
+                    transactionSegments.getSegments().size(), transactionSegments.getArchives().size(),
+                    transactionSegments.getAccountIndex().accountCount(), (System.nanoTime() - start) / 1_000_000));
+            startCompaction();
+        } catch (IOException | IllegalArgumentException e) {
+            addLog("Error opening transaction log: " + e.getMessage());
+        }
+    }
+
+    /** Parses the matching history on all loader threads; see {@link ParallelTransactionLoader}. */
+    private List<Transaction> loadTransactions(Predicate<SegmentSummary> include) throws IOException {
+        if (transactionSegments != null) return transactionSegments.load(include, transactionLoader);
+        return transactionLoader.loadText(new File(TRANSACTION_FILE));
+    }
+
+    /**
+     * Streams sealed segments whose summary passes {@code include}, then the active file.
+     * Falls back to the active file alone if the segments could not be opened.
+     */
+    private void scanTransactions(Predicate<SegmentSummary> include, Consumer<Transaction> action) throws IOException {
+        if (transactionSegments != null) {
+            transactionSegments.scan(include, action);
+            return;
+        }
+        File file = new File(TRANSACTION_FILE);
+        if (!file.exists()) return;
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            TransactionText.readBlocks(br, action);
+        }
+    }
+
+    /**
+     * Archives old segments in the background every -Dpayment.txlog.compactIntervalMinutes
+     * (default 60). Appends carry on while an archive is written.
+     */
+    private void startCompaction() {
+        SegmentedTransactionLog segments = transactionSegments;
+        long interval = Long.getLong("payment.txlog.compactIntervalMinutes", 60);
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "txlog-compactor");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                long start = System.nanoTime();
+                int archived = segments.compact();
+                if (archived > 0) {
+                    addLog(String.format("Archived %d transaction segments in %d ms; %d archives, %d hot segments.",
+                            archived, (System.nanoTime() - start) / 1_000_000, segments.getArchives().size(),
+                            segments.getSegments().size()));
+                }
+            } catch (IOException e) {
+                addLog("Compaction error: " + e.getMessage());
+            }
+        }, 1, Math.max(1, interval), TimeUnit.MINUTES);
+    }
+
+    private void startCheckpointer() {
+        ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ledger-checkpointer");
+            t.setDaemon(true);
+            return t;
+        });
+        checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                if (asyncLedger != null) asyncLedger.checkpoint();
+                accountStorage.checkpoint();
+            } catch (IOException e) {
+                addLog("Checkpoint error: " + e.getMessage());
+            }
+        }, CHECKPOINT_INTERVAL_SECONDS, CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
     }
 
     private void loadTransactions() {
         resetTransactionTableHeader();
         displayedTransactions.clear();
 
-        File file = new File("src/main/java/transactions.txt");
-
-        Thread thread = new Thread(() -> {
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                List<Transaction> transactions = parseMultiLineTransactions(br.lines().collect(Collectors.toList()));
+        // Parse off the EDT so a long history never blocks startup or the UI.
+        executorService.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                List<Transaction> transactions = loadTransactions(summary -> true);
                 for (Transaction t : transactions) {
                     SwingUtilities.invokeLater(() -> addTransactionToTable(t));
                 }
-                lastLineCount = (int) file.length();
+                addLog(String.format("Loaded %d transactions in %d ms on %d threads.",
+                        transactions.size(), (System.nanoTime() - start) / 1_000_000, transactionLoader.getParallelism()));
             } catch (IOException e) {
                 addLog("Error loading transactions: " + e.getMessage());
             }
         });
-        thread.start();
-        try {
-            thread.join();
-        } catch (InterruptedException e) {
-            addLog("Thread interrupted: " + e.getMessage());
-            Thread.currentThread().interrupt();
-        }
     }
 
     private void loadTodayTransactions() {
         resetTransactionTableHeader();
         displayedTransactions.clear();
 
-        File file = new File("src/main/java/transactions.txt");
-
         LocalDate today = LocalDate.now(MALAYSIA_ZONE);
+        long fromMillis = today.atStartOfDay(MALAYSIA_ZONE).toInstant().toEpochMilli();
+        long toMillis = today.plusDays(1).atStartOfDay(MALAYSIA_ZONE).toInstant().toEpochMilli();
 
         executorService.submit(() -> {
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                List<Transaction> allTransactions = parseMultiLineTransactions(br.lines().collect(Collectors.toList()));
-                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
-                List<Transaction> todaysTransactions = allTransactions.parallelStream()
-                        .filter(t -> {
-                            try {
-                                LocalDate txDate = LocalDateTime.parse(t.timestamp, formatter).toLocalDate();
-                                return txDate.equals(today);
-                            } catch (Exception e) {
-                                addLog("Parse error in ShowToday: " + t.timestamp);
-                                return false;
+            long start = System.nanoTime();
+            try {
+                List<Transaction> todaysTransactions = new ArrayList<>();
+                if (transactionSegments != null) {
+                    // Only today's hour buckets are read, however long the history is.
+                    transactionSegments.forRange(fromMillis, toMillis, todaysTransactions::add);
+                } else {
+                    DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+                    scanTransactions(summary -> true, t -> {
+                        try {
+                            if (LocalDateTime.parse(t.timestamp, formatter).toLocalDate().equals(today)) {
+                                todaysTransactions.add(t);
                             }
-                        })
-                        .collect(Collectors.toList());
+                        } catch (Exception e) {
+                            addLog("Parse error in ShowToday: " + t.timestamp);
+                        }
+                    });
+                }
 
                 SwingUtilities.invokeLater(() -> {
                     displayedTransactions.clear();
@@ -186,7 +407,8 @@ public class AdminPanel extends JFrame {
                     SwingUtilities.invokeLater(() -> addTransactionToTable(t));
                 }
 
-                addLog("Displayed only today's transactions. Total: " + todaysTransactions.size());
+                addLog(String.format("Displayed only today's transactions. Total: %d (%d ms)",
+                        todaysTransactions.size(), (System.nanoTime() - start) / 1_000_000));
 
             } catch (IOException e) {
                 addLog("Error loading today's transactions: " + e.getMessage());
@@ -198,11 +420,9 @@ public class AdminPanel extends JFrame {
         resetTransactionTableHeader();
         displayedTransactions.clear();
 
-        File file = new File("src/main/java/transactions.txt");
-
         executorService.submit(() -> {
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                List<Transaction> allTransactions = parseMultiLineTransactions(br.lines().collect(Collectors.toList()));
+            try {
+                List<Transaction> allTransactions = loadTransactions(summary -> summary.containsType(type));
                 List<Transaction> filtered = allTransactions.parallelStream()
                         .filter(t -> "All".equalsIgnoreCase(type) || t.type.equalsIgnoreCase(type))
                         .collect(Collectors.toList());
@@ -219,369 +439,235 @@ public class AdminPanel extends JFrame {
         });
     }
 
+    /** Positions the tailer at the current end of the log before the history is loaded. */
+    private void openTransactionTailer() {
+        transactionTailer = new TransactionTailer(new File(TRANSACTION_FILE), transactionSegments);
+        try {
+            transactionTailer.seekToEnd();
+        } catch (IOException e) {
+            addLog("Monitoring error: " + e.getMessage());
+        }
+    }
+
+    /** Polls every -Dpayment.monitor.intervalMillis (default 1000) and adds only the newly appended records. */
     private void startRealTimeTransactionMonitor() {
-        scheduledExecutor.scheduleAtFixedRate(() -> {
-            fileLock.lock();
+        long intervalMillis = Long.getLong("payment.monitor.intervalMillis", 1_000);
+        scheduledExecutor.scheduleWithFixedDelay(() -> {
             try {
-                File file = new File("src/main/java/transactions.txt");
-
-                long currentLength = file.length();
-
-                if (currentLength > lastLineCount) {
-                    BufferedReader br = new BufferedReader(new FileReader(file));
-                    List<Transaction> transactions = parseMultiLineTransactions(br.lines().collect(Collectors.toList()));
-                    transactions.forEach(t -> SwingUtilities.invokeLater(() -> addTransactionToTable(t)));
-                    lastLineCount = (int) currentLength;
+                List<Transaction> appended = new ArrayList<>();
+                transactionTailer.poll(appended::add);
+                if (!appended.isEmpty()) {
+                    SwingUtilities.invokeLater(() -> appended.forEach(this::addTransactionToTable));
                 }
             } catch (IOException e) {
                 addLog("Monitoring error: " + e.getMessage());
-            } finally {
-                fileLock.unlock();
             }
-        }, 5, 5, TimeUnit.SECONDS);
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
     }
 
-    private List<Transaction> parseMultiLineTransactions(List<String> lines) {
-        return Arrays.stream(String.join("\n", lines).split("\\n\\s*\\n"))
-                .map(String::trim)
-                .filter(block -> !block.isEmpty())
-                .map(this::parseTransactionBlock)
-                .filter(t -> t != null && !t.timestamp.isEmpty() && !t.type.isEmpty())
-                .collect(Collectors.toList());
-    }
-
-    private Transaction parseTransactionBlock(String block) {
-        try {
-            String[] lines = block.split("\n");
-
-            String senderName = "", senderAccNo = "", receiverAccNo = "", type = "", status = "", timestamp = "", thread = "";
-            double amount = 0;
-
-            for (String line : lines) {
-                if (!line.contains(":")) continue;
-
-                String[] parts = line.split(":", 2);
-                String key = parts[0].trim();
-                String value = parts[1].trim().replaceAll(",", "");
-
-                switch (key) {
-                    case "SenderName": senderName = value; break;
-                    case "SenderAccNo": senderAccNo = value; break;
-                    case "ReceiverAccNo": receiverAccNo = value; break;
-                    case "Type": type = value; break;
-                    case "Status": status = value; break;
-                    case "DateTime": timestamp = value; break;
-                    case "Amount": amount = Double.parseDouble(value); break;
-                    case "Thread": thread = value; break;
-                }
+    /**
+     * Under -Dpayment.server=virtual, a virtual thread per task, so every connection and the
+     * blocking file reads and forces done while answering it run on virtual threads. Otherwise,
+     * or on a JVM older than Java 21, the cached thread pool.
+     */
+    private ExecutorService newExecutorService() {
+        if ("virtual".equalsIgnoreCase(System.getProperty("payment.server", "nio"))) {
+            ExecutorService virtual = VirtualThreads.newPerTaskExecutor();
+            if (virtual != null) {
+                virtualThreads = true;
+                return virtual;
             }
-            return new Transaction(senderName, senderAccNo, receiverAccNo, type, status, timestamp, amount, thread);
-        } catch (Exception e) {
-            addLog("Failed to parse transaction block: " + e.getMessage());
-            return null;
+            addLog("Virtual threads need Java 21; using platform threads.");
         }
+        return Executors.newCachedThreadPool();
     }
 
+    /**
+     * Serves clients with the {@link SelectorServer}, or with the original thread per
+     * connection under -Dpayment.server=blocking or virtual.
+     */
     private void startSocketTransactionServer() {
-        executorService.submit(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(9999)) {
-                addLog("Socket server started on port 9999...");
-
-                while (true) {
-                    Socket clientSocket = serverSocket.accept();
-                    executorService.submit(() -> handleClient(clientSocket));
-                }
-            } catch (IOException e) {
-                addLog("Socket error: " + e.getMessage());
+        int port = clusterNode != null ? clusterNode.self().port : Integer.getInteger("payment.port", 9999);
+        String mode = System.getProperty("payment.server", "nio");
+        try {
+            if ("blocking".equalsIgnoreCase(mode) || "virtual".equalsIgnoreCase(mode)) {
+                new BlockingRequestServer(port, executorService, requestHandler).start();
+                addLog("Socket server started on port " + port + " ("
+                        + (virtualThreads ? "virtual " : "") + "thread per connection)...");
+            } else {
+                SelectorServer server = SelectorServer.fromSystemProperties(port, requestHandler);
+                server.start();
+                addLog("Socket server started on port " + port + " (" + server.getLoopCount() + " event loops)...");
             }
-        });
+        } catch (IOException e) {
+            addLog("Socket error: " + e.getMessage());
+        }
     }
 
-    private void handleClient(Socket clientSocket) {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-            StringBuilder block = new StringBuilder();
-            String line;
-            boolean isAuth = false;
-            boolean isRegister = false;
-            boolean isGetName = false;
-            boolean isTransfer = false;
-            boolean isGetBalance = false;
-            boolean isWithdrawDeposit = false;
-            boolean isGetTransactions = false;
+    /** Requests answered from memory alone; the selector server runs them on its event loop. */
+    private static final Set<String> QUICK_REQUESTS = Set.of("GET_BALANCE", "GET_RECIPIENT_NAME", "CHECK_DUPLICATE",
+            "REPLICATION_STATUS", "AUTHENTICATE_USER");
 
-            while ((line = in.readLine()) != null) {
-                System.out.println("Received line: " + line);
-
-                if (line.equals("AUTHENTICATE_USER")) {
-                    isAuth = true;
-                    continue;
-                }
-                if (line.equals("REGISTER_USER")) {
-                    isRegister = true;
-                    continue;
-                }
-                if (line.equals("GET_RECIPIENT_NAME")) {
-                    isGetName = true;
-                    continue;
-                }
-                if (line.equals("TRANSFER_REQUEST")) {
-                    isTransfer = true;
-                    continue;
-                }
-                if (line.equals("GET_BALANCE")) {
-                    isGetBalance = true;
-                    continue;
-                }
-                if (line.equals("WITHDRAW_DEPOSIT_REQUEST")) {
-                    isWithdrawDeposit = true;
-                    block.setLength(0);
-                    continue;
-                }
-                if (line.equals("GET_TRANSACTIONS")) {
-                    isGetTransactions = true;
-                    block.setLength(0);
-                    continue;
-                }
-
-                if (line.equals("CHECK_DUPLICATE")) {
-                    String user = in.readLine().trim();   // username or fullname
-                    in.readLine(); // consume empty line
+    private final RequestHandler requestHandler = new RequestHandler() {
+        @Override
+        public void handle(RequestDecoder.Request request, PrintWriter out) {
+            handleRequest(request, out);
+        }
 
-                    boolean duplicateFound = checkDuplicateUser(user);
-                    out.println(duplicateFound ? "DUPLICATE_FOUND" : "NO_DUPLICATE");
-                    continue;
+        @Override
+        public boolean isQuick(RequestDecoder.Request request) {
+            return QUICK_REQUESTS.contains(request.command);
+        }
+    };
+
+    private void handleRequest(RequestDecoder.Request request, PrintWriter out) {
+        String block = request.body;
+        switch (request.command) {
+            case "AUTHENTICATE_USER": {
+                String[] data = block.split("\n");
+                if (data.length >= 2) {
+                    String username = data[0].trim();
+                    String password = data[1].trim();
+                    System.out.println("Auth request for: " + username);
+                    User user = authenticateUser(username, password);
+                    if (user != null) {
+                        out.println("AUTH_SUCCESS");
+                        out.println(user.accountNo);
+                        out.println(user.role);
+                        out.println(user.username);
+                        out.println(user.password);
+                        out.println(user.fullName);
+                        out.println(Money.format(lookupBalance(user.accountNo)));
+                    } else {
+                        out.println("AUTH_FAILED");
+                    }
                 }
-
-                if (line.trim().isEmpty()) {
-                    if (isAuth) {
-                        String[] data = block.toString().split("\n");
-                        if (data.length >= 2) {
-                            String username = data[0].trim();
-                            String password = data[1].trim();
-                            System.out.println("Auth request for: " + username);
-                            User user = authenticateUser(username, password);
-                            if (user != null) {
-                                out.println("AUTH_SUCCESS");
-                                out.println(user.accountNo);
-                                out.println(user.role);
-                                out.println(user.username);
-                                out.println(user.password);
-                                out.println(user.fullName);
-                                out.println(user.balance);
-                            } else {
-                                out.println("AUTH_FAILED");
-                            }
-                        }
-                        isAuth = false;
-                        block.setLength(0);
-
-                    } else if (isRegister) {
-                        String[] userData = block.toString().trim().split("\n");
-                        if (userData.length >= 1) {
-                            String userLine = userData[0].trim();
-                            File userFile = new File("src/main/java/users.txt");
-
-                            fileLock.lock();
-                            try {
-                                boolean fileExists = userFile.exists();
-                                boolean fileEmpty = !fileExists || userFile.length() == 0;
-
-                                try (BufferedWriter writer = new BufferedWriter(new FileWriter(userFile, true))) {
-                                    if (fileEmpty) {
-                                        writer.write("AccountNo,Role,Username,Password,FullName,Balance");
-                                        writer.newLine();
-                                    }
-
-                                    writer.write(userLine);
-                                    writer.newLine();
-                                    out.println("REGISTER_SUCCESS");
-                                    addLog("User registered: " + userLine);
-                                }
-                            } catch (IOException ex) {
-                                out.println("REGISTER_FAILED");
-                                addLog("Failed to register user: " + ex.getMessage());
-                            } finally {
-                                fileLock.unlock();
-                            }
+                break;
+            }
+            case "REGISTER_USER": {
+                String[] userData = block.trim().split("\n");
+                if (userData.length >= 1) {
+                    String userLine = userData[0].trim();
+                    User registered = AccountStore.parseUserLine(userLine);
+
+                    try {
+                        if (registered != null && !isReadOnly() && accountStorage.register(registered)) {
+                            out.println("REGISTER_SUCCESS");
+                            addLog("User registered: " + userLine);
                         } else {
                             out.println("REGISTER_FAILED");
                         }
-                        isRegister = false;
-                        block.setLength(0);
-
-                    } else if (isGetName) {
-                        String acc = block.toString().trim();
-                        System.out.println("GET_RECIPIENT_NAME block: " + acc);
-                        String name = lookupName(acc);
-                        out.println(name.isEmpty() ? "NOT_FOUND" : name);
-                        isGetName = false;
-                        block.setLength(0);
-
-                    } else if (isTransfer) {
-                        System.out.println("TRANSFER_REQUEST block:\n" + block);
-                        processTransfer(block.toString(), out);
-                        isTransfer = false;
-                        block.setLength(0);
-
-                    } else if (isGetBalance) {
-                        String accNo = block.toString().trim();
-                        double bal = lookupBalance(accNo);
-                        out.println(bal >= 0 ? String.valueOf(bal) : "NOT_FOUND");
-                        isGetBalance = false;
-                        block.setLength(0);
-
-                    } else if (isWithdrawDeposit) {
-                        System.out.println("WITHDRAW_DEPOSIT_REQUEST block:\n" + block);
-                        processWithdrawDeposit(block.toString(), out);
-                        isWithdrawDeposit = false;
-                        block.setLength(0);
-
-                    } else if (isGetTransactions) {
-                        String accNo = block.toString().trim();
-                        File transFile = new File("src/main/java/transactions.txt");
-
-                        fileLock.lock();
-                        try (BufferedReader br = new BufferedReader(new FileReader(transFile))) {
-                            StringBuilder transactionBlock = new StringBuilder();
-                            String transLine;
-
-                            while ((transLine = br.readLine()) != null) {
-                                if (transLine.trim().isEmpty()) {
-                                    String blockText = transactionBlock.toString();
-                                    if (blockText.matches("(?s).*\\b" + Pattern.quote(accNo) + "\\b.*")) {
-                                        out.print(blockText);
-                                        out.println(); // block separator
-                                    }
-                                    transactionBlock.setLength(0);
-                                } else {
-                                    transactionBlock.append(transLine).append("\n");
-                                }
-                            }
-
-                            // Final block
-                            if (transactionBlock.length() > 0) {
-                                String blockText = transactionBlock.toString();
-                                if (blockText.matches("(?s).*\\b" + Pattern.quote(accNo) + "\\b.*")) {
-                                    out.print(blockText);
-                                    out.println();
-                                }
-                            }
-
-                            out.flush();
-                        } catch (IOException e) {
-                            out.println("ERROR_READING_TRANSACTIONS");
-                            e.printStackTrace();
-                        } finally {
-                            fileLock.unlock();
-                        }
-
-                        isGetTransactions = false;
-                        block.setLength(0);
+                    } catch (IOException ex) {
+                        out.println("REGISTER_FAILED");
+                        addLog("Failed to register user: " + ex.getMessage());
                     }
-
                 } else {
-                    block.append(line).append("\n");
+                    out.println("REGISTER_FAILED");
                 }
+                break;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private User authenticateUser(String username, String hashedPassword) {
-        File file = new File("src/main/java/users.txt");
-        if (!file.exists()) return null;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            boolean skip = true;
-            while ((line = reader.readLine()) != null) {
-                if (skip) { skip = false; continue; }
-
-                String[] parts = line.split(",");
-                if (parts.length >= 6) {
-                    String storedUsername = parts[2].trim();
-                    String storedPassword = parts[3].trim(); // This should already be hashed!
-
-                    System.out.println("Checking: " + storedUsername);
-
-                    if (storedUsername.equals(username) && storedPassword.equals(hashedPassword)) {
-                        return new User(
-                                parts[0].trim(),  // account number
-                                parts[1].trim(),  // role
-                                parts[2].trim(),  // username
-                                parts[3].trim(),  // password (hashed)
-                                parts[4].trim(),  // full name
-                                Double.parseDouble(parts[5].trim())  // balance
-                        );
+            case "GET_RECIPIENT_NAME": {
+                String acc = block.trim();
+                System.out.println("GET_RECIPIENT_NAME block: " + acc);
+                String name = lookupName(acc);
+                out.println(name.isEmpty() ? "NOT_FOUND" : name);
+                break;
+            }
+            case "TRANSFER_REQUEST":
+                System.out.println("TRANSFER_REQUEST block:\n" + block);
+                processTransfer(block, out);
+                break;
+            case "GET_BALANCE": {
+                long bal = lookupBalance(block.trim());
+                out.println(bal >= 0 ? Money.format(bal) : "NOT_FOUND");
+                break;
+            }
+            case "WITHDRAW_DEPOSIT_REQUEST":
+                System.out.println("WITHDRAW_DEPOSIT_REQUEST block:\n" + block);
+                processWithdrawDeposit(block, out);
+                break;
+            case "GET_TRANSACTIONS": {
+                String accNo = block.trim();
+                try {
+                    // Each block ends with the blank-line separator the client splits on.
+                    Consumer<Transaction> send = t -> out.print(TransactionText.format(t));
+                    if (transactionSegments != null) {
+                        transactionSegments.forAccount(accNo, send);
+                    } else {
+                        scanTransactions(summary -> true, t -> {
+                            if (accNo.equals(t.senderAccountNo) || accNo.equals(t.recipientAccountNo)) send.accept(t);
+                        });
                     }
+                    out.flush();
+                } catch (IOException e) {
+                    out.println("ERROR_READING_TRANSACTIONS");
+                    e.printStackTrace();
                 }
+                break;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            case "REPLICATION_STATUS":
+                out.println(replicationStatus());
+                break;
+            case "CHECK_DUPLICATE":
+                out.println(checkDuplicateUser(block.trim()) ? "DUPLICATE_FOUND" : "NO_DUPLICATE");
+                break;
+            case "SUBSCRIBE":
+                subscribe(block.trim(), out);
+                break;
+            case "UNSUBSCRIBE":
+                subscriptions.unsubscribe(block.trim(), out);
+                out.println("UNSUBSCRIBED");
+                break;
         }
-
-        return null;
     }
 
-    private boolean checkDuplicateUser(String username) {
-        File userFile = new File("src/main/java/users.txt");
-
-        fileLock.lock();
-        try (BufferedReader br = new BufferedReader(new FileReader(userFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty() || line.startsWith("AccountNo")) continue;
-                String[] parts = line.split(",");
-                if (parts.length >= 5) {
-                    if (parts[2].equalsIgnoreCase(username)) {
-                        return true;
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            fileLock.unlock();
+    /**
+     * Framed connections only: answers with the balance, then pushes every change to it.
+     * Subscribing before reading the balance means no change falls between the two.
+     */
+    private void subscribe(String accNo, PrintWriter out) {
+        AccountSubscriptions.Subscriber subscriber = isReadOnly() ? null : subscriptions.subscribe(accNo, out);
+        long balance = lookupBalance(accNo);
+        if (subscriber == null || balance < 0) {
+            if (subscriber != null) subscriber.cancel();
+            out.println(balance < 0 ? "NOT_FOUND" : "SUBSCRIBE_FAILED");
+            return;
         }
-        return false;
+        RequestHandler.replyLater(out);
+        out.println("SUBSCRIBED");
+        out.println(Money.format(balance));
+        RequestHandler.endReply(out); // sent now, so no push can overtake it
+        subscriber.start();
     }
 
-    private double lookupBalance(String accNo) {
-        File userFile = new File("src/main/java/users.txt");
-
-        if (!userFile.exists()) return -1;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(userFile))) {
-            String line;
-            boolean firstLine = true;
+    private User authenticateUser(String username, String hashedPassword) {
+        return accountStorage.authenticate(username, hashedPassword);
+    }
 
-            while ((line = reader.readLine()) != null) {
-                if (firstLine) { // Skip header
-                    firstLine = false;
-                    continue;
-                }
+    private boolean checkDuplicateUser(String username) {
+        return accountStorage.usernameExists(username);
+    }
 
-                String[] parts = line.split(",");
-                if (parts.length >= 6) {
-                    String accountNo = parts[0].trim();
-                    if (accountNo.equals(accNo)) {
-                        return Double.parseDouble(parts[5].trim()); // Balance is the 6th field
-                    }
-                }
-            }
-        } catch (IOException | NumberFormatException e) {
-            e.printStackTrace();
+    /** Records a credit from another node in this node's history, so the recipient sees it. */
+    private void logRemoteCredit(ClusterNode.RemoteTransfer t) {
+        String record = TransactionText.format(t.senderName, t.sender, t.recipient, "TRANSFER", "Success",
+                t.timestamp, t.amountCents, "cluster-node-" + t.coordinator);
+        subscriptions.publish(t.recipient, record);
+        try {
+            transactionLog.append(record);
+        } catch (IOException e) {
+            System.err.println("Failed to write to transactions.txt: " + e.getMessage());
         }
+        addLog("Credited " + Money.format(t.amountCents) + " to " + t.recipient + " from node " + t.coordinator + ".");
+    }
 
-        return -1;
+    private long lookupBalance(String accNo) {
+        return asyncLedger != null ? asyncLedger.getBalance(accNo) : accountStorage.getBalance(accNo);
     }
 
     private void processWithdrawDeposit(String block, PrintWriter out) {
         String accNo = "", type = "";
-        double amount = 0;
+        long amount = 0;
         String name = "", status = "Failed";
         String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
         String threadName = Thread.currentThread().getName();
@@ -591,80 +677,51 @@ public class AdminPanel extends JFrame {
             if (parts.length < 2) continue;
             switch (parts[0].trim()) {
                 case "AccountNo": accNo = parts[1].trim(); break;
-                case "Amount": amount = Double.parseDouble(parts[1].trim()); break;
+                case "Amount": amount = parseAmount(parts[1]); break;
                 case "Type": type = parts[1].trim().toUpperCase(); break;
             }
         }
 
-        File userFile = new File("src/main/java/users.txt");
-        File transFile = new File("src/main/java/transactions.txt");
+        if (isReadOnly() || !ownsAccount(accNo)) {
+            out.println("UPDATE_FAILED");
+            return;
+        }
+        if (asyncLedger != null) {
+            sequenceWithdrawDeposit(accNo, type, amount, timestamp, threadName, out);
+            return;
+        }
 
         boolean updated = false;
-        List<String> lines = new ArrayList<>();
-
-        userFileLock.lock();
-        try (BufferedReader reader = new BufferedReader(new FileReader(userFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts[0].equals(accNo)) {
-                    double bal = Double.parseDouble(parts[5]);
-                    name = parts[2];
-
-                    if ("WITHDRAW".equals(type) && bal >= amount) {
-                        bal -= amount;
-                        parts[5] = String.format("%.2f", bal);
-                        updated = true;
-                    } else if ("DEPOSIT".equals(type)) {
-                        bal += amount;
-                        parts[5] = String.format("%.2f", bal);
-                        updated = true;
-                    }
-                }
-                lines.add(String.join(",", parts));
+
+        try {
+            User account = "WITHDRAW".equals(type) ? accountTransfers.withdraw(accNo, amount)
+                    : "DEPOSIT".equals(type) ? accountTransfers.deposit(accNo, amount) : null;
+            if (account != null) {
+                name = account.username;
+                updated = true;
             }
         } catch (IOException e) {
-            out.println("UPDATE_FAILED");
-            e.printStackTrace();
-            userFileLock.unlock();
-            return;
+            addLog("Journal error: " + e.getMessage());
+        } catch (ArithmeticException e) {
+            addLog("Rejected deposit to " + accNo + ": balance would overflow");
         }
 
         if (updated) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(userFile))) {
-                for (String l : lines) {
-                    writer.write(l);
-                    writer.newLine();
-                }
-            } catch (IOException e) {
-                out.println("UPDATE_FAILED");
-                userFileLock.unlock();
-                return;
-            } finally {
-                userFileLock.unlock();
-            }
-
             // ✅ Write transaction record
-            transactionFileLock.lock();
-            try (BufferedWriter log = new BufferedWriter(new FileWriter(transFile, true))) {
-                log.write("SenderName: " + name + ",\n");
-                log.write("SenderAccNo: " + ("WITHDRAW".equals(type) ? "ATM" : accNo) + ",\n");
-                log.write("ReceiverAccNo: " + ("WITHDRAW".equals(type) ? accNo : "ATM") + ",\n");
-                log.write("Type: " + type + ",\n");
-                log.write("Status: Success,\n");
-                log.write("DateTime: " + timestamp + ",\n");
-                log.write("Amount: " + String.format("%.2f", amount) + ",\n");
-                log.write("Thread: " + threadName + ",\n\n");
+            String record = TransactionText.format(name,
+                    "WITHDRAW".equals(type) ? "ATM" : accNo,
+                    "WITHDRAW".equals(type) ? accNo : "ATM",
+                    type, "Success", timestamp, amount, threadName);
+            subscriptions.publish(accNo, record);
+            try {
+                transactionLog.append(record);
             } catch (IOException e) {
                 System.err.println("Failed to write transaction log: " + e.getMessage());
-            } finally {
-                transactionFileLock.unlock();
             }
 
             out.println("UPDATE_SUCCESS");
-            out.println(String.format("%.2f", getBalanceOfAccount(accNo)));
+            out.println(Money.format(getBalanceOfAccount(accNo)));
         } else {
-            userFileLock.unlock();
             out.println("UPDATE_FAILED");
         }
     }
@@ -672,7 +729,7 @@ public class AdminPanel extends JFrame {
 
 
     private void addTransactionToTable(Transaction t) {
-        String uniqueId = t.timestamp + t.senderAccountNo + t.recipientAccountNo + t.amount + t.thread;
+        String uniqueId = t.timestamp + t.senderAccountNo + t.recipientAccountNo + t.amountCents + t.thread;
 
         if (!displayedTransactions.contains(uniqueId)) {
             displayedTransactions.add(uniqueId);
@@ -681,7 +738,7 @@ public class AdminPanel extends JFrame {
                     t.type,
                     t.senderAccountNo,
                     t.recipientAccountNo,
-                    "RM" + t.amount,
+                    "RM" + Money.format(t.amountCents),
                     t.status,
                     t.thread
             });
@@ -722,25 +779,12 @@ public class AdminPanel extends JFrame {
     }
 
     private String lookupName(String accNo) {
-        File file = new File("src/main/java/users.txt");
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            reader.readLine(); // skip header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 5 && parts[0].equals(accNo)) {
-                    return parts[4];
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return "";
+        return accountStorage.getFullName(accNo);
     }
 
     private void processTransfer(String block, PrintWriter out) {
         String sender = "", recipient = "";
-        double amount = 0;
+        long amount = 0;
         String senderName = "";
         String threadName = Thread.currentThread().getName();
         String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
@@ -751,111 +795,144 @@ public class AdminPanel extends JFrame {
             switch (parts[0].trim()) {
                 case "SenderAccNo": sender = parts[1].trim(); break;
                 case "RecipientAccNo": recipient = parts[1].trim(); break;
-                case "Amount": amount = Double.parseDouble(parts[1].trim()); break;
+                case "Amount": amount = parseAmount(parts[1]); break;
             }
         }
 
-        File userFile = new File("src/main/java/users.txt");
-        File transFile = new File("src/main/java/transactions.txt");
-        List<String> lines = new ArrayList<>();
-        boolean updatedSender = false, updatedRecipient = false;
-
-        // Lock for reading/updating user file
-        userFileLock.lock();
-        try (BufferedReader reader = new BufferedReader(new FileReader(userFile))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts[0].equals(sender)) {
-                    double bal = Double.parseDouble(parts[5]);
-                    if (bal < amount) continue; // Not enough balance
-                    bal -= amount;
-                    parts[5] = String.format("%.2f", bal);
-                    senderName = parts[2]; // full name
-                    updatedSender = true;
-                } else if (parts[0].equals(recipient)) {
-                    double bal = Double.parseDouble(parts[5]);
-                    bal += amount;
-                    parts[5] = String.format("%.2f", bal);
-                    updatedRecipient = true;
-                }
-                lines.add(String.join(",", parts));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (isReadOnly() || !ownsAccount(sender)) {
             out.println("TRANSFER_FAILED");
-            userFileLock.unlock();
+            return;
+        }
+        if (asyncLedger != null) {
+            sequenceTransfer(sender, recipient, amount, timestamp, threadName, out);
             return;
         }
 
-        if (updatedSender && updatedRecipient) {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(userFile))) {
-                for (String ln : lines) {
-                    writer.write(ln);
-                    writer.newLine();
-                }
-            } catch (IOException e) {
-                out.println("TRANSFER_FAILED");
-                userFileLock.unlock();
-                return;
-            } finally {
-                userFileLock.unlock(); // release after write
+        boolean updated = false;
+
+        try {
+            User senderAccount = clusterNode != null && !clusterNode.owns(recipient)
+                    ? clusterNode.transfer(sender, recipient, amount, timestamp)
+                    : accountTransfers.transfer(sender, recipient, amount);
+            if (senderAccount != null) {
+                senderName = senderAccount.username;
+                updated = true;
             }
+        } catch (IOException e) {
+            addLog("Journal error: " + e.getMessage());
+        } catch (ArithmeticException e) {
+            addLog("Rejected transfer to " + recipient + ": balance would overflow");
+        }
 
+        if (updated) {
             // ✅ Append transaction log
-            transactionFileLock.lock();
-            try (BufferedWriter transWriter = new BufferedWriter(new FileWriter(transFile, true))) {
-                transWriter.write("SenderName: " + senderName + ",\n");
-                transWriter.write("SenderAccNo: " + sender + ",\n");
-                transWriter.write("ReceiverAccNo: " + recipient + ",\n");
-                transWriter.write("Type: TRANSFER,\n");
-                transWriter.write("Status: Success,\n");
-                transWriter.write("DateTime: " + timestamp + ",\n");
-                transWriter.write("Amount: " + String.format("%.2f", amount) + ",\n");
-                transWriter.write("Thread: " + threadName + ",\n\n");
+            String record = TransactionText.format(senderName, sender, recipient,
+                    "TRANSFER", "Success", timestamp, amount, threadName);
+            subscriptions.publish(sender, record);
+            subscriptions.publish(recipient, record);
+            try {
+                transactionLog.append(record);
             } catch (IOException e) {
                 System.err.println("Failed to write to transactions.txt: " + e.getMessage());
-            } finally {
-                transactionFileLock.unlock();
             }
 
             // ✅ Send response to client
             out.println("TRANSFER_SUCCESS");
-            out.println(String.format("%.2f", getBalanceOfAccount(sender)));
+            out.println(Money.format(getBalanceOfAccount(sender)));
         } else {
-            userFileLock.unlock(); // ensure unlocked even if failed
             out.println("TRANSFER_FAILED");
         }
     }
 
 
-    private double getBalanceOfAccount(String accountNo) {
-        try (BufferedReader reader = new BufferedReader(new FileReader("src/main/java/users.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts[0].equals(accountNo)) {
-                    return Double.parseDouble(parts[5]);
-                }
+    /** Async ledger mode: the ledger's reply callback logs the transaction and answers the client. */
+    private void sequenceWithdrawDeposit(String accNo, String type, long amount, String timestamp,
+                                         String threadName, PrintWriter out) {
+        boolean withdraw = "WITHDRAW".equals(type);
+        if (!withdraw && !"DEPOSIT".equals(type)) {
+            out.println("UPDATE_FAILED");
+            return;
+        }
+        RequestHandler.replyLater(out);
+        AsyncLedger.Reply reply = (status, account, balance) -> {
+            if (status != AsyncLedger.Status.ACCEPTED) {
+                out.println("UPDATE_FAILED");
+                RequestHandler.endReply(out);
+                return;
             }
+            String record = TransactionText.format(account.username, withdraw ? "ATM" : accNo, withdraw ? accNo : "ATM",
+                    type, "Success", timestamp, amount, threadName);
+            subscriptions.publish(accNo, record);
+            logAndReply(record, out, "UPDATE_SUCCESS", balance);
+        };
+        if (withdraw) {
+            asyncLedger.withdraw(accNo, amount, reply);
+        } else {
+            asyncLedger.deposit(accNo, amount, reply);
+        }
+    }
+
+    private void sequenceTransfer(String sender, String recipient, long amount, String timestamp,
+                                  String threadName, PrintWriter out) {
+        RequestHandler.replyLater(out);
+        asyncLedger.transfer(sender, recipient, amount, (status, account, balance) -> {
+            if (status != AsyncLedger.Status.ACCEPTED) {
+                out.println("TRANSFER_FAILED");
+                RequestHandler.endReply(out);
+                return;
+            }
+            String record = TransactionText.format(account.username, sender, recipient,
+                    "TRANSFER", "Success", timestamp, amount, threadName);
+            subscriptions.publish(sender, record);
+            subscriptions.publish(recipient, record);
+            logAndReply(record, out, "TRANSFER_SUCCESS", balance);
+        });
+    }
+
+    /**
+     * Queues the transaction record and sends the reply once it is as durable as the log
+     * promises, without holding up the ledger thread while it waits.
+     */
+    private void logAndReply(String record, PrintWriter out, String reply, long balanceCents) {
+        CompletableFuture<Void> logged;
+        try {
+            logged = transactionLog.appendAsync(record);
         } catch (IOException e) {
-            e.printStackTrace();
+            logged = CompletableFuture.failedFuture(e);
+        }
+        logged.whenComplete((v, e) -> {
+            if (e != null) System.err.println("Failed to write transaction log: " + e.getMessage());
+            out.println(reply);
+            out.println(Money.format(balanceCents));
+            RequestHandler.endReply(out);
+        });
+    }
+
+    private long getBalanceOfAccount(String accountNo) {
+        return accountStorage.getBalance(accountNo);
+    }
+
+    /** Request amount in cents; a malformed amount reads as 0, which every request rejects. */
+    private static long parseAmount(String text) {
+        try {
+            return Money.parse(text.trim());
+        } catch (NumberFormatException e) {
+            return 0;
         }
-        return -1;
     }
 
     public static class Transaction {
         public final String senderName, senderAccountNo, recipientAccountNo, type, status, timestamp, thread;
-        public final double amount;
+        public final long amountCents;
 
-        public Transaction(String senderName, String senderAccountNo, String recipientAccountNo, String type, String status, String timestamp, double amount, String thread) {
+        public Transaction(String senderName, String senderAccountNo, String recipientAccountNo, String type, String status, String timestamp, long amountCents, String thread) {
             this.senderName = senderName;
             this.senderAccountNo = senderAccountNo;
             this.recipientAccountNo = recipientAccountNo;
             this.type = type;
             this.status = status;
             this.timestamp = timestamp;
-            this.amount = amount;
+            this.amountCents = amountCents;
             this.thread = thread;
         }
     }
@@ -0,0 +1,33 @@
+package admin;
+
+import client.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A ledger that decides balance changes off the caller's thread and reports each outcome
+ * through a {@link Reply}. The alternative to calling {@link AccountTransfers} under locks;
+ * while one is running it owns the balances, so nothing else may post them.
+ */
+public interface AsyncLedger extends Closeable {
+    enum Status { ACCEPTED, REJECTED, FAILED }
+
+    /** Receives the outcome of one request, on a ledger thread. */
+    interface Reply {
+        /** {@code account} is the debited or credited account and {@code balanceCents} its new balance; both unset unless accepted. */
+        void completed(Status status, User account, long balanceCents);
+    }
+
+    void transfer(String from, String to, long amountCents, Reply reply);
+
+    void withdraw(String accountNo, long amountCents, Reply reply);
+
+    void deposit(String accountNo, long amountCents, Reply reply);
+
+    /** The account's latest durable balance in cents, or -1 if the account does not exist. */
+    long getBalance(String accountNo);
+
+    /** Folds whatever the ledger keeps outside the account storage into it; run before the storage's own checkpoint. */
+    void checkpoint() throws IOException;
+}
@@ -0,0 +1,371 @@
+package admin;
+
+import client.Money;
+import client.User;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-ahead journal for account changes. Every posting is one small line appended and
+ * forced to disk, so the cost of a transfer no longer depends on how many accounts exist.
+ * users.txt and the binary {@link AccountSnapshot} are only rewritten by {@link #checkpoint},
+ * after which the journal is cut back to the records that arrived while it was running.
+ *
+ * Record format, one per line:
+ * <pre>
+ *   seq|B|accNo|balance[|accNo|balance...]   absolute balances after the posting
+ *   seq|R|csv user line                      account registration
+ * </pre>
+ * Balances are absolute, so replaying a record that is already reflected in users.txt is harmless.
+ *
+ * <p>Postings append under the journal lock but share forces through a {@link GroupCommit}, so
+ * postings to disjoint accounts arriving together wait for one force between them instead of
+ * one each. A posting reaches the store once it is durable. Callers posting the same account
+ * concurrently still serialize themselves ({@link AccountLocks}), so postings in flight
+ * together touch disjoint accounts and may reach the store in any order.
+ */
+public class BalanceJournal implements Closeable {
+    public static final String JOURNAL_FILE = "src/main/java/ledger.journal";
+
+    private final Path path;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition settled = lock.newCondition();
+    private final GroupCommit commits = new GroupCommit(lock, new GroupCommit.Target() {
+        @Override
+        public void starting() {
+            forcingPosition = writtenPosition;
+        }
+
+        @Override
+        public void force() throws IOException {
+            channel.force(false);
+        }
+
+        @Override
+        public void finished(IOException failure) {
+            if (failure == null) {
+                forcedPosition = forcingPosition;
+            } else {
+                dropUnforced(failure);
+            }
+        }
+    });
+    private FileChannel channel;
+    private long lastSeq;
+    private int inFlight; // postings written but not yet in the store (or failed)
+    private long writtenPosition, forcingPosition, forcedPosition;
+    private boolean quiet; // a checkpoint or registration holds off new postings
+    private long checkpointedSeq;
+    private long replayedRecords;
+
+    private BalanceJournal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Opens the journal, replaying into the store every record newer than {@code afterSeq}
+     * (the sequence number the store was loaded at, or 0 when it came from users.txt).
+     */
+    public static BalanceJournal open(File file, AccountStore store, long afterSeq) throws IOException {
+        BalanceJournal journal = new BalanceJournal(file.toPath());
+        journal.lastSeq = afterSeq;
+        journal.replay(store, afterSeq);
+        journal.channel = FileChannel.open(journal.path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal.channel.position(journal.channel.size());
+        journal.writtenPosition = journal.forcedPosition = journal.channel.size();
+        // Records left over from the previous run still need folding into users.txt.
+        journal.checkpointedSeq = journal.channel.size() == 0 ? journal.lastSeq : -1;
+        return journal;
+    }
+
+    private void replay(AccountStore store, long afterSeq) throws IOException {
+        if (!Files.exists(path)) return;
+
+        byte[] bytes = Files.readAllBytes(path);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            apply(new String(bytes, start, i - start, StandardCharsets.UTF_8), store, afterSeq);
+            start = i + 1;
+        }
+
+        if (start < bytes.length) {
+            // Torn final record from a crash mid-append: it was never acknowledged, drop it.
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(start);
+            }
+        }
+    }
+
+    private void apply(String record, AccountStore store, long afterSeq) {
+        String[] parts = record.split("\\|");
+        if (parts.length < 3) return;
+
+        long seq;
+        try {
+            seq = Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (seq <= afterSeq) return; // already in the snapshot
+        lastSeq = Math.max(lastSeq, seq);
+        replayedRecords++;
+
+        if ("B".equals(parts[1])) {
+            for (int i = 2; i + 1 < parts.length; i += 2) {
+                User user = store.findByAccountNo(parts[i]);
+                if (user != null) store.setBalance(user, Money.parse(parts[i + 1]));
+            }
+        } else if ("R".equals(parts[1])) {
+            User user = AccountStore.parseUserLine(parts[2]);
+            if (user != null) store.add(user);
+        }
+    }
+
+    /**
+     * Durably records new balances and then applies them to the store, so a balance is never
+     * read before it is journaled. The force is shared with whoever else is posting.
+     */
+    public void postBalances(AccountStore store, User[] accounts, long[] balances) throws IOException {
+        StringBuilder record = new StringBuilder(64);
+        lock.lock();
+        try {
+            awaitNotQuiet();
+            commits.check();
+            appendPosting(record, lastSeq + 1, accounts, balances);
+            write(record, 1);
+            inFlight++;
+            try {
+                commits.await(commits.appended());
+                apply(store, accounts, balances);
+            } finally {
+                landed();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Like {@link #postBalances} for several postings in order, sharing one write and one force. */
+    public void postBalances(AccountStore store, List<User[]> accounts, List<long[]> balances) throws IOException {
+        if (accounts.isEmpty()) return;
+        StringBuilder records = new StringBuilder(64 * accounts.size());
+        lock.lock();
+        try {
+            awaitNotQuiet();
+            commits.check();
+            for (int i = 0; i < accounts.size(); i++) {
+                appendPosting(records, lastSeq + 1 + i, accounts.get(i), balances.get(i));
+            }
+            write(records, accounts.size());
+            inFlight++;
+            try {
+                commits.await(commits.appended());
+                for (int i = 0; i < accounts.size(); i++) {
+                    apply(store, accounts.get(i), balances.get(i));
+                }
+            } finally {
+                landed();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void landed() {
+        if (--inFlight == 0 && quiet) settled.signalAll();
+    }
+
+    private void awaitNotQuiet() {
+        while (quiet) settled.awaitUninterruptibly();
+    }
+
+    /** Holds off new postings and waits until every written one is in the store; undone by {@link #endQuiet}. */
+    private void beginQuiet() {
+        awaitNotQuiet();
+        quiet = true;
+        while (inFlight > 0) settled.awaitUninterruptibly();
+    }
+
+    private void endQuiet() {
+        quiet = false;
+        settled.signalAll();
+    }
+
+    private static void appendPosting(StringBuilder sb, long seq, User[] accounts, long[] balances) {
+        sb.append(seq).append("|B");
+        for (int i = 0; i < accounts.length; i++) {
+            sb.append('|').append(accounts[i].accountNo).append('|');
+            Money.appendTo(sb, balances[i]);
+        }
+        sb.append('\n');
+    }
+
+    private static void apply(AccountStore store, User[] accounts, long[] balances) {
+        for (int i = 0; i < accounts.length; i++) {
+            store.setBalance(accounts[i], balances[i]);
+        }
+    }
+
+    /**
+     * Durably records a new account and adds it to the store. Returns false if the account
+     * number is taken. Postings wait meanwhile, so no two registrations pass the check at once.
+     */
+    public boolean postRegistration(AccountStore store, User user) throws IOException {
+        lock.lock();
+        try {
+            beginQuiet();
+            try {
+                commits.check();
+                if (store.findByAccountNo(user.accountNo) != null) return false;
+                write(new StringBuilder(128).append(lastSeq + 1).append("|R|")
+                        .append(AccountStore.toUserLine(user)).append('\n'), 1);
+                commits.appended();
+                commits.forceAll();
+                store.add(user);
+                return true;
+            } finally {
+                endQuiet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Appends {@code count} newline-terminated records, unforced. */
+    private void write(StringBuilder records, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+        long position = channel.position();
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            channel.truncate(position);
+            channel.position(position);
+            throw e;
+        }
+        writtenPosition = channel.position();
+        lastSeq += count;
+    }
+
+    /**
+     * A force failed: what it covered may or may not be on disk, and none of it reached the
+     * store. Cuts the journal back to the last good force, so a restart does not replay
+     * postings their callers were told failed, as far as the disk still lets us.
+     */
+    private void dropUnforced(IOException failure) {
+        System.err.println("Balance journal force failed, refusing further postings: " + failure.getMessage());
+        try {
+            channel.truncate(forcedPosition);
+            channel.position(forcedPosition);
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Could not cut the balance journal back: " + e.getMessage());
+        }
+    }
+
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    public boolean hasUncheckpointedRecords() {
+        return lastSeq != checkpointedSeq;
+    }
+
+    /**
+     * Rewrites the account file and the snapshot from the store, then drops the journal
+     * records they cover. Postings keep flowing while the files are written; only the
+     * capture and the final journal swap hold the lock.
+     */
+    public void checkpoint(AccountStore store, File userFile, File snapshotFile) throws IOException {
+        List<User> accounts = new ArrayList<>();
+        long position, seq;
+
+        lock.lock();
+        try {
+            if (lastSeq == checkpointedSeq) return;
+            beginQuiet(); // every written record in the store, so the capture covers exactly seq
+            try {
+                commits.check();
+                for (User user : store.snapshot()) {
+                    accounts.add(new User(user.accountNo, user.role, user.username, user.password, user.fullName, user.balanceCents));
+                }
+                position = channel.position();
+                seq = lastSeq;
+            } finally {
+                endQuiet();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Path target = userFile.toPath();
+        Path temp = target.resolveSibling(userFile.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+            writer.write(AccountStore.HEADER);
+            writer.newLine();
+            for (User user : accounts) {
+                writer.write(AccountStore.toUserLine(user));
+                writer.newLine();
+            }
+            writer.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        AccountSnapshot.write(snapshotFile, accounts, seq);
+
+        lock.lock();
+        try {
+            commits.awaitIdle(); // no force may run on the channel being replaced
+            truncateHead(position);
+            checkpointedSeq = seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void truncateHead(long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer tail = ByteBuffer.allocate((int) (size - position));
+        while (tail.hasRemaining() && channel.read(tail, position + tail.position()) >= 0) {
+            // keep reading until the tail is fully buffered
+        }
+        tail.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (tail.hasRemaining()) out.write(tail);
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        writtenPosition = forcedPosition = channel.size(); // the copy was forced whole
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            commits.awaitIdle();
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of the transaction history. After a short file header every record is
+ * a varint length followed by a body whose first byte is its kind:
+ *
+ * <pre>
+ *   DICT: utf8 bytes                         defines the next string id
+ *   TX:   epochMillis(8) amountCents(8)      fixed width
+ *         senderName senderAccNo receiverAccNo type status thread   varint string ids
+ * </pre>
+ * Repeated strings (types, statuses, thread names, account numbers) are stored once, so a
+ * record is typically under 30 bytes against roughly 190 in the text format. Timestamps are
+ * the wall-clock times in transactions.txt, taken as Malaysia time (UTC+8, no DST).
+ */
+public final class BinaryTransactionLog {
+    public static final String BINARY_FILE = "src/main/java/transactions.bin";
+
+    private static final int MAGIC = 0x54584231; // "TXB1"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 6;
+    private static final byte DICT = 0, TX = 1;
+    private static final ZoneOffset OFFSET = ZoneOffset.ofHours(8);
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private BinaryTransactionLog() {
+    }
+
+    public static long toEpochMillis(String timestamp) {
+        return LocalDateTime.parse(timestamp, TIMESTAMP).toInstant(OFFSET).toEpochMilli();
+    }
+
+    /** Same output as formatting with the log's pattern, without the formatter's overhead. */
+    public static String formatEpochMillis(long epochMillis) {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000), 0, OFFSET);
+        if (time.getYear() < 1000 || time.getYear() > 9999) return time.format(TIMESTAMP);
+
+        char[] c = new char[19];
+        digits(c, 0, time.getYear(), 4);
+        c[4] = '-';
+        digits(c, 5, time.getMonthValue(), 2);
+        c[7] = '-';
+        digits(c, 8, time.getDayOfMonth(), 2);
+        c[10] = ' ';
+        digits(c, 11, time.getHour(), 2);
+        c[13] = ':';
+        digits(c, 14, time.getMinute(), 2);
+        c[16] = ':';
+        digits(c, 17, time.getSecond(), 2);
+        return new String(c);
+    }
+
+    private static void digits(char[] c, int at, int value, int width) {
+        for (int i = at + width - 1; i >= at; i--) {
+            c[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    public static class Writer implements Closeable {
+        private final OutputStream out;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Body body = new Body();
+        private long position = HEADER_SIZE;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 1 << 16);
+            DataOutputStream header = new DataOutputStream(this.out);
+            header.writeInt(MAGIC);
+            header.writeShort(VERSION);
+        }
+
+        /**
+         * Returns the byte offset of the record within the log, for {@link #readRecordAt}.
+         * Throws DateTimeParseException if the timestamp is not in the text log format.
+         */
+        public long write(Transaction t) throws IOException {
+            long epochMillis = toEpochMillis(t.timestamp);
+            int senderName = id(t.senderName), sender = id(t.senderAccountNo), receiver = id(t.recipientAccountNo);
+            int type = id(t.type), status = id(t.status), thread = id(t.thread);
+
+            body.reset();
+            body.write(TX);
+            body.writeLong(epochMillis);
+            body.writeLong(t.amountCents);
+            body.writeVarInt(senderName);
+            body.writeVarInt(sender);
+            body.writeVarInt(receiver);
+            body.writeVarInt(type);
+            body.writeVarInt(status);
+            body.writeVarInt(thread);
+            long offset = position;
+            emit();
+            return offset;
+        }
+
+        /** Every string defined so far, indexed by id. */
+        public List<String> getDictionary() {
+            return strings;
+        }
+
+        private int id(String value) throws IOException {
+            Integer id = dictionary.get(value);
+            if (id != null) return id;
+
+            body.reset();
+            body.write(DICT);
+            body.write(value.getBytes(StandardCharsets.UTF_8));
+            emit();
+            dictionary.put(value, strings.size());
+            strings.add(value);
+            return strings.size() - 1;
+        }
+
+        private void emit() throws IOException {
+            writeVarInt(out, body.size());
+            body.writeTo(out);
+            position += varIntSize(body.size()) + body.size();
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final List<String> dictionary = new ArrayList<>();
+        private byte[] buffer = new byte[64];
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedTimestamp;
+        private long position = HEADER_SIZE;
+        private long recordOffset = -1;
+        private long recordMillis;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 1 << 16));
+            if (this.in.readInt() != MAGIC) throw new IOException("Not a binary transaction log");
+            int version = this.in.readShort();
+            if (version != VERSION) throw new IOException("Unsupported binary transaction log version " + version);
+        }
+
+        /** Returns the next transaction, or null at the end of the log. */
+        public Transaction next() throws IOException {
+            while (true) {
+                int length = readVarInt(in);
+                if (length < 0) return null;
+                if (buffer.length < length) buffer = new byte[Math.max(length, buffer.length * 2)];
+                in.readFully(buffer, 0, length);
+                recordOffset = position;
+                position += varIntSize(length) + length;
+
+                if (buffer[0] == DICT) {
+                    dictionary.add(new String(buffer, 1, length - 1, StandardCharsets.UTF_8));
+                    continue;
+                }
+                recordMillis = getLong(buffer, 1);
+                return decode(buffer, dictionary, timestamp(recordMillis));
+            }
+        }
+
+        /** Timestamp of the record last returned by {@link #next()}, in epoch millis. */
+        public long getRecordMillis() {
+            return recordMillis;
+        }
+
+        /** Byte offset of the record last returned by {@link #next()}. */
+        public long getRecordOffset() {
+            return recordOffset;
+        }
+
+        private String timestamp(long epochMillis) {
+            long second = Math.floorDiv(epochMillis, 1000);
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedTimestamp = formatEpochMillis(epochMillis);
+            }
+            return cachedTimestamp;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static Transaction decode(byte[] buffer, List<String> dictionary, String timestamp) {
+        long cents = getLong(buffer, 9);
+        int[] pos = {17};
+        String senderName = dictionary.get(getVarInt(buffer, pos));
+        String sender = dictionary.get(getVarInt(buffer, pos));
+        String receiver = dictionary.get(getVarInt(buffer, pos));
+        String type = dictionary.get(getVarInt(buffer, pos));
+        String status = dictionary.get(getVarInt(buffer, pos));
+        String thread = dictionary.get(getVarInt(buffer, pos));
+        return new Transaction(senderName, sender, receiver, type, status, timestamp, cents, thread);
+    }
+
+    /**
+     * Reads the TX record at {@code offset} (as returned by {@link Writer#write}) without
+     * reading what precedes it; {@code dictionary} must be the log's full string table.
+     */
+    public static Transaction readRecordAt(ByteBuffer log, int offset, List<String> dictionary) throws IOException {
+        ByteBuffer in = log.duplicate();
+        in.position(offset);
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!in.hasRemaining()) throw new EOFException("Truncated record at " + offset);
+            int b = in.get();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        if (in.remaining() < length) throw new EOFException("Truncated record at " + offset);
+        byte[] buffer = new byte[length];
+        in.get(buffer);
+        if (buffer[0] != TX) throw new IOException("No transaction record at " + offset);
+        return decode(buffer, dictionary, formatEpochMillis(getLong(buffer, 1)));
+    }
+
+    /** Reusable record body buffer. */
+    private static class Body extends ByteArrayOutputStream {
+        Body() {
+            super(64);
+        }
+
+        void writeLong(long v) {
+            for (int shift = 56; shift >= 0; shift -= 8) write((int) (v >>> shift));
+        }
+
+        void writeVarInt(int v) {
+            while ((v & ~0x7F) != 0) {
+                write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+    }
+
+    static void writeVarInt(OutputStream out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    static int varIntSize(int v) {
+        int size = 1;
+        while ((v & ~0x7F) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /** Returns -1 at a clean end of stream. */
+    static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) return -1;
+                throw new EOFException("Truncated record length");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int getVarInt(byte[] buf, int[] pos) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buf[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    private static long getLong(byte[] buf, int offset) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (buf[offset + i] & 0xFF);
+        return v;
+    }
+
+    /**
+     * One-shot converter from the text log: {@code BinaryTransactionLog <transactions.txt> <transactions.bin>}.
+     * Blocks that cannot be parsed are counted and skipped.
+     */
+    public static void main(String[] args) throws IOException {
+        File source = new File(args.length > 0 ? args[0] : "src/main/java/transactions.txt");
+        File target = new File(args.length > 1 ? args[1] : BINARY_FILE);
+
+        long[] counts = {0, 0}; // converted, skipped
+        try (BufferedReader reader = new BufferedReader(new FileReader(source), 1 << 16);
+             Writer writer = new Writer(new FileOutputStream(target))) {
+            int unparsed = TransactionText.readBlocks(reader, t -> {
+                try {
+                    writer.write(t);
+                    counts[0]++;
+                } catch (DateTimeParseException e) {
+                    counts[1]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            counts[1] += unparsed;
+        }
+        System.out.printf("Converted %d transactions (%d skipped): %d -> %d bytes%n",
+                counts[0], counts[1], source.length(), target.length());
+    }
+}
@@ -0,0 +1,234 @@
+package admin;
+
+import client.BinaryProtocol;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The original socket server: a blocking accept loop that gives every connection its own
+ * thread from {@code executor}. Kept behind -Dpayment.server=blocking, and behind
+ * -Dpayment.server=virtual where the executor is {@link VirtualThreads}, so a connection
+ * blocked in a file read costs a small heap object instead of a platform thread. Also the
+ * baseline for {@link SelectorServerBenchmark}; {@link SelectorServer} is the default.
+ *
+ * <p>A connection whose first byte is {@link BinaryProtocol#MAGIC} speaks the framed
+ * protocol: its thread only reads frames, and each request runs as its own task on
+ * {@code executor}, so replies go back in the order they finish. Pushed updates are written on
+ * {@code executor} too; one blocked on a slow client holds up only its own subscription,
+ * whose later changes coalesce until it is through.
+ *
+ * <p>A text connection's thread answers its requests one at a time, and waits for a reply
+ * marked {@link RequestHandler#replyLater} before reading the next request.
+ */
+public class BlockingRequestServer implements Closeable {
+    private static final int MAX_OUTSTANDING = 32;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final RequestHandler handler;
+
+    public BlockingRequestServer(int port, ExecutorService executor, RequestHandler handler) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.executor = executor;
+        this.handler = handler;
+    }
+
+    public void start() {
+        executor.submit(() -> {
+            while (true) {
+                try {
+                    Socket clientSocket = serverSocket.accept();
+                    executor.submit(() -> handleClient(clientSocket));
+                } catch (SocketException e) {
+                    return; // closed
+                } catch (IOException e) {
+                    System.err.println("Socket error: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void handleClient(Socket clientSocket) {
+        try (Socket socket = clientSocket;
+             PushbackInputStream input = new PushbackInputStream(socket.getInputStream())) {
+            int first = input.read();
+            if (first < 0) return;
+            input.unread(first);
+            if ((byte) first == BinaryProtocol.MAGIC) {
+                serveFramed(new DataInputStream(new BufferedInputStream(input)), socket.getOutputStream());
+                return;
+            }
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(input));
+            TextReply out = new TextReply(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+            Semaphore replied = new Semaphore(0); // not a monitor: the thread may be virtual
+            RequestDecoder decoder = new RequestDecoder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                RequestDecoder.Request request = decoder.offer(line);
+                if (request == null) continue;
+                out.begin();
+                try {
+                    handler.handle(request, out);
+                } catch (RuntimeException e) {
+                    System.err.println("Request " + request.command + " failed: " + e); // the connection carries on
+                    out.end();
+                }
+                // a reply finishing later is sent before the next request is read
+                if (!out.handled(replied::release)) replied.acquireUninterruptibly();
+            }
+        } catch (EOFException e) {
+            // the client closed between frames
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads frames until the client closes, answering each on its own task. At most
+     * {@link #MAX_OUTSTANDING} are unanswered at once; past that the reader waits and the
+     * client's further requests wait in its socket.
+     */
+    private void serveFramed(DataInputStream in, OutputStream socketOut) throws IOException {
+        OutputStream out = new BufferedOutputStream(socketOut);
+        ReentrantLock writeLock = new ReentrantLock(); // not a monitor: writers may be virtual threads
+        Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
+        int version = Math.min(BinaryProtocol.readPreamble(in), BinaryProtocol.VERSION);
+        write(out, writeLock, BinaryProtocol.preamble(version));
+        if (version < 1) return;
+        Pushes pushes = new Pushes(out, writeLock);
+        try {
+            readFrames(in, out, writeLock, outstanding, pushes);
+        } finally {
+            pushes.closed();
+        }
+    }
+
+    private void readFrames(DataInputStream in, OutputStream out, ReentrantLock writeLock, Semaphore outstanding,
+                            Pushes pushes) throws IOException {
+        while (true) {
+            BinaryProtocol.Frame frame = BinaryProtocol.read(in);
+            String command = BinaryProtocol.commandOf(frame.code);
+            if (command == null) {
+                write(out, writeLock, BinaryProtocol.encode(frame.requestId, BinaryProtocol.ERROR, "UNKNOWN_COMMAND"));
+                continue;
+            }
+            try {
+                outstanding.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for replies");
+            }
+            FramedReply reply = new FramedReply(frame.requestId, pushes, bytes -> {
+                outstanding.release();
+                try {
+                    write(out, writeLock, bytes);
+                } catch (IOException e) {
+                    // the client is gone; the reading thread finds out too
+                }
+            });
+            RequestDecoder.Request request = new RequestDecoder.Request(command, frame.text);
+            try {
+                executor.execute(() -> {
+                    try {
+                        handler.handle(request, reply);
+                    } catch (RuntimeException e) {
+                        System.err.println("Request " + request.command + " failed: " + e);
+                    } finally {
+                        reply.handled();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return; // shutting down
+            }
+        }
+    }
+
+    /** The push channel of one framed connection. */
+    private final class Pushes implements PushChannel {
+        private final OutputStream out;
+        private final ReentrantLock writeLock;
+        private final ReentrantLock closing = new ReentrantLock(); // not writeLock, which a slow client can hold
+        private final List<Runnable> closeTasks = new ArrayList<>(2); // guarded by closing
+        private boolean closed;
+
+        Pushes(OutputStream out, ReentrantLock writeLock) {
+            this.out = out;
+            this.writeLock = writeLock;
+        }
+
+        @Override
+        public boolean push(byte[] frame) {
+            pushLast(frame);
+            return true; // a slow client blocks the write; nothing queues up behind it
+        }
+
+        @Override
+        public void pushLast(byte[] frame) {
+            try {
+                write(out, writeLock, frame);
+            } catch (IOException e) {
+                // the client is gone; the reading thread finds out too
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            executor.execute(task);
+        }
+
+        @Override
+        public void onClose(Runnable task) {
+            closing.lock();
+            try {
+                if (!closed) {
+                    closeTasks.add(task);
+                    return;
+                }
+            } finally {
+                closing.unlock();
+            }
+            task.run();
+        }
+
+        void closed() {
+            List<Runnable> tasks;
+            closing.lock();
+            try {
+                closed = true;
+                tasks = new ArrayList<>(closeTasks);
+            } finally {
+                closing.unlock();
+            }
+            tasks.forEach(Runnable::run);
+        }
+    }
+
+    private static void write(OutputStream out, ReentrantLock lock, byte[] bytes) throws IOException {
+        lock.lock();
+        try {
+            out.write(bytes);
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
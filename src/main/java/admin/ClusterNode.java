@@ -0,0 +1,796 @@
+package admin;
+
+import client.ClusterMap;
+import client.Money;
+import client.User;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * This server's part in a multi-node deployment. Every node owns a range of account numbers
+ * ({@link ClusterMap}, -Dpayment.cluster, with -Dpayment.node naming this node's index) and
+ * answers clients only for those: {@link #storage()} shows no other account, so a request
+ * routed to the wrong node fails rather than changing a stale copy. A transfer to an account on another node is a two-phase
+ * commit run by the sender's node over the peer port:
+ * <ol>
+ *   <li>prepare - the coordinator puts the amount on hold on the sender's account, which local
+ *       debits respect ({@link #held}), and lets go of the sender's lock while it asks the
+ *       recipient's node to PREPARE_CREDIT. The participant checks the recipient, forces a
+ *       PREPARED record and reserves the credit.</li>
+ *   <li>commit  - the coordinator takes the sender's lock again, forces COMMIT (the decision)
+ *       with the sender's new balance, debits the sender, releases the hold and replies to the
+ *       client, then sends COMMIT_CREDIT until the participant applies the credit and
+ *       acknowledges it.</li>
+ * </ol>
+ * A refusal, error or timeout before the decision aborts: there is no COMMIT record, and a
+ * participant that asks about a transfer its coordinator has no record of is told to abort
+ * (presumed abort). Posting a balance is bracketed by records carrying the absolute balance
+ * (COMMIT..DEBITED, APPLYING..APPLIED) under the account's lock, so recovery can redo a post
+ * a crash cut off without repeating one that happened. If a post or one of those records
+ * fails instead, the account is fenced: nothing else posts to it, so its balance stays either
+ * the one before the post or the one recorded, until the resolver (or recovery, after a
+ * restart) settles the post by writing the recorded balance and the closing record. A balance
+ * that is neither is never overwritten; its account stays fenced for an operator. A COMMIT
+ * that itself fails leaves the decision unknown until a restart reads the log, so the sender
+ * stays fenced and the participant keeps waiting until then. A resolver thread re-sends commits
+ * and asks coordinators about prepared credits left waiting. As in any two-phase commit, a
+ * prepared credit waits for its coordinator to come back. The resolver also compacts both logs
+ * down to their unresolved transfers once enough records have piled up.
+ *
+ * Peer messages, like the client protocol, are a command line, "Key: value" lines and a
+ * blank line; each is answered with one line.
+ */
+public class ClusterNode implements Closeable {
+    public static final String COORDINATOR_LOG = "cluster-coordinator.log";
+    public static final String PARTICIPANT_LOG = "cluster-participant.log";
+    public static final String LOG_DIR = "src/main/java";
+
+    private static final int TIMEOUT_MILLIS = Integer.getInteger("payment.cluster.timeoutMillis", 3_000);
+    private static final long RESOLVE_MILLIS = Long.getLong("payment.cluster.resolveMillis", 2_000);
+    private static final long PREPARE_LOCK_MILLIS = 50;
+    private static final int COMPACT_AFTER_RECORDS = Integer.getInteger("payment.cluster.compactAfterRecords", 1024);
+
+    /** Told about every credit committed here for a transfer from another node. */
+    public interface Listener {
+        void credited(RemoteTransfer transfer);
+    }
+
+    /** One cross-node transfer, as the coordinator and the participant both know it. */
+    public static final class RemoteTransfer {
+        public final String id;
+        public final int coordinator;
+        public final String sender, recipient, timestamp, senderName;
+        public final long amountCents;
+
+        RemoteTransfer(String id, int coordinator, String sender, String recipient, long amountCents,
+                       String timestamp, String senderName) {
+            this.id = id;
+            this.coordinator = coordinator;
+            this.sender = sender;
+            this.recipient = recipient;
+            this.amountCents = amountCents;
+            this.timestamp = timestamp;
+            this.senderName = senderName;
+        }
+
+        String toRecord() {
+            return id + "|" + coordinator + "|" + sender + "|" + recipient + "|" + Money.format(amountCents)
+                    + "|" + timestamp + "|" + senderName;
+        }
+
+        /** Reads the fields written by {@link #toRecord()}, which end the record, starting at {@code f[from]}. */
+        static RemoteTransfer fromRecord(String[] f, int from) {
+            return new RemoteTransfer(f[from], Integer.parseInt(f[from + 1]), f[from + 2], f[from + 3],
+                    Money.parse(f[from + 4]), f[from + 5], String.join("|", Arrays.copyOfRange(f, from + 6, f.length)));
+        }
+
+        String toBlock() {
+            return "TxId: " + id + "\nCoordinator: " + coordinator + "\nSender: " + sender + "\nRecipient: " + recipient
+                    + "\nAmount: " + Money.format(amountCents) + "\nTimestamp: " + timestamp + "\nSenderName: " + senderName + "\n";
+        }
+
+        static RemoteTransfer fromBlock(Map<String, String> b) {
+            return new RemoteTransfer(b.get("TxId"), Integer.parseInt(b.get("Coordinator")), b.get("Sender"),
+                    b.get("Recipient"), Money.parse(b.get("Amount")), b.get("Timestamp"), b.get("SenderName"));
+        }
+    }
+
+    /**
+     * A debit or credit that may not be durable, or whose closing record may be missing. The
+     * account takes no other posting until {@link #settle} writes {@link #after} and the
+     * closing record; {@code decided} is false while the COMMIT itself is in doubt.
+     */
+    private static final class Fence {
+        final RemoteTransfer transfer;
+        final boolean debit, decided;
+        final long after;
+
+        Fence(RemoteTransfer transfer, boolean debit, boolean decided, long after) {
+            this.transfer = transfer;
+            this.debit = debit;
+            this.decided = decided;
+            this.after = after;
+        }
+
+        String account() {
+            return debit ? transfer.sender : transfer.recipient;
+        }
+
+        long before() {
+            return debit ? after + transfer.amountCents : after - transfer.amountCents;
+        }
+    }
+
+    private static final class Prepared {
+        final RemoteTransfer transfer;
+        final long preparedAt;
+
+        Prepared(RemoteTransfer transfer, long preparedAt) {
+            this.transfer = transfer;
+            this.preparedAt = preparedAt;
+        }
+    }
+
+    private static final String PENDING = "PENDING";
+
+    private final ClusterMap map;
+    private final ClusterMap.Node self;
+    private final AccountStorage storage, served;
+    private final AccountLocks locks;
+    private final Listener listener;
+    private final DurableLog coordinatorLog, participantLog;
+    private final AtomicLong nextId = new AtomicLong();
+    private final String idPrefix;
+
+    // Coordinator: PENDING while undecided, or the committed transfer until the participant acknowledges it.
+    private final Map<String, Object> decisions = new ConcurrentHashMap<>();
+    // Coordinator: amounts on hold on senders' accounts while their transfer is being prepared.
+    private final Map<String, Long> held = new ConcurrentHashMap<>();
+    // Participant: credits prepared here and not yet committed or aborted.
+    private final Map<String, Prepared> prepared = new ConcurrentHashMap<>();
+    private final Map<String, Long> reserved = new ConcurrentHashMap<>();
+    // Both: accounts whose cross-node posting is unsettled, by account number; changed under its lock.
+    private final Map<String, Fence> fences = new ConcurrentHashMap<>();
+
+    private final ServerSocket peerServer;
+    private final ExecutorService peerExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "cluster-peer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService resolver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cluster-resolver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Recovers both logs, then starts serving peers on this node's peer port. */
+    public ClusterNode(ClusterMap map, int selfIndex, AccountStorage storage, AccountLocks locks, File logDir,
+                       Listener listener) throws IOException {
+        this.map = map;
+        this.self = map.node(selfIndex);
+        if (self.peerPort < 0) throw new IllegalArgumentException("No peer port for " + self);
+        this.storage = new OwnedAccountStorage(storage, map, self);
+        this.served = new OwnedAccountStorage(storage, map, self, fences::containsKey);
+        this.locks = locks;
+        this.listener = listener;
+        this.idPrefix = selfIndex + "-" + System.currentTimeMillis() + "-";
+        this.coordinatorLog = new DurableLog(new File(logDir, COORDINATOR_LOG));
+        this.participantLog = new DurableLog(new File(logDir, PARTICIPANT_LOG));
+        recoverCoordinator();
+        recoverParticipant();
+
+        this.peerServer = new ServerSocket();
+        peerServer.setReuseAddress(true);
+        peerServer.bind(new InetSocketAddress(self.peerPort));
+        peerExecutor.submit(this::acceptPeers);
+        resolver.scheduleWithFixedDelay(this::resolve, RESOLVE_MILLIS, RESOLVE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** A node for this process if -Dpayment.cluster is set (this node is -Dpayment.node, default 0), else null. */
+    public static ClusterNode fromSystemProperties(AccountStorage storage, AccountLocks locks, Listener listener)
+            throws IOException {
+        String spec = System.getProperty("payment.cluster");
+        if (spec == null || spec.trim().isEmpty()) return null;
+        return new ClusterNode(ClusterMap.parse(spec), Integer.getInteger("payment.node", 0), storage, locks,
+                new File(LOG_DIR), listener);
+    }
+
+    public ClusterMap.Node self() {
+        return self;
+    }
+
+    /** The accounts this node owns, out of the storage it was given; serve clients from this. */
+    public AccountStorage storage() {
+        return served;
+    }
+
+    public boolean owns(String accountNo) {
+        return map.nodeFor(accountNo) == self;
+    }
+
+    /** Prepared credits waiting for their coordinator's decision. */
+    public int preparedCount() {
+        return prepared.size();
+    }
+
+    /**
+     * Cents of {@code accountNo} on hold for transfers to other nodes that are still being
+     * prepared. Read under the account's lock, a debit must leave at least this much.
+     */
+    public long held(String accountNo) {
+        return held.getOrDefault(accountNo, 0L);
+    }
+
+    /** Accounts no posting may touch until a cross-node debit or credit on them settles. */
+    public Set<String> fencedAccounts() {
+        return Collections.unmodifiableSet(fences.keySet());
+    }
+
+    /** Committed transfers whose credit has not been acknowledged yet. */
+    public int unacknowledgedCount() {
+        int n = 0;
+        for (Object d : decisions.values()) if (d != PENDING) n++;
+        return n;
+    }
+
+    // ---- coordinator ----
+
+    /**
+     * Moves money from an account on this node to one on another node. Returns the sender
+     * with its new balance, or null if the transfer was rejected or could not be prepared.
+     */
+    public User transfer(String from, String to, long amountCents, String timestamp) throws IOException {
+        if (amountCents <= 0 || !owns(from) || owns(to)) return null;
+        ClusterMap.Node target = map.nodeFor(to);
+        String id = idPrefix + nextId.incrementAndGet();
+        RemoteTransfer transfer;
+        locks.lock(from);
+        try {
+            checkNotFenced(from);
+            User sender = storage.findByAccountNo(from);
+            if (sender == null || sender.balanceCents - held(from) < amountCents) return null;
+            transfer = new RemoteTransfer(id, self.index, from, to, amountCents, timestamp, sender.username);
+            held.merge(from, amountCents, Long::sum);
+            decisions.put(id, PENDING);
+        } finally {
+            locks.unlock(from);
+        }
+
+        // Without the lock, so the sender's other postings go on while the peer answers.
+        String vote;
+        try {
+            vote = call(target, "PREPARE_CREDIT", transfer.toBlock());
+        } catch (IOException e) {
+            System.err.println("Prepare " + id + " on " + target + " failed: " + e.getMessage());
+            vote = null;
+        }
+
+        locks.lock(from);
+        try {
+            // A credit to the sender that failed meanwhile fences it; abort rather than post past the fence.
+            if (!"PREPARED".equals(vote) || fences.containsKey(from)) {
+                decisions.remove(id); // from here on, asking about it gets ABORT
+                if (vote == null || "PREPARED".equals(vote)) peerExecutor.submit(() -> tell(target, "ABORT_CREDIT", id));
+                checkNotFenced(from);
+                return null;
+            }
+            User sender = storage.findByAccountNo(from);
+            long after = sender.balanceCents - amountCents; // covered: every debit since left the hold
+            try {
+                coordinatorLog.append("COMMIT|" + Money.format(after) + "|" + transfer.toRecord());
+            } catch (IOException e) {
+                // The COMMIT may be on disk or not: the decision stays PENDING until a restart reads the log.
+                fence(new Fence(transfer, true, false, after), e);
+                throw e;
+            }
+            decisions.put(id, transfer);
+            try {
+                storage.postBalances(new User[]{sender}, new long[]{after});
+                coordinatorLog.append("DEBITED|" + id);
+            } catch (IOException e) {
+                fence(new Fence(transfer, true, true, after), e); // committed: the resolver retries the debit
+                peerExecutor.submit(() -> sendCommit(transfer));
+                throw e;
+            }
+            peerExecutor.submit(() -> sendCommit(transfer));
+            return sender;
+        } finally {
+            held.computeIfPresent(from, (k, v) -> v == amountCents ? null : v - amountCents);
+            locks.unlock(from);
+        }
+    }
+
+    private void sendCommit(RemoteTransfer transfer) {
+        try {
+            if ("COMMITTED".equals(call(map.node(transferTarget(transfer)), "COMMIT_CREDIT", "TxId: " + transfer.id + "\n"))
+                    && decisions.remove(transfer.id) != null) {
+                coordinatorLog.append("END|" + transfer.id);
+            }
+        } catch (IOException e) {
+            System.err.println("Commit " + transfer.id + " not acknowledged yet: " + e.getMessage());
+        }
+    }
+
+    private int transferTarget(RemoteTransfer transfer) {
+        return map.nodeFor(transfer.recipient).index;
+    }
+
+    private String outcome(String id) {
+        Object decision = decisions.get(id);
+        return decision == null ? "ABORT" : decision == PENDING ? "PENDING" : "COMMIT";
+    }
+
+    // ---- participant ----
+
+    private String prepare(RemoteTransfer t) throws IOException {
+        if (!owns(t.recipient) || t.amountCents <= 0) return "REFUSED";
+        try {
+            // Local postings hold the lock only for a force; refuse rather than keep a peer waiting.
+            if (!locks.tryLock(t.recipient, PREPARE_LOCK_MILLIS)) return "REFUSED";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "REFUSED";
+        }
+        try {
+            if (prepared.containsKey(t.id)) return "PREPARED";
+            if (fences.containsKey(t.recipient)) return "REFUSED";
+            User recipient = storage.findByAccountNo(t.recipient);
+            long held = reserved.getOrDefault(t.recipient, 0L);
+            if (recipient == null || Long.MAX_VALUE - recipient.balanceCents - held < t.amountCents) return "REFUSED";
+            participantLog.append("PREPARED|" + t.toRecord());
+            prepared.put(t.id, new Prepared(t, System.nanoTime()));
+            reserved.merge(t.recipient, t.amountCents, Long::sum);
+            return "PREPARED";
+        } finally {
+            locks.unlock(t.recipient);
+        }
+    }
+
+    /** Applies a prepared credit. An id that is not prepared here was already applied. */
+    private String commit(String id) throws IOException {
+        Prepared p = prepared.get(id);
+        if (p == null) return "COMMITTED";
+        RemoteTransfer t = p.transfer;
+        Fence fence = fences.get(t.recipient);
+        if (fence != null && fence.transfer.id.equals(id)) {
+            settle(fence); // an earlier attempt at this credit failed part way
+            return "COMMITTED";
+        }
+        locks.lock(t.recipient);
+        try {
+            if (!prepared.containsKey(id)) return "COMMITTED";
+            checkNotFenced(t.recipient); // the coordinator asks again once the other credit settles
+            User recipient = storage.findByAccountNo(t.recipient);
+            long after = recipient.balanceCents + t.amountCents; // reserved at prepare, so no overflow
+            try {
+                participantLog.append("APPLYING|" + id + "|" + t.recipient + "|" + Money.format(after));
+                storage.postBalances(new User[]{recipient}, new long[]{after});
+                participantLog.append("APPLIED|" + id);
+            } catch (IOException e) {
+                fence(new Fence(t, false, true, after), e);
+                throw e;
+            }
+            release(p);
+        } finally {
+            locks.unlock(t.recipient);
+        }
+        notifyCredited(t);
+        return "COMMITTED";
+    }
+
+    private String abort(String id) throws IOException {
+        Prepared p = prepared.get(id);
+        if (p == null) return "ABORTED";
+        locks.lock(p.transfer.recipient);
+        try {
+            if (prepared.containsKey(id)) {
+                participantLog.append("ABORTED|" + id);
+                release(p);
+            }
+        } finally {
+            locks.unlock(p.transfer.recipient);
+        }
+        return "ABORTED";
+    }
+
+    private void checkNotFenced(String accountNo) throws IOException {
+        if (fences.containsKey(accountNo)) {
+            throw new IOException("Account " + accountNo + " is fenced until a cross-node transfer settles");
+        }
+    }
+
+    /** Called under the account's lock when a posting may have been cut off; see {@link Fence}. */
+    private void fence(Fence fence, IOException cause) {
+        fences.put(fence.account(), fence);
+        System.err.println("Fenced " + fence.account() + " until " + (fence.debit ? "the debit of " : "the credit of ")
+                + fence.transfer.id + " settles: " + cause.getMessage());
+    }
+
+    /**
+     * Posts a fenced debit or credit's recorded balance and its closing record, then lifts the
+     * fence. Since nothing else posted to the account, its balance is the one before the post
+     * or the one recorded; anything else means the post cannot be settled safely, and the
+     * account stays fenced rather than have that balance overwritten.
+     */
+    private void settle(Fence fence) throws IOException {
+        String account = fence.account();
+        RemoteTransfer t = fence.transfer;
+        locks.lock(account);
+        try {
+            if (fences.get(account) != fence) return;
+            User user = storage.findByAccountNo(account);
+            if (user == null || (user.balanceCents != fence.before() && user.balanceCents != fence.after)) {
+                throw new IOException("Balance of " + account + " is neither before nor after " + t.id
+                        + "; left fenced for an operator");
+            }
+            // Even a balance already at the recorded one is written again: it may not be durable.
+            storage.postBalances(new User[]{user}, new long[]{fence.after});
+            if (fence.debit) {
+                coordinatorLog.append("DEBITED|" + t.id);
+            } else {
+                participantLog.append("APPLIED|" + t.id);
+                Prepared p = prepared.get(t.id);
+                if (p != null) release(p);
+            }
+            fences.remove(account);
+        } finally {
+            locks.unlock(account);
+        }
+        System.err.println("Settled " + (fence.debit ? "the debit of " : "the credit of ") + t.id + "; "
+                + account + " is no longer fenced");
+        if (!fence.debit) notifyCredited(t);
+    }
+
+    private void release(Prepared p) {
+        prepared.remove(p.transfer.id);
+        reserved.computeIfPresent(p.transfer.recipient, (k, v) -> v == p.transfer.amountCents ? null : v - p.transfer.amountCents);
+    }
+
+    private void notifyCredited(RemoteTransfer t) {
+        try {
+            listener.credited(t);
+        } catch (RuntimeException e) {
+            System.err.println("Cluster credit listener failed: " + e.getMessage());
+        }
+    }
+
+    // ---- resolver ----
+
+    /** Settles fenced postings, re-sends unacknowledged commits and asks coordinators about credits prepared too long ago. */
+    private void resolve() {
+        try {
+            resolveOnce();
+            if (coordinatorLog.appendedSinceRewrite() >= COMPACT_AFTER_RECORDS
+                    || participantLog.appendedSinceRewrite() >= COMPACT_AFTER_RECORDS) {
+                compactLogs();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Cluster resolver failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the records of finished transfers from both logs (coordinator: END; participant:
+     * APPLIED or ABORTED), keeping every record of the others as written, so the logs stay the
+     * size of the work in flight instead of growing until the next start.
+     */
+    void compactLogs() throws IOException {
+        coordinatorLog.compact(f -> f[0].equals("COMMIT") ? f[2] : f[1], "END");
+        participantLog.compact(f -> f[1], "APPLIED", "ABORTED");
+    }
+
+    private void resolveOnce() {
+        for (Fence fence : fences.values()) {
+            if (!fence.decided) continue; // only a restart can tell whether the COMMIT is on disk
+            try {
+                settle(fence);
+            } catch (IOException e) {
+                System.err.println("Could not settle " + fence.transfer.id + " yet: " + e.getMessage());
+            }
+        }
+        for (Object decision : decisions.values()) {
+            if (decision != PENDING) sendCommit((RemoteTransfer) decision);
+        }
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(RESOLVE_MILLIS);
+        for (Prepared p : prepared.values()) {
+            if (p.preparedAt - cutoff > 0) continue;
+            try {
+                String answer = call(map.node(p.transfer.coordinator), "TX_OUTCOME", "TxId: " + p.transfer.id + "\n");
+                if ("COMMIT".equals(answer)) {
+                    commit(p.transfer.id);
+                } else if ("ABORT".equals(answer)) {
+                    abort(p.transfer.id);
+                }
+            } catch (IOException e) {
+                System.err.println("Outcome of " + p.transfer.id + " unknown yet: " + e.getMessage());
+            }
+        }
+    }
+
+    // ---- recovery ----
+
+    private void recoverCoordinator() throws IOException {
+        Map<String, String[]> commits = new LinkedHashMap<>();
+        Set<String> debited = new HashSet<>(), ended = new HashSet<>();
+        for (String[] f : coordinatorLog.read()) {
+            switch (f[0]) {
+                case "COMMIT": commits.put(f[2], f); break;
+                case "DEBITED": debited.add(f[1]); break;
+                case "END": ended.add(f[1]); break;
+            }
+        }
+        List<String> open = new ArrayList<>();
+        for (Map.Entry<String, String[]> e : commits.entrySet()) {
+            String id = e.getKey();
+            String[] f = e.getValue();
+            if (ended.contains(id)) continue;
+            RemoteTransfer t = RemoteTransfer.fromRecord(f, 2);
+            decisions.put(id, t);
+            open.add(String.join("|", f));
+            if (!debited.contains(id)) { // the debit may not have been posted; the sender was fenced since
+                Fence fence = new Fence(t, true, true, Money.parse(f[1]));
+                fences.put(t.sender, fence);
+                try {
+                    settle(fence);
+                } catch (IOException ex) {
+                    System.err.println("Could not settle " + id + " on recovery: " + ex.getMessage());
+                    continue;
+                }
+            }
+            open.add("DEBITED|" + id);
+        }
+        coordinatorLog.rewrite(open);
+    }
+
+    private void recoverParticipant() throws IOException {
+        Map<String, RemoteTransfer> prepares = new LinkedHashMap<>();
+        Map<String, String[]> applying = new HashMap<>();
+        Set<String> done = new HashSet<>();
+        for (String[] f : participantLog.read()) {
+            switch (f[0]) {
+                case "PREPARED": prepares.put(f[1], RemoteTransfer.fromRecord(f, 1)); break;
+                case "APPLYING": applying.put(f[1], f); break;
+                case "APPLIED": case "ABORTED": done.add(f[1]); break;
+            }
+        }
+        List<String> open = new ArrayList<>();
+        for (RemoteTransfer t : prepares.values()) {
+            if (done.contains(t.id)) continue;
+            prepared.put(t.id, new Prepared(t, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(RESOLVE_MILLIS)));
+            reserved.merge(t.recipient, t.amountCents, Long::sum);
+            String[] apply = applying.get(t.id);
+            if (apply != null) { // cut off while posting the credit; the recipient was fenced since
+                Fence fence = new Fence(t, false, true, Money.parse(apply[3]));
+                fences.put(t.recipient, fence);
+                try {
+                    settle(fence);
+                    continue;
+                } catch (IOException e) {
+                    System.err.println("Could not settle " + t.id + " on recovery: " + e.getMessage());
+                }
+            }
+            open.add("PREPARED|" + t.toRecord());
+            if (apply != null) open.add(String.join("|", apply));
+        }
+        participantLog.rewrite(open);
+    }
+
+    // ---- peer transport ----
+
+    /** Sends one message and returns the one-line answer. */
+    private String call(ClusterMap.Node node, String command, String block) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(node.host, node.peerPort), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.print(command + "\n" + block + "\n");
+            out.flush();
+            String answer = in.readLine();
+            if (answer == null) throw new EOFException("No answer from " + node);
+            return answer;
+        }
+    }
+
+    private void tell(ClusterMap.Node node, String command, String id) {
+        try {
+            call(node, command, "TxId: " + id + "\n");
+        } catch (IOException e) {
+            System.err.println(command + " " + id + " not delivered; the participant will ask: " + e.getMessage());
+        }
+    }
+
+    private void acceptPeers() {
+        while (!peerServer.isClosed()) {
+            try {
+                Socket socket = peerServer.accept();
+                peerExecutor.submit(() -> servePeer(socket));
+            } catch (SocketException e) {
+                return; // closed
+            } catch (IOException | RejectedExecutionException e) {
+                System.err.println("Cluster peer accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void servePeer(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            String command;
+            while ((command = in.readLine()) != null) {
+                if (command.trim().isEmpty()) continue;
+                Map<String, String> block = new HashMap<>();
+                String line;
+                while ((line = in.readLine()) != null && !line.trim().isEmpty()) {
+                    String[] parts = line.split(":", 2);
+                    if (parts.length == 2) block.put(parts[0].trim(), parts[1].trim());
+                }
+                out.println(dispatch(command.trim(), block));
+            }
+        } catch (IOException e) {
+            System.err.println("Cluster peer connection failed: " + e.getMessage());
+        }
+    }
+
+    private String dispatch(String command, Map<String, String> block) {
+        try {
+            switch (command) {
+                case "PREPARE_CREDIT": return prepare(RemoteTransfer.fromBlock(block));
+                case "COMMIT_CREDIT": return commit(block.get("TxId"));
+                case "ABORT_CREDIT": return abort(block.get("TxId"));
+                case "TX_OUTCOME": return outcome(block.get("TxId"));
+                default: return "UNKNOWN_COMMAND";
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Cluster " + command + " failed: " + e.getMessage());
+            return "ERROR";
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        resolver.shutdownNow();
+        peerServer.close();
+        peerExecutor.shutdownNow();
+        try {
+            resolver.awaitTermination(5, TimeUnit.SECONDS);
+            peerExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        coordinatorLog.close();
+        participantLog.close();
+    }
+
+    /**
+     * Append-only record file; every append is forced before it returns. Guarded by a
+     * ReentrantLock, not the monitor, so a virtual thread waiting on the force can unmount.
+     */
+    private static final class DurableLog implements Closeable {
+        private final File file;
+        private final ReentrantLock lock = new ReentrantLock();
+        private FileChannel channel;
+        private int appended; // guarded by lock
+
+        DurableLog(File file) throws IOException {
+            this.file = file;
+            this.channel = open();
+        }
+
+        private FileChannel open() throws IOException {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        void append(String record) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+            lock.lock();
+            try {
+                while (buffer.hasRemaining()) channel.write(buffer);
+                channel.force(false);
+                appended++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Complete records only; a torn last line was never acknowledged. */
+        List<String[]> read() throws IOException {
+            List<String[]> records = new ArrayList<>();
+            byte[] bytes;
+            lock.lock();
+            try {
+                bytes = Files.readAllBytes(file.toPath());
+            } finally {
+                lock.unlock();
+            }
+            int start = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] != '\n') continue;
+                String line = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+                start = i + 1;
+                if (!line.isEmpty()) records.add(line.split("\\|", -1));
+            }
+            return records;
+        }
+
+        int appendedSinceRewrite() {
+            lock.lock();
+            try {
+                return appended;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Rewrites the file without the records of transactions that have one of the
+         * {@code finished} records. Appends wait, so none is lost between reading and rewriting.
+         */
+        void compact(Function<String[], String> idOf, String... finished) throws IOException {
+            Set<String> endings = new HashSet<>(Arrays.asList(finished));
+            lock.lock();
+            try {
+                List<String[]> records = read();
+                Set<String> done = new HashSet<>();
+                for (String[] f : records) if (endings.contains(f[0])) done.add(f[1]);
+                List<String> open = new ArrayList<>();
+                for (String[] f : records) {
+                    if (!done.contains(idOf.apply(f))) open.add(String.join("|", f));
+                }
+                rewrite(open);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Atomically replaces the file with {@code records}. */
+        void rewrite(List<String> records) throws IOException {
+            Path temp = file.toPath().resolveSibling(file.getName() + ".tmp");
+            StringBuilder text = new StringBuilder();
+            for (String record : records) text.append(record).append('\n');
+            lock.lock();
+            try {
+                try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) out.write(buffer);
+                    out.force(true);
+                }
+                channel.close();
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel = open();
+                appended = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                channel.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package admin;
+
+import client.BinaryProtocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Cuts a framed connection ({@link BinaryProtocol}) into its preamble and request frames,
+ * whatever pieces the bytes arrive in; the counterpart of {@link RequestDecoder} for
+ * connections whose first byte is {@link BinaryProtocol#MAGIC}. The bytes of an incomplete
+ * frame are kept until the rest arrives.
+ */
+public class FrameDecoder {
+    /** Largest request frame accepted; a client sending more is cut off. */
+    public static final int MAX_REQUEST_BYTES = 1 << 20;
+    private static final int RETAINED_BYTES = 1 << 10;
+
+    public interface Listener {
+        void preamble(int version) throws IOException;
+
+        void frame(BinaryProtocol.Frame frame) throws IOException;
+    }
+
+    private byte[] pending; // allocated on first use
+    private int size;
+    private boolean preambleRead;
+
+    /** Consumes every byte in {@code bytes}, reporting the preamble and then each complete frame. */
+    public void feed(ByteBuffer bytes, Listener listener) throws IOException {
+        int n = bytes.remaining();
+        if (pending == null) pending = new byte[Math.max(128, n)];
+        if (size + n > pending.length) pending = Arrays.copyOf(pending, Math.max(pending.length * 2, size + n));
+        bytes.get(pending, size, n);
+        size += n;
+
+        int at = 0;
+        if (!preambleRead) {
+            if (size < BinaryProtocol.PREAMBLE_BYTES) return;
+            int version = BinaryProtocol.versionOf(Arrays.copyOf(pending, BinaryProtocol.PREAMBLE_BYTES));
+            if (version < 0) throw new IOException("Not a framed connection");
+            preambleRead = true;
+            at = BinaryProtocol.PREAMBLE_BYTES;
+            listener.preamble(version);
+        }
+        ByteBuffer view = ByteBuffer.wrap(pending, 0, size);
+        while (size - at >= 4) {
+            int length = view.getInt(at);
+            if (length < BinaryProtocol.HEADER_BYTES || length > MAX_REQUEST_BYTES) {
+                throw new IOException("Bad frame length " + length);
+            }
+            if (size - at - 4 < length) break;
+            int requestId = view.getInt(at + 4);
+            byte code = pending[at + 8];
+            int textAt = at + 4 + BinaryProtocol.HEADER_BYTES;
+            String text = new String(pending, textAt, length - BinaryProtocol.HEADER_BYTES, StandardCharsets.UTF_8);
+            at += 4 + length;
+            listener.frame(new BinaryProtocol.Frame(requestId, code, text));
+        }
+        size -= at;
+        System.arraycopy(pending, at, pending, 0, size);
+        if (size == 0 && pending.length > RETAINED_BYTES) pending = null; // idle connections keep little
+    }
+}
@@ -0,0 +1,67 @@
+package admin;
+
+import client.BinaryProtocol;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.function.Consumer;
+
+/**
+ * The reply stream of one request on a framed connection. The handler prints its reply lines
+ * as it would on a text connection; they collect here and leave as one frame under the
+ * request's id once the reply is complete: when the handler returns, or at
+ * {@link RequestHandler#endReply} if it called {@link RequestHandler#replyLater}. Frames that
+ * follow the reply unasked go through the connection's {@link #channel()}.
+ */
+final class FramedReply extends PrintWriter {
+    private final StringWriter text;
+    private final int requestId;
+    private final PushChannel channel;
+    private final Consumer<byte[]> sink;
+    private boolean later, sent; // guarded by lock
+
+    FramedReply(int requestId, PushChannel channel, Consumer<byte[]> sink) {
+        this(new StringWriter(), requestId, channel, sink);
+    }
+
+    private FramedReply(StringWriter text, int requestId, PushChannel channel, Consumer<byte[]> sink) {
+        super(text);
+        this.text = text;
+        this.requestId = requestId;
+        this.channel = channel;
+        this.sink = sink;
+    }
+
+    int requestId() {
+        return requestId;
+    }
+
+    PushChannel channel() {
+        return channel;
+    }
+
+    void later() {
+        synchronized (lock) {
+            later = true;
+        }
+    }
+
+    /** Called by the server once the handler has returned; sends the reply unless it comes later. */
+    void handled() {
+        synchronized (lock) {
+            if (later) return;
+        }
+        end();
+    }
+
+    /** Sends the reply frame, once. */
+    void end() {
+        byte[] frame;
+        synchronized (lock) {
+            if (sent) return;
+            sent = true;
+            frame = BinaryProtocol.encode(requestId, BinaryProtocol.REPLY, text.toString());
+        }
+        sink.accept(frame);
+    }
+}
@@ -0,0 +1,103 @@
+package admin;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares forces among writers that append under one storage lock. A writer appends, takes a
+ * ticket with {@link #appended} and calls {@link #await}: the first waiter to find no force
+ * running becomes the leader and forces, without the lock, everything appended so far; the
+ * others wait for a force that covers their ticket. Writers that arrive during a force are
+ * covered together by the next one, so disjoint postings no longer queue for the disk one by
+ * one. All methods are called with the lock held.
+ *
+ * <p>A failed force is final: the storage cannot tell what reached the disk, so every writer
+ * not yet covered and every later one gets an IOException until it is reopened.
+ */
+final class GroupCommit {
+    /** What a force covers; the owner's file. */
+    interface Target {
+        /** With the lock held, as a force begins: everything appended so far is what it will cover. */
+        default void starting() {
+        }
+
+        /** Without the lock. */
+        void force() throws IOException;
+
+        /** With the lock held, after the force; {@code failure} is null if it succeeded. */
+        default void finished(IOException failure) {
+        }
+    }
+
+    private final ReentrantLock lock;
+    private final Condition changed;
+    private final Target target;
+    private long appended, forced;
+    private boolean forcing;
+    private IOException failure;
+
+    GroupCommit(ReentrantLock lock, Target target) {
+        this.lock = lock;
+        this.changed = lock.newCondition();
+        this.target = target;
+    }
+
+    /** Throws if an earlier force failed; writers check before appending anything. */
+    void check() throws IOException {
+        if (failure != null) throw new IOException("Storage is failed since a force failed", failure);
+    }
+
+    /** Records that the caller has appended; returns the ticket to {@link #await}. */
+    long appended() {
+        return ++appended;
+    }
+
+    /** Returns once a force covering {@code ticket} has succeeded, leading one if none is running. */
+    void await(long ticket) throws IOException {
+        while (forced < ticket) {
+            check();
+            if (forcing) {
+                changed.awaitUninterruptibly();
+            } else {
+                force(lock.getHoldCount() == 1); // a re-entered lock cannot be let go, so force under it
+            }
+        }
+    }
+
+    /** Forces everything appended so far before returning, holding the lock throughout. */
+    void forceAll() throws IOException {
+        awaitIdle();
+        check();
+        if (forced < appended) force(false);
+        check();
+    }
+
+    /** Waits until no force is running, e.g. before the owner swaps or closes its file. */
+    void awaitIdle() {
+        while (forcing) changed.awaitUninterruptibly();
+    }
+
+    private void force(boolean unlock) {
+        long covering = appended;
+        forcing = true;
+        target.starting();
+        IOException failed = null;
+        if (unlock) lock.unlock();
+        try {
+            target.force();
+        } catch (IOException e) {
+            failed = e;
+        } finally {
+            if (unlock) lock.lock();
+            forcing = false;
+            changed.signalAll();
+        }
+        if (failed == null) {
+            forced = covering;
+        } else {
+            failure = failed;
+        }
+        target.finished(failed);
+    }
+}
@@ -0,0 +1,108 @@
+package admin;
+
+import client.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * users.txt plus {@link BalanceJournal}, served from an in-memory {@link AccountStore}.
+ * On startup the latest {@link AccountSnapshot} is loaded when there is one and only the
+ * journal tail after it is replayed.
+ */
+public class JournaledAccountStorage implements AccountStorage {
+    private final File userFile;
+    private final File snapshotFile;
+    private final AccountStore store;
+    private final BalanceJournal journal;
+    private final boolean fromSnapshot;
+
+    private JournaledAccountStorage(File userFile, File snapshotFile, AccountStore store,
+                                    BalanceJournal journal, boolean fromSnapshot) {
+        this.userFile = userFile;
+        this.snapshotFile = snapshotFile;
+        this.store = store;
+        this.journal = journal;
+        this.fromSnapshot = fromSnapshot;
+    }
+
+    public static JournaledAccountStorage open(File userFile, File journalFile, File snapshotFile) throws IOException {
+        AccountSnapshot snapshot = AccountSnapshot.read(snapshotFile);
+        AccountStore store = snapshot != null ? snapshot.store : AccountStore.load(userFile);
+        BalanceJournal journal = BalanceJournal.open(journalFile, store, snapshot != null ? snapshot.seq : 0);
+        return new JournaledAccountStorage(userFile, snapshotFile, store, journal, snapshot != null);
+    }
+
+    @Override
+    public User findByAccountNo(String accountNo) {
+        return store.findByAccountNo(accountNo);
+    }
+
+    @Override
+    public User authenticate(String username, String hashedPassword) {
+        return store.authenticate(username, hashedPassword);
+    }
+
+    @Override
+    public boolean usernameExists(String username) {
+        return store.usernameExists(username);
+    }
+
+    @Override
+    public long getBalance(String accountNo) {
+        return store.getBalance(accountNo);
+    }
+
+    @Override
+    public String getFullName(String accountNo) {
+        return store.getFullName(accountNo);
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public List<User> accounts() {
+        return store.snapshot();
+    }
+
+    @Override
+    public boolean register(User user) throws IOException {
+        return journal.postRegistration(store, user);
+    }
+
+    @Override
+    public void postBalances(User[] accounts, long[] balances) throws IOException {
+        journal.postBalances(store, accounts, balances);
+    }
+
+    @Override
+    public void postBalances(List<User[]> accounts, List<long[]> balances) throws IOException {
+        journal.postBalances(store, accounts, balances);
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        if (journal.hasUncheckpointedRecords()) {
+            journal.checkpoint(store, userFile, snapshotFile);
+        }
+    }
+
+    @Override
+    public String describeRecovery() {
+        return (fromSnapshot ? "snapshot" : "users.txt") + " + " + journal.getReplayedRecords() + " journal records";
+    }
+
+    @Override
+    public long getReplayedRecords() {
+        return journal.getReplayedRecords();
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
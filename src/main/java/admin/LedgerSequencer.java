@@ -0,0 +1,351 @@
+package admin;
+
+import client.User;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free {@link AsyncLedger}. Balance-changing requests are published into a preallocated
+ * ring and pass through three threads in sequence order; replies arrive in publication order:
+ * <ol>
+ *   <li>apply   - the only thread that reads or changes balances. It decides each request
+ *                 against its own balance table and writes the new absolute balances into the slot.</li>
+ *   <li>journal - posts every decided slot to the {@link AccountStorage} in batches, so many
+ *                 requests share one force.</li>
+ *   <li>reply   - hands each result to the request's {@link Reply} and frees the slot.</li>
+ * </ol>
+ * A stage with nothing to do spins and yields briefly, then parks until the stage before it
+ * hands it work, so an idle sequencer costs no CPU. Publishers wait, spinning and then
+ * parking briefly, only while the ring is full. If journaling fails the sequencer stops
+ * accepting work, since its balances would be ahead of the disk. Nothing else may change
+ * balances while a sequencer owns them.
+ * Ring size is -Dpayment.sequencer.ringSize (default 4096, rounded up to a power of two).
+ */
+public class LedgerSequencer implements AsyncLedger {
+    private static final int TRANSFER = 0, WITHDRAW = 1, DEPOSIT = 2;
+    private static final int MAX_JOURNAL_BATCH = 1024;
+    private static final int SPIN_LIMIT = 100, YIELD_LIMIT = 200;
+    private static final long PARK_NANOS = 50_000;
+
+    private static final class Slot {
+        volatile long published = -1;
+        int kind;
+        String from, to;
+        long amount;
+        Reply reply;
+
+        Status status;
+        User account;
+        long balance;
+        User[] accounts;   // the posting to journal, null if rejected
+        long[] balances;
+        final User[] one = new User[1], two = new User[2];
+        final long[] oneBalance = new long[1], twoBalances = new long[2];
+    }
+
+    private static final class Entry {
+        final User user;
+        long balance;
+
+        Entry(User user) {
+            this.user = user;
+            this.balance = user.balanceCents;
+        }
+    }
+
+    private final AccountStorage storage;
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private volatile long applied = -1, journaled = -1, replied = -1;
+    private volatile boolean running = true;
+    private volatile boolean applyDone, journalDone;
+    private volatile IOException failure;
+    private final Map<String, Entry> accounts = new HashMap<>(); // apply thread only
+    private final Thread applyThread, journalThread, replyThread;
+    private final Idler applyIdler = new Idler(), journalIdler = new Idler(), replyIdler = new Idler();
+
+    public LedgerSequencer(AccountStorage storage, int ringSize) {
+        int size = ringSize <= 1 ? 1 : Integer.highestOneBit(ringSize - 1) << 1;
+        this.storage = storage;
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; i++) ring[i] = new Slot();
+        this.mask = size - 1;
+        this.applyThread = applyIdler.thread = start(this::runApply, "ledger-apply");
+        this.journalThread = journalIdler.thread = start(this::runJournal, "ledger-journal");
+        this.replyThread = replyIdler.thread = start(this::runReply, "ledger-reply");
+    }
+
+    public static LedgerSequencer fromSystemProperties(AccountStorage storage) {
+        return new LedgerSequencer(storage, Integer.getInteger("payment.sequencer.ringSize", 4096));
+    }
+
+    private static Thread start(Runnable body, String name) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void transfer(String from, String to, long amountCents, Reply reply) {
+        publish(TRANSFER, from, to, amountCents, reply);
+    }
+
+    @Override
+    public void withdraw(String accountNo, long amountCents, Reply reply) {
+        publish(WITHDRAW, accountNo, null, amountCents, reply);
+    }
+
+    @Override
+    public void deposit(String accountNo, long amountCents, Reply reply) {
+        publish(DEPOSIT, accountNo, null, amountCents, reply);
+    }
+
+    /** Balances are posted to storage before any reply, so storage is never behind a client. */
+    @Override
+    public long getBalance(String accountNo) {
+        return storage.getBalance(accountNo);
+    }
+
+    /** Nothing to fold: every accepted posting is already in the storage. */
+    @Override
+    public void checkpoint() {
+    }
+
+    public int getRingSize() {
+        return ring.length;
+    }
+
+    private void publish(int kind, String from, String to, long amount, Reply reply) {
+        if (!running) throw new IllegalStateException("Ledger sequencer is closed");
+        long sequence = claimed.incrementAndGet();
+        for (int spins = 0; sequence - ring.length > replied; ) {
+            spins = idle(spins); // ring full: wait for the reply thread to free the slot
+        }
+        Slot slot = ring[(int) sequence & mask];
+        slot.kind = kind;
+        slot.from = from;
+        slot.to = to;
+        slot.amount = amount;
+        slot.reply = reply;
+        slot.published = sequence;
+        applyIdler.wake();
+    }
+
+    private void runApply() {
+        long next = 0;
+        int spins = 0;
+        while (true) {
+            Slot slot = ring[(int) next & mask];
+            if (slot.published != next) {
+                if (!running && claimed.get() < next) break;
+                spins = applyIdler.idle(spins);
+                continue;
+            }
+            spins = applyIdler.busy();
+            slot.accounts = null;
+            slot.account = null;
+            slot.balance = 0;
+            if (failure != null) {
+                slot.status = Status.FAILED;
+            } else if (slot.amount <= 0) {
+                slot.status = Status.REJECTED;
+            } else if (slot.kind == TRANSFER) {
+                applyTransfer(slot);
+            } else {
+                applySingle(slot);
+            }
+            applied = next++;
+            journalIdler.wake();
+        }
+        applyDone = true;
+        journalIdler.wake();
+    }
+
+    private void applyTransfer(Slot slot) {
+        Entry sender = entry(slot.from), recipient = entry(slot.to);
+        if (sender == null || recipient == null || sender == recipient || sender.balance < slot.amount
+                || recipient.balance > Long.MAX_VALUE - slot.amount) {
+            slot.status = Status.REJECTED;
+            return;
+        }
+        sender.balance -= slot.amount;
+        recipient.balance += slot.amount;
+        slot.two[0] = sender.user;
+        slot.two[1] = recipient.user;
+        slot.twoBalances[0] = sender.balance;
+        slot.twoBalances[1] = recipient.balance;
+        accepted(slot, slot.two, slot.twoBalances, sender);
+    }
+
+    private void applySingle(Slot slot) {
+        Entry account = entry(slot.from);
+        boolean withdraw = slot.kind == WITHDRAW;
+        if (account == null || (withdraw ? account.balance < slot.amount : account.balance > Long.MAX_VALUE - slot.amount)) {
+            slot.status = Status.REJECTED;
+            return;
+        }
+        account.balance += withdraw ? -slot.amount : slot.amount;
+        slot.one[0] = account.user;
+        slot.oneBalance[0] = account.balance;
+        accepted(slot, slot.one, slot.oneBalance, account);
+    }
+
+    private static void accepted(Slot slot, User[] users, long[] balances, Entry subject) {
+        slot.status = Status.ACCEPTED;
+        slot.accounts = users;
+        slot.balances = balances;
+        slot.account = subject.user;
+        slot.balance = subject.balance;
+    }
+
+    /** The apply thread's view of an account, loaded from storage the first time it is touched. */
+    private Entry entry(String accountNo) {
+        if (accountNo == null) return null;
+        Entry entry = accounts.get(accountNo);
+        if (entry == null) {
+            User user = storage.findByAccountNo(accountNo);
+            if (user == null) return null; // may be registered later, so do not cache the miss
+            entry = new Entry(user);
+            accounts.put(accountNo, entry);
+        }
+        return entry;
+    }
+
+    private void runJournal() {
+        List<User[]> users = new ArrayList<>(MAX_JOURNAL_BATCH);
+        List<long[]> balances = new ArrayList<>(MAX_JOURNAL_BATCH);
+        long next = 0;
+        int spins = 0;
+        while (true) {
+            long available = applied;
+            if (available < next) {
+                if (applyDone && applied < next) break;
+                spins = journalIdler.idle(spins);
+                continue;
+            }
+            spins = journalIdler.busy();
+            long end = Math.min(available, next + MAX_JOURNAL_BATCH - 1);
+            users.clear();
+            balances.clear();
+            for (long s = next; s <= end; s++) {
+                Slot slot = ring[(int) s & mask];
+                if (slot.accounts != null) {
+                    users.add(slot.accounts);
+                    balances.add(slot.balances);
+                }
+            }
+            if (failure == null && !users.isEmpty()) {
+                try {
+                    storage.postBalances(users, balances);
+                } catch (IOException e) {
+                    System.err.println("Ledger journal failed, rejecting further requests: " + e.getMessage());
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                for (long s = next; s <= end; s++) {
+                    Slot slot = ring[(int) s & mask];
+                    if (slot.accounts != null) slot.status = Status.FAILED;
+                }
+            }
+            journaled = end;
+            replyIdler.wake();
+            next = end + 1;
+        }
+        journalDone = true;
+        replyIdler.wake();
+    }
+
+    private void runReply() {
+        long next = 0;
+        int spins = 0;
+        while (true) {
+            if (journaled < next) {
+                if (journalDone && journaled < next) break;
+                spins = replyIdler.idle(spins);
+                continue;
+            }
+            spins = replyIdler.busy();
+            Slot slot = ring[(int) next & mask];
+            Reply reply = slot.reply;
+            slot.reply = null;
+            slot.from = slot.to = null;
+            try {
+                reply.completed(slot.status, slot.status == Status.ACCEPTED ? slot.account : null,
+                        slot.status == Status.ACCEPTED ? slot.balance : 0);
+            } catch (RuntimeException e) {
+                System.err.println("Ledger reply failed: " + e.getMessage());
+            }
+            replied = next++;
+        }
+    }
+
+    /** A publisher's wait for a free slot: the ring is only full while the stages are busy. */
+    private static int idle(int spins) {
+        if (spins < SPIN_LIMIT) {
+            Thread.onSpinWait();
+        } else if (spins < YIELD_LIMIT) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return spins + 1;
+    }
+
+    /**
+     * A stage thread waiting for the stage before it. After spinning and yielding it announces
+     * that it will park, goes back once more to look for work, and only then parks, with no
+     * timeout. Whoever hands it work writes its cursor before reading {@link #parked}, so
+     * either the stage sees the work or the waker sees the flag and unparks it.
+     */
+    private static final class Idler {
+        volatile Thread thread;
+        private volatile boolean parked;
+
+        int idle(int spins) {
+            if (spins < SPIN_LIMIT) {
+                Thread.onSpinWait();
+            } else if (spins < YIELD_LIMIT) {
+                Thread.yield();
+            } else if (!parked) {
+                parked = true; // the caller re-checks its cursor before the next call parks
+            } else {
+                LockSupport.park(this);
+            }
+            return spins + 1;
+        }
+
+        /** Called when the stage finds work; returns the reset spin count. */
+        int busy() {
+            if (parked) parked = false;
+            return 0;
+        }
+
+        void wake() {
+            if (parked) LockSupport.unpark(thread);
+        }
+    }
+
+    /** Stops accepting requests, finishes everything already published and stops the threads. */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        applyIdler.wake();
+        try {
+            applyThread.join();
+            journalThread.join();
+            replyThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+}
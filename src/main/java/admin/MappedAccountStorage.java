@@ -0,0 +1,387 @@
+package admin;
+
+import client.User;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accounts stored as fixed-width slots in a memory-mapped file. A balance change is an
+ * in-place write of eight bytes at a computed offset instead of a rewrite of users.txt.
+ * Indexes by account number and username are rebuilt from the slots when the file is opened.
+ *
+ * <pre>
+ * header (64 bytes): magic, version, slot size, used slot count
+ * slot  (160 bytes): accNo[16] role[8] username[32] passwordSha256[32] fullName[64] balanceCents[8]
+ * </pre>
+ * Text fields are UTF-8 and zero padded. An account with a field too long for its slot is
+ * refused rather than truncated, since the indexes are keyed on what is stored. Writers
+ * serialize on a {@link ReentrantLock} rather than the monitor because they may wait on it for
+ * a force, and a virtual thread blocked inside a monitor pins its carrier thread. Postings
+ * share forces through a {@link GroupCommit}: each puts its balances under the lock, and one
+ * force outside it covers every posting made while the previous force ran.
+ */
+public class MappedAccountStorage implements AccountStorage {
+    public static final String ACCOUNT_FILE = "src/main/java/accounts.dat";
+
+    private static final int MAGIC = 0x41434354; // "ACCT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 160;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int ACC_NO = 0, ACC_NO_LEN = 16;
+    private static final int ROLE = 16, ROLE_LEN = 8;
+    private static final int USERNAME = 24, USERNAME_LEN = 32;
+    private static final int PASSWORD = 56, PASSWORD_LEN = 32;
+    private static final int FULL_NAME = 88, FULL_NAME_LEN = 64;
+    private static final int BALANCE = 152;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer map;
+    private final Map<String, Integer> slotByAccountNo = new ConcurrentHashMap<>();
+    private final Map<String, Integer> slotByUsername = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final GroupCommit commits = new GroupCommit(lock, () -> {
+        try {
+            map.force();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    });
+    private int count;
+
+    private MappedAccountStorage(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    public static MappedAccountStorage open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedAccountStorage storage = new MappedAccountStorage(channel);
+        try {
+            if (channel.size() == 0) {
+                storage.remap(INITIAL_CAPACITY);
+                storage.map.putInt(0, MAGIC);
+                storage.map.putInt(4, VERSION);
+                storage.map.putInt(8, SLOT_SIZE);
+                storage.map.putInt(12, 0);
+            } else {
+                storage.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                if (storage.map.getInt(0) != MAGIC || storage.map.getInt(8) != SLOT_SIZE) {
+                    throw new IOException("Not an account table: " + file);
+                }
+                storage.count = storage.map.getInt(12);
+                for (int slot = 0; slot < storage.count; slot++) {
+                    storage.index(slot);
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return storage;
+    }
+
+    /** Opens the account table, importing users.txt first if the table does not exist yet. */
+    public static MappedAccountStorage openOrImport(File file, File userFile) throws IOException {
+        boolean fresh = !file.exists() || file.length() == 0;
+        MappedAccountStorage storage = open(file);
+        if (fresh && userFile.exists()) {
+            storage.importFrom(AccountStore.load(userFile));
+        }
+        return storage;
+    }
+
+    private void remap(int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+        if (size > Integer.MAX_VALUE) throw new IOException("Account table full");
+        if (map != null) map.force();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private int capacity() {
+        return (map.capacity() - HEADER_SIZE) / SLOT_SIZE;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void index(int slot) {
+        int base = offset(slot);
+        slotByAccountNo.put(readText(base + ACC_NO, ACC_NO_LEN), slot);
+        slotByUsername.putIfAbsent(readText(base + USERNAME, USERNAME_LEN).toLowerCase(Locale.ROOT), slot);
+    }
+
+    private User read(int slot) {
+        int base = offset(slot);
+        return new User(
+                readText(base + ACC_NO, ACC_NO_LEN),
+                readText(base + ROLE, ROLE_LEN),
+                readText(base + USERNAME, USERNAME_LEN),
+                readPassword(base + PASSWORD),
+                readText(base + FULL_NAME, FULL_NAME_LEN),
+                map.getLong(base + BALANCE));
+    }
+
+    /** Throws if {@code user} does not fit a slot, before anything is written. */
+    private static void check(User user) throws IOException {
+        checkText("Account number", user.accountNo, ACC_NO_LEN);
+        checkText("Role", user.role, ROLE_LEN);
+        checkText("Username", user.username, USERNAME_LEN);
+        checkText("Full name", user.fullName, FULL_NAME_LEN);
+        if (user.password == null || !user.password.matches("[0-9a-fA-F]{" + PASSWORD_LEN * 2 + "}")) {
+            throw new IOException("Password of " + user.accountNo + " must be a hex SHA-256 digest");
+        }
+    }
+
+    private static void checkText(String field, String value, int length) throws IOException {
+        if (value == null) throw new IOException(field + " is missing");
+        if (value.getBytes(StandardCharsets.UTF_8).length > length) {
+            throw new IOException(field + " longer than " + length + " bytes: " + value);
+        }
+    }
+
+    private void write(int slot, User user) {
+        int base = offset(slot);
+        writeText(base + ACC_NO, ACC_NO_LEN, user.accountNo);
+        writeText(base + ROLE, ROLE_LEN, user.role);
+        writeText(base + USERNAME, USERNAME_LEN, user.username);
+        writePassword(base + PASSWORD, user.password);
+        writeText(base + FULL_NAME, FULL_NAME_LEN, user.fullName);
+        map.putLong(base + BALANCE, user.balanceCents);
+    }
+
+    private String readText(int position, int length) {
+        ByteBuffer view = map.duplicate();
+        byte[] bytes = new byte[length];
+        view.position(position);
+        view.get(bytes);
+        int end = 0;
+        while (end < length && bytes[end] != 0) end++;
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private void writeText(int position, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < length; i++) {
+            map.put(position + i, i < bytes.length ? bytes[i] : 0);
+        }
+    }
+
+    private String readPassword(int position) {
+        StringBuilder hex = new StringBuilder(PASSWORD_LEN * 2);
+        for (int i = 0; i < PASSWORD_LEN; i++) {
+            hex.append(String.format("%02x", map.get(position + i)));
+        }
+        return hex.toString();
+    }
+
+    private void writePassword(int position, String hex) {
+        for (int i = 0; i < PASSWORD_LEN; i++) {
+            map.put(position + i, (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16));
+        }
+    }
+
+    private Integer slotOf(String accountNo) {
+        return accountNo == null ? null : slotByAccountNo.get(accountNo.trim());
+    }
+
+    @Override
+    public User findByAccountNo(String accountNo) {
+        Integer slot = slotOf(accountNo);
+        return slot == null ? null : read(slot);
+    }
+
+    @Override
+    public User authenticate(String username, String hashedPassword) {
+        if (username == null) return null;
+        Integer slot = slotByUsername.get(username.toLowerCase(Locale.ROOT));
+        if (slot == null) return null;
+        User user = read(slot);
+        return user.username.equals(username) && user.password.equals(hashedPassword) ? user : null;
+    }
+
+    @Override
+    public boolean usernameExists(String username) {
+        return username != null && slotByUsername.containsKey(username.trim().toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public long getBalance(String accountNo) {
+        Integer slot = slotOf(accountNo);
+        return slot == null ? -1 : map.getLong(offset(slot) + BALANCE);
+    }
+
+    @Override
+    public String getFullName(String accountNo) {
+        Integer slot = slotOf(accountNo);
+        return slot == null ? "" : readText(offset(slot) + FULL_NAME, FULL_NAME_LEN);
+    }
+
+    @Override
+    public int size() {
+        return slotByAccountNo.size();
+    }
+
+    @Override
+    public List<User> accounts() {
+        lock.lock();
+        try {
+            List<User> users = new ArrayList<>(count);
+            for (int slot = 0; slot < count; slot++) users.add(read(slot));
+            return users;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean register(User user) throws IOException {
+        lock.lock();
+        try {
+            commits.check();
+            if (slotByAccountNo.containsKey(user.accountNo)) return false;
+            check(user);
+            commits.awaitIdle(); // append may remap
+            append(user);
+            commits.appended();
+            commits.forceAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(User user) throws IOException {
+        if (count == capacity()) remap(capacity() * 2);
+        write(count, user);
+        index(count);
+        count++;
+        map.putInt(12, count);
+    }
+
+    @Override
+    public void postBalances(User[] accounts, long[] balances) throws IOException {
+        lock.lock();
+        try {
+            commits.check();
+            put(accounts, balances);
+            commits.await(commits.appended());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void postBalances(List<User[]> accounts, List<long[]> balances) throws IOException {
+        lock.lock();
+        try {
+            commits.check();
+            for (int i = 0; i < accounts.size(); i++) put(accounts.get(i), balances.get(i));
+            commits.await(commits.appended());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(User[] accounts, long[] balances) throws IOException {
+        for (int i = 0; i < accounts.length; i++) {
+            Integer slot = slotOf(accounts[i].accountNo);
+            if (slot == null) throw new IOException("Unknown account " + accounts[i].accountNo);
+            map.putLong(offset(slot) + BALANCE, balances[i]);
+            accounts[i].balanceCents = balances[i];
+        }
+    }
+
+    @Override
+    public void checkpoint() {
+        map.force();
+    }
+
+    @Override
+    public String describeRecovery() {
+        return "mapped account table";
+    }
+
+    @Override
+    public long getReplayedRecords() {
+        return 0;
+    }
+
+    /** Adds the accounts not already in the table; if any of them does not fit, adds none. */
+    public void importFrom(AccountStore store) throws IOException {
+        lock.lock();
+        try {
+            commits.check();
+            List<User> users = store.snapshot();
+            for (User user : users) check(user);
+            commits.awaitIdle(); // append may remap
+            for (User user : users) {
+                if (!slotByAccountNo.containsKey(user.accountNo)) append(user);
+            }
+            commits.appended();
+            commits.forceAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public AccountStore exportTo() {
+        lock.lock();
+        try {
+            AccountStore store = new AccountStore();
+            for (int slot = 0; slot < count; slot++) {
+                store.add(read(slot));
+            }
+            return store;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            commits.awaitIdle();
+            map.force();
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Converts between users.txt and the mapped account table: {@code import|export <users.txt> <accounts.dat>}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.err.println("Usage: MappedAccountStorage import|export <users.txt> <accounts.dat>");
+            System.exit(1);
+        }
+        File userFile = new File(args[1]);
+        File tableFile = new File(args[2]);
+
+        if (args[0].equals("import")) {
+            try (MappedAccountStorage storage = open(tableFile)) {
+                storage.importFrom(AccountStore.load(userFile));
+                System.out.println("Imported " + storage.size() + " accounts into " + tableFile);
+            }
+        } else {
+            try (MappedAccountStorage storage = open(tableFile)) {
+                storage.exportTo().writeTo(userFile);
+                System.out.println("Exported " + storage.size() + " accounts to " + userFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package admin;
+
+import client.ClusterMap;
+import client.User;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The accounts a {@link ClusterNode} owns, out of an {@link AccountStorage} that may also hold
+ * copies of other nodes' accounts (a users.txt shared when the cluster was split, say). Those
+ * copies are stale the moment their owner posts, so they are not there for lookups, logins or
+ * registrations, and posting to one throws: a request routed to the wrong node fails instead
+ * of moving money the owner never sees. Posting to an account the node has fenced throws too.
+ */
+public class OwnedAccountStorage implements AccountStorage {
+    private final AccountStorage storage;
+    private final ClusterMap map;
+    private final ClusterMap.Node self;
+    private final Predicate<String> fenced;
+
+    public OwnedAccountStorage(AccountStorage storage, ClusterMap map, ClusterMap.Node self) {
+        this(storage, map, self, accountNo -> false);
+    }
+
+    /** {@code fenced} names accounts no posting may touch for now; it is asked under the account's lock. */
+    public OwnedAccountStorage(AccountStorage storage, ClusterMap map, ClusterMap.Node self, Predicate<String> fenced) {
+        this.storage = storage;
+        this.map = map;
+        this.self = self;
+        this.fenced = fenced;
+    }
+
+    private boolean owns(String accountNo) {
+        return accountNo != null && map.nodeFor(accountNo.trim()) == self;
+    }
+
+    @Override
+    public User findByAccountNo(String accountNo) {
+        return owns(accountNo) ? storage.findByAccountNo(accountNo) : null;
+    }
+
+    @Override
+    public User authenticate(String username, String hashedPassword) {
+        User user = storage.authenticate(username, hashedPassword);
+        return user != null && owns(user.accountNo) ? user : null;
+    }
+
+    /** Usernames are unique across the cluster, so a stale copy still counts as taken. */
+    @Override
+    public boolean usernameExists(String username) {
+        return storage.usernameExists(username);
+    }
+
+    @Override
+    public long getBalance(String accountNo) {
+        return owns(accountNo) ? storage.getBalance(accountNo) : -1;
+    }
+
+    @Override
+    public String getFullName(String accountNo) {
+        return owns(accountNo) ? storage.getFullName(accountNo) : "";
+    }
+
+    @Override
+    public int size() {
+        return accounts().size();
+    }
+
+    @Override
+    public List<User> accounts() {
+        List<User> owned = new ArrayList<>();
+        for (User user : storage.accounts()) {
+            if (owns(user.accountNo)) owned.add(user);
+        }
+        return owned;
+    }
+
+    @Override
+    public boolean register(User user) throws IOException {
+        return owns(user.accountNo) && storage.register(user);
+    }
+
+    @Override
+    public void postBalances(User[] accounts, long[] balances) throws IOException {
+        checkOwned(accounts);
+        storage.postBalances(accounts, balances);
+    }
+
+    @Override
+    public void postBalances(List<User[]> accounts, List<long[]> balances) throws IOException {
+        for (User[] posting : accounts) checkOwned(posting);
+        storage.postBalances(accounts, balances);
+    }
+
+    private void checkOwned(User[] accounts) throws IOException {
+        for (User account : accounts) {
+            if (!owns(account.accountNo)) {
+                throw new IOException("Account " + account.accountNo + " belongs to " + map.nodeFor(account.accountNo)
+                        + ", not " + self);
+            }
+            if (fenced.test(account.accountNo)) {
+                throw new IOException("Account " + account.accountNo + " is fenced until a cross-node transfer settles");
+            }
+        }
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        storage.checkpoint();
+    }
+
+    @Override
+    public String describeRecovery() {
+        return storage.describeRecovery();
+    }
+
+    @Override
+    public long getReplayedRecords() {
+        return storage.getReplayedRecords();
+    }
+
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
+}
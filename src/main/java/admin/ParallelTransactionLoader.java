@@ -0,0 +1,176 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Parses a transaction history in parallel on a {@link ForkJoinPool}. A text log is cut into
+ * byte ranges whose edges are moved forward to the next blank line, so every range holds
+ * whole blocks; sealed segments are parsed one per task. Results come back in log order.
+ * Parallelism is -Dpayment.loader.parallelism (default: available processors).
+ */
+public class ParallelTransactionLoader {
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    private static final long MAX_CHUNK_BYTES = 256L << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    /** An independently parseable piece of the history. */
+    public interface Chunk {
+        void parse(Consumer<Transaction> action) throws IOException;
+    }
+
+    public ParallelTransactionLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public static ParallelTransactionLoader fromSystemProperties() {
+        int parallelism = Integer.getInteger("payment.loader.parallelism", Runtime.getRuntime().availableProcessors());
+        return new ParallelTransactionLoader(new ForkJoinPool(Math.max(1, parallelism)));
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /** Parses every chunk concurrently and concatenates the results in chunk order. */
+    public List<Transaction> load(List<Chunk> chunks) throws IOException {
+        try {
+            return pool.invoke(new ParseTask(chunks, 0, chunks.size()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public List<Transaction> loadText(File file) throws IOException {
+        return load(textChunks(file));
+    }
+
+    /** Splits a text log into block-aligned byte ranges, a few per worker thread. */
+    public List<Chunk> textChunks(File file) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        if (!file.exists()) return chunks;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long target = size / ((long) pool.getParallelism() * CHUNKS_PER_THREAD);
+            long chunkBytes = Math.max(MIN_CHUNK_BYTES, Math.min(MAX_CHUNK_BYTES, target));
+
+            long start = 0;
+            while (start < size) {
+                long end = start + chunkBytes >= size ? size : nextBoundary(channel, start + chunkBytes, size);
+                chunks.add(textChunk(file, start, end));
+                start = end;
+            }
+        }
+        return chunks;
+    }
+
+    private static Chunk textChunk(File file, long start, long end) {
+        return action -> {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                try (Reader reader = new InputStreamReader(new ByteBufferInputStream(bytes), StandardCharsets.UTF_8)) {
+                    TransactionText.readBlocks(reader, action);
+                }
+            }
+        };
+    }
+
+    /**
+     * The position just after the first blank line that starts at or after {@code from},
+     * or {@code size} if there is none. A blank line is empty or holds only whitespace.
+     */
+    static long nextBoundary(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from - 1; // the byte before tells whether 'from' starts a line
+        boolean lineStart = false, blank = false;
+        while (position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++, position++) {
+                byte b = buffer.get(i);
+                if (position < from) { // the single look-behind byte
+                    lineStart = b == '\n';
+                    blank = lineStart;
+                    continue;
+                }
+                if (b == '\n') {
+                    if (lineStart && blank) return position + 1;
+                    lineStart = true;
+                    blank = true;
+                } else if (b != ' ' && b != '\t' && b != '\r') {
+                    blank = false;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static class ParseTask extends RecursiveTask<List<Transaction>> {
+        private static final long serialVersionUID = 1L; // never serialized; ForkJoinTask is Serializable
+        private final List<Chunk> chunks;
+        private final int from, to;
+
+        ParseTask(List<Chunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Transaction> compute() {
+            if (to - from == 1) {
+                List<Transaction> result = new ArrayList<>();
+                try {
+                    chunks.get(from).parse(result::add);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return result;
+            }
+            if (to == from) return new ArrayList<>();
+
+            int mid = (from + to) >>> 1;
+            ParseTask left = new ParseTask(chunks, from, mid);
+            left.fork();
+            List<Transaction> right = new ParseTask(chunks, mid, to).compute();
+            List<Transaction> result = left.join();
+            result.addAll(right);
+            return result;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+}
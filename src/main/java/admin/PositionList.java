@@ -0,0 +1,32 @@
+package admin;
+
+import java.util.Arrays;
+
+/** Growable array of packed log positions, see {@link AccountTransactionIndex#position}. */
+final class PositionList {
+    private long[] values = new long[4];
+    private int size;
+
+    void add(long value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Removes every position in the segment and returns the new size. */
+    int removeSegment(int segmentId) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (AccountTransactionIndex.segmentOf(values[i]) != segmentId) values[kept++] = values[i];
+        }
+        size = kept;
+        return size;
+    }
+
+    void copyTo(long[] target, int at) {
+        System.arraycopy(values, 0, target, at, size);
+    }
+}
@@ -0,0 +1,23 @@
+package admin;
+
+/**
+ * The way to a client on a framed connection for frames it did not ask for: the updates
+ * {@link AccountSubscriptions} pushes after a SUBSCRIBE. Each server gives every framed
+ * connection one.
+ */
+interface PushChannel {
+    /**
+     * Sends {@code frame}, or returns false without sending it if the client has fallen so far
+     * behind on reading that it should get nothing more.
+     */
+    boolean push(byte[] frame);
+
+    /** Sends {@code frame} however far behind the client is; for the last frame of a stream. */
+    void pushLast(byte[] frame);
+
+    /** Runs {@code task}, which may block in {@link #push}, off the thread that asked. */
+    void execute(Runnable task);
+
+    /** Runs {@code task} once the connection has closed, or at once if it already has. */
+    void onClose(Runnable task);
+}
@@ -0,0 +1,95 @@
+package admin;
+
+import client.User;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@link AccountStorage} that hands every durable registration and posting to a
+ * {@link ReplicationSource} after the underlying storage has made it durable. Posting order
+ * per account is preserved because callers hold the account's lock while they post.
+ */
+public class ReplicatedAccountStorage implements AccountStorage {
+    private final AccountStorage storage;
+    private final ReplicationSource source;
+
+    public ReplicatedAccountStorage(AccountStorage storage, ReplicationSource source) {
+        this.storage = storage;
+        this.source = source;
+    }
+
+    @Override
+    public User findByAccountNo(String accountNo) {
+        return storage.findByAccountNo(accountNo);
+    }
+
+    @Override
+    public User authenticate(String username, String hashedPassword) {
+        return storage.authenticate(username, hashedPassword);
+    }
+
+    @Override
+    public boolean usernameExists(String username) {
+        return storage.usernameExists(username);
+    }
+
+    @Override
+    public long getBalance(String accountNo) {
+        return storage.getBalance(accountNo);
+    }
+
+    @Override
+    public String getFullName(String accountNo) {
+        return storage.getFullName(accountNo);
+    }
+
+    @Override
+    public int size() {
+        return storage.size();
+    }
+
+    @Override
+    public List<User> accounts() {
+        return storage.accounts();
+    }
+
+    @Override
+    public boolean register(User user) throws IOException {
+        if (!storage.register(user)) return false;
+        source.registered(user);
+        return true;
+    }
+
+    @Override
+    public void postBalances(User[] accounts, long[] balances) throws IOException {
+        storage.postBalances(accounts, balances);
+        source.balancesPosted(accounts, balances);
+    }
+
+    @Override
+    public void postBalances(List<User[]> accounts, List<long[]> balances) throws IOException {
+        storage.postBalances(accounts, balances);
+        for (int i = 0; i < accounts.size(); i++) source.balancesPosted(accounts.get(i), balances.get(i));
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        storage.checkpoint();
+    }
+
+    @Override
+    public String describeRecovery() {
+        return storage.describeRecovery();
+    }
+
+    @Override
+    public long getReplayedRecords() {
+        return storage.getReplayedRecords();
+    }
+
+    @Override
+    public void close() throws IOException {
+        storage.close();
+    }
+}
@@ -0,0 +1,257 @@
+package admin;
+
+import client.Money;
+import client.User;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Primary side of log shipping. Every balance posting, registration and transaction record
+ * gets a sequence number and is kept in a bounded in-memory backlog; standbys connect to
+ * -Dpayment.replication.port and are streamed everything after the position they hold.
+ * A standby that fell out of the backlog, or last followed an earlier run of this server,
+ * first gets every account (a reset) and then the stream. Transaction history from before a
+ * standby first connected is not resent, so seed a new standby with a copy of the data files.
+ * Backlog size is -Dpayment.replication.backlog (default 100,000 records).
+ *
+ * Stream, one record per line; a transaction's block follows its header line:
+ * <pre>
+ *   STREAM|epoch|seq                 the standby resumes after seq
+ *   RESET|epoch|seq                  followed by A lines and END_RESET, then the stream after seq
+ *   A|userLine                       one account, balance included
+ *   seq|millis|B|accNo|balance[|accNo|balance]
+ *   seq|millis|U|userLine
+ *   seq|millis|T                     followed by the transaction block and its blank line
+ *   H|seq|millis                     heartbeat carrying the newest sequence number
+ * </pre>
+ * Standbys answer with ACK|seq lines, which {@link #describe()} reports as lag.
+ */
+public class ReplicationSource implements TransactionLogWriter.AppendListener, Closeable {
+    static final long HEARTBEAT_MILLIS = 500;
+
+    private static final class Record {
+        final long seq, millis;
+        final String text; // everything after "seq|millis|"
+
+        Record(long seq, long millis, String text) {
+            this.seq = seq;
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+
+    /** What the primary knows about one connected standby. */
+    private static final class Follower {
+        final String address;
+        volatile long acked;
+
+        Follower(String address, long acked) {
+            this.address = address;
+            this.acked = acked;
+        }
+    }
+
+    private final AccountStorage storage;
+    private final long epoch = System.currentTimeMillis();
+    private final Record[] backlog;
+    private long lastSeq; // guarded by this
+    private final Map<Socket, Follower> followers = new ConcurrentHashMap<>();
+    private final ServerSocket server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "replication-sender");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running = true;
+
+    public ReplicationSource(AccountStorage storage, int port, int backlogSize) throws IOException {
+        this.storage = storage;
+        this.backlog = new Record[Math.max(1, backlogSize)];
+        this.server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        executor.submit(this::acceptStandbys);
+    }
+
+    /** A source on -Dpayment.replication.port, or null if that is not set. */
+    public static ReplicationSource fromSystemProperties(AccountStorage storage) throws IOException {
+        Integer port = Integer.getInteger("payment.replication.port");
+        if (port == null) return null;
+        return new ReplicationSource(storage, port, Integer.getInteger("payment.replication.backlog", 100_000));
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    // ---- publishing ----
+
+    void balancesPosted(User[] accounts, long[] balances) {
+        StringBuilder text = new StringBuilder(32 * accounts.length).append('B');
+        for (int i = 0; i < accounts.length; i++) {
+            text.append('|').append(accounts[i].accountNo).append('|');
+            Money.appendTo(text, balances[i]);
+        }
+        publish(text.toString());
+    }
+
+    void registered(User user) {
+        publish("U|" + AccountStore.toUserLine(user));
+    }
+
+    /** Ships each transaction record once the writer has forced it. */
+    @Override
+    public void appended(long offset, byte[] record) {
+        String block = new String(record, StandardCharsets.UTF_8);
+        int end = block.length();
+        while (end > 0 && (block.charAt(end - 1) == '\n' || block.charAt(end - 1) == '\r')) end--;
+        if (end > 0) publish("T\n" + block.substring(0, end) + "\n");
+    }
+
+    private synchronized void publish(String text) {
+        long seq = ++lastSeq;
+        backlog[(int) (seq % backlog.length)] = new Record(seq, System.currentTimeMillis(), text);
+        notifyAll();
+    }
+
+    /**
+     * Records after {@code seq}, waiting up to {@code waitMillis} for one. Throws if the
+     * backlog no longer holds them.
+     */
+    private synchronized List<Record> after(long seq, long waitMillis) throws IOException, InterruptedException {
+        if (lastSeq <= seq && running) wait(waitMillis);
+        if (seq < lastSeq - backlog.length) throw new IOException("Standby fell out of the backlog at " + seq);
+        List<Record> records = new ArrayList<>((int) Math.min(1024, lastSeq - seq));
+        for (long s = seq + 1; s <= lastSeq && records.size() < 1024; s++) records.add(backlog[(int) (s % backlog.length)]);
+        return records;
+    }
+
+    // ---- standbys ----
+
+    private void acceptStandbys() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                executor.submit(() -> serve(socket));
+            } catch (SocketException e) {
+                return; // closed
+            } catch (IOException | RejectedExecutionException e) {
+                System.err.println("Replication accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        String address = socket.getRemoteSocketAddress().toString();
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            if (!"REPLICATE".equals(in.readLine())) return;
+            long theirEpoch = 0, theirSeq = -1;
+            String line;
+            while ((line = in.readLine()) != null && !line.trim().isEmpty()) {
+                String[] parts = line.split(":", 2);
+                if (parts.length < 2) continue;
+                if (parts[0].trim().equals("Epoch")) theirEpoch = Long.parseLong(parts[1].trim());
+                if (parts[0].trim().equals("Seq")) theirSeq = Long.parseLong(parts[1].trim());
+            }
+
+            long from;
+            boolean resume;
+            synchronized (this) {
+                resume = theirEpoch == epoch && theirSeq <= lastSeq && theirSeq >= lastSeq - backlog.length;
+                from = resume ? theirSeq : lastSeq;
+            }
+            if (resume) {
+                out.write("STREAM|" + epoch + "|" + from + "\n");
+            } else {
+                // Postings after `from` may already show in these balances; replaying them is harmless.
+                out.write("RESET|" + epoch + "|" + from + "\n");
+                for (User user : storage.accounts()) out.write("A|" + AccountStore.toUserLine(user) + "\n");
+                out.write("END_RESET\n");
+            }
+            out.flush();
+
+            Follower follower = new Follower(address, from);
+            followers.put(s, follower);
+            executor.submit(() -> readAcks(in, follower));
+            long sent = from;
+            while (running) {
+                List<Record> records = after(sent, HEARTBEAT_MILLIS);
+                if (records.isEmpty()) {
+                    out.write("H|" + getLastSeq() + "|" + System.currentTimeMillis() + "\n");
+                } else {
+                    for (Record r : records) {
+                        out.write(Long.toString(r.seq));
+                        out.write('|');
+                        out.write(Long.toString(r.millis));
+                        out.write('|');
+                        out.write(r.text);
+                        out.write('\n');
+                    }
+                    sent = records.get(records.size() - 1).seq;
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Replication to " + address + " stopped: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("Replication to " + address + " failed: " + e);
+        } finally {
+            followers.remove(socket);
+        }
+    }
+
+    private static void readAcks(BufferedReader in, Follower follower) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("ACK|")) follower.acked = Long.parseLong(line.substring(4).trim());
+            }
+        } catch (IOException | NumberFormatException ignored) {
+            // the sender notices the broken connection on its next write
+        }
+    }
+
+    /** One line per connected standby with the records it has not acknowledged yet. */
+    public String describe() {
+        long last = getLastSeq();
+        if (followers.isEmpty()) return "Replication: primary at seq " + last + ", no standby connected.";
+        StringBuilder sb = new StringBuilder("Replication: primary at seq ").append(last).append(';');
+        for (Follower f : followers.values()) {
+            sb.append(" standby ").append(f.address).append(" acked ").append(f.acked)
+                    .append(" (lag ").append(Math.max(0, last - f.acked)).append(" records)");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        server.close();
+        for (Socket socket : followers.keySet()) socket.close();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,329 @@
+package admin;
+
+import client.Money;
+import client.User;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Standby side of log shipping. Follows a {@link ReplicationSource}, applies every record to
+ * this server's own storage and transaction log, and leaves the server free to answer reads
+ * meanwhile. It becomes the primary when {@link #promote} is called (the admin panel's
+ * Promote Standby button): it stops following and the server starts taking writes. The old
+ * primary must then be brought back as a standby of the new one.
+ *
+ * <p>With -Dpayment.standby.failoverMillis above 0 (default 0, off) the standby also promotes
+ * itself once the primary has been silent that long. Nothing fences the old primary, so a
+ * partition between just the two servers leaves both taking writes from the clients that
+ * reach them, and their balances diverge. Only turn it on where something outside the pair
+ * (a supervisor, or a network that cuts the old primary off from clients too) guarantees the
+ * old primary is gone.
+ *
+ * <p>The position (the primary's run and sequence number) is kept in replication.pos, so a
+ * restarted standby resumes where it stopped while the primary's backlog still covers it.
+ * Balance postings are absolute and safe to apply twice; a transaction record applied just
+ * before a standby crash may be applied again after it.
+ */
+public class ReplicationStandby implements Closeable {
+    public static final String POSITION_FILE = "src/main/java/replication.pos";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1_000;
+    private static final int MAX_POSTING_BATCH = 1024;
+
+    /** Where replicated transaction records go; the server's transaction log. */
+    public interface TransactionSink {
+        void append(String record) throws IOException;
+    }
+
+    private final AccountStorage storage;
+    private final String host;
+    private final int port;
+    private final File positionFile;
+    private final TransactionSink transactions;
+    private final long failoverMillis;
+    private final Runnable onPromote;
+    private final Thread thread;
+
+    private volatile boolean running = true, promoted, connected, everConnected;
+    private volatile long epoch, appliedSeq, appliedMillis, primarySeq, primaryMillis;
+    private volatile long lastContact = System.currentTimeMillis();
+    private volatile int resets;
+    private Socket socket;
+
+    public ReplicationStandby(AccountStorage storage, String host, int port, File positionFile,
+                              TransactionSink transactions, long failoverMillis, Runnable onPromote) throws IOException {
+        this.storage = storage;
+        this.host = host;
+        this.port = port;
+        this.positionFile = positionFile;
+        this.transactions = transactions;
+        this.failoverMillis = failoverMillis;
+        this.onPromote = onPromote;
+        readPosition();
+        this.thread = new Thread(this::run, "replication-standby");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * A standby of -Dpayment.standby.primary (host:replicationPort), or null if that is not
+     * set. Automatic promotion is off unless -Dpayment.standby.failoverMillis is above 0; see
+     * the class comment for the split-brain it risks.
+     */
+    public static ReplicationStandby fromSystemProperties(AccountStorage storage, TransactionSink transactions,
+                                                          Runnable onPromote) throws IOException {
+        String primary = System.getProperty("payment.standby.primary");
+        if (primary == null || primary.trim().isEmpty()) return null;
+        int colon = primary.lastIndexOf(':');
+        if (colon < 0) throw new IllegalArgumentException("payment.standby.primary must be host:port");
+        return new ReplicationStandby(storage, primary.substring(0, colon).trim(),
+                Integer.parseInt(primary.substring(colon + 1).trim()), new File(POSITION_FILE), transactions,
+                Long.getLong("payment.standby.failoverMillis", 0), onPromote);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    /** Records the primary has sent word of that are not applied here yet. */
+    public long getLagRecords() {
+        return Math.max(0, primarySeq - appliedSeq);
+    }
+
+    /** How far, in the primary's time, the newest applied record is behind the newest known one. */
+    public long getLagMillis() {
+        return getLagRecords() == 0 ? 0 : Math.max(0, primaryMillis - appliedMillis);
+    }
+
+    /** Full resyncs since start; 0 when every connection resumed from the saved position. */
+    public int getResets() {
+        return resets;
+    }
+
+    public String describe() {
+        if (promoted) return "Replication: promoted to primary at seq " + appliedSeq + ".";
+        return String.format("Replication: standby of %s:%d %s, applied seq %d, lag %d records / %d ms, last contact %d ms ago.",
+                host, port, connected ? "connected" : "disconnected", appliedSeq, getLagRecords(), getLagMillis(),
+                System.currentTimeMillis() - lastContact);
+    }
+
+    /** Stops following and lets the server take writes. */
+    public synchronized void promote() {
+        if (promoted) return;
+        promoted = true;
+        running = false;
+        closeSocket();
+        System.err.println("Standby promoted to primary at seq " + appliedSeq);
+        if (onPromote != null) onPromote.run();
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket s = new Socket()) {
+                synchronized (this) {
+                    if (!running) return;
+                    socket = s;
+                }
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                lastContact = System.currentTimeMillis();
+                long silence = ReplicationSource.HEARTBEAT_MILLIS * 2; // without failover, only to notice a dead primary
+                s.setSoTimeout((int) (failoverMillis > 0 ? Math.max(100, Math.min(silence, failoverMillis / 2)) : silence));
+                s.setTcpNoDelay(true);
+                follow(s);
+            } catch (IOException | RuntimeException e) {
+                if (running && connected) System.err.println("Lost the primary: " + e.getMessage());
+            } finally {
+                connected = false;
+            }
+            if (!running) return;
+            // Never promote without having followed a primary: it may simply not be up yet.
+            if (failoverMillis > 0 && everConnected && System.currentTimeMillis() - lastContact > failoverMillis) {
+                promote();
+                return;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket s) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+        out.write("REPLICATE\nEpoch: " + epoch + "\nSeq: " + appliedSeq + "\n\n");
+        out.flush();
+
+        String[] start = readLine(in).split("\\|");
+        long startEpoch = Long.parseLong(start[1]), startSeq = Long.parseLong(start[2]);
+        if (start[0].equals("RESET")) {
+            applyReset(in);
+            resets++;
+        } else if (!start[0].equals("STREAM")) {
+            throw new IOException("Unexpected replication answer: " + start[0]);
+        }
+        epoch = startEpoch;
+        appliedSeq = primarySeq = startSeq;
+        savePosition();
+        connected = everConnected = true;
+
+        List<User[]> postings = new ArrayList<>();
+        List<long[]> balances = new ArrayList<>();
+        while (running) {
+            String line = readLine(in);
+            if (line.startsWith("H|")) {
+                String[] f = line.split("\\|");
+                primarySeq = Math.max(primarySeq, Long.parseLong(f[1]));
+                primaryMillis = Long.parseLong(f[2]);
+                continue;
+            }
+            String[] f = line.split("\\|", 4);
+            long seq = Long.parseLong(f[0]), millis = Long.parseLong(f[1]);
+            if (seq != appliedSeq + 1 + postings.size()) throw new IOException("Replication gap at " + seq);
+            switch (f[2]) {
+                case "B":
+                    addPosting(f[3], postings, balances);
+                    break;
+                case "U":
+                    flush(postings, balances);
+                    User user = AccountStore.parseUserLine(f[3]);
+                    if (user != null) storage.register(user);
+                    break;
+                case "T":
+                    flush(postings, balances);
+                    transactions.append(readBlock(in));
+                    break;
+                default:
+                    throw new IOException("Unknown replication record: " + f[2]);
+            }
+            primarySeq = Math.max(primarySeq, seq);
+            primaryMillis = Math.max(primaryMillis, millis);
+            if (postings.isEmpty()) appliedSeq = seq;
+            appliedMillis = millis;
+            if (postings.size() >= MAX_POSTING_BATCH || !in.ready()) {
+                flush(postings, balances);
+                savePosition();
+                out.write("ACK|" + appliedSeq + "\n");
+                out.flush();
+            }
+        }
+    }
+
+    private String readLine(BufferedReader in) throws IOException {
+        while (true) {
+            try {
+                String line = in.readLine();
+                if (line == null) throw new EOFException("Primary closed the stream");
+                lastContact = System.currentTimeMillis();
+                return line;
+            } catch (SocketTimeoutException e) {
+                if (!running || System.currentTimeMillis() - lastContact > failoverMillis && failoverMillis > 0) throw e;
+            }
+        }
+    }
+
+    private String readBlock(BufferedReader in) throws IOException {
+        StringBuilder block = new StringBuilder(256);
+        String line;
+        while (!(line = readLine(in)).isEmpty()) block.append(line).append('\n');
+        return block.append('\n').toString();
+    }
+
+    private void addPosting(String text, List<User[]> postings, List<long[]> balances) throws IOException {
+        String[] f = text.split("\\|");
+        User[] users = new User[f.length / 2];
+        long[] values = new long[users.length];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = storage.findByAccountNo(f[2 * i]);
+            if (users[i] == null) throw new IOException("Replicated posting for unknown account " + f[2 * i]);
+            values[i] = Money.parse(f[2 * i + 1]);
+        }
+        postings.add(users);
+        balances.add(values);
+    }
+
+    /** Posts the collected postings as one durable batch and advances the applied position past them. */
+    private void flush(List<User[]> postings, List<long[]> balances) throws IOException {
+        if (postings.isEmpty()) return;
+        storage.postBalances(postings, balances);
+        appliedSeq += postings.size();
+        postings.clear();
+        balances.clear();
+    }
+
+    private void applyReset(BufferedReader in) throws IOException {
+        List<User[]> postings = new ArrayList<>();
+        List<long[]> balances = new ArrayList<>();
+        String line;
+        while (!(line = readLine(in)).equals("END_RESET")) {
+            if (!line.startsWith("A|")) continue;
+            User user = AccountStore.parseUserLine(line.substring(2));
+            if (user == null) continue;
+            User existing = storage.findByAccountNo(user.accountNo);
+            if (existing == null) {
+                storage.register(user);
+            } else if (existing.balanceCents != user.balanceCents) {
+                postings.add(new User[]{existing});
+                balances.add(new long[]{user.balanceCents});
+            }
+        }
+        if (!postings.isEmpty()) storage.postBalances(postings, balances);
+    }
+
+    private void readPosition() throws IOException {
+        if (!positionFile.exists()) return;
+        String[] f = new String(Files.readAllBytes(positionFile.toPath()), StandardCharsets.UTF_8).trim().split("\\s+");
+        if (f.length < 2) return;
+        try {
+            epoch = Long.parseLong(f[0]);
+            appliedSeq = Long.parseLong(f[1]);
+        } catch (NumberFormatException e) {
+            epoch = appliedSeq = 0;
+        }
+    }
+
+    private void savePosition() throws IOException {
+        Path temp = positionFile.toPath().resolveSibling(positionFile.getName() + ".tmp");
+        Files.write(temp, (epoch + " " + appliedSeq + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, positionFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void closeSocket() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already broken
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            running = false;
+            closeSocket();
+        }
+        try {
+            thread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package admin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Cuts the client text protocol into whole requests, one connection per decoder. A request
+ * is a command line, body lines and a blank line; REPLICATION_STATUS stands alone and
+ * CHECK_DUPLICATE is followed by the name and one more line. Lines can be offered one at a
+ * time ({@link #offer}) or raw bytes fed in whatever pieces the network delivers them
+ * ({@link #feed}); a partial line is kept until the rest arrives.
+ */
+public class RequestDecoder {
+    /** Longest line accepted; a client sending more is cut off. */
+    public static final int MAX_LINE_BYTES = 64 << 10;
+
+    private static final Set<String> COMMANDS = Set.of("AUTHENTICATE_USER", "REGISTER_USER", "GET_RECIPIENT_NAME",
+            "TRANSFER_REQUEST", "GET_BALANCE", "WITHDRAW_DEPOSIT_REQUEST", "GET_TRANSACTIONS");
+    private static final int RETAINED_LINE_BYTES = 1 << 10;
+
+    public static final class Request {
+        public final String command;
+        public final String body; // the body lines, each ending in '\n'
+
+        public Request(String command, String body) {
+            this.command = command;
+            this.body = body;
+        }
+    }
+
+    private String command; // waiting for its blank line
+    private final StringBuilder block = new StringBuilder();
+    private boolean duplicateCheck;
+    private String duplicateName;
+    private byte[] line; // partial line from feed(), allocated on first use
+    private int lineLength;
+
+    /** Takes one line without its terminator; returns the request it completes, if any. */
+    public Request offer(String line) {
+        if (duplicateCheck) {
+            if (duplicateName == null) {
+                duplicateName = line.trim();
+                return null;
+            }
+            Request request = new Request("CHECK_DUPLICATE", duplicateName);
+            duplicateCheck = false;
+            duplicateName = null;
+            return request;
+        }
+        if (COMMANDS.contains(line)) {
+            command = line;
+            if (line.equals("WITHDRAW_DEPOSIT_REQUEST") || line.equals("GET_TRANSACTIONS")) block.setLength(0);
+            return null;
+        }
+        if (line.equals("REPLICATION_STATUS")) return new Request(line, "");
+        if (line.equals("CHECK_DUPLICATE")) {
+            duplicateCheck = true;
+            return null;
+        }
+        if (line.trim().isEmpty()) {
+            if (command == null) return null;
+            Request request = new Request(command, block.toString());
+            command = null;
+            block.setLength(0);
+            return request;
+        }
+        block.append(line).append('\n');
+        return null;
+    }
+
+    /**
+     * Consumes every byte in {@code bytes}, handing each completed request to {@code requests}.
+     * Lines end in '\n' with an optional '\r' before it. Throws if a line passes
+     * {@link #MAX_LINE_BYTES}.
+     */
+    public void feed(ByteBuffer bytes, Consumer<Request> requests) throws IOException {
+        while (bytes.hasRemaining()) {
+            byte b = bytes.get();
+            if (b != '\n') {
+                if (line == null) line = new byte[128];
+                if (lineLength == line.length) {
+                    if (lineLength >= MAX_LINE_BYTES) throw new IOException("Request line longer than " + MAX_LINE_BYTES + " bytes");
+                    line = Arrays.copyOf(line, Math.min(MAX_LINE_BYTES, lineLength * 2));
+                }
+                line[lineLength++] = b;
+                continue;
+            }
+            int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+            String text = length == 0 ? "" : new String(line, 0, length, StandardCharsets.UTF_8);
+            lineLength = 0;
+            if (line != null && line.length > RETAINED_LINE_BYTES) line = null; // idle connections keep little
+            Request request = offer(text);
+            if (request != null) requests.accept(request);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package admin;
+
+import java.io.PrintWriter;
+
+/**
+ * Answers one decoded client request. Replies go to {@code out}, which may also be written
+ * after {@code handle} returns (the async ledger replies from its callback, between
+ * {@link #replyLater} and {@link #endReply}); every reply line is flushed with println.
+ */
+public interface RequestHandler {
+    void handle(RequestDecoder.Request request, PrintWriter out);
+
+    /**
+     * True if answering {@code request} only reads memory, so the {@link SelectorServer} may
+     * run it on its event loop instead of handing it to a worker.
+     */
+    default boolean isQuick(RequestDecoder.Request request) {
+        return false;
+    }
+
+    /**
+     * Marks the reply to the request being handled as finishing after {@code handle} returns.
+     * A framed connection then sends it only at {@link #endReply}; a text connection streams
+     * its lines as they are printed but answers none of the client's later requests until
+     * then, so replies keep the order the requests came in.
+     */
+    static void replyLater(PrintWriter out) {
+        if (out instanceof FramedReply) {
+            ((FramedReply) out).later();
+        } else if (out instanceof TextReply) {
+            ((TextReply) out).later();
+        }
+    }
+
+    /** Completes a reply marked with {@link #replyLater}. */
+    static void endReply(PrintWriter out) {
+        if (out instanceof FramedReply) {
+            ((FramedReply) out).end();
+        } else if (out instanceof TextReply) {
+            ((TextReply) out).end();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Footer of a sealed transaction segment: time range, record count, per-type counts and a
+ * bloom filter of every sender and receiver account number. Queries check it to skip a
+ * segment without reading its records.
+ */
+public class SegmentSummary {
+    private static final int BITS_PER_ACCOUNT = 10;
+    private static final int HASHES = 7;
+
+    private long minMillis = Long.MAX_VALUE;
+    private long maxMillis = Long.MIN_VALUE;
+    private int count;
+    private final Map<String, Integer> typeCounts = new HashMap<>();
+    private long[] bloom;
+
+    /** Sizes the bloom filter for roughly this many records (two account numbers each). */
+    public SegmentSummary(int expectedRecords) {
+        long bits = Math.min(1L << 30, Math.max(64L, (long) expectedRecords * 2 * BITS_PER_ACCOUNT));
+        bloom = new long[(int) ((bits + 63) / 64)];
+    }
+
+    private SegmentSummary() {
+    }
+
+    public void add(Transaction t, long epochMillis) {
+        minMillis = Math.min(minMillis, epochMillis);
+        maxMillis = Math.max(maxMillis, epochMillis);
+        typeCounts.merge(t.type.toUpperCase(Locale.ROOT), 1, Integer::sum);
+        addAccount(t.senderAccountNo);
+        addAccount(t.recipientAccountNo);
+        count++;
+    }
+
+    public long getMinMillis() {
+        return minMillis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean overlaps(long fromMillis, long toMillis) {
+        return count > 0 && maxMillis >= fromMillis && minMillis < toMillis;
+    }
+
+    /** Type names are compared case-insensitively; "All" matches every non-empty segment. */
+    public boolean containsType(String type) {
+        if ("All".equalsIgnoreCase(type)) return count > 0;
+        return typeCounts.getOrDefault(type.toUpperCase(Locale.ROOT), 0) > 0;
+    }
+
+    /** False means the account is definitely absent; true means it may be present. */
+    public boolean mightContainAccount(String accountNo) {
+        int bits = bloom.length * 64;
+        int h1 = accountNo.hashCode(), h2 = mix(h1);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private void addAccount(String accountNo) {
+        int bits = bloom.length * 64;
+        int h1 = accountNo.hashCode(), h2 = mix(h1);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bits);
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private static int mix(int h) {
+        h ^= 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(minMillis);
+        out.writeLong(maxMillis);
+        out.writeInt(count);
+        out.writeInt(typeCounts.size());
+        for (Map.Entry<String, Integer> e : typeCounts.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue());
+        }
+        out.writeInt(bloom.length);
+        for (long word : bloom) out.writeLong(word);
+    }
+
+    public static SegmentSummary readFrom(DataInput in) throws IOException {
+        SegmentSummary summary = new SegmentSummary();
+        summary.minMillis = in.readLong();
+        summary.maxMillis = in.readLong();
+        summary.count = in.readInt();
+        int types = in.readInt();
+        for (int i = 0; i < types; i++) {
+            summary.typeCounts.put(in.readUTF(), in.readInt());
+        }
+        summary.bloom = new long[in.readInt()];
+        for (int i = 0; i < summary.bloom.length; i++) summary.bloom[i] = in.readLong();
+        return summary;
+    }
+}
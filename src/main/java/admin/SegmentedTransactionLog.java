@@ -0,0 +1,553 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The transaction history as a series of sealed segments plus the active text file.
+ * transactions.txt stays the append target; once it passes a size or age bound the
+ * {@link TransactionLogWriter} hands it to {@link #roll()}, which seals it into a binary
+ * segment ({@link BinaryTransactionLog} records followed by a {@link SegmentSummary} footer)
+ * and starts a new, empty active file.
+ *
+ * <pre>
+ * segment-NNNNNN.seg: binary log records | summary footer | dictionary | footerOffset(8) | magic(4)
+ * </pre>
+ * Queries pass a predicate over the footers so whole segments are skipped without being opened.
+ * An {@link AccountTransactionIndex} and a {@link TimeBucketIndex} over both segments and the
+ * active file are rebuilt on {@link #open()} and kept current from the writer's append
+ * notifications.
+ *
+ * <p>{@link #compact()} moves segments older than the archive age into compressed
+ * {@link TransactionArchive}s and drops them from both indexes, so startup, {@link #scan} and
+ * {@link #load} only touch recent history. Account and time-range queries still reach the
+ * archives through their footers. The age is -Dpayment.txlog.archiveAfterDays (default 30,
+ * 0 keeps every segment hot).
+ */
+public class SegmentedTransactionLog implements TransactionLogWriter.SegmentRoller, TransactionLogWriter.AppendListener {
+    public static final String SEGMENT_DIR = "src/main/java/segments";
+
+    private static final int SEGMENT_MAGIC = 0x53454731; // "SEG1"
+    private static final int TRAILER_SIZE = 12;
+    private static final int TEXT_BYTES_PER_RECORD = 150;
+
+    private final File activeFile;
+    private final File sealingFile;
+    private final File segmentDir;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMillis;
+    private final long archiveAfterMillis;
+    private final ReentrantLock compaction = new ReentrantLock();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>(); // guarded by lock
+    private final List<TransactionArchive> archives = new ArrayList<>(); // guarded by lock, oldest first
+    private volatile long activeSince = System.currentTimeMillis();
+    private final AccountTransactionIndex accountIndex = new AccountTransactionIndex();
+    private final TimeBucketIndex timeIndex = new TimeBucketIndex();
+
+    /** Told about every record written into a segment being sealed. */
+    private interface SealListener {
+        void written(long offset, Transaction t, long epochMillis);
+    }
+
+    public static class Segment {
+        public final int id;
+        public final File file;
+        public final SegmentSummary summary;
+        final long recordsEnd;
+        final List<String> dictionary;
+        private volatile ByteBuffer records; // mapped on the first lookup, then shared
+
+        Segment(int id, File file, SegmentSummary summary, long recordsEnd, List<String> dictionary) {
+            this.id = id;
+            this.file = file;
+            this.summary = summary;
+            this.recordsEnd = recordsEnd;
+            this.dictionary = dictionary;
+        }
+
+        /**
+         * The record area, mapped once for all readers since a sealed segment never changes.
+         * A fresh mapping per lookup lives until the buffer is collected, and under load the
+         * uncollected ones ran the process out of memory map areas.
+         */
+        ByteBuffer records() throws IOException {
+            ByteBuffer map = records;
+            if (map == null) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    map = channel.map(FileChannel.MapMode.READ_ONLY, 0, recordsEnd);
+                }
+                records = map; // racing readers may each map once; either mapping will do
+            }
+            return map;
+        }
+    }
+
+    public SegmentedTransactionLog(File activeFile, File segmentDir, long maxSegmentBytes, long maxSegmentAgeMillis) {
+        this(activeFile, segmentDir, maxSegmentBytes, maxSegmentAgeMillis, 0);
+    }
+
+    public SegmentedTransactionLog(File activeFile, File segmentDir, long maxSegmentBytes, long maxSegmentAgeMillis,
+                                   long archiveAfterMillis) {
+        this.activeFile = activeFile;
+        this.sealingFile = new File(activeFile.getPath() + ".sealing");
+        this.segmentDir = segmentDir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMillis = maxSegmentAgeMillis;
+        this.archiveAfterMillis = archiveAfterMillis;
+    }
+
+    /**
+     * Segment bounds come from -Dpayment.txlog.segmentBytes (default 4 MB) and
+     * -Dpayment.txlog.segmentMaxAgeMinutes (default one day), the archive age from
+     * -Dpayment.txlog.archiveAfterDays (default 30).
+     */
+    public static SegmentedTransactionLog fromSystemProperties(File activeFile) throws IOException {
+        SegmentedTransactionLog log = new SegmentedTransactionLog(activeFile, new File(SEGMENT_DIR),
+                Long.getLong("payment.txlog.segmentBytes", 4L << 20),
+                TimeUnit.MINUTES.toMillis(Long.getLong("payment.txlog.segmentMaxAgeMinutes", 24 * 60)),
+                TimeUnit.DAYS.toMillis(Long.getLong("payment.txlog.archiveAfterDays", 30)));
+        log.open();
+        return log;
+    }
+
+    /**
+     * Reads every segment and archive footer, finishes a roll or compaction that a crash
+     * interrupted and rebuilds the indexes over the segments and the active file.
+     */
+    public void open() throws IOException {
+        if (!segmentDir.exists() && !segmentDir.mkdirs()) {
+            throw new IOException("Cannot create " + segmentDir);
+        }
+
+        lock.writeLock().lock();
+        try {
+            segments.clear();
+            archives.clear();
+            File[] archived = segmentDir.listFiles((d, name) -> name.startsWith("archive-") && name.endsWith(".arc"));
+            if (archived != null) {
+                for (File file : archived) archives.add(TransactionArchive.open(file));
+            }
+            archives.sort((a, b) -> Integer.compare(a.id, b.id));
+            File[] files = segmentDir.listFiles((d, name) -> name.startsWith("segment-") && name.endsWith(".seg"));
+            if (files != null) {
+                for (File file : files) {
+                    Segment segment = readSegment(file);
+                    if (isArchived(segment.id)) {
+                        Files.delete(file.toPath()); // compacted; only the cleanup was missed
+                    } else {
+                        segments.add(segment);
+                    }
+                }
+            }
+            segments.sort((a, b) -> Integer.compare(a.id, b.id));
+
+            if (sealingFile.exists()) {
+                // The previous process moved the active file aside but may not have sealed it.
+                Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                Segment sealed = seal(sealingFile, nextSegmentId(), (offset, t, millis) -> { });
+                if (sealed != null && last != null && sameRecords(last.summary, sealed.summary)) {
+                    Files.delete(sealed.file.toPath()); // it had been sealed; only the cleanup was missed
+                } else if (sealed != null) {
+                    segments.add(sealed);
+                }
+                Files.delete(sealingFile.toPath());
+            }
+            rebuildIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuildIndex() throws IOException {
+        accountIndex.clear();
+        timeIndex.clear();
+        for (Segment segment : segments) {
+            byte[] bytes = Files.readAllBytes(segment.file.toPath());
+            try (BinaryTransactionLog.Reader reader = new BinaryTransactionLog.Reader(
+                    new ByteArrayInputStream(bytes, 0, (int) segment.recordsEnd))) {
+                for (Transaction t = reader.next(); t != null; t = reader.next()) {
+                    accountIndex.addSealed(segment.id, reader.getRecordOffset(), t);
+                    timeIndex.addSealed(segment.id, reader.getRecordOffset(), reader.getRecordMillis());
+                }
+            }
+        }
+        if (activeFile.exists()) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(activeFile), 1 << 16)) {
+                TransactionText.scanBlocks(in, 0, this::indexActive);
+            }
+        }
+    }
+
+    private static boolean sameRecords(SegmentSummary a, SegmentSummary b) {
+        return a.getCount() == b.getCount() && a.getMinMillis() == b.getMinMillis() && a.getMaxMillis() == b.getMaxMillis();
+    }
+
+    private int nextSegmentId() {
+        int newest = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id;
+        if (!archives.isEmpty()) newest = Math.max(newest, archives.get(archives.size() - 1).id);
+        return newest + 1;
+    }
+
+    private boolean isArchived(int id) {
+        for (TransactionArchive archive : archives) {
+            if (archive.id == id) return true;
+        }
+        return false;
+    }
+
+    private File archiveFile(int id) {
+        return new File(segmentDir, String.format("archive-%06d.arc", id));
+    }
+
+    private File segmentFile(int id) {
+        return new File(segmentDir, String.format("segment-%06d.seg", id));
+    }
+
+    private static Segment readSegment(File file) throws IOException {
+        String name = file.getName();
+        int id = Integer.parseInt(name.substring("segment-".length(), name.length() - ".seg".length()));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - TRAILER_SIZE);
+            long footerOffset = raf.readLong();
+            if (raf.readInt() != SEGMENT_MAGIC) throw new IOException("Corrupt segment " + file);
+            raf.seek(footerOffset);
+            SegmentSummary summary = SegmentSummary.readFrom(raf);
+            int strings = raf.readInt();
+            List<String> dictionary = new ArrayList<>(strings);
+            for (int i = 0; i < strings; i++) dictionary.add(raf.readUTF());
+            return new Segment(id, file, summary, footerOffset, dictionary);
+        }
+    }
+
+    @Override
+    public boolean shouldRoll(long activeBytes) {
+        if (activeBytes >= maxSegmentBytes) return true;
+        return activeBytes > 0 && System.currentTimeMillis() - activeSince >= maxSegmentAgeMillis;
+    }
+
+    /** Called on the log writer thread while the active file is closed. */
+    @Override
+    public void roll() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Files.move(activeFile.toPath(), sealingFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            accountIndex.clearActive();
+            timeIndex.clearActive();
+            int id = nextSegmentId();
+            Segment segment = seal(sealingFile, id, (offset, t, millis) -> {
+                accountIndex.addSealed(id, offset, t);
+                timeIndex.addSealed(id, offset, millis);
+            });
+            Files.delete(sealingFile.toPath());
+            if (segment == null) return;
+            segments.add(segment);
+        } finally {
+            activeSince = System.currentTimeMillis();
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Archives the segments older than the configured age; a no-op when that is 0. */
+    public int compact() throws IOException {
+        if (archiveAfterMillis <= 0) return 0;
+        return archiveOlderThan(System.currentTimeMillis() - archiveAfterMillis);
+    }
+
+    /**
+     * Compresses every sealed segment whose newest record is before {@code cutoffMillis} into
+     * an archive, oldest first, and returns how many it moved. The newest segment always stays,
+     * since a {@link TransactionTailer} may still be catching up from it. Archives are written
+     * without any lock; only swapping each one in takes the write lock, and appends to the
+     * active file never wait for it.
+     */
+    public int archiveOlderThan(long cutoffMillis) throws IOException {
+        compaction.lock();
+        try {
+            List<Segment> candidates = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (int i = 0; i < segments.size() - 1; i++) {
+                    if (segments.get(i).summary.getMaxMillis() >= cutoffMillis) break;
+                    candidates.add(segments.get(i));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            for (Segment segment : candidates) {
+                TransactionArchive archive = TransactionArchive.write(segment, archiveFile(segment.id));
+                lock.writeLock().lock();
+                try {
+                    segments.remove(segment);
+                    archives.add(archive);
+                    accountIndex.removeSealed(segment.id);
+                    timeIndex.removeSealed(segment.id);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                Files.delete(segment.file.toPath());
+            }
+            return candidates.size();
+        } finally {
+            compaction.unlock();
+        }
+    }
+
+    @Override
+    public void appended(long offset, byte[] record) {
+        Transaction t = TransactionText.parseBlock(new String(record, StandardCharsets.UTF_8));
+        if (!t.timestamp.isEmpty() && !t.type.isEmpty()) indexActive(offset, t);
+    }
+
+    private void indexActive(long offset, Transaction t) {
+        accountIndex.addActive(offset, t);
+        try {
+            timeIndex.addActive(offset, BinaryTransactionLog.toEpochMillis(t.timestamp));
+        } catch (DateTimeParseException e) {
+            // Not reachable by date; sealing drops it as well.
+        }
+    }
+
+    /**
+     * Converts a text log into a sealed segment, reporting each record's offset in it.
+     * Returns null if it held no transactions.
+     */
+    private Segment seal(File text, int id, SealListener listener) throws IOException {
+        File target = segmentFile(id);
+        Path temp = target.toPath().resolveSibling(target.getName() + ".tmp");
+        SegmentSummary summary = new SegmentSummary((int) Math.min(Integer.MAX_VALUE, text.length() / TEXT_BYTES_PER_RECORD + 1));
+        long footerOffset;
+        List<String> dictionary;
+
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile());
+             BufferedReader reader = new BufferedReader(new FileReader(text), 1 << 16)) {
+            BinaryTransactionLog.Writer writer = new BinaryTransactionLog.Writer(new BufferedOutputStream(fos, 1 << 16));
+            TransactionText.readBlocks(reader, t -> {
+                try {
+                    long millis = BinaryTransactionLog.toEpochMillis(t.timestamp);
+                    listener.written(writer.write(t), t, millis);
+                    summary.add(t, millis);
+                } catch (DateTimeParseException e) {
+                    System.err.println("Dropping transaction with bad timestamp: " + t.timestamp);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+            footerOffset = fos.getChannel().position();
+
+            DataOutputStream footer = new DataOutputStream(new BufferedOutputStream(fos));
+            summary.writeTo(footer);
+            dictionary = writer.getDictionary();
+            footer.writeInt(dictionary.size());
+            for (String value : dictionary) footer.writeUTF(value);
+            footer.writeLong(footerOffset);
+            footer.writeInt(SEGMENT_MAGIC);
+            footer.flush();
+            fos.getFD().sync();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (summary.getCount() == 0) {
+            Files.delete(temp);
+            return null;
+        }
+        Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Segment(id, target, summary, footerOffset, dictionary);
+    }
+
+    public List<Segment> getSegments() {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(segments));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<TransactionArchive> getArchives() {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(archives));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Id of the most recently sealed segment, 0 if there is none. */
+    public int newestSegmentId() {
+        lock.readLock().lock();
+        try {
+            return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    interface LockedRead<T> {
+        T run() throws IOException;
+    }
+
+    /** Runs {@code read} while no roll can move the active file or add a segment. */
+    <T> T readLocked(LockedRead<T> read) throws IOException {
+        lock.readLock().lock();
+        try {
+            return read.run();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public File getActiveFile() {
+        return activeFile;
+    }
+
+    /**
+     * Streams, oldest first, every transaction in the segments whose footer passes
+     * {@code include}, followed by every transaction in the active file. Archives are not read.
+     */
+    public void scan(Predicate<SegmentSummary> include, Consumer<Transaction> action) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                if (include.test(segment.summary)) readSegment(segment, action);
+            }
+            if (activeFile.exists()) {
+                try (BufferedReader reader = new BufferedReader(new FileReader(activeFile), 1 << 16)) {
+                    TransactionText.readBlocks(reader, action);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Like {@link #scan} but parses the included segments and ranges of the active file
+     * concurrently on the loader's pool, returning the transactions in log order.
+     */
+    public List<Transaction> load(Predicate<SegmentSummary> include, ParallelTransactionLoader loader) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<ParallelTransactionLoader.Chunk> chunks = new ArrayList<>();
+            for (Segment segment : segments) {
+                if (include.test(segment.summary)) chunks.add(action -> readSegment(segment, action));
+            }
+            chunks.addAll(loader.textChunks(activeFile));
+            return loader.load(chunks);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Streams the account's transactions, as sender or receiver, oldest first. Only the
+     * indexed records are read, so the cost follows the number of matches, not the history.
+     * Archives whose bloom filter may hold the account come first.
+     */
+    public void forAccount(String accountNo, Consumer<Transaction> action) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (TransactionArchive archive : archives) archive.forAccount(accountNo, action);
+            readPositions(accountIndex.lookup(accountNo), action);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Streams the transactions stamped within [fromMillis, toMillis), oldest segment first. */
+    public void forRange(long fromMillis, long toMillis, Consumer<Transaction> action) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (TransactionArchive archive : archives) {
+                if (!archive.summary.overlaps(fromMillis, toMillis)) continue;
+                archive.scan(t -> {
+                    long millis = BinaryTransactionLog.toEpochMillis(t.timestamp);
+                    if (millis >= fromMillis && millis < toMillis) action.accept(t);
+                });
+            }
+            long[] positions = timeIndex.lookup(fromMillis, toMillis);
+            if (TimeBucketIndex.isBucketAligned(fromMillis, toMillis)) {
+                readPositions(positions, action); // whole buckets: nothing to trim
+                return;
+            }
+            readPositions(positions, t -> {
+                long millis = BinaryTransactionLog.toEpochMillis(t.timestamp);
+                if (millis >= fromMillis && millis < toMillis) action.accept(t);
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Called with the read lock held. */
+    private void readPositions(long[] positions, Consumer<Transaction> action) throws IOException {
+        ByteBuffer open = null;
+        Segment openSegment = null;
+        FileChannel active = null;
+        try {
+            for (long position : positions) {
+                int id = AccountTransactionIndex.segmentOf(position);
+                long offset = AccountTransactionIndex.offsetOf(position);
+                if (id == AccountTransactionIndex.ACTIVE_SEGMENT) {
+                    if (active == null) active = FileChannel.open(activeFile.toPath(), StandardOpenOption.READ);
+                    action.accept(TransactionText.readBlockAt(active, offset));
+                    continue;
+                }
+                if (openSegment == null || openSegment.id != id) {
+                    openSegment = segmentById(id);
+                    open = openSegment.records();
+                }
+                action.accept(BinaryTransactionLog.readRecordAt(open, (int) offset, openSegment.dictionary));
+            }
+        } finally {
+            if (active != null) active.close();
+        }
+    }
+
+    private Segment segmentById(int id) throws IOException {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).id == id) return segments.get(i);
+        }
+        throw new IOException("Unknown segment " + id);
+    }
+
+    public AccountTransactionIndex getAccountIndex() {
+        return accountIndex;
+    }
+
+    public TimeBucketIndex getTimeIndex() {
+        return timeIndex;
+    }
+
+    public static void readSegment(Segment segment, Consumer<Transaction> action) throws IOException {
+        byte[] bytes = Files.readAllBytes(segment.file.toPath());
+        try (BinaryTransactionLog.Reader reader = new BinaryTransactionLog.Reader(
+                new ByteArrayInputStream(bytes, 0, (int) segment.recordsEnd))) {
+            for (Transaction t = reader.next(); t != null; t = reader.next()) {
+                action.accept(t);
+            }
+        }
+    }
+}
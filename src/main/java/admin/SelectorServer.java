@@ -0,0 +1,558 @@
+package admin;
+
+import client.BinaryProtocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking socket server for the client text protocol. One acceptor thread hands new
+ * connections round-robin to a few event loops, each a {@link Selector} over its share of the
+ * connections. A loop reads into a pooled direct buffer and feeds the bytes to the
+ * connection's {@link RequestDecoder}; complete requests run on a fixed worker pool, one at a
+ * time per connection and in arrival order, since answering them can block on the journal,
+ * the ledger or another cluster node. Requests the handler calls quick (in-memory reads) are
+ * answered on the loop itself when nothing is queued ahead of them. A reply the handler
+ * finishes later ({@link RequestHandler#replyLater}) holds the connection's next request
+ * until it is complete, so pipelined replies never overtake or interleave. Replies are written
+ * straight from the answering thread when the socket takes them, otherwise by the loop once
+ * it is writable.
+ *
+ * <p>A connection whose first byte is {@link BinaryProtocol#MAGIC} speaks the framed protocol
+ * instead and is cut up by a {@link FrameDecoder}. Its requests carry ids, so each one runs as
+ * soon as it arrives, quick ones on the loop and the rest on the workers, and its reply frame
+ * leaves when it is complete, whatever order that puts the replies in. Pushed updates are
+ * queued behind the replies, and a subscriber with more than {@link #MAX_PUSH_BACKLOG_BUFFERS}
+ * buffers of output still unread is cut off rather than buffered for.
+ *
+ * <p>An idle connection holds only its channel, key and decoder: buffers are borrowed for
+ * the length of a read or of a pending reply. Thread count stays at 1 + loops + workers
+ * however many clients connect. Sizes come from -Dpayment.server.loops (default the core
+ * count, at most 4) and -Dpayment.server.workers (default 32).
+ */
+public class SelectorServer implements Closeable {
+    static final int BUFFER_BYTES = 16 << 10;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final int MAX_READS_PER_EVENT = 4;
+    private static final int MAX_QUEUED_REQUESTS = 32;
+    static final int MAX_PUSH_BACKLOG_BUFFERS = 16;
+
+    private final ServerSocketChannel server;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final RequestHandler handler;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Thread acceptor;
+    private volatile boolean running = true;
+    private int nextLoop;
+
+    public SelectorServer(int port, int loopCount, int workerCount, RequestHandler handler) throws IOException {
+        this.handler = handler;
+        this.server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(port), 4096);
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new EventLoop(i);
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), r -> {
+            Thread t = new Thread(r, "request-worker-" + workerIds.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.acceptor = new Thread(this::accept, "selector-acceptor");
+        this.acceptor.setDaemon(true);
+    }
+
+    public static SelectorServer fromSystemProperties(int port, RequestHandler handler) throws IOException {
+        int loops = Integer.getInteger("payment.server.loops", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        return new SelectorServer(port, loops, Integer.getInteger("payment.server.workers", 32), handler);
+    }
+
+    public void start() {
+        for (EventLoop loop : loops) loop.thread.start();
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                connections.incrementAndGet();
+                loop.execute(() -> loop.register(channel));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(BUFFER_BYTES);
+        pooledBuffers.decrementAndGet();
+        return buffer;
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            buffers.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet(); // left to the collector
+        }
+    }
+
+    /** One selector thread and the connections assigned to it. */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "selector-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        /** Runs {@code task} on this loop's thread. */
+        void execute(Runnable task) {
+            if (Thread.currentThread() == thread) {
+                task.run();
+                return;
+            }
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                Connection connection = new Connection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                connections.decrementAndGet();
+                closeQuietly(channel);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    for (Runnable task; (task = tasks.poll()) != null; ) task.run();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.writable();
+                    }
+                    selector.selectedKeys().clear();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Event loop error: " + e);
+                }
+            }
+            for (SelectionKey key : selector.keys()) ((Connection) key.attachment()).close();
+            closeQuietly(selector);
+        }
+    }
+
+    /**
+     * One client. Decoding happens on the loop thread only; the request queue and the reply
+     * buffers are shared with the workers and guarded by the connection.
+     */
+    private final class Connection implements FrameDecoder.Listener, PushChannel {
+        final EventLoop loop;
+        final SocketChannel channel;
+        final RequestDecoder decoder = new RequestDecoder();
+        final TextReply out = new TextReply(new ReplyWriter());
+        FrameDecoder frames; // set on the first read if the client speaks the framed protocol
+        boolean detected;
+        SelectionKey key;
+        // guarded by this
+        private final Queue<RequestDecoder.Request> queued = new ArrayDeque<>(2);
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>(2);
+        private boolean busy, readPaused, writeInterest, inputClosed, closed; // busy until the last reply is complete
+        private int outstanding; // framed requests not yet answered
+        private List<Runnable> closeTasks; // allocated by the first subscription
+        private volatile Thread handling; // the worker inside handler.handle, whose flushes wait for it to return
+
+        Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        /** Loop thread. */
+        void read() {
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                for (int i = 0; i < MAX_READS_PER_EVENT; i++) {
+                    int n = channel.read(buffer);
+                    if (n < 0) {
+                        endOfInput();
+                        return;
+                    }
+                    if (n == 0) return;
+                    buffer.flip();
+                    if (!detected) {
+                        detected = true;
+                        if (buffer.get(0) == BinaryProtocol.MAGIC) frames = new FrameDecoder();
+                    }
+                    if (frames != null) {
+                        frames.feed(buffer, this);
+                    } else {
+                        decoder.feed(buffer, this::enqueue);
+                    }
+                    buffer.clear();
+                    synchronized (this) {
+                        if (readPaused) return;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            } finally {
+                releaseBuffer(buffer);
+            }
+        }
+
+        /** Loop thread: answers a quick request in place, or queues it for the workers. */
+        private void enqueue(RequestDecoder.Request request) {
+            synchronized (this) {
+                if (closed) return;
+                if (busy || !handler.isQuick(request)) {
+                    queue(request);
+                    return;
+                }
+                busy = true;
+            }
+            if (answer(request)) carryOn();
+        }
+
+        private synchronized void queue(RequestDecoder.Request request) {
+            queued.add(request);
+            if (queued.size() >= MAX_QUEUED_REQUESTS && !readPaused) {
+                // A client far ahead of its replies waits in its socket buffer, not in our heap.
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (!busy) {
+                busy = true;
+                try {
+                    workers.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    busy = false;
+                }
+            }
+        }
+
+        /** Worker thread: answers the queued requests in order, stopping at a reply that comes later. */
+        private void drain() {
+            while (true) {
+                RequestDecoder.Request request;
+                synchronized (this) {
+                    request = queued.poll();
+                    if (request == null) {
+                        idle();
+                        return;
+                    }
+                }
+                if (!answer(request)) return; // its endReply carries on
+            }
+        }
+
+        /** Any thread: the last reply is complete, so the next request may be answered. */
+        private void carryOn() {
+            synchronized (this) {
+                if (queued.isEmpty()) {
+                    idle();
+                    return;
+                }
+            }
+            try {
+                workers.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    busy = false; // shutting down
+                }
+            }
+        }
+
+        /** Guarded by this: nothing is left to answer. */
+        private void idle() {
+            busy = false;
+            if (readPaused) {
+                readPaused = false;
+                loop.execute(this::resumeReading);
+            }
+            if (inputClosed && outbound.isEmpty()) loop.execute(this::close);
+        }
+
+        /** Returns false if the handler marked its reply to finish later. */
+        private boolean answer(RequestDecoder.Request request) {
+            out.begin();
+            handling = Thread.currentThread();
+            try {
+                handler.handle(request, out);
+            } catch (RuntimeException e) {
+                System.err.println("Request " + request.command + " failed: " + e);
+                out.end(); // nothing is left to finish it
+            } finally {
+                handling = null;
+            }
+            return out.handled(this::carryOn); // the whole reply in one write
+        }
+
+        /** Loop thread: answers the client's preamble with the version both sides speak. */
+        @Override
+        public void preamble(int version) throws IOException {
+            int agreed = Math.min(version, BinaryProtocol.VERSION);
+            send(BinaryProtocol.preamble(agreed));
+            if (agreed < 1) throw new IOException("No protocol version in common");
+        }
+
+        /** Loop thread: starts a framed request at once, on the loop if it is quick. */
+        @Override
+        public void frame(BinaryProtocol.Frame frame) {
+            String command = BinaryProtocol.commandOf(frame.code);
+            if (command == null) {
+                send(BinaryProtocol.encode(frame.requestId, BinaryProtocol.ERROR, "UNKNOWN_COMMAND"));
+                return;
+            }
+            RequestDecoder.Request request = new RequestDecoder.Request(command, frame.text);
+            FramedReply reply = new FramedReply(frame.requestId, this, this::replied);
+            synchronized (this) {
+                if (closed) return;
+                outstanding++;
+                if (outstanding >= MAX_QUEUED_REQUESTS && !readPaused) {
+                    readPaused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            }
+            if (handler.isQuick(request)) {
+                answer(request, reply);
+                return;
+            }
+            try {
+                workers.execute(() -> answer(request, reply));
+            } catch (RejectedExecutionException e) {
+                // shutting down
+            }
+        }
+
+        private void answer(RequestDecoder.Request request, FramedReply reply) {
+            try {
+                handler.handle(request, reply);
+            } catch (RuntimeException e) {
+                System.err.println("Request " + request.command + " failed: " + e);
+            } finally {
+                reply.handled();
+            }
+        }
+
+        /** Any thread: sends a finished reply frame and resumes reading once the client is under its limit. */
+        private synchronized void replied(byte[] frame) {
+            outstanding--;
+            if (readPaused && outstanding < MAX_QUEUED_REQUESTS) {
+                readPaused = false;
+                loop.execute(this::resumeReading);
+            }
+            send(frame);
+        }
+
+        @Override
+        public synchronized boolean push(byte[] frame) {
+            if (outbound.size() > MAX_PUSH_BACKLOG_BUFFERS) return false;
+            send(frame);
+            return true;
+        }
+
+        @Override
+        public void pushLast(byte[] frame) {
+            send(frame);
+        }
+
+        /** Pushes never block here, but building them is kept off the loop and the ledger. */
+        @Override
+        public void execute(Runnable task) {
+            workers.execute(task);
+        }
+
+        @Override
+        public void onClose(Runnable task) {
+            synchronized (this) {
+                if (!closed) {
+                    if (closeTasks == null) closeTasks = new ArrayList<>(2);
+                    closeTasks.add(task);
+                    return;
+                }
+            }
+            task.run();
+        }
+
+        private void resumeReading() {
+            if (key.isValid() && !closed) key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+
+        private synchronized void endOfInput() {
+            inputClosed = true;
+            if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            if (!busy && outstanding == 0 && outbound.isEmpty()) close();
+        }
+
+        /**
+         * Any thread: queues encoded reply bytes and writes what the socket takes now. Queued
+         * buffers stay ready for writing (position..limit); new bytes go after the limit of
+         * the last one while it has room.
+         */
+        synchronized void send(byte[] bytes) {
+            if (closed) return;
+            for (int at = 0; at < bytes.length; ) {
+                ByteBuffer last = outbound.peekLast();
+                if (last == null || last.limit() == last.capacity()) {
+                    last = acquireBuffer();
+                    last.limit(0);
+                    outbound.addLast(last);
+                }
+                int n = Math.min(last.capacity() - last.limit(), bytes.length - at);
+                int position = last.position();
+                last.position(last.limit()).limit(last.limit() + n);
+                last.put(bytes, at, n);
+                last.position(position);
+                at += n;
+            }
+            flushOutbound();
+        }
+
+        /** Loop thread: the socket has room again. */
+        synchronized void writable() {
+            flushOutbound();
+        }
+
+        /** Writes queued buffers until the socket is full; asks the loop for OP_WRITE if it is. */
+        private void flushOutbound() {
+            try {
+                while (!outbound.isEmpty()) {
+                    ByteBuffer head = outbound.peekFirst();
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        if (!writeInterest) {
+                            writeInterest = true;
+                            loop.execute(this::watchWritable);
+                        }
+                        return;
+                    }
+                    releaseBuffer(outbound.pollFirst());
+                }
+                if (writeInterest) {
+                    writeInterest = false;
+                    if (key.isValid()) key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+                if (inputClosed && !busy && outstanding == 0) loop.execute(this::close);
+            } catch (IOException | CancelledKeyException e) {
+                loop.execute(this::close);
+            }
+        }
+
+        private synchronized void watchWritable() {
+            if (writeInterest && key.isValid()) key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            connections.decrementAndGet();
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+            for (ByteBuffer buffer : outbound) releaseBuffer(buffer);
+            outbound.clear();
+            queued.clear();
+            if (closeTasks != null) closeTasks.forEach(Runnable::run);
+        }
+
+        /**
+         * The connection's reply stream: characters collect until flush encodes and sends them.
+         * Flushes from the worker running the handler are deferred to the end of the request, so
+         * a multi-line reply leaves in one write; replies from other threads go at once.
+         */
+        private final class ReplyWriter extends Writer {
+            private final StringBuilder chars = new StringBuilder();
+
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                synchronized (lock) {
+                    chars.append(cbuf, off, len);
+                }
+            }
+
+            @Override
+            public void write(String str, int off, int len) {
+                synchronized (lock) {
+                    chars.append(str, off, off + len);
+                }
+            }
+
+            @Override
+            public void flush() {
+                if (handling == Thread.currentThread()) return;
+                byte[] bytes;
+                synchronized (lock) {
+                    if (chars.length() == 0) return;
+                    bytes = chars.toString().getBytes(StandardCharsets.UTF_8);
+                    chars.setLength(0);
+                    if (chars.capacity() > BUFFER_BYTES) chars.trimToSize();
+                    send(bytes);
+                }
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        server.close();
+        for (EventLoop loop : loops) loop.selector.wakeup();
+        workers.shutdownNow();
+    }
+}
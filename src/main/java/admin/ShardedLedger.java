@@ -0,0 +1,656 @@
+package admin;
+
+import client.Money;
+import client.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link AsyncLedger} that partitions accounts into shards by a hash of the account number.
+ * Each shard has one worker thread that owns its accounts' balances and appends them to its
+ * own journal (shard-NN.journal) with one force per batch, so shards never wait on each
+ * other's locks or forces.
+ *
+ * <p>A transfer inside one shard is one journal record. A transfer across shards is a handoff:
+ * the sender's shard debits and journals the amount as pending (D), the recipient's shard
+ * credits and journals it (C), and the sender's shard settles it (A) and replies. The money is
+ * always in exactly one of the sender's balance, the pending debit or the recipient's balance.
+ * Recovery credits every pending debit that has no credit, so a crash neither loses nor
+ * repeats one; the recipient keeps its credit record until the debit is settled.
+ *
+ * <p>Checkpoints post each shard's balances to the {@link AccountStorage} and cut its journal
+ * back to the handoffs still open. Startup folds whatever journals the last run left into the
+ * storage, so the shard count may change between runs. Shard count is -Dpayment.ledger.shards
+ * (default: available processors). Threads are not pinned; the OS places the workers.
+ *
+ * Journal records, one per line:
+ * <pre>
+ *   B|accNo|balance[|accNo|balance]   balances after a same-shard posting
+ *   D|id|from|balance|to|amount       cross-shard debit, pending until settled
+ *   C|id|to|balance                   the matching credit, on the recipient's shard
+ *   A|id                              the debit is settled (credited, or refunded with a B record)
+ *   P|id|from|to|amount               a pending debit carried over a checkpoint
+ *   K|id                              a credit kept over a checkpoint until its debit settles
+ * </pre>
+ */
+public class ShardedLedger implements AsyncLedger {
+    public static final String SHARD_DIR = "src/main/java/shards";
+
+    private static final String FOLDED_MARKER = "folded";
+    private static final String RECOVERY_JOURNAL = "shard-recovery.journal";
+    private static final int MAX_BATCH = 1024;
+    private static final int TRANSFER = 0, WITHDRAW = 1, DEPOSIT = 2;
+    private static final int CREDITED = 0, REFUSED = 1, UNKNOWN = 2;
+
+    private final AccountStorage storage;
+    private final Shard[] shards;
+    private volatile boolean running = true;
+
+    private ShardedLedger(AccountStorage storage, File dir, int count) throws IOException {
+        this.storage = storage;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i, new File(dir, String.format("shard-%02d.journal", i)));
+        }
+        for (Shard shard : shards) shard.thread.start();
+    }
+
+    /** Folds journals left by the previous run into the storage, then starts {@code count} fresh shards. */
+    public static ShardedLedger open(AccountStorage storage, File dir, int count) throws IOException {
+        Files.createDirectories(dir.toPath());
+        recover(storage, dir);
+        return new ShardedLedger(storage, dir, Math.max(1, count));
+    }
+
+    public static ShardedLedger fromSystemProperties(AccountStorage storage) throws IOException {
+        int count = Integer.getInteger("payment.ledger.shards", Runtime.getRuntime().availableProcessors());
+        return open(storage, new File(SHARD_DIR), count);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    Shard shardOf(String accountNo) {
+        int h = accountNo.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    @Override
+    public void transfer(String from, String to, long amountCents, Reply reply) {
+        submit(new Request(TRANSFER, from, to, amountCents, reply));
+    }
+
+    @Override
+    public void withdraw(String accountNo, long amountCents, Reply reply) {
+        submit(new Request(WITHDRAW, accountNo, null, amountCents, reply));
+    }
+
+    @Override
+    public void deposit(String accountNo, long amountCents, Reply reply) {
+        submit(new Request(DEPOSIT, accountNo, null, amountCents, reply));
+    }
+
+    private void submit(Request request) {
+        if (!running) throw new IllegalStateException("Sharded ledger is closed");
+        shardOf(request.from).send(request);
+    }
+
+    @Override
+    public long getBalance(String accountNo) {
+        Entry entry = shardOf(accountNo).entries.get(accountNo);
+        return entry != null ? entry.durable : storage.getBalance(accountNo);
+    }
+
+    /** Posts every shard's balances to the storage and cuts the shard journals back. */
+    @Override
+    public void checkpoint() throws IOException {
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (Shard shard : shards) {
+            Checkpoint checkpoint = new Checkpoint();
+            shard.send(checkpoint);
+            done.add(checkpoint.done);
+        }
+        for (CompletableFuture<Void> future : done) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during shard checkpoint");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Stops taking requests, lets open handoffs settle (for up to a few seconds), checkpoints
+     * and stops the workers. Handoffs still open stay in the journals for the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && !settled()) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        try {
+            checkpoint();
+        } finally {
+            for (Shard shard : shards) shard.stop();
+        }
+    }
+
+    private boolean settled() {
+        for (Shard shard : shards) {
+            if (!shard.inbox.isEmpty() || shard.openHandoffs > 0) return false;
+        }
+        return true;
+    }
+
+    // ---- messages between callers and shards ----
+
+    private static final class Request {
+        final int kind;
+        final String from, to;
+        final long amount;
+        final Reply reply;
+
+        Request(int kind, String from, String to, long amount, Reply reply) {
+            this.kind = kind;
+            this.from = from;
+            this.to = to;
+            this.amount = amount;
+            this.reply = reply;
+        }
+    }
+
+    private static final class Credit {
+        final long id;
+        final Shard source;
+        final String to;
+        final long amount;
+
+        Credit(long id, Shard source, String to, long amount) {
+            this.id = id;
+            this.source = source;
+            this.to = to;
+            this.amount = amount;
+        }
+    }
+
+    private static final class Credited {
+        final long id;
+        final int outcome;
+
+        Credited(long id, int outcome) {
+            this.id = id;
+            this.outcome = outcome;
+        }
+    }
+
+    private static final class Forget {
+        final long id;
+
+        Forget(long id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Checkpoint {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+
+    private static final class Entry {
+        final User user;
+        long balance;           // worker thread only
+        volatile long durable;  // last forced balance, for readers on other threads
+
+        Entry(User user) {
+            this.user = user;
+            this.balance = this.durable = user.balanceCents;
+        }
+    }
+
+    private static final class Pending {
+        final Request request;
+        final Entry sender;
+        final Shard target;
+        final long senderBalance;
+        boolean answered;
+
+        Pending(Request request, Entry sender, Shard target, long senderBalance) {
+            this.request = request;
+            this.sender = sender;
+            this.target = target;
+            this.senderBalance = senderBalance;
+        }
+    }
+
+    final class Shard implements Runnable {
+        final int index;
+        final Thread thread;
+        final ConcurrentLinkedQueue<Object> inbox = new ConcurrentLinkedQueue<>();
+        final Map<String, Entry> entries = new ConcurrentHashMap<>(); // written by the worker only
+        private final File file;
+        private FileChannel channel;
+        private final Map<Long, Pending> pending = new HashMap<>();
+        private final Set<Long> kept = new HashSet<>();
+        private final Set<Entry> dirty = new HashSet<>();
+        private final List<Entry> touched = new ArrayList<>();
+        private final List<Runnable> afterForce = new ArrayList<>();
+        private final StringBuilder records = new StringBuilder(4096);
+        private long nextId;
+        private IOException failure;
+        private volatile boolean stopped;
+        volatile int openHandoffs;
+
+        Shard(int index, File file) throws IOException {
+            this.index = index;
+            this.file = file;
+            this.channel = openChannel();
+            this.thread = new Thread(this, "ledger-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        private FileChannel openChannel() throws IOException {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        void send(Object message) {
+            inbox.add(message);
+            LockSupport.unpark(thread);
+        }
+
+        void stop() {
+            stopped = true;
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+                channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("Failed to close shard journal: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Object message = inbox.poll();
+                if (message == null) {
+                    if (stopped) break;
+                    LockSupport.parkNanos(this, 100_000_000);
+                    continue;
+                }
+                int handled = 0;
+                do {
+                    if (message instanceof Checkpoint) {
+                        commit();
+                        checkpoint((Checkpoint) message);
+                    } else {
+                        handle(message);
+                    }
+                } while (++handled < MAX_BATCH && (message = inbox.poll()) != null);
+                commit();
+                openHandoffs = pending.size();
+            }
+        }
+
+        private void handle(Object message) {
+            if (message instanceof Request) {
+                Request request = (Request) message;
+                if (failure != null) {
+                    request.reply.completed(Status.FAILED, null, 0);
+                } else if (request.kind == TRANSFER) {
+                    transfer(request);
+                } else {
+                    single(request);
+                }
+            } else if (message instanceof Credit) {
+                credit((Credit) message);
+            } else if (message instanceof Credited) {
+                credited((Credited) message);
+            } else if (message instanceof Forget) {
+                kept.remove(((Forget) message).id);
+            }
+        }
+
+        private void transfer(Request r) {
+            Entry sender = entry(r.from);
+            if (r.amount <= 0 || r.from.equals(r.to) || sender == null || sender.balance < r.amount) {
+                reject(r);
+                return;
+            }
+            Shard target = shardOf(r.to);
+            if (target == this) {
+                Entry recipient = entry(r.to);
+                if (recipient == null || recipient.balance > Long.MAX_VALUE - r.amount) {
+                    reject(r);
+                    return;
+                }
+                sender.balance -= r.amount;
+                recipient.balance += r.amount;
+                records.append("B|").append(r.from).append('|');
+                Money.appendTo(records, sender.balance).append('|').append(r.to).append('|');
+                Money.appendTo(records, recipient.balance).append('\n');
+                touch(sender);
+                touch(recipient);
+                answer(r, sender, sender.balance);
+                return;
+            }
+
+            if (storage.findByAccountNo(r.to) == null) { // accounts are never removed, so this holds on the other shard
+                reject(r);
+                return;
+            }
+            sender.balance -= r.amount;
+            long id = ((long) index << 40) | nextId++;
+            Pending p = new Pending(r, sender, target, sender.balance);
+            pending.put(id, p);
+            records.append("D|").append(id).append('|').append(r.from).append('|');
+            Money.appendTo(records, sender.balance).append('|').append(r.to).append('|');
+            Money.appendTo(records, r.amount).append('\n');
+            touch(sender);
+            afterForce.add(() -> {
+                if (failure == null) {
+                    target.send(new Credit(id, this, r.to, r.amount));
+                } else {
+                    p.answered = true; // left open for recovery
+                    r.reply.completed(Status.FAILED, null, 0);
+                }
+            });
+        }
+
+        private void single(Request r) {
+            Entry account = entry(r.from);
+            boolean withdraw = r.kind == WITHDRAW;
+            if (r.amount <= 0 || account == null
+                    || (withdraw ? account.balance < r.amount : account.balance > Long.MAX_VALUE - r.amount)) {
+                reject(r);
+                return;
+            }
+            account.balance += withdraw ? -r.amount : r.amount;
+            records.append("B|").append(r.from).append('|');
+            Money.appendTo(records, account.balance).append('\n');
+            touch(account);
+            answer(r, account, account.balance);
+        }
+
+        private void credit(Credit c) {
+            Entry recipient = failure == null ? entry(c.to) : null;
+            if (failure == null && (recipient == null || recipient.balance > Long.MAX_VALUE - c.amount)) {
+                c.source.send(new Credited(c.id, REFUSED));
+                return;
+            }
+            if (failure != null) {
+                c.source.send(new Credited(c.id, UNKNOWN));
+                return;
+            }
+            recipient.balance += c.amount;
+            kept.add(c.id);
+            records.append("C|").append(c.id).append('|').append(c.to).append('|');
+            Money.appendTo(records, recipient.balance).append('\n');
+            touch(recipient);
+            afterForce.add(() -> c.source.send(new Credited(c.id, failure == null ? CREDITED : UNKNOWN)));
+        }
+
+        private void credited(Credited c) {
+            Pending p = pending.get(c.id);
+            if (p == null) return;
+            if (c.outcome == UNKNOWN || failure != null) {
+                // Whether the credit is on disk is unknown; the journals decide at the next start.
+                if (!p.answered) p.request.reply.completed(Status.FAILED, null, 0);
+                p.answered = true;
+                return;
+            }
+            pending.remove(c.id);
+            records.append("A|").append(c.id).append('\n');
+            if (c.outcome == CREDITED) {
+                answer(p.request, p.sender, p.senderBalance);
+                afterForce.add(() -> {
+                    if (failure == null) p.target.send(new Forget(c.id));
+                });
+            } else {
+                p.sender.balance += p.request.amount; // refund
+                records.append("B|").append(p.request.from).append('|');
+                Money.appendTo(records, p.sender.balance).append('\n');
+                touch(p.sender);
+                reject(p.request);
+            }
+        }
+
+        private void reject(Request r) {
+            afterForce.add(() -> r.reply.completed(Status.REJECTED, null, 0));
+        }
+
+        private void answer(Request r, Entry account, long balance) {
+            afterForce.add(() -> {
+                if (failure == null) {
+                    r.reply.completed(Status.ACCEPTED, account.user, balance);
+                } else {
+                    r.reply.completed(Status.FAILED, null, 0);
+                }
+            });
+        }
+
+        private void touch(Entry entry) {
+            touched.add(entry);
+            dirty.add(entry);
+        }
+
+        /** The shard's view of an account it owns, loaded from storage on first use. */
+        private Entry entry(String accountNo) {
+            Entry entry = entries.get(accountNo);
+            if (entry == null) {
+                User user = storage.findByAccountNo(accountNo);
+                if (user == null) return null; // may be registered later, so do not cache the miss
+                entry = new Entry(user);
+                entries.put(accountNo, entry);
+            }
+            return entry;
+        }
+
+        /** Forces this batch's records, publishes the balances and runs what waited for the force. */
+        private void commit() {
+            if (records.length() > 0 && failure == null) {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+                    while (buffer.hasRemaining()) channel.write(buffer);
+                    channel.force(false);
+                } catch (IOException e) {
+                    System.err.println("Ledger shard " + index + " journal failed, rejecting further requests: " + e.getMessage());
+                    failure = e;
+                }
+            }
+            records.setLength(0);
+            if (failure == null) {
+                for (Entry entry : touched) {
+                    entry.durable = entry.balance;
+                    entry.user.balanceCents = entry.balance;
+                }
+            }
+            touched.clear();
+            for (Runnable action : afterForce) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Ledger reply failed: " + e.getMessage());
+                }
+            }
+            afterForce.clear();
+        }
+
+        private void checkpoint(Checkpoint checkpoint) {
+            if (failure != null) {
+                checkpoint.done.completeExceptionally(failure);
+                return;
+            }
+            try {
+                if (!dirty.isEmpty()) {
+                    User[] users = new User[dirty.size()];
+                    long[] balances = new long[users.length];
+                    int i = 0;
+                    for (Entry entry : dirty) {
+                        users[i] = entry.user;
+                        balances[i++] = entry.balance;
+                    }
+                    storage.postBalances(users, balances);
+                    dirty.clear();
+                }
+                rewriteJournal();
+                checkpoint.done.complete(null);
+            } catch (IOException e) {
+                checkpoint.done.completeExceptionally(e);
+            }
+        }
+
+        /** Replaces the journal with markers for the handoffs that are still open. */
+        private void rewriteJournal() throws IOException {
+            StringBuilder open = new StringBuilder();
+            for (Map.Entry<Long, Pending> e : pending.entrySet()) {
+                Request r = e.getValue().request;
+                open.append("P|").append(e.getKey()).append('|').append(r.from).append('|').append(r.to).append('|');
+                Money.appendTo(open, r.amount).append('\n');
+            }
+            for (long id : kept) open.append("K|").append(id).append('\n');
+
+            Path temp = file.toPath().resolveSibling(file.getName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(open.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) out.write(buffer);
+                out.force(true);
+            }
+            channel.close();
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = openChannel();
+        }
+    }
+
+    // ---- startup ----
+
+    /**
+     * Applies every shard journal in {@code dir} to the storage, credits (or, if that is
+     * impossible, refunds) every debit that was still pending, and deletes the journals.
+     * The outcome is appended as its own journal before anything is posted, and a marker
+     * file records that the journals were posted, so a crash during recovery repeats it
+     * exactly.
+     */
+    static void recover(AccountStorage storage, File dir) throws IOException {
+        File marker = new File(dir, FOLDED_MARKER);
+        File[] journals = dir.listFiles((d, name) -> name.startsWith("shard-") && name.endsWith(".journal"));
+        if (journals == null) journals = new File[0];
+        Arrays.sort(journals); // shard-NN before shard-recovery
+        if (!marker.exists() && journals.length > 0) {
+            Map<String, Long> balances = new LinkedHashMap<>();
+            Map<Long, String[]> open = new LinkedHashMap<>(); // id -> from, to, amount
+            Set<Long> credited = new HashSet<>();
+            for (File journal : journals) replay(journal, balances, open, credited);
+
+            StringBuilder resolution = new StringBuilder();
+            for (Map.Entry<Long, String[]> e : open.entrySet()) {
+                if (credited.contains(e.getKey())) continue;
+                String[] handoff = e.getValue();
+                long amount = Money.parse(handoff[2]);
+                long to = current(storage, balances, handoff[1]);
+                String account = to >= 0 && to <= Long.MAX_VALUE - amount ? handoff[1] : handoff[0];
+                long balance = (account == handoff[1] ? to : current(storage, balances, handoff[0])) + amount;
+                balances.put(account, balance);
+                resolution.append("K|").append(e.getKey()).append('\n').append("B|").append(account).append('|');
+                Money.appendTo(resolution, balance).append('\n');
+            }
+            if (resolution.length() > 0) appendForced(new File(dir, RECOVERY_JOURNAL), resolution);
+
+            List<User> users = new ArrayList<>();
+            List<Long> values = new ArrayList<>();
+            for (Map.Entry<String, Long> e : balances.entrySet()) {
+                User user = storage.findByAccountNo(e.getKey());
+                if (user == null) continue;
+                users.add(user);
+                values.add(e.getValue());
+            }
+            if (!users.isEmpty()) {
+                long[] array = new long[values.size()];
+                for (int i = 0; i < array.length; i++) array[i] = values.get(i);
+                storage.postBalances(users.toArray(new User[0]), array);
+            }
+            appendForced(marker, new StringBuilder());
+        }
+
+        File[] leftovers = dir.listFiles((d, name) -> name.startsWith("shard-"));
+        if (leftovers != null) {
+            for (File f : leftovers) Files.deleteIfExists(f.toPath());
+        }
+        Files.deleteIfExists(marker.toPath());
+    }
+
+    private static long current(AccountStorage storage, Map<String, Long> balances, String accountNo) {
+        Long balance = balances.get(accountNo);
+        return balance != null ? balance : storage.getBalance(accountNo);
+    }
+
+    private static void replay(File journal, Map<String, Long> balances, Map<Long, String[]> open,
+                               Set<Long> credited) throws IOException {
+        byte[] bytes = Files.readAllBytes(journal.toPath());
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue; // a torn last line was never acknowledged
+            String[] f = new String(bytes, start, i - start, StandardCharsets.UTF_8).split("\\|");
+            start = i + 1;
+            try {
+                switch (f[0]) {
+                    case "B":
+                        for (int k = 1; k + 1 < f.length; k += 2) balances.put(f[k], Money.parse(f[k + 1]));
+                        break;
+                    case "D":
+                        balances.put(f[2], Money.parse(f[3]));
+                        open.put(Long.parseLong(f[1]), new String[]{f[2], f[4], f[5]});
+                        break;
+                    case "P":
+                        open.put(Long.parseLong(f[1]), new String[]{f[2], f[3], f[4]});
+                        break;
+                    case "C":
+                        balances.put(f[2], Money.parse(f[3]));
+                        credited.add(Long.parseLong(f[1]));
+                        break;
+                    case "K":
+                        credited.add(Long.parseLong(f[1]));
+                        break;
+                    case "A":
+                        open.remove(Long.parseLong(f[1]));
+                        break;
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Skipping malformed shard journal record in " + journal.getName());
+            }
+        }
+    }
+
+    private static void appendForced(File file, StringBuilder text) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) out.write(buffer);
+            out.force(true);
+        }
+    }
+}
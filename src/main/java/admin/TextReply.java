@@ -0,0 +1,63 @@
+package admin;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * The reply stream of a text connection, reused for each of its requests. Text replies carry
+ * no request id, so the client matches them to its requests by order alone: a reply marked
+ * with {@link RequestHandler#replyLater} holds the connection's next request until
+ * {@link RequestHandler#endReply}, and nothing else is written to the stream in between.
+ */
+final class TextReply extends PrintWriter {
+    private boolean later, returned; // guarded by lock
+    private Runnable next;
+
+    TextReply(Writer out) {
+        super(out, true);
+    }
+
+    /** Called by the server before each request is handled. */
+    void begin() {
+        synchronized (lock) {
+            later = returned = false;
+            next = null;
+        }
+    }
+
+    void later() {
+        synchronized (lock) {
+            later = true;
+        }
+    }
+
+    /**
+     * Called by the server once the handler has returned. Flushes the reply and returns true
+     * if it is complete; otherwise returns false, and {@code next} runs once it is.
+     */
+    boolean handled(Runnable next) {
+        synchronized (lock) {
+            if (later) {
+                returned = true;
+                this.next = next;
+                return false;
+            }
+        }
+        flush();
+        return true;
+    }
+
+    /** Completes a reply marked later, once; the server carries on if the handler has returned. */
+    void end() {
+        Runnable carryOn;
+        synchronized (lock) {
+            if (!later) return;
+            later = false;
+            carryOn = returned ? next : null;
+            next = null;
+        }
+        if (carryOn == null) return; // handled() flushes and carries on
+        flush();
+        carryOn.run();
+    }
+}
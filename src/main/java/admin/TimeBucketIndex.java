@@ -0,0 +1,85 @@
+package admin;
+
+import java.util.*;
+
+/**
+ * Hour bucket (Malaysia time, so every bucket lies inside one calendar day) to the positions
+ * of the transactions stamped within it. A range query touches only the buckets it overlaps,
+ * so "today" costs the same whether the history holds ten thousand records or ten million.
+ * Positions use the packing of {@link AccountTransactionIndex#position}.
+ */
+public class TimeBucketIndex {
+    private static final long BUCKET_MILLIS = 60 * 60 * 1000L;
+
+    private final TreeMap<Long, PositionList> sealed = new TreeMap<>();
+    private final TreeMap<Long, PositionList> active = new TreeMap<>();
+
+    private static long bucketOf(long epochMillis) {
+        return Math.floorDiv(epochMillis, BUCKET_MILLIS);
+    }
+
+    /** True if the range covers whole buckets, so every looked-up record lies inside it. */
+    public static boolean isBucketAligned(long fromMillis, long toMillis) {
+        return Math.floorMod(fromMillis, BUCKET_MILLIS) == 0 && Math.floorMod(toMillis, BUCKET_MILLIS) == 0;
+    }
+
+    public synchronized void addSealed(int segmentId, long offset, long epochMillis) {
+        sealed.computeIfAbsent(bucketOf(epochMillis), k -> new PositionList())
+                .add(AccountTransactionIndex.position(segmentId, offset));
+    }
+
+    public synchronized void addActive(long offset, long epochMillis) {
+        active.computeIfAbsent(bucketOf(epochMillis), k -> new PositionList())
+                .add(AccountTransactionIndex.position(AccountTransactionIndex.ACTIVE_SEGMENT, offset));
+    }
+
+    /** Drops a segment's entries once it has been archived. */
+    public synchronized void removeSealed(int segmentId) {
+        sealed.values().removeIf(list -> list.removeSegment(segmentId) == 0);
+    }
+
+    public synchronized void clearActive() {
+        active.clear();
+    }
+
+    public synchronized void clear() {
+        sealed.clear();
+        active.clear();
+    }
+
+    /**
+     * Positions of every record in a bucket overlapping [fromMillis, toMillis), sealed
+     * segments first, each part in log order. Records at the edges of a bucket may fall
+     * outside the range; callers filter on the exact timestamp.
+     */
+    public synchronized long[] lookup(long fromMillis, long toMillis) {
+        if (toMillis <= fromMillis) return new long[0];
+        Collection<PositionList> s = sealed.subMap(bucketOf(fromMillis), true, bucketOf(toMillis - 1), true).values();
+        Collection<PositionList> a = active.subMap(bucketOf(fromMillis), true, bucketOf(toMillis - 1), true).values();
+
+        int sealedSize = 0, activeSize = 0;
+        for (PositionList list : s) sealedSize += list.size();
+        for (PositionList list : a) activeSize += list.size();
+
+        long[] result = new long[sealedSize + activeSize];
+        int at = 0;
+        for (PositionList list : s) {
+            list.copyTo(result, at);
+            at += list.size();
+        }
+        for (PositionList list : a) {
+            list.copyTo(result, at);
+            at += list.size();
+        }
+        // Buckets are in time order; put records back in log order within each part.
+        Arrays.sort(result, 0, sealedSize);
+        Arrays.sort(result, sealedSize, result.length);
+        return result;
+    }
+
+    public synchronized int bucketCount() {
+        Set<Long> buckets = new HashSet<>(sealed.keySet());
+        buckets.addAll(active.keySet());
+        return buckets.size();
+    }
+}
@@ -0,0 +1,295 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An old sealed segment compacted into an immutable, compressed file. The segment's binary
+ * records are cut at record boundaries into blocks of about 64 KB, each deflated on its own,
+ * so a history query inflates only the blocks holding the account's records.
+ *
+ * <pre>
+ * archive-NNNNNN.arc: magic(4) | deflated blocks | summary | dictionary | block table
+ *                     | account index | footerOffset(8) | indexOffset(8) | magic(4)
+ * </pre>
+ * The account index maps each account number to the positions (block, offset in block) of
+ * its records, delta-encoded and deflated. It is read from disk only when a query's account
+ * passes the summary's bloom filter, and is then kept softly, so opening an archive touches
+ * just its footer.
+ */
+public class TransactionArchive {
+    private static final int MAGIC = 0x41524331; // "ARC1"
+    private static final int TRAILER_SIZE = 20;
+    private static final int BLOCK_BYTES = 64 << 10;
+
+    public final int id;
+    public final File file;
+    public final SegmentSummary summary;
+    private final List<String> dictionary;
+    private final long[] blockOffsets;
+    private final int[] compressedLengths, rawLengths;
+    private final long indexOffset;
+    private volatile SoftReference<Map<String, long[]>> accountIndex = new SoftReference<>(null);
+
+    private TransactionArchive(int id, File file, SegmentSummary summary, List<String> dictionary,
+                               long[] blockOffsets, int[] compressedLengths, int[] rawLengths, long indexOffset) {
+        this.id = id;
+        this.file = file;
+        this.summary = summary;
+        this.dictionary = dictionary;
+        this.blockOffsets = blockOffsets;
+        this.compressedLengths = compressedLengths;
+        this.rawLengths = rawLengths;
+        this.indexOffset = indexOffset;
+    }
+
+    /** Writes {@code segment} as an archive at {@code target}, replacing it atomically. */
+    public static TransactionArchive write(SegmentedTransactionLog.Segment segment, File target) throws IOException {
+        byte[] records = Arrays.copyOf(Files.readAllBytes(segment.file.toPath()), (int) segment.recordsEnd);
+
+        // Block boundaries and the account positions both come from one pass over the records.
+        List<Integer> blockStarts = new ArrayList<>();
+        blockStarts.add(0);
+        Map<String, PositionList> positions = new TreeMap<>();
+        try (BinaryTransactionLog.Reader reader = new BinaryTransactionLog.Reader(new ByteArrayInputStream(records))) {
+            for (Transaction t = reader.next(); t != null; t = reader.next()) {
+                int offset = (int) reader.getRecordOffset();
+                int blockStart = blockStarts.get(blockStarts.size() - 1);
+                if (offset - blockStart >= BLOCK_BYTES) {
+                    blockStarts.add(offset);
+                    blockStart = offset;
+                }
+                long position = ((long) (blockStarts.size() - 1) << 32) | (offset - blockStart);
+                positions.computeIfAbsent(t.senderAccountNo, k -> new PositionList()).add(position);
+                if (!t.recipientAccountNo.equals(t.senderAccountNo)) {
+                    positions.computeIfAbsent(t.recipientAccountNo, k -> new PositionList()).add(position);
+                }
+            }
+        }
+
+        Path temp = target.toPath().resolveSibling(target.getName() + ".tmp");
+        int blocks = blockStarts.size();
+        long[] blockOffsets = new long[blocks];
+        int[] compressedLengths = new int[blocks], rawLengths = new int[blocks];
+        long footerOffset, indexOffset;
+        try (FileOutputStream fos = new FileOutputStream(temp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            out.writeInt(MAGIC);
+            long position = 4;
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            byte[] buffer = new byte[BLOCK_BYTES + (BLOCK_BYTES >> 1)];
+            try {
+                for (int b = 0; b < blocks; b++) {
+                    int start = blockStarts.get(b), end = b + 1 < blocks ? blockStarts.get(b + 1) : records.length;
+                    deflater.reset();
+                    deflater.setInput(records, start, end - start);
+                    deflater.finish();
+                    blockOffsets[b] = position;
+                    rawLengths[b] = end - start;
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(buffer);
+                        out.write(buffer, 0, n);
+                        compressedLengths[b] += n;
+                    }
+                    position += compressedLengths[b];
+                }
+            } finally {
+                deflater.end();
+            }
+
+            footerOffset = position;
+            segment.summary.writeTo(out);
+            out.writeInt(segment.dictionary.size());
+            for (String value : segment.dictionary) out.writeUTF(value);
+            out.writeInt(blocks);
+            for (int b = 0; b < blocks; b++) {
+                out.writeLong(blockOffsets[b]);
+                out.writeInt(compressedLengths[b]);
+                out.writeInt(rawLengths[b]);
+            }
+            out.flush();
+            indexOffset = fos.getChannel().position();
+            Deflater indexDeflater = new Deflater(Deflater.BEST_COMPRESSION);
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, indexDeflater, 1 << 12);
+            DataOutputStream index = new DataOutputStream(deflated);
+            index.writeInt(positions.size());
+            for (Map.Entry<String, PositionList> e : positions.entrySet()) {
+                index.writeUTF(e.getKey());
+                long[] list = new long[e.getValue().size()];
+                e.getValue().copyTo(list, 0);
+                index.writeInt(list.length);
+                long previous = 0;
+                for (long p : list) {
+                    writeVarLong(index, p - previous); // positions ascend, so deltas are small
+                    previous = p;
+                }
+            }
+            index.flush();
+            deflated.finish();
+            indexDeflater.end();
+            out.writeLong(footerOffset);
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new TransactionArchive(segment.id, target, segment.summary, new ArrayList<>(segment.dictionary),
+                blockOffsets, compressedLengths, rawLengths, indexOffset);
+    }
+
+    /** Reads the footer of {@code file}, named archive-NNNNNN.arc; the account index is left on disk. */
+    public static TransactionArchive open(File file) throws IOException {
+        String name = file.getName();
+        int id = Integer.parseInt(name.substring("archive-".length(), name.length() - ".arc".length()));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - TRAILER_SIZE);
+            long footerOffset = raf.readLong();
+            long indexOffset = raf.readLong();
+            if (raf.readInt() != MAGIC) throw new IOException("Corrupt archive " + file);
+            raf.seek(footerOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(raf.getFD()), 1 << 16));
+            SegmentSummary summary = SegmentSummary.readFrom(in);
+            int strings = in.readInt();
+            List<String> dictionary = new ArrayList<>(strings);
+            for (int i = 0; i < strings; i++) dictionary.add(in.readUTF());
+            int blocks = in.readInt();
+            long[] blockOffsets = new long[blocks];
+            int[] compressedLengths = new int[blocks], rawLengths = new int[blocks];
+            for (int b = 0; b < blocks; b++) {
+                blockOffsets[b] = in.readLong();
+                compressedLengths[b] = in.readInt();
+                rawLengths[b] = in.readInt();
+            }
+            return new TransactionArchive(id, file, summary, dictionary, blockOffsets, compressedLengths, rawLengths, indexOffset);
+        }
+    }
+
+    /** Streams every transaction in the archive, oldest first. */
+    public void scan(Consumer<Transaction> action) throws IOException {
+        int total = 0;
+        for (int length : rawLengths) total += length;
+        byte[] records = new byte[total];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int at = 0;
+            for (int b = 0; b < blockOffsets.length; b++) {
+                inflate(raf, b, records, at);
+                at += rawLengths[b];
+            }
+        }
+        try (BinaryTransactionLog.Reader reader = new BinaryTransactionLog.Reader(new ByteArrayInputStream(records))) {
+            for (Transaction t = reader.next(); t != null; t = reader.next()) action.accept(t);
+        }
+    }
+
+    /** Streams the account's transactions, oldest first, inflating only the blocks that hold them. */
+    public void forAccount(String accountNo, Consumer<Transaction> action) throws IOException {
+        if (!summary.mightContainAccount(accountNo)) return;
+        long[] positions = accountIndex().get(accountNo);
+        if (positions == null) return;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            int openBlock = -1;
+            ByteBuffer block = null;
+            for (long position : positions) {
+                int b = (int) (position >>> 32);
+                if (b != openBlock) {
+                    byte[] raw = new byte[rawLengths[b]];
+                    inflate(raf, b, raw, 0);
+                    block = ByteBuffer.wrap(raw);
+                    openBlock = b;
+                }
+                action.accept(BinaryTransactionLog.readRecordAt(block, (int) position, dictionary));
+            }
+        }
+    }
+
+    /** Number of accounts in the account index; reads it if it is not cached. */
+    public int accountCount() throws IOException {
+        return accountIndex().size();
+    }
+
+    private Map<String, long[]> accountIndex() throws IOException {
+        Map<String, long[]> index = accountIndex.get();
+        if (index != null) return index;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(indexOffset);
+            Inflater inflater = new Inflater();
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new InflaterInputStream(new FileInputStream(raf.getFD()), inflater, 1 << 12), 1 << 16));
+                int accounts = in.readInt();
+                index = new HashMap<>(accounts * 2);
+                for (int i = 0; i < accounts; i++) {
+                    String accountNo = in.readUTF();
+                    long[] positions = new long[in.readInt()];
+                    long previous = 0;
+                    for (int j = 0; j < positions.length; j++) positions[j] = previous += readVarLong(in);
+                    index.put(accountNo, positions);
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+        accountIndex = new SoftReference<>(index);
+        return index;
+    }
+
+    private static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+    }
+
+    private void inflate(RandomAccessFile raf, int block, byte[] target, int at) throws IOException {
+        byte[] compressed = new byte[compressedLengths[block]];
+        raf.seek(blockOffsets[block]);
+        raf.readFully(compressed);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int n = 0;
+            while (n < rawLengths[block] && !inflater.finished()) {
+                int read = inflater.inflate(target, at + n, rawLengths[block] - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            }
+            if (n != rawLengths[block]) throw new IOException("Corrupt block " + block + " in " + file);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Bytes on disk, for reporting the space compaction saved. */
+    public long length() {
+        return file.length();
+    }
+}
@@ -0,0 +1,233 @@
+package admin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Single writer thread for transactions.txt. Concurrent callers hand over their record and
+ * the writer appends whole batches with one write and one force, instead of every caller
+ * opening, writing and closing the file under a lock.
+ *
+ * <ul>
+ *   <li>SYNC  - each record is written and forced on its own before the caller returns</li>
+ *   <li>GROUP - records queued while the previous batch was being forced share the next force; callers
+ *               return once it completes. A batch closes as soon as the queue is empty, so a lone writer
+ *               never waits for company, and at the latest once it has gathered for max-delay.</li>
+ *   <li>ASYNC - callers return as soon as the record is queued; batches are forced in the background</li>
+ * </ul>
+ * Select with -Dpayment.txlog.durability=sync|group|async and -Dpayment.txlog.maxDelayMicros.
+ */
+public class TransactionLogWriter implements Closeable {
+    public enum Durability { SYNC, GROUP, ASYNC }
+
+    private static final int MAX_BATCH = 512;
+
+    private final File file;
+    private FileChannel channel; // reopened after every segment roll
+    private final Durability durability;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    // appenders share it, close takes it alone: nothing is queued once the writer may have left
+    private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+    private volatile SegmentRoller roller;
+    private volatile AppendListener listener;
+
+    /** Decides when the active file is sealed; see {@link SegmentedTransactionLog}. */
+    public interface SegmentRoller {
+        boolean shouldRoll(long activeBytes);
+
+        /** Called on the writer thread with the active file closed; it is reopened (empty or not) afterwards. */
+        void roll() throws IOException;
+    }
+
+    /** Told, on the writer thread, about every record once it is forced and before its caller is released. */
+    public interface AppendListener {
+        void appended(long offset, byte[] record);
+    }
+
+    private static class Pending {
+        final byte[] data;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    public TransactionLogWriter(File file, Durability durability, long maxDelayMicros) throws IOException {
+        this.file = file;
+        this.channel = openChannel();
+        this.durability = durability;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.writer = new Thread(this::run, "txlog-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public void setSegmentRoller(SegmentRoller roller) {
+        this.roller = roller;
+    }
+
+    public void setAppendListener(AppendListener listener) {
+        this.listener = listener;
+    }
+
+    public static TransactionLogWriter fromSystemProperties(File file) throws IOException {
+        Durability durability = Durability.valueOf(
+                System.getProperty("payment.txlog.durability", "group").toUpperCase());
+        long maxDelayMicros = Long.getLong("payment.txlog.maxDelayMicros", 2_000);
+        return new TransactionLogWriter(file, durability, maxDelayMicros);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /** Appends one record, returning when it is as durable as the configured mode promises. */
+    public void append(String record) throws IOException {
+        CompletableFuture<Void> done = appendAsync(record);
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for transaction log");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Queues one record without waiting. The future completes once the record is as durable
+     * as the configured mode promises (at once in ASYNC mode), or exceptionally if it failed.
+     */
+    public CompletableFuture<Void> appendAsync(String record) throws IOException {
+        Pending pending = new Pending(record.getBytes(StandardCharsets.UTF_8));
+        closing.readLock().lock();
+        try {
+            if (!running) throw new IOException("Transaction log is closed");
+            queue.add(pending);
+        } finally {
+            closing.readLock().unlock();
+        }
+        return durability == Durability.ASYNC ? CompletableFuture.completedFuture(null) : pending.done;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                if (durability != Durability.SYNC) fillBatch(batch);
+                flush(batch);
+                maybeRoll();
+            } catch (InterruptedException e) {
+                stop(); // then drains what was queued
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void fillBatch(List<Pending> batch) {
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < MAX_BATCH && deadline - System.nanoTime() > 0) {
+            Pending next = queue.poll();
+            if (next == null) break; // nobody else is waiting: force now
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Pending> batch) {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long total = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(batch.get(i).data);
+            total += buffers[i].remaining();
+        }
+
+        try {
+            long offset = channel.size();
+            long written = 0;
+            while (written < total) written += channel.write(buffers);
+            channel.force(false);
+            notifyListener(offset, batch);
+            for (Pending p : batch) p.done.complete(null);
+        } catch (IOException e) {
+            System.err.println("Failed to write transaction log: " + e.getMessage());
+            for (Pending p : batch) p.done.completeExceptionally(e);
+        }
+    }
+
+    private void notifyListener(long offset, List<Pending> batch) {
+        AppendListener current = listener;
+        if (current == null) return;
+        for (Pending p : batch) {
+            try {
+                current.appended(offset, p.data);
+            } catch (RuntimeException e) {
+                System.err.println("Transaction log listener failed: " + e.getMessage());
+            }
+            offset += p.data.length;
+        }
+    }
+
+    private void maybeRoll() {
+        SegmentRoller current = roller;
+        try {
+            if (current == null || !current.shouldRoll(channel.size())) return;
+            channel.close();
+            try {
+                current.roll();
+            } finally {
+                channel = openChannel();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to roll transaction log: " + e.getMessage());
+        }
+    }
+
+    private void stop() {
+        closing.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closing.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // only left if close was interrupted before the writer drained them
+        IOException closed = new IOException("Transaction log closed before the record was written");
+        for (Pending p; (p = queue.poll()) != null; ) {
+            if (durability == Durability.ASYNC) System.err.println("Transaction record lost: log closed before it was written");
+            p.done.completeExceptionally(closed);
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,104 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Follows the active transaction file from the byte offset just past the last complete
+ * block it delivered, so each poll reads only what was appended since. A torn block at the
+ * end is left for the next poll. If the file is sealed into a segment between polls, the
+ * records appended after the last poll are taken from that segment before following the new
+ * active file; a file that simply shrinks is treated as truncated and read from the start.
+ */
+public class TransactionTailer {
+    private final File file;
+    private final SegmentedTransactionLog segments; // null when the log is not segmented
+    private long offset;
+    private int recordsRead;    // delivered from the current active file
+    private int newestSegmentId;
+
+    public TransactionTailer(File file, SegmentedTransactionLog segments) {
+        this.file = file;
+        this.segments = segments;
+    }
+
+    /** Skips everything already in the log; later polls deliver only new records. */
+    public void seekToEnd() throws IOException {
+        if (segments == null) {
+            readActive(t -> { });
+            return;
+        }
+        segments.readLocked(() -> {
+            newestSegmentId = segments.newestSegmentId();
+            offset = 0;
+            recordsRead = 0;
+            return readActive(t -> { });
+        });
+    }
+
+    /** Delivers the records appended since the last poll and returns how many there were. */
+    public int poll(Consumer<Transaction> action) throws IOException {
+        if (segments == null) return readActive(action);
+        return segments.readLocked(() -> catchUpSealed(action) + readActive(action));
+    }
+
+    private int catchUpSealed(Consumer<Transaction> action) throws IOException {
+        int newest = segments.newestSegmentId();
+        if (newest == newestSegmentId) return 0;
+
+        // The first new segment holds the file we were following; skip what we already delivered.
+        int delivered = 0;
+        int skip = recordsRead;
+        for (SegmentedTransactionLog.Segment segment : segments.getSegments()) {
+            if (segment.id <= newestSegmentId) continue;
+            int[] seen = {0};
+            int toSkip = skip;
+            SegmentedTransactionLog.readSegment(segment, t -> {
+                if (seen[0]++ >= toSkip) action.accept(t);
+            });
+            delivered += Math.max(0, seen[0] - toSkip);
+            skip = 0;
+        }
+        newestSegmentId = newest;
+        offset = 0;
+        recordsRead = 0;
+        return delivered;
+    }
+
+    private int readActive(Consumer<Transaction> action) throws IOException {
+        if (!file.exists()) {
+            offset = 0;
+            recordsRead = 0;
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) { // truncated underneath us
+                offset = 0;
+                recordsRead = 0;
+            }
+            if (size == offset) return 0;
+
+            int[] count = {0};
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(offset)), 1 << 16);
+            offset = TransactionText.scanBlocks(in, offset, (position, t) -> {
+                action.accept(t);
+                count[0]++;
+            });
+            recordsRead += count[0];
+            return count[0];
+        }
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
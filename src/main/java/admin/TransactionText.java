@@ -0,0 +1,150 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+import client.Money;
+import client.TransactionBlockParser;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/** The eight-line {@code Key: value,} block format used by transactions.txt and GET_TRANSACTIONS. */
+public final class TransactionText {
+    private TransactionText() {
+    }
+
+    /** Receives a parsed block together with the byte offset at which it starts. */
+    public interface PositionedConsumer {
+        void accept(long offset, Transaction t);
+    }
+
+    /** Parses one block. Throws NumberFormatException if the amount is malformed. */
+    public static Transaction parseBlock(String block) {
+        TransactionBlockParser.Record record = new TransactionBlockParser.Record();
+        try {
+            new TransactionBlockParser(new StringReader(block)).next(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by StringReader
+        }
+        return toTransaction(record);
+    }
+
+    public static Transaction toTransaction(TransactionBlockParser.Record r) {
+        return new Transaction(r.senderName.toString(), r.senderAccNo.toString(), r.receiverAccNo.toString(),
+                r.type.toString(), r.status.toString(), r.dateTime.toString(), r.amountCents(), r.thread.toString());
+    }
+
+    /**
+     * Streams every well-formed block from the reader to the action, one block at a time.
+     * Returns the number of blocks that were skipped because they could not be parsed.
+     */
+    public static int readBlocks(Reader reader, Consumer<Transaction> action) throws IOException {
+        TransactionBlockParser parser = new TransactionBlockParser(reader);
+        TransactionBlockParser.Record record = new TransactionBlockParser.Record();
+        int skipped = 0;
+        while (parser.next(record)) {
+            Transaction t;
+            try {
+                t = record.isComplete() ? toTransaction(record) : null;
+            } catch (NumberFormatException e) {
+                t = null;
+            }
+            if (t == null) {
+                skipped++;
+            } else {
+                action.accept(t);
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Byte-level variant of {@link #readBlocks} for callers that need file positions. Only
+     * blocks terminated by a blank line are delivered; a torn block at the end is left unread.
+     * {@code baseOffset} is the file position of the stream's first byte. Returns the file
+     * position just past the last complete block (and any blank lines after it).
+     */
+    public static long scanBlocks(InputStream in, long baseOffset, PositionedConsumer action) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+        long position = baseOffset, lineStart = baseOffset, blockStart = -1, consumed = baseOffset;
+        int lineBegin = 0;
+        boolean blank = true;
+        int b;
+        while ((b = in.read()) >= 0) {
+            position++;
+            if (b != '\n') {
+                block.write(b);
+                if (b != ' ' && b != '\t' && b != '\r') blank = false;
+                continue;
+            }
+            if (!blank) {
+                block.write(b);
+                if (blockStart < 0) blockStart = lineStart;
+                lineBegin = block.size();
+            } else {
+                if (blockStart >= 0) deliver(block.toByteArray(), lineBegin, blockStart, action);
+                block.reset();
+                lineBegin = 0;
+                blockStart = -1;
+                consumed = position;
+            }
+            lineStart = position;
+            blank = true;
+        }
+        return consumed;
+    }
+
+    /** Reads the single block starting at {@code offset}, as reported by {@link #scanBlocks}. */
+    public static Transaction readBlockAt(FileChannel channel, long offset) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(offset)), 512);
+        ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+        int blockEnd = 0;
+        boolean blank = true;
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                if (blank && blockEnd > 0) break;
+                block.write(b);
+                blockEnd = block.size();
+                blank = true;
+                continue;
+            }
+            block.write(b);
+            if (b != ' ' && b != '\t' && b != '\r') blank = false;
+        }
+        if (blockEnd == 0) throw new EOFException("No transaction block at " + offset);
+        return parseBlock(new String(block.toByteArray(), 0, blockEnd, StandardCharsets.UTF_8));
+    }
+
+    /** Parses the first {@code length} bytes of {@code bytes}; malformed blocks are dropped. */
+    private static void deliver(byte[] bytes, int length, long offset, PositionedConsumer action) {
+        Transaction t;
+        try {
+            t = parseBlock(new String(bytes, 0, length, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (!t.timestamp.isEmpty() && !t.type.isEmpty()) action.accept(offset, t);
+    }
+
+    public static String format(String senderName, String senderAccNo, String receiverAccNo, String type,
+                                String status, String timestamp, long amountCents, String thread) {
+        StringBuilder sb = new StringBuilder(192);
+        sb.append("SenderName: ").append(senderName).append(",\n")
+                .append("SenderAccNo: ").append(senderAccNo).append(",\n")
+                .append("ReceiverAccNo: ").append(receiverAccNo).append(",\n")
+                .append("Type: ").append(type).append(",\n")
+                .append("Status: ").append(status).append(",\n")
+                .append("DateTime: ").append(timestamp).append(",\n")
+                .append("Amount: ");
+        Money.appendTo(sb, amountCents).append(",\n")
+                .append("Thread: ").append(thread).append(",\n\n");
+        return sb.toString();
+    }
+
+    public static String format(Transaction t) {
+        return format(t.senderName, t.senderAccountNo, t.recipientAccountNo, t.type, t.status, t.timestamp, t.amountCents, t.thread);
+    }
+}
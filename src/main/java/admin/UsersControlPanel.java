@@ -1,10 +1,14 @@
 package admin;
 
+import client.Money;
+import client.User;
+
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
-import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.*;
 
@@ -12,9 +16,10 @@ public class UsersControlPanel extends JFrame {
     private JTable userTable;
     private DefaultTableModel tableModel;
     private ScheduledExecutorService scheduler;
-    private long lastModifiedTime = 0;
+    private final AccountStorage accountStorage;
 
-    public UsersControlPanel() {
+    public UsersControlPanel(AccountStorage accountStorage) {
+        this.accountStorage = accountStorage;
         setTitle("User Control Panel");
         setSize(700, 400);
         setLocationRelativeTo(null);
@@ -33,64 +38,31 @@ public class UsersControlPanel extends JFrame {
         TableRowSorter<DefaultTableModel> sorter = new TableRowSorter<>(tableModel);
         userTable.setRowSorter(sorter);
 
-        loadUsersFromFile();
         startAutoRefresh();
     }
 
-    private void loadUsersFromFile() {
-        File file = new File("src/main/java/users.txt");
-        if (!file.exists()) {
-            JOptionPane.showMessageDialog(this, "users.txt not found!", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
+    /** Reads the accounts from the server's storage, which users.txt may lag or not be. */
+    private void loadUsers() {
+        List<Vector<String>> rows = new ArrayList<>();
+        for (User user : accountStorage.accounts()) {
+            Vector<String> row = new Vector<>();
+            row.add(user.accountNo);
+            row.add(user.role);
+            row.add(user.username);
+            row.add(user.fullName);
+            row.add("RM" + Money.format(user.balanceCents));
+            rows.add(row);
         }
 
-        // Update the last modified time for monitoring
-        lastModifiedTime = file.lastModified();
-
         SwingUtilities.invokeLater(() -> {
             tableModel.setRowCount(0); // clear old data
+            for (Vector<String> row : rows) tableModel.addRow(row);
         });
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            boolean skipFirstLine = true;
-
-            while ((line = reader.readLine()) != null) {
-                if (skipFirstLine) {
-                    skipFirstLine = false;
-                    continue; // Skip the first line
-                }
-
-                String[] parts = line.split(",");
-                if (parts.length >= 6) {
-                    Vector<String> row = new Vector<>();
-                    row.add(parts[0]); // Account No
-                    row.add(parts[1]); // Role
-                    row.add(parts[2]); // Username
-                    row.add(parts[4]); // Full Name
-                    row.add("RM" + parts[5]); // Balance
-
-                    SwingUtilities.invokeLater(() -> {
-                        tableModel.addRow(row);
-                    });
-                }
-            }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error reading users.txt", "Error", JOptionPane.ERROR_MESSAGE);
-        }
     }
 
     private void startAutoRefresh() {
         scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(() -> {
-            File file = new File("src/main/java/users.txt");
-            if (file.exists()) {
-                long currentModified = file.lastModified();
-                if (currentModified > lastModifiedTime) {
-                    loadUsersFromFile(); // only reload if modified
-                }
-            }
-        }, 5, 5, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::loadUsers, 0, 5, TimeUnit.SECONDS);
     }
 
     @Override
@@ -0,0 +1,48 @@
+package admin;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (Java 21) reached by reflection, so the server still compiles for and runs
+ * on older JVMs. Code run on them must not block inside {@code synchronized}: a virtual thread
+ * that parks or does file I/O while holding a monitor pins its carrier thread, which is why the
+ * storage and log classes on the request path guard their forces with ReentrantLock.
+ */
+public final class VirtualThreads {
+    private static final ThreadFactory FACTORY = lookup();
+
+    private VirtualThreads() {
+    }
+
+    /** A virtual thread factory ({@code Thread.ofVirtual().name("virtual-", 0).factory()}), or null below Java 21. */
+    private static ThreadFactory lookup() {
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            ofVirtual = builder.getMethod("name", String.class, long.class).invoke(ofVirtual, "virtual-", 0L);
+            return (ThreadFactory) builder.getMethod("factory").invoke(ofVirtual);
+        } catch (ReflectiveOperationException e) {
+            return null; // before Java 19, or 19/20 without --enable-preview
+        }
+    }
+
+    public static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    /**
+     * An executor starting a new virtual thread for every task, or null when this JVM has no
+     * virtual threads. Threads are never pooled, so close it with shutdown like any executor.
+     */
+    public static ExecutorService newPerTaskExecutor() {
+        if (FACTORY == null) return null;
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, FACTORY);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package client;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The framed form of the client protocol. The server tells it from the line protocol by the
+ * first byte a connection sends, so both are served on the same port.
+ *
+ * <pre>
+ * preamble: 0xB1 'P' 'Y' version                                 client first, then the server
+ * frame:    length int32 | requestId int32 | code byte | text     big-endian, text in UTF-8
+ * </pre>
+ * {@code length} counts the bytes after itself. A request's code names the command and its
+ * text is the body the line protocol sends between the command line and the blank line. The
+ * reply carries the request's id, {@link #REPLY} (or {@link #ERROR} for a request the server
+ * could not take) and the reply lines. Replies leave in the order requests finish, so a client
+ * may have any number outstanding on one connection and matches them up by id.
+ *
+ * <p>SUBSCRIBE exists only here: after its reply, the server keeps sending {@link #PUSH}
+ * frames under the same id, one whenever the account changes, until UNSUBSCRIBE or the
+ * connection closes.
+ */
+public final class BinaryProtocol {
+    public static final byte MAGIC = (byte) 0xB1;
+    public static final int VERSION = 1;
+    public static final int PREAMBLE_BYTES = 4;
+    /** Bytes after the length field and before the text. */
+    public static final int HEADER_BYTES = 5;
+    /** Largest frame a reader accepts; a transaction history is the biggest reply. */
+    public static final int MAX_FRAME_BYTES = 16 << 20;
+
+    public static final byte REPLY = 0;
+    public static final byte ERROR = 1;
+    /** An update the server sends unasked, under the id of the SUBSCRIBE it belongs to. */
+    public static final byte PUSH = 2;
+
+    /** Request codes are positions in this list, from 1. */
+    private static final List<String> COMMANDS = Arrays.asList(null, "AUTHENTICATE_USER", "REGISTER_USER",
+            "GET_RECIPIENT_NAME", "TRANSFER_REQUEST", "GET_BALANCE", "WITHDRAW_DEPOSIT_REQUEST", "GET_TRANSACTIONS",
+            "CHECK_DUPLICATE", "REPLICATION_STATUS", "SUBSCRIBE", "UNSUBSCRIBE");
+
+    private BinaryProtocol() {
+    }
+
+    public static final class Frame {
+        public final int requestId;
+        public final byte code;
+        public final String text;
+
+        public Frame(int requestId, byte code, String text) {
+            this.requestId = requestId;
+            this.code = code;
+            this.text = text;
+        }
+    }
+
+    public static byte[] preamble(int version) {
+        return new byte[]{MAGIC, 'P', 'Y', (byte) version};
+    }
+
+    /** The version a preamble announces, or -1 if it is not one. */
+    public static int versionOf(byte[] preamble) {
+        if (preamble.length != PREAMBLE_BYTES || preamble[0] != MAGIC || preamble[1] != 'P' || preamble[2] != 'Y') return -1;
+        return preamble[3] & 0xFF;
+    }
+
+    /** The request code for a line-protocol command, or -1 if there is none. */
+    public static byte codeOf(String command) {
+        int code = COMMANDS.indexOf(command);
+        return (byte) (code > 0 ? code : -1);
+    }
+
+    /** The command a request code stands for, or null. */
+    public static String commandOf(byte code) {
+        return code > 0 && code < COMMANDS.size() ? COMMANDS.get(code) : null;
+    }
+
+    public static byte[] encode(int requestId, byte code, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + HEADER_BYTES + bytes.length);
+        frame.putInt(HEADER_BYTES + bytes.length).putInt(requestId).put(code).put(bytes);
+        return frame.array();
+    }
+
+    /** Reads one frame, blocking; throws EOFException if the stream ends before it starts. */
+    public static Frame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < HEADER_BYTES || length > MAX_FRAME_BYTES) throw new IOException("Bad frame length " + length);
+        int requestId = in.readInt();
+        byte code = in.readByte();
+        byte[] text = new byte[length - HEADER_BYTES];
+        in.readFully(text);
+        return new Frame(requestId, code, new String(text, StandardCharsets.UTF_8));
+    }
+
+    /** Reads the other side's preamble and returns its version. */
+    public static int readPreamble(DataInputStream in) throws IOException {
+        byte[] preamble = new byte[PREAMBLE_BYTES];
+        in.readFully(preamble);
+        int version = versionOf(preamble);
+        if (version < 0) throw new IOException("Not a framed connection");
+        return version;
+    }
+}
@@ -2,17 +2,11 @@ package client;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 
 public class ClientApp extends JFrame {
     private JTextField senderNameField, senderAccField, recipientAccField, amountField;
     private JComboBox<String> typeBox;
-    private final ExecutorService executor = Executors.newFixedThreadPool(5);
 
     public ClientApp() {
         setTitle("Client Transaction Sender");
@@ -41,7 +35,7 @@ public class ClientApp extends JFrame {
 
         JButton sendButton = new JButton("Send Transaction");
         add(sendButton);
-        sendButton.addActionListener(e -> executor.submit(this::sendTransaction));
+        sendButton.addActionListener(e -> sendTransaction());
 
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setVisible(true);
@@ -52,40 +46,32 @@ public class ClientApp extends JFrame {
         String senderAcc = senderAccField.getText().trim();
         String recipientAcc = recipientAccField.getText().trim();
         String type = (String) typeBox.getSelectedItem();
-        String status = "Success";
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        String threadName = Thread.currentThread().getName();
-        double amount;
+        long amount;
 
         try {
-            amount = Double.parseDouble(amountField.getText().trim());
+            amount = Money.parse(amountField.getText().trim());
         } catch (NumberFormatException e) {
             showMessage("Invalid amount format.");
             return;
         }
 
-        if (type.equals("Withdraw")) {
-            recipientAcc = "ATM";
-        }
-
-        StringBuilder data = new StringBuilder();
-        data.append("SenderName: ").append(senderName).append(",\n");
-        data.append("SenderAccNo: ").append(senderAcc).append(",\n");
-        data.append("ReceiverAccNo: ").append(recipientAcc).append(",\n");
-        data.append("Type: ").append(type).append(",\n");
-        data.append("Status: ").append(status).append(",\n");
-        data.append("DateTime: ").append(timestamp).append(",\n");
-        data.append("Amount: ").append(String.format("%.2f", amount)).append(",\n");
-        data.append("Thread: ").append(threadName).append("\n\n");
-
-        try (Socket socket = new Socket("172.20.10.2", 9999);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-            out.print(data);
-            out.flush();
-            showMessage("Transaction Sent Successfully");
-        } catch (Exception e) {
-            showMessage("Failed to send transaction: " + e.getMessage());
+        CompletableFuture<Long> balance;
+        if (type.equals("Transfer")) {
+            balance = Connection.transfer(senderAcc, recipientAcc, amount);
+        } else if (type.equals("Withdraw")) {
+            balance = Connection.withdraw(senderAcc, amount);
+        } else {
+            balance = Connection.deposit(senderAcc, amount);
         }
+        balance.whenComplete((updated, error) -> {
+            if (error != null) {
+                showMessage("Failed to send transaction: " + Connection.messageOf(error));
+            } else if (updated < 0) {
+                showMessage("Server rejected the transaction for " + senderName + ".");
+            } else {
+                showMessage("Transaction Sent Successfully. New balance: RM " + Money.format(updated));
+            }
+        });
     }
 
     private void showMessage(String message) {
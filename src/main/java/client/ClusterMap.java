@@ -0,0 +1,110 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which server node owns which account numbers. Written as comma-separated
+ * {@code low-high@host:port[/peerPort]} ranges in -Dpayment.cluster, for example
+ * {@code 100000-549999@127.0.0.1:9999/19999,550000-999999@127.0.0.1:9998/19998}.
+ * Clients use host:port; nodes talk to each other on the peer port. Without the property
+ * there is one node that owns every account, which is the classic single-server setup.
+ * Both clients and servers must be started with the same map.
+ */
+public class ClusterMap {
+    public static final class Node {
+        public final int index;
+        public final long low, high;
+        public final String host;
+        public final int port, peerPort;
+
+        Node(int index, long low, long high, String host, int port, int peerPort) {
+            this.index = index;
+            this.low = low;
+            this.high = high;
+            this.host = host;
+            this.port = port;
+            this.peerPort = peerPort;
+        }
+
+        @Override
+        public String toString() {
+            return "node " + index + " (" + low + "-" + high + " @ " + host + ":" + port + ")";
+        }
+    }
+
+    private final List<Node> nodes;
+
+    private ClusterMap(List<Node> nodes) {
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    public static ClusterMap single(String host, int port) {
+        List<Node> nodes = new ArrayList<>();
+        nodes.add(new Node(0, Long.MIN_VALUE, Long.MAX_VALUE, host, port, -1));
+        return new ClusterMap(nodes);
+    }
+
+    /** Throws IllegalArgumentException on a malformed map or overlapping ranges. */
+    public static ClusterMap parse(String spec) {
+        List<Node> nodes = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            try {
+                int at = part.indexOf('@'), dash = part.indexOf('-'), colon = part.lastIndexOf(':');
+                int slash = part.indexOf('/', colon);
+                long low = Long.parseLong(part.substring(0, dash).trim());
+                long high = Long.parseLong(part.substring(dash + 1, at).trim());
+                String host = part.substring(at + 1, colon).trim();
+                int port = Integer.parseInt(part.substring(colon + 1, slash < 0 ? part.length() : slash).trim());
+                int peerPort = slash < 0 ? -1 : Integer.parseInt(part.substring(slash + 1).trim());
+                if (low > high) throw new IllegalArgumentException("Empty range in cluster map: " + part);
+                for (Node other : nodes) {
+                    if (low <= other.high && other.low <= high) {
+                        throw new IllegalArgumentException("Overlapping ranges in cluster map: " + part);
+                    }
+                }
+                nodes.add(new Node(nodes.size(), low, high, host, port, peerPort));
+            } catch (StringIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("Bad cluster map entry: " + part);
+            }
+        }
+        if (nodes.isEmpty()) throw new IllegalArgumentException("Empty cluster map");
+        return new ClusterMap(nodes);
+    }
+
+    /** -Dpayment.cluster if set, otherwise a single node at the given address. */
+    public static ClusterMap fromSystemProperties(String defaultHost, int defaultPort) {
+        String spec = System.getProperty("payment.cluster");
+        return spec == null || spec.trim().isEmpty() ? single(defaultHost, defaultPort) : parse(spec);
+    }
+
+    public List<Node> nodes() {
+        return nodes;
+    }
+
+    public Node node(int index) {
+        return nodes.get(index);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /** The node that owns {@code accountNo}; non-numeric or unmapped numbers go to node 0. */
+    public Node nodeFor(String accountNo) {
+        if (nodes.size() == 1) return nodes.get(0);
+        long number;
+        try {
+            number = Long.parseLong(accountNo.trim());
+        } catch (NumberFormatException e) {
+            return nodes.get(0);
+        }
+        for (Node node : nodes) {
+            if (number >= node.low && number <= node.high) return node;
+        }
+        return nodes.get(0);
+    }
+}
@@ -1,24 +1,324 @@
 package client;
 
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * The client's requests to the server node that owns an account, as given by the
+ * {@link ClusterMap} (-Dpayment.cluster; one server at 172.20.10.2:9999 by default), over
+ * the long-lived connections of one shared {@link ConnectionManager}.
+ * With a single server, -Dpayment.standbys lists its standbys as host:port[,host:port]:
+ * polling reads are spread over them, and if the primary cannot be reached every request
+ * goes to them instead, one of which will have taken over.
+ *
+ * <p>Every request returns a future at once and completes on the manager's I/O threads, so a
+ * window chains its update with {@code whenCompleteAsync(..., SwingUtilities::invokeLater)}
+ * and never waits on the network. -Dpayment.client.connectTimeoutMillis (3000),
+ * -Dpayment.client.replyTimeoutMillis (10000) and -Dpayment.client.ioThreads (2) tune them.
+ * {@link #subscribe} has the server push balance changes instead of the window polling.
+ */
 public class Connection {
     private static final String SERVER_IP = "172.20.10.2";
     private static final int SERVER_PORT = 9999;
+    private static final ClusterMap CLUSTER = ClusterMap.fromSystemProperties(SERVER_IP, SERVER_PORT);
+    private static final List<String[]> STANDBYS = parseStandbys(System.getProperty("payment.standbys", ""));
+    private static final AtomicInteger nextStandby = new AtomicInteger();
+    private static final long RESUBSCRIBE_MILLIS = 2_000;
+    /** Replies and pushes after which a subscription must be made again. */
+    private static final Set<String> SUBSCRIPTION_ENDS = Set.of("UNSUBSCRIBED", "NOT_FOUND", "SUBSCRIBE_FAILED");
+    private static final ConnectionManager CONNECTIONS = new ConnectionManager(
+            Integer.getInteger("payment.client.connectTimeoutMillis", 3_000),
+            Long.getLong("payment.client.replyTimeoutMillis", 10_000), 100, 5_000,
+            Integer.getInteger("payment.client.ioThreads", 2));
 
-    public static boolean sendMessage(String message) {
-        try (Socket socket = new Socket(SERVER_IP, SERVER_PORT);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+    public static ClusterMap cluster() {
+        return CLUSTER;
+    }
 
-            out.print(message);
-            out.flush();
-            return true;
+    /** Every node, for requests that are not about one account (login, duplicate checks). */
+    public static List<ClusterMap.Node> nodes() {
+        return CLUSTER.nodes();
+    }
+
+    /** The user with these credentials, asking each node in turn, or null if none knows them. */
+    public static CompletableFuture<User> authenticate(String username, String hashedPassword) {
+        return authenticate(0, username + "\n" + hashedPassword + "\n");
+    }
+
+    private static CompletableFuture<User> authenticate(int node, String body) {
+        if (node == nodes().size()) return CompletableFuture.completedFuture(null);
+        return request(nodes().get(node), "AUTHENTICATE_USER", body).handle((reply, error) -> {
+            if (error != null) {
+                System.err.println("Login error on " + nodes().get(node) + ": " + messageOf(error));
+            } else {
+                String[] lines = reply.split("\n");
+                if ("AUTH_SUCCESS".equalsIgnoreCase(lines[0]) && lines.length >= 7) {
+                    return CompletableFuture.completedFuture(new User(lines[1], lines[2], lines[3], lines[4], lines[5],
+                            Money.parse(lines[6])));
+                }
+            }
+            return authenticate(node + 1, body);
+        }).thenCompose(next -> next);
+    }
 
-        } catch (Exception e) {
-            System.err.println("Failed to connect to server: " + e.getMessage());
+    /** True if any node already has a user called {@code username}. */
+    public static CompletableFuture<Boolean> isUsernameTaken(String username) {
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (ClusterMap.Node node : nodes()) replies.add(request(node, "CHECK_DUPLICATE", username + "\n"));
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            for (CompletableFuture<String> reply : replies) {
+                if ("DUPLICATE_FOUND".equals(firstLine(reply.join()))) return true;
+            }
             return false;
+        });
+    }
+
+    /** Registers a user on the node that owns {@code accountNo}; false if it refused. */
+    public static CompletableFuture<Boolean> register(String accountNo, String username, String hashedPassword,
+                                                      String fullName, long balanceCents) {
+        StringBuilder line = new StringBuilder();
+        line.append(accountNo).append(",user,")
+                .append(username).append(",")
+                .append(hashedPassword).append(",")
+                .append(fullName).append(",");
+        Money.appendTo(line, balanceCents).append("\n");
+        return request(accountNo, "REGISTER_USER", line.toString())
+                .thenApply(reply -> "REGISTER_SUCCESS".equals(firstLine(reply)));
+    }
+
+    /** The account holder's name, or "" if there is no such account. */
+    public static CompletableFuture<String> getRecipientName(String accountNo) {
+        return request(accountNo, "GET_RECIPIENT_NAME", accountNo + "\n").thenApply(reply -> {
+            String name = firstLine(reply);
+            return name.equals("NOT_FOUND") ? "" : name;
+        });
+    }
+
+    /** The balance in cents, possibly slightly stale (it may come from a standby), or -1 if there is no such account. */
+    public static CompletableFuture<Long> getBalance(String accountNo) {
+        return requestForRead(accountNo, "GET_BALANCE", accountNo + "\n").thenApply(reply -> {
+            String balance = firstLine(reply);
+            return balance.equals("NOT_FOUND") ? -1 : Money.parse(balance);
+        });
+    }
+
+    /** Moves money between accounts; completes with the sender's new balance, or -1 if the server refused. */
+    public static CompletableFuture<Long> transfer(String senderAccNo, String recipientAccNo, long amountCents) {
+        StringBuilder block = new StringBuilder();
+        block.append("SenderAccNo: ").append(senderAccNo).append("\n");
+        block.append("RecipientAccNo: ").append(recipientAccNo).append("\n");
+        block.append("Amount: ");
+        Money.appendTo(block, amountCents).append("\n");
+        return request(senderAccNo, "TRANSFER_REQUEST", block.toString())
+                .thenApply(reply -> balanceAfter("TRANSFER_SUCCESS", reply));
+    }
+
+    /** Completes with the new balance, or -1 if the server refused. */
+    public static CompletableFuture<Long> withdraw(String accountNo, long amountCents) {
+        return withdrawDeposit(accountNo, "WITHDRAW", amountCents);
+    }
+
+    /** Completes with the new balance, or -1 if the server refused. */
+    public static CompletableFuture<Long> deposit(String accountNo, long amountCents) {
+        return withdrawDeposit(accountNo, "DEPOSIT", amountCents);
+    }
+
+    private static CompletableFuture<Long> withdrawDeposit(String accountNo, String type, long amountCents) {
+        StringBuilder block = new StringBuilder();
+        block.append("AccountNo: ").append(accountNo).append("\n");
+        block.append("Amount: ");
+        Money.appendTo(block, amountCents).append("\n");
+        block.append("Type: ").append(type).append("\n");
+        return request(accountNo, "WITHDRAW_DEPOSIT_REQUEST", block.toString())
+                .thenApply(reply -> balanceAfter("UPDATE_SUCCESS", reply));
+    }
+
+    /** Every transaction the account took part in, oldest first; possibly slightly stale. */
+    public static CompletableFuture<List<TransactionBlockParser.Record>> history(String accountNo) {
+        return requestForRead(accountNo, "GET_TRANSACTIONS", accountNo + "\n").thenApply(Connection::parseRecords);
+    }
+
+    private static List<TransactionBlockParser.Record> parseRecords(String blocks) {
+        List<TransactionBlockParser.Record> records = new ArrayList<>();
+        TransactionBlockParser parser = new TransactionBlockParser(new StringReader(blocks));
+        TransactionBlockParser.Record record = new TransactionBlockParser.Record();
+        try {
+            while (parser.next(record)) {
+                records.add(record);
+                record = new TransactionBlockParser.Record();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringReader does not fail
         }
+        return records;
+    }
+
+    /** Told about an account's changes; see {@link #subscribe}. */
+    public interface AccountListener {
+        /**
+         * The balance now, and the transactions committed since the last call, oldest first.
+         * {@code missedSome} means the server dropped some of them for a slow connection.
+         */
+        void changed(long balanceCents, List<TransactionBlockParser.Record> newTransactions, boolean missedSome);
+    }
+
+    /**
+     * Has the node that owns {@code accountNo} push its changes to {@code listener}, on the
+     * I/O threads: the balance at once, then again with the new transactions after every
+     * change, until the subscription is closed. If the subscription is lost (the connection
+     * broke, the server dropped it, a standby took over) it is made again after a pause, with
+     * a fresh balance.
+     */
+    public static Subscription subscribe(String accountNo, AccountListener listener) {
+        Subscription subscription = new Subscription(accountNo, listener);
+        subscription.open();
+        return subscription;
+    }
+
+    /** A live {@link #subscribe}; close it when the window goes. */
+    public static final class Subscription implements AutoCloseable {
+        private final String accountNo;
+        private final AccountListener listener;
+        private final AtomicInteger attempt = new AtomicInteger();
+        private volatile String[] server; // host, port of the current attempt
+        private volatile boolean closed;
+
+        private Subscription(String accountNo, AccountListener listener) {
+            this.accountNo = accountNo;
+            this.listener = listener;
+        }
+
+        /** The owning node first, then with a single server each standby in turn, one per attempt. */
+        private void open() {
+            int current = attempt.get();
+            List<String[]> candidates = new ArrayList<>();
+            ClusterMap.Node owner = CLUSTER.nodeFor(accountNo);
+            candidates.add(new String[]{owner.host, String.valueOf(owner.port)});
+            if (CLUSTER.size() == 1) candidates.addAll(STANDBYS);
+            String[] target = candidates.get(current % candidates.size());
+            server = target;
+            CONNECTIONS.callAsync(target[0], Integer.parseInt(target[1]), "SUBSCRIBE", accountNo + "\n",
+                    new ConnectionManager.PushListener() {
+                        @Override
+                        public boolean pushed(String text) {
+                            return attempt.get() == current && !closed && receive(text, current);
+                        }
+
+                        @Override
+                        public void failed(IOException cause) {
+                            retryLater(current);
+                        }
+                    }).whenComplete((reply, error) -> {
+                        if (error != null) retryLater(current);
+                    });
+        }
+
+        /** Handles the reply or a push; false once the subscription has ended. */
+        private boolean receive(String text, int current) {
+            String[] lines = text.split("\n", 3);
+            if (lines[0].equals("SUBSCRIBED") && lines.length >= 2) {
+                listener.changed(Money.parse(lines[1]), new ArrayList<>(), false);
+                return true;
+            }
+            if (SUBSCRIPTION_ENDS.contains(lines[0])) {
+                retryLater(current);
+                return false;
+            }
+            boolean missed = lines.length >= 2 && lines[1].equals("MISSED_TRANSACTIONS");
+            listener.changed(Money.parse(lines[0]), parseRecords(text.substring(text.indexOf('\n') + 1)), missed);
+            return true;
+        }
+
+        private void retryLater(int current) {
+            if (closed || !attempt.compareAndSet(current, current + 1)) return; // already retrying
+            CompletableFuture.runAsync(this::open,
+                    CompletableFuture.delayedExecutor(RESUBSCRIBE_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            attempt.incrementAndGet();
+            String[] target = server;
+            CONNECTIONS.callAsync(target[0], Integer.parseInt(target[1]), "UNSUBSCRIBE", accountNo + "\n");
+        }
+    }
+
+    /** The message of the failure behind a completed future's error, without its wrappers. */
+    public static String messageOf(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error.getMessage() != null ? error.getMessage() : error.toString();
+    }
+
+    private static long balanceAfter(String success, String reply) {
+        String[] lines = reply.split("\n");
+        return success.equalsIgnoreCase(lines[0]) && lines.length >= 2 ? Money.parse(lines[1]) : -1;
+    }
+
+    private static String firstLine(String reply) {
+        int newline = reply.indexOf('\n');
+        return newline < 0 ? reply : reply.substring(0, newline);
+    }
+
+    private static CompletableFuture<String> request(String accountNo, String command, String body) {
+        return request(CLUSTER.nodeFor(accountNo), command, body);
+    }
+
+    private static CompletableFuture<String> request(ClusterMap.Node node, String command, String body) {
+        CompletableFuture<String> reply = CONNECTIONS.callAsync(node.host, node.port, command, body);
+        return CLUSTER.size() > 1 ? reply : orStandby(reply, 0, command, body);
+    }
+
+    /** {@code reply}, or if its server could not be reached, the reply of the next standby that can. */
+    private static CompletableFuture<String> orStandby(CompletableFuture<String> reply, int standby,
+                                                       String command, String body) {
+        if (standby == STANDBYS.size()) return reply;
+        return reply.handle((text, error) -> {
+            if (error == null || !(unwrap(error) instanceof ConnectException)) return reply;
+            String[] next = STANDBYS.get(standby);
+            return orStandby(CONNECTIONS.callAsync(next[0], Integer.parseInt(next[1]), command, body),
+                    standby + 1, command, body);
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * The reply to a read that may be slightly stale (balance polling, history): from a
+     * standby in turn when there are any, otherwise, or if it is down, the owning node.
+     */
+    private static CompletableFuture<String> requestForRead(String accountNo, String command, String body) {
+        if (CLUSTER.size() > 1 || STANDBYS.isEmpty()) return request(accountNo, command, body);
+        String[] standby = STANDBYS.get(Math.floorMod(nextStandby.getAndIncrement(), STANDBYS.size()));
+        return CONNECTIONS.callAsync(standby[0], Integer.parseInt(standby[1]), command, body).handle((text, error) -> {
+            if (error == null) return CompletableFuture.completedFuture(text);
+            if (!(unwrap(error) instanceof ConnectException)) return CompletableFuture.<String>failedFuture(error);
+            System.err.println("Standby " + standby[0] + ":" + standby[1] + " unreachable, reading from the primary.");
+            return request(accountNo, command, body);
+        }).thenCompose(next -> next);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
-}
 
+    private static List<String[]> parseStandbys(String spec) {
+        List<String[]> standbys = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            int colon = part.lastIndexOf(':');
+            if (colon > 0) standbys.add(new String[]{part.substring(0, colon).trim(), part.substring(colon + 1).trim()});
+        }
+        return standbys;
+    }
+}
@@ -0,0 +1,369 @@
+package client;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long-lived, shared connections to the servers. There is one framed connection
+ * ({@link BinaryProtocol}) per server, opened on first use; every window sends its requests
+ * over it, tagged with ids, and a reader thread hands each reply to the caller waiting for
+ * that id, so a balance poll never queues behind a slow history read.
+ *
+ * <p>{@link #callAsync} never blocks its caller: connecting and writing happen on a small
+ * pool of I/O threads, and replies complete there too, never on the caller's thread or the
+ * reader. A reply that takes longer than {@code replyTimeoutMillis} fails with a
+ * {@link SocketTimeoutException}. A request made with a {@link PushListener} (SUBSCRIBE) also
+ * hands its reply and every {@link BinaryProtocol#PUSH} frame after it to the listener, one at
+ * a time and in the order they arrived.
+ *
+ * <p>A connection that fails is dropped, and its waiting callers get an IOException. The next
+ * request reconnects. After a failed connect, further connects to that server wait out a
+ * backoff that doubles from {@code initialBackoffMillis} up to {@code maxBackoffMillis}, and
+ * requests in the meantime fail at once with a {@link ConnectException}, the same as when
+ * the server cannot be reached at all, so callers can fail over. Requests that only read
+ * are sent again once on a fresh connection if the old one broke under them; anything else
+ * may already have been applied and is reported as failed instead.
+ */
+public class ConnectionManager implements Closeable {
+    private static final Set<String> READS = Set.of("AUTHENTICATE_USER", "GET_RECIPIENT_NAME", "GET_BALANCE",
+            "GET_TRANSACTIONS", "CHECK_DUPLICATE", "REPLICATION_STATUS");
+
+    private final int connectTimeoutMillis;
+    private final long replyTimeoutMillis;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ExecutorService io;
+    private volatile boolean closed;
+
+    public ConnectionManager(int connectTimeoutMillis, long replyTimeoutMillis, long initialBackoffMillis,
+                             long maxBackoffMillis, int ioThreads) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.replyTimeoutMillis = replyTimeoutMillis;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        AtomicInteger threads = new AtomicInteger();
+        this.io = Executors.newFixedThreadPool(ioThreads, task -> {
+            Thread thread = new Thread(task, "client-io-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Receives the frames of a subscription, on the I/O threads. */
+    public interface PushListener {
+        /** The reply, then each pushed frame; returns false to stop listening. */
+        boolean pushed(String text);
+
+        /** The connection carrying the subscription failed; nothing more will come. */
+        void failed(IOException cause);
+    }
+
+    /**
+     * Sends {@code command} with {@code body} (the lines the text protocol puts between the
+     * command and the blank line) to host:port; the future completes with the reply lines.
+     */
+    public CompletableFuture<String> callAsync(String host, int port, String command, String body) {
+        return callAsync(host, port, command, body, null);
+    }
+
+    /** {@link #callAsync}, passing the reply and the frames the server pushes after it to {@code pushes}. */
+    public CompletableFuture<String> callAsync(String host, int port, String command, String body,
+                                              PushListener pushes) {
+        byte code = BinaryProtocol.codeOf(command);
+        if (code < 0) throw new IllegalArgumentException("Unknown command " + command);
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        if (closed) {
+            reply.completeExceptionally(new IOException("Connection manager closed"));
+            return reply;
+        }
+        Endpoint endpoint = endpoints.computeIfAbsent(host + ":" + port, key -> new Endpoint(host, port));
+        send(endpoint, command, code, body, pushes, true, reply);
+        return reply;
+    }
+
+    /** {@link #callAsync}, waiting for the reply. */
+    public String call(String host, int port, String command, String body) throws IOException {
+        try {
+            return callAsync(host, port, command, body).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a reply");
+        }
+    }
+
+    /** Connects if need be and writes the request, on the I/O pool. */
+    private void send(Endpoint endpoint, String command, byte code, String body, PushListener pushes,
+                      boolean mayResend, CompletableFuture<String> reply) {
+        execute(reply, () -> {
+            Link link;
+            try {
+                link = endpoint.link();
+            } catch (IOException e) {
+                reply.completeExceptionally(e);
+                return;
+            }
+            link.send(code, body, pushes).whenComplete((text, error) -> execute(reply, () -> {
+                if (error == null) {
+                    reply.complete(text);
+                } else if (mayResend && link.isBroken() && READS.contains(command)) {
+                    send(endpoint, command, code, body, pushes, false, reply);
+                } else if (error instanceof TimeoutException) {
+                    reply.completeExceptionally(new SocketTimeoutException("No reply from " + endpoint.host + ":"
+                            + endpoint.port + " in " + replyTimeoutMillis + " ms"));
+                } else {
+                    reply.completeExceptionally(error);
+                }
+            }));
+        });
+    }
+
+    /** The frames of one subscription, delivered to its listener one at a time on the I/O threads. */
+    private final class PushStream {
+        final Link link;
+        final int requestId;
+        final PushListener listener;
+        final Queue<Object> frames = new ConcurrentLinkedQueue<>(); // texts, or the IOException that ends them
+        final AtomicBoolean draining = new AtomicBoolean();
+        private boolean done; // delivery thread only
+
+        PushStream(Link link, int requestId, PushListener listener) {
+            this.link = link;
+            this.requestId = requestId;
+            this.listener = listener;
+        }
+
+        /** Reader thread, or whoever fails the link. */
+        void offer(Object frame) {
+            frames.add(frame);
+            if (!draining.compareAndSet(false, true)) return;
+            try {
+                io.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false); // closed
+            }
+        }
+
+        private void drain() {
+            do {
+                for (Object frame; (frame = frames.poll()) != null; ) deliver(frame);
+                draining.set(false);
+            } while (!frames.isEmpty() && draining.compareAndSet(false, true));
+        }
+
+        private void deliver(Object frame) {
+            if (done) return;
+            try {
+                if (frame instanceof IOException) {
+                    done = true;
+                    listener.failed((IOException) frame);
+                } else if (!listener.pushed((String) frame)) {
+                    done = true;
+                    link.streams.remove(requestId);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Push listener failed: " + e);
+            }
+        }
+    }
+
+    private void execute(CompletableFuture<String> reply, Runnable task) {
+        try {
+            io.execute(task);
+        } catch (RejectedExecutionException e) {
+            reply.completeExceptionally(new IOException("Connection manager closed"));
+        }
+    }
+
+    /** Number of servers with an open connection. */
+    public int getOpenConnections() {
+        int open = 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.current != null) open++;
+        }
+        return open;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Endpoint endpoint : endpoints.values()) {
+            Link link = endpoint.current;
+            if (link != null) link.fail(new IOException("Connection manager closed"));
+        }
+        io.shutdown();
+    }
+
+    /** One server: its current connection and the reconnect backoff. */
+    private final class Endpoint {
+        final String host;
+        final int port;
+        final ReentrantLock connecting = new ReentrantLock();
+        volatile Link current;
+        private long retryAt; // guarded by connecting
+        private long backoffMillis;
+
+        Endpoint(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /** The open connection, connecting first if there is none and the backoff allows. */
+        Link link() throws IOException {
+            Link link = current;
+            if (link != null) return link;
+            connecting.lock();
+            try {
+                if (current != null) return current;
+                long now = System.currentTimeMillis();
+                if (now < retryAt) {
+                    throw new ConnectException(host + ":" + port + " unreachable; retrying in " + (retryAt - now) + " ms");
+                }
+                try {
+                    current = new Link(this);
+                    backoffMillis = 0;
+                    return current;
+                } catch (IOException e) {
+                    backoffMillis = backoffMillis == 0 ? initialBackoffMillis : Math.min(maxBackoffMillis, backoffMillis * 2);
+                    retryAt = now + backoffMillis;
+                    ConnectException failed = new ConnectException(host + ":" + port + ": " + e.getMessage());
+                    failed.initCause(e);
+                    throw failed;
+                }
+            } finally {
+                connecting.unlock();
+            }
+        }
+
+        void dropped(Link link) {
+            if (current == link) current = null;
+        }
+    }
+
+    /** One framed connection and the callers waiting on it. */
+    private final class Link {
+        private final Endpoint endpoint;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private final Map<Integer, CompletableFuture<String>> waiting = new ConcurrentHashMap<>();
+        private final Map<Integer, PushStream> streams = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Link(Endpoint endpoint) throws IOException {
+            this.endpoint = endpoint;
+            this.socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(endpoint.host, endpoint.port), connectTimeoutMillis);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(connectTimeoutMillis);
+                out = new BufferedOutputStream(socket.getOutputStream());
+                out.write(BinaryProtocol.preamble(BinaryProtocol.VERSION));
+                out.flush();
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (BinaryProtocol.readPreamble(in) < 1) throw new IOException("No protocol version in common");
+                socket.setSoTimeout(0); // replies may be far apart; the reader waits for as long as it takes
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            Thread reader = new Thread(this::read, "connection-" + endpoint.host + ":" + endpoint.port);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Writes the request; the future completes from the reader thread, exceptionally if
+         * the connection fails first or no reply comes in time.
+         */
+        CompletableFuture<String> send(byte code, String body, PushListener pushes) {
+            int id = nextId.incrementAndGet();
+            CompletableFuture<String> reply = new CompletableFuture<>();
+            waiting.put(id, reply);
+            if (pushes != null) streams.put(id, new PushStream(this, id, pushes));
+            if (failure.get() != null) {
+                waiting.remove(id); // failed before we were registered, so nobody will complete us
+                streams.remove(id);
+                reply.completeExceptionally(failure.get());
+                return reply;
+            }
+            writeLock.lock();
+            try {
+                out.write(BinaryProtocol.encode(id, code, body));
+                out.flush();
+            } catch (IOException e) {
+                fail(e); // completes reply with everyone else's
+            } finally {
+                writeLock.unlock();
+            }
+            reply.orTimeout(replyTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .whenComplete((text, error) -> waiting.remove(id));
+            return reply;
+        }
+
+        private void read() {
+            try {
+                while (true) {
+                    BinaryProtocol.Frame frame = BinaryProtocol.read(in);
+                    PushStream stream = streams.get(frame.requestId);
+                    if (stream != null) {
+                        if (frame.code == BinaryProtocol.ERROR) {
+                            streams.remove(frame.requestId);
+                            stream.offer(new IOException("Server refused the request: " + frame.text));
+                        } else {
+                            stream.offer(frame.text);
+                        }
+                    }
+                    if (frame.code == BinaryProtocol.PUSH) continue;
+                    CompletableFuture<String> reply = waiting.remove(frame.requestId);
+                    if (reply == null) continue; // its caller gave up
+                    if (frame.code == BinaryProtocol.ERROR) {
+                        reply.completeExceptionally(new IOException("Server refused the request: " + frame.text));
+                    } else {
+                        reply.complete(frame.text);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        boolean isBroken() {
+            return failure.get() != null;
+        }
+
+        /** Closes the connection and fails everyone still waiting on it. */
+        void fail(IOException cause) {
+            if (!failure.compareAndSet(null, cause)) return;
+            endpoint.dropped(this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+            for (Integer id : waiting.keySet()) {
+                CompletableFuture<String> reply = waiting.remove(id);
+                if (reply != null) reply.completeExceptionally(cause);
+            }
+            for (Integer id : streams.keySet()) {
+                PushStream stream = streams.remove(id);
+                if (stream != null) stream.offer(cause);
+            }
+        }
+    }
+}
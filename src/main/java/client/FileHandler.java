@@ -16,7 +16,7 @@ public class FileHandler {
             while ((line = br.readLine()) != null) {
                 String[] a = line.split(",");
                 if (a.length == 6) {
-                    list.add(new User(a[0], a[1], a[2], a[3], a[4], Double.parseDouble(a[5])));
+                    list.add(new User(a[0], a[1], a[2], a[3], a[4], Money.parse(a[5])));
                 }
             }
         } catch (IOException ignored) {}
@@ -27,7 +27,7 @@ public class FileHandler {
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(USER_FILE))) {
             for (User u : users) {
                 bw.write(String.join(",", u.getAccountNo(), u.getRole(), u.getUsername(),
-                        u.getPassword(), u.getFullName(), String.valueOf(u.getBalance())));
+                        u.getPassword(), u.getFullName(), Money.format(u.getBalanceCents())));
                 bw.newLine();
             }
         }
@@ -4,14 +4,10 @@ package client;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.io.*;
-import java.net.Socket;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 public class LoginFrame extends JFrame {
-    private static final String SERVER_IP = "172.20.10.2";
-    private static final int SERVER_PORT = 9999;
 
     public LoginFrame() {
         setTitle("Online Payment System - Login");
@@ -89,14 +85,17 @@ public class LoginFrame extends JFrame {
             String password = new String(tfPass.getPassword()).trim();
             String hashedPassword = hashPassword(password);
 
-            User user = authenticateUser(username, hashedPassword);
-            if (user != null) {
-                JOptionPane.showMessageDialog(this, "Login successful! Welcome " + user.fullName);
-                new UserMainFrame(user).setVisible(true);
-                dispose();
-            } else {
-                JOptionPane.showMessageDialog(this, "Login failed.", "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            btnLogin.setEnabled(false);
+            Connection.authenticate(username, hashedPassword).whenCompleteAsync((user, error) -> {
+                btnLogin.setEnabled(true);
+                if (user != null) {
+                    JOptionPane.showMessageDialog(this, "Login successful! Welcome " + user.fullName);
+                    new UserMainFrame(user).setVisible(true);
+                    dispose();
+                } else {
+                    JOptionPane.showMessageDialog(this, "Login failed.", "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }, SwingUtilities::invokeLater);
         });
 
         btnRegister.addActionListener(e -> {
@@ -108,33 +107,6 @@ public class LoginFrame extends JFrame {
 
     }
 
-    private User authenticateUser(String username, String hashedPassword) {
-        try (Socket socket = new Socket(SERVER_IP, SERVER_PORT);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-            out.println("AUTHENTICATE_USER");
-            out.println(username);
-            out.println(hashedPassword);
-            out.println();
-
-            String response = in.readLine();
-            if ("AUTH_SUCCESS".equalsIgnoreCase(response)) {
-                String accNo = in.readLine();
-                String role = in.readLine();
-                String uname = in.readLine();
-                String pass = in.readLine();
-                String fullName = in.readLine();
-                String balance = in.readLine();
-
-                return new User(accNo, role, uname, pass, fullName, Double.parseDouble(balance));
-            }
-        } catch (IOException e) {
-            System.err.println("Login error: " + e.getMessage());
-        }
-        return null;
-    }
-
     public static String hashPassword(String password) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -0,0 +1,84 @@
+package client;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Money as a whole number of cents in a {@code long}, so balances and amounts add and compare
+ * exactly. The wire and file formats keep their plain two-decimal text ("1500.00"); these
+ * routines convert to and from it without going through {@code double}, {@code String.format}
+ * or a regex.
+ */
+public final class Money {
+    private static final int MAX_DIGITS = 16; // any 16-digit value times 100 still fits a long
+
+    private Money() {
+    }
+
+    /**
+     * Parses a decimal such as "12", "-0.5" or "1500.00" into cents, rounding any further
+     * decimals half-up. Plain decimals are read without allocating; other forms (an exponent,
+     * very long numbers) go through {@link BigDecimal}. Throws NumberFormatException if the
+     * text is not a number or the amount does not fit.
+     */
+    public static long parse(CharSequence s) {
+        int i = 0, n = s.length();
+        boolean negative = false;
+        if (n > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        for (; i < n && digits < MAX_DIGITS; i++, digits++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') break;
+            units = units * 10 + (ch - '0');
+        }
+        long cents = units * 100;
+        if (i < n && s.charAt(i) == '.') {
+            int place = 0;
+            for (i++; i < n; i++, place++) {
+                char ch = s.charAt(i);
+                if (ch < '0' || ch > '9') break;
+                if (place == 0) cents += (ch - '0') * 10;
+                else if (place == 1) cents += ch - '0';
+                else if (place == 2 && ch >= '5') cents++;
+                digits++;
+            }
+        }
+        if (i != n || digits == 0) return parseSlow(s);
+        return negative ? -cents : cents;
+    }
+
+    private static long parseSlow(CharSequence s) {
+        try {
+            return new BigDecimal(s.toString().trim()).setScale(2, RoundingMode.HALF_UP)
+                    .unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount out of range: " + s);
+        }
+    }
+
+    /** Appends {@code cents} as "-1234.56" without creating any intermediate strings. */
+    public static StringBuilder appendTo(StringBuilder sb, long cents) {
+        if (cents < 0) {
+            sb.append('-');
+            if (cents == Long.MIN_VALUE) return sb.append("92233720368547758.08");
+            cents = -cents;
+        }
+        int fraction = (int) (cents % 100);
+        return sb.append(cents / 100).append('.')
+                .append((char) ('0' + fraction / 10))
+                .append((char) ('0' + fraction % 10));
+    }
+
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /** Cents nearest to a double amount, for values that only exist as doubles (old files). */
+    public static long fromDouble(double amount) {
+        return Math.round(amount * 100);
+    }
+}
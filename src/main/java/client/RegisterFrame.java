@@ -8,8 +8,6 @@ import java.security.NoSuchAlgorithmException;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.*;
-import java.net.Socket;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -110,43 +108,34 @@ public class RegisterFrame extends JFrame {
                     throw new Exception("Please fill in all fields.");
                 }
 
-                double balance = Double.parseDouble(balanceStr);
+                long balance = Money.parse(balanceStr);
                 String acc = FileHandler.generateAccountNo();
                 String hashedPassword = hashPassword(password);
 
-                // Step 1: Check for duplicate username or fullname
-                try (Socket socket = new Socket("172.20.10.2", 9999);
-                     PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-                    out.println("CHECK_DUPLICATE");
-                    out.println(username);
-                    out.println();
-
-                    String response = in.readLine();
-                    if ("DUPLICATE_FOUND".equals(response)) {
-                        JOptionPane.showMessageDialog(this, "Username already exists.");
+                // Step 1: Check for duplicate username on every node
+                btnRegister.setEnabled(false);
+                Connection.isUsernameTaken(username).whenCompleteAsync((taken, error) -> {
+                    if (error != null || taken) {
+                        btnRegister.setEnabled(true);
+                        JOptionPane.showMessageDialog(this, taken != null ? "Username already exists."
+                                : "Error: " + Connection.messageOf(error));
                         return;
                     }
-                }
 
-                // Step 2: Send registration request
-                StringBuilder message = new StringBuilder();
-                message.append("REGISTER_USER\n");
-                message.append(acc).append(",user,")
-                        .append(username).append(",")
-                        .append(hashedPassword).append(",")
-                        .append(fullName).append(",")
-                        .append(balance).append("\n\n");
-
-                boolean success = Connection.sendMessage(message.toString());
-                if (success) {
-                    JOptionPane.showMessageDialog(this, "Registration successful.");
-                    dispose();
-                    new LoginFrame();
-                } else {
-                    JOptionPane.showMessageDialog(this, "Failed to contact server.");
-                }
+                    // Step 2: Send registration request
+                    Connection.register(acc, username, hashedPassword, fullName, balance).whenCompleteAsync((success, failure) -> {
+                        btnRegister.setEnabled(true);
+                        if (failure != null) {
+                            JOptionPane.showMessageDialog(this, "Failed to contact server.");
+                        } else if (success) {
+                            JOptionPane.showMessageDialog(this, "Registration successful.");
+                            dispose();
+                            new LoginFrame();
+                        } else {
+                            JOptionPane.showMessageDialog(this, "Registration failed. Server rejected the request.");
+                        }
+                    }, SwingUtilities::invokeLater);
+                }, SwingUtilities::invokeLater);
 
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid balance format.");
@@ -0,0 +1,185 @@
+package client;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single-pass parser for the blank-line separated {@code Key: value,} transaction blocks of
+ * transactions.txt and GET_TRANSACTIONS replies. It reads straight from a {@link Reader}
+ * through its own buffer and fills a caller-owned {@link Record}, so no line strings, split
+ * arrays or whole-file text are created. Used by the admin server and the client viewer.
+ *
+ * <p>Values follow the original rules: the text after the first ':' is trimmed and every
+ * comma removed. Lines without a ':' are ignored; a repeated key keeps its last value.
+ */
+public final class TransactionBlockParser {
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos, limit;
+    private final StringBuilder key = new StringBuilder(16);
+    private final StringBuilder ignored = new StringBuilder(64);
+
+    /** Reusable holder for one block's fields. */
+    public static final class Record {
+        public final StringBuilder senderName = new StringBuilder();
+        public final StringBuilder senderAccNo = new StringBuilder();
+        public final StringBuilder receiverAccNo = new StringBuilder();
+        public final StringBuilder type = new StringBuilder();
+        public final StringBuilder status = new StringBuilder();
+        public final StringBuilder dateTime = new StringBuilder();
+        public final StringBuilder amount = new StringBuilder();
+        public final StringBuilder thread = new StringBuilder();
+
+        void clear() {
+            senderName.setLength(0);
+            senderAccNo.setLength(0);
+            receiverAccNo.setLength(0);
+            type.setLength(0);
+            status.setLength(0);
+            dateTime.setLength(0);
+            amount.setLength(0);
+            thread.setLength(0);
+        }
+
+        /** Blocks without a timestamp or type are not transactions. */
+        public boolean isComplete() {
+            return dateTime.length() > 0 && type.length() > 0;
+        }
+
+        /** The amount in cents, 0 if absent. Throws NumberFormatException if it is malformed. */
+        public long amountCents() {
+            return amount.length() == 0 ? 0 : Money.parse(amount);
+        }
+
+        /** "Key: value, " for every field but the timestamp, as the client history shows it. */
+        public String describe() {
+            StringBuilder sb = new StringBuilder(160);
+            append(sb, "SenderName", senderName);
+            append(sb, "SenderAccNo", senderAccNo);
+            append(sb, "ReceiverAccNo", receiverAccNo);
+            append(sb, "Type", type);
+            append(sb, "Status", status);
+            append(sb, "Amount", amount);
+            append(sb, "Thread", thread);
+            return sb.toString();
+        }
+
+        private static void append(StringBuilder sb, String key, StringBuilder value) {
+            if (value.length() > 0) sb.append(key).append(": ").append(value).append(", ");
+        }
+    }
+
+    public TransactionBlockParser(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Fills {@code record} with the next block that has at least one field and returns true,
+     * or returns false at the end of input. A final block needs no trailing blank line.
+     */
+    public boolean next(Record record) throws IOException {
+        record.clear();
+        boolean inBlock = false;
+        while (true) {
+            int c = read();
+            if (c < 0) return inBlock;
+
+            // One line: key up to the first ':', then the value up to the newline.
+            key.setLength(0);
+            boolean blank = true;
+            while (c >= 0 && c != '\n' && c != ':') {
+                if (c > ' ') blank = false;
+                key.append((char) c);
+                c = read();
+            }
+            if (c != ':') {
+                if (blank && inBlock) return true; // blank line ends the block
+                if (!blank) inBlock = true;
+                if (c < 0) return inBlock;
+                continue;
+            }
+
+            inBlock = true;
+            StringBuilder target = field(record);
+            if (readValue(target == null ? ignored : target) < 0) return true;
+        }
+    }
+
+    private StringBuilder field(Record record) {
+        int start = 0, end = key.length();
+        while (start < end && key.charAt(start) <= ' ') start++;
+        while (end > start && key.charAt(end - 1) <= ' ') end--;
+        switch (end - start) {
+            case 4:
+                if (matches(start, "Type")) return record.type;
+                break;
+            case 6:
+                if (matches(start, "Status")) return record.status;
+                if (matches(start, "Amount")) return record.amount;
+                if (matches(start, "Thread")) return record.thread;
+                break;
+            case 8:
+                if (matches(start, "DateTime")) return record.dateTime;
+                break;
+            case 10:
+                if (matches(start, "SenderName")) return record.senderName;
+                break;
+            case 11:
+                if (matches(start, "SenderAccNo")) return record.senderAccNo;
+                break;
+            case 13:
+                if (matches(start, "ReceiverAccNo")) return record.receiverAccNo;
+                break;
+        }
+        return null;
+    }
+
+    private boolean matches(int start, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (key.charAt(start + i) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rest of the line into {@code target} as if trimmed and then stripped of
+     * commas. Returns the character that ended it: '\n', or -1 at the end of input.
+     */
+    private int readValue(StringBuilder target) throws IOException {
+        target.setLength(0);
+        int keep = 0; // length up to the last non-whitespace character, commas included
+        while (true) {
+            if (pos == limit && fill() < 0) break;
+            char ch = buffer[pos++];
+            if (ch == '\n') {
+                target.setLength(keep);
+                return '\n';
+            }
+            if (ch == ',') {
+                keep = target.length();
+            } else if (ch > ' ') {
+                target.append(ch);
+                keep = target.length();
+            } else if (target.length() > 0) {
+                target.append(ch);
+            }
+        }
+        target.setLength(keep);
+        return -1;
+    }
+
+    private int fill() throws IOException {
+        limit = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return -1;
+        }
+        return limit;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && fill() < 0) return -1;
+        return buffer[pos++];
+    }
+}
@@ -5,34 +5,24 @@ import javax.swing.border.TitledBorder;
 import java.awt.*;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
-import java.io.*;
-import java.net.Socket;
-import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class TransferFrame extends JFrame {
     private JTextField accountField, recipientField, recipientNameField, amountField;
     private JLabel balanceLabel;
     private JButton transferButton, exitButton;
 
-    private ExecutorService executorService;
-    private ScheduledExecutorService scheduler;
-    private final Lock balanceLock = new ReentrantLock();
+    private Connection.Subscription balanceUpdates;
 
-    private volatile double currentBalance;
+    private volatile long currentBalance; // cents
     private User currentUser;
     private UserMainFrame userMainFrame;
-    private static final String SERVER_IP = "172.20.10.2";
-    private static final int SERVER_PORT = 9999;
 
     public TransferFrame(User user, UserMainFrame userMainFrame) {
         this.currentUser = user;
-        this.currentBalance = user.getBalance();
+        this.currentBalance = user.getBalanceCents();
         this.userMainFrame = userMainFrame;
         initializeGUI();
-        initializeThreads();
-        startAutoBalanceUpdater();
+        startBalanceUpdates();
         setVisible(true);
     }
 
@@ -67,8 +57,10 @@ public class TransferFrame extends JFrame {
             @Override
             public void focusLost(FocusEvent e) {
                 String acc = recipientField.getText().trim();
-                String name = getRecipientNameFromServer(acc);
-                recipientNameField.setText(name.isEmpty() ? "[Not Found]" : name);
+                Connection.getRecipientName(acc).whenCompleteAsync((name, error) -> {
+                    if (!acc.equals(recipientField.getText().trim())) return; // edited since
+                    recipientNameField.setText(error != null || name.isEmpty() ? "[Not Found]" : name);
+                }, SwingUtilities::invokeLater);
             }
         });
         transferPanel.add(recipientField, gbc);
@@ -96,10 +88,7 @@ public class TransferFrame extends JFrame {
         exitButton.setForeground(Color.WHITE);
 
         transferButton.addActionListener(e -> processSingleTransfer());
-        exitButton.addActionListener(e -> {
-            stopAutoBalanceUpdater();
-            dispose();
-        });
+        exitButton.addActionListener(e -> dispose());
         buttonPanel.add(transferButton);
         buttonPanel.add(exitButton);
         transferPanel.add(buttonPanel, gbc);
@@ -116,143 +105,89 @@ public class TransferFrame extends JFrame {
         updateBalanceDisplay();
     }
 
-    private void initializeThreads() {
-        executorService = Executors.newFixedThreadPool(2);
-    }
-
-    private void startAutoBalanceUpdater() {
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(() -> {
-            double latest = getBalanceFromServer(currentUser.getAccountNo());
-            if (latest >= 0) {
-                currentBalance = latest;
-                currentUser.setBalance(latest);
-                SwingUtilities.invokeLater(this::updateBalanceDisplay);
-            }
-        }, 0, 5, TimeUnit.SECONDS);
+    private void startBalanceUpdates() {
+        balanceUpdates = Connection.subscribe(currentUser.getAccountNo(), (latest, transactions, missed) ->
+                SwingUtilities.invokeLater(() -> {
+                    currentBalance = latest;
+                    currentUser.setBalanceCents(latest);
+                    updateBalanceDisplay();
+                }));
     }
 
-    private void stopAutoBalanceUpdater() {
-        if (scheduler != null && !scheduler.isShutdown()) {
-            scheduler.shutdownNow();
-        }
+    /** Closing the window any way stops the updates. */
+    @Override
+    public void dispose() {
+        if (balanceUpdates != null) balanceUpdates.close();
+        super.dispose();
     }
 
     private void processSingleTransfer() {
+        String recipient = recipientField.getText().trim();
+        long amount;
         try {
-            String recipient = recipientField.getText().trim();
-            String recipientName = getRecipientNameFromServer(recipient);
-            double amount = Double.parseDouble(amountField.getText().trim());
+            amount = Money.parse(amountField.getText().trim());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Invalid amount entered.");
+            return;
+        }
+        if (recipient.isEmpty() || amount <= 0) {
+            JOptionPane.showMessageDialog(this, "Please fill all fields correctly.");
+            return;
+        }
 
-            if (recipient.isEmpty() || amount <= 0) {
-                JOptionPane.showMessageDialog(this, "Please fill all fields correctly.");
+        transferButton.setEnabled(false); // one transfer in flight at a time
+        Connection.getRecipientName(recipient).whenCompleteAsync((recipientName, error) -> {
+            if (error != null) {
+                transferButton.setEnabled(true); // nothing was sent, so nothing happened
+                JOptionPane.showMessageDialog(this, "Could not check the recipient: " + Connection.messageOf(error),
+                        "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
             if (recipientName.isEmpty()) {
+                transferButton.setEnabled(true);
                 JOptionPane.showMessageDialog(this, "No such recipient account exists.", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-
-            executorService.submit(() -> {
-                balanceLock.lock();
-                try {
-                    if (currentBalance >= amount) {
-                        currentBalance -= amount;
-                        currentUser.setBalance(currentBalance);
-
-                        StringBuilder data = new StringBuilder();
-                        data.append("SenderAccNo: ").append(currentUser.getAccountNo()).append("\n");
-                        data.append("RecipientAccNo: ").append(recipient).append("\n");
-                        data.append("Amount: ").append(String.format("%.2f", amount)).append("\n\n");
-
-                        boolean success = sendTransferToServer(data.toString());
-
-                        SwingUtilities.invokeLater(() -> {
-                            updateBalanceDisplay();
-                            if (success) {
-                                JOptionPane.showMessageDialog(this, "Transfer successful.");
-                                userMainFrame.updateBalance();
-                                stopAutoBalanceUpdater();
-                                dispose();
-                            } else {
-                                JOptionPane.showMessageDialog(this, "Server rejected the transfer.", "Warning", JOptionPane.WARNING_MESSAGE);
-                            }
-                        });
-                    } else {
-                        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Insufficient balance."));
-                    }
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                } finally {
-                    balanceLock.unlock();
+            if (currentBalance < amount) {
+                transferButton.setEnabled(true);
+                JOptionPane.showMessageDialog(this, "Insufficient balance.");
+                return;
+            }
+            Connection.transfer(currentUser.getAccountNo(), recipient, amount).whenCompleteAsync((balance, failure) -> {
+                transferButton.setEnabled(true);
+                if (failure != null) {
+                    // The request may have reached the server before the connection failed.
+                    System.err.println("Transfer failed: " + Connection.messageOf(failure));
+                    JOptionPane.showMessageDialog(this, "No answer from the server (" + Connection.messageOf(failure)
+                            + "). The transfer may or may not have gone through; check your balance before trying again.",
+                            "Transfer outcome unknown", JOptionPane.WARNING_MESSAGE);
+                    refreshBalance();
+                } else if (balance >= 0) {
+                    currentBalance = balance;
+                    currentUser.setBalanceCents(balance);
+                    updateBalanceDisplay();
+                    JOptionPane.showMessageDialog(this, "Transfer successful.");
+                    userMainFrame.updateBalance();
+                    dispose();
+                } else {
+                    JOptionPane.showMessageDialog(this, "Server rejected the transfer.", "Warning", JOptionPane.WARNING_MESSAGE);
                 }
-            });
-
-        } catch (NumberFormatException e) {
-            JOptionPane.showMessageDialog(this, "Invalid amount entered.");
-        }
+            }, SwingUtilities::invokeLater);
+        }, SwingUtilities::invokeLater);
     }
 
-    private String getRecipientNameFromServer(String accNo) {
-        try (Socket socket = new Socket(SERVER_IP, SERVER_PORT);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-            out.println("GET_RECIPIENT_NAME");
-            out.println(accNo);
-            out.println();
-            String response = in.readLine();
-            return response == null || response.equals("NOT_FOUND") ? "" : response;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "";
-        }
-    }
-
-    private double getBalanceFromServer(String accNo) {
-        try (Socket socket = new Socket(SERVER_IP, SERVER_PORT);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-            out.println("GET_BALANCE");
-            out.println(accNo);
-            out.println();
-            String response = in.readLine();
-            return response == null || response.equals("NOT_FOUND") ? -1 : Double.parseDouble(response);
-        } catch (IOException | NumberFormatException e) {
-            e.printStackTrace();
-            return -1;
-        }
-    }
-
-    private boolean sendTransferToServer(String transferBlock) {
-        try (Socket socket = new Socket(SERVER_IP, SERVER_PORT);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-            out.println("TRANSFER_REQUEST");
-            out.print(transferBlock);
-            out.println();
-
-            String resp = in.readLine();
-            if ("TRANSFER_SUCCESS".equalsIgnoreCase(resp)) {
-                String newBalanceLine = in.readLine();
-                try {
-                    double updatedBalance = Double.parseDouble(newBalanceLine);
-                    currentBalance = updatedBalance;
-                    currentUser.setBalance(updatedBalance);
-                } catch (NumberFormatException e) {
-                    System.err.println("Failed to parse updated balance from server.");
-                }
-                return true;
-            }
-            return false;
-
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    /** Shows the balance the server holds now, which tells whether an unanswered transfer went through. */
+    private void refreshBalance() {
+        Connection.getBalance(currentUser.getAccountNo()).whenCompleteAsync((balance, error) -> {
+            if (error != null || balance < 0) return; // the subscription catches up once the server is back
+            currentBalance = balance;
+            currentUser.setBalanceCents(balance);
+            updateBalanceDisplay();
+        }, SwingUtilities::invokeLater);
     }
 
     private void updateBalanceDisplay() {
-        balanceLabel.setText("Current Balance: RM " + String.format("%.2f", currentBalance));
+        balanceLabel.setText("Current Balance: RM " + Money.format(currentBalance));
     }
 }
 
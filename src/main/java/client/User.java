@@ -6,15 +6,15 @@ public class User {
     public String username;
     public String password;
     public String fullName;
-    public double balance;
+    public volatile long balanceCents; // posted under the server's account locks, read without them
 
-    public User(String accountNo, String role, String username, String password, String fullName, double balance) {
+    public User(String accountNo, String role, String username, String password, String fullName, long balanceCents) {
         this.accountNo = accountNo;
         this.role = role;
         this.username = username;
         this.password = password;
         this.fullName = fullName;
-        this.balance = balance;
+        this.balanceCents = balanceCents;
     }
 
     public String getAccountNo() {
@@ -37,12 +37,12 @@ public class User {
         return fullName;
     }
 
-    public double getBalance() {
-        return balance;
+    public long getBalanceCents() {
+        return balanceCents;
     }
 
-    public double setBalance(double v) {
-        return balance;
+    public void setBalanceCents(long balanceCents) {
+        this.balanceCents = balanceCents;
     }
 }
 
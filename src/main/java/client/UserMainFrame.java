@@ -3,16 +3,12 @@ package client;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.net.*;
-import java.io.*;
 
 public class UserMainFrame extends JFrame {
     private User user;
     private JLabel lblBal;
-    private Timer autoRefreshTimer;
+    private Connection.Subscription balanceUpdates;
 
-    private static final String SERVER_IP = "172.20.10.2";
-    private static final int SERVER_PORT = 9999;
 
     public UserMainFrame(User user) {
         this.user = user;
@@ -43,7 +39,7 @@ public class UserMainFrame extends JFrame {
         gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2;
         centerPanel.add(accLabel, gbc);
 
-        lblBal = new JLabel("Balance: RM " + String.format("%.2f", user.getBalance()));
+        lblBal = new JLabel("Balance: RM " + Money.format(user.getBalanceCents()));
         lblBal.setFont(new Font("Segoe UI", Font.PLAIN, 16));
         gbc.gridy = 1;
         centerPanel.add(lblBal, gbc);
@@ -70,13 +66,13 @@ public class UserMainFrame extends JFrame {
 
         add(centerPanel, BorderLayout.CENTER);
 
-        // Auto refresh every 10 seconds
-        startAutoBalanceRefresh();
+        // The server pushes every change to the balance
+        startBalanceUpdates();
 
-        // Stop refresh when window is closed
+        // Stop updates when window is closed
         addWindowListener(new WindowAdapter() {
             public void windowClosing(WindowEvent e) {
-                if (autoRefreshTimer != null) autoRefreshTimer.stop();
+                if (balanceUpdates != null) balanceUpdates.close();
             }
         });
 
@@ -97,40 +93,21 @@ public class UserMainFrame extends JFrame {
         try {
             for (User u : FileHandler.readUsers()) {
                 if (u.getAccountNo().equals(user.getAccountNo())) {
-                    user.setBalance(u.getBalance());
+                    user.setBalanceCents(u.getBalanceCents());
                     break;
                 }
             }
-            lblBal.setText("Balance: RM " + String.format("%.2f", user.getBalance()));
+            lblBal.setText("Balance: RM " + Money.format(user.getBalanceCents()));
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Failed to update balance: " + e.getMessage());
         }
     }
 
-    private void startAutoBalanceRefresh() {
-        autoRefreshTimer = new Timer(5000, e -> refreshBalanceFromServer());
-        autoRefreshTimer.start();
-    }
-
-    private void refreshBalanceFromServer() {
-        SwingUtilities.invokeLater(() -> {
-            try (Socket socket = new Socket(SERVER_IP, SERVER_PORT);
-                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-                out.println("GET_BALANCE");
-                out.println(user.getAccountNo());
-                out.println();
-
-                String response = in.readLine();
-                if (response != null && response.matches("\\d+(\\.\\d+)?")) {
-                    double updated = Double.parseDouble(response);
-                    user.setBalance(updated);
-                    lblBal.setText("Balance: RM " + String.format("%.2f", updated));
-                }
-            } catch (IOException ex) {
-                lblBal.setText("Balance: RM [Error]");
-            }
-        });
+    private void startBalanceUpdates() {
+        balanceUpdates = Connection.subscribe(user.getAccountNo(), (updated, transactions, missed) ->
+                SwingUtilities.invokeLater(() -> {
+                    user.setBalanceCents(updated);
+                    lblBal.setText("Balance: RM " + Money.format(updated));
+                }));
     }
 }
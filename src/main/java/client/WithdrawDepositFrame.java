@@ -3,11 +3,11 @@ package client;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.io.*;
-import java.net.Socket;
+import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 public class WithdrawDepositFrame extends JFrame {
 
@@ -62,49 +62,35 @@ public class WithdrawDepositFrame extends JFrame {
             try {
                 String input = tfAmt.getText().trim();
                 NumberFormat format = NumberFormat.getInstance(Locale.getDefault());
+                if (format instanceof DecimalFormat) ((DecimalFormat) format).setParseBigDecimal(true);
                 Number number = format.parse(input);
-                double amount = number.doubleValue();
+                long amount = Money.parse(number.toString());
 
                 if (amount <= 0) {
                     throw new Exception("Amount must be greater than 0.");
                 }
 
-                if (op.equals("withdraw") && amount > user.getBalance()) {
+                if (op.equals("withdraw") && amount > user.getBalanceCents()) {
                     throw new Exception("Insufficient balance.");
                 }
 
-                // Build data block to send to server
-                StringBuilder block = new StringBuilder();
-                block.append("AccountNo: ").append(user.getAccountNo()).append("\n");
-                block.append("Amount: ").append(String.format("%.2f", amount)).append("\n");
-                block.append("Type: ").append(op.toUpperCase()).append("\n\n");
-
-                boolean success = false;
-
-                try (Socket socket = new Socket("172.20.10.2", 9999);
-                     PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-                    out.println("WITHDRAW_DEPOSIT_REQUEST");
-                    out.print(block);
-                    out.println();
-
-                    String response = in.readLine();
-                    success = "UPDATE_SUCCESS".equalsIgnoreCase(response);
-
-                    if (success) {
-                        String updatedBal = in.readLine();
-                        user.setBalance(Double.parseDouble(updatedBal));
+                btnOK.setEnabled(false);
+                CompletableFuture<Long> updated = op.equals("withdraw")
+                        ? Connection.withdraw(user.getAccountNo(), amount)
+                        : Connection.deposit(user.getAccountNo(), amount);
+                updated.whenCompleteAsync((balance, error) -> {
+                    btnOK.setEnabled(true);
+                    if (error != null) {
+                        JOptionPane.showMessageDialog(this, "Error: " + Connection.messageOf(error), "Error", JOptionPane.ERROR_MESSAGE);
+                    } else if (balance >= 0) {
+                        user.setBalanceCents(balance);
+                        parent.updateBalance();
+                        JOptionPane.showMessageDialog(this, op.substring(0, 1).toUpperCase() + op.substring(1) + " successful!");
+                        dispose();
+                    } else {
+                        JOptionPane.showMessageDialog(this, "Transaction failed. Server rejected the request.", "Error", JOptionPane.ERROR_MESSAGE);
                     }
-                }
-
-                if (success) {
-                    parent.updateBalance();
-                    JOptionPane.showMessageDialog(this, op.substring(0, 1).toUpperCase() + op.substring(1) + " successful!");
-                    dispose();
-                } else {
-                    JOptionPane.showMessageDialog(this, "Transaction failed. Server rejected the request.", "Error", JOptionPane.ERROR_MESSAGE);
-                }
+                }, SwingUtilities::invokeLater);
 
             } catch (ParseException pe) {
                 JOptionPane.showMessageDialog(this, "Invalid number format. Please enter a valid number (e.g. 50, 50.00)", "Input Error", JOptionPane.ERROR_MESSAGE);
@@ -0,0 +1,243 @@
+package admin;
+
+import client.BinaryProtocol;
+import client.ConnectionManager;
+import client.Money;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * SUBSCRIBE: the reply first, then a push after every change, through either server; a
+ * subscriber that cannot keep up gets one coalesced push, or is cut off if it is too far
+ * behind even for that; closing the connection ends its subscriptions.
+ */
+public class AccountSubscriptionsTest extends TestCase {
+    private final Map<String, Long> balances = new ConcurrentHashMap<>();
+    private final AccountSubscriptions subscriptions = new AccountSubscriptions(balances::get);
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final List<Closeable> servers = new ArrayList<>();
+
+    /** SUBSCRIBE as the admin panel answers it; DEPOSIT adds to the balance and publishes. */
+    private final RequestHandler handler = (request, out) -> {
+        String[] body = request.body.trim().split(" ");
+        switch (request.command) {
+            case "SUBSCRIBE": {
+                AccountSubscriptions.Subscriber subscriber = subscriptions.subscribe(body[0], out);
+                RequestHandler.replyLater(out);
+                out.println("SUBSCRIBED");
+                out.println(Money.format(balances.get(body[0])));
+                RequestHandler.endReply(out);
+                subscriber.start();
+                break;
+            }
+            case "WITHDRAW_DEPOSIT_REQUEST": {
+                long amount = Long.parseLong(body[1]);
+                balances.merge(body[0], amount, Long::sum);
+                subscriptions.publish(body[0], "Type: DEPOSIT,\nAmount: " + Money.format(amount) + ",\n\n");
+                out.println("UPDATE_SUCCESS");
+                break;
+            }
+            case "UNSUBSCRIBE":
+                subscriptions.unsubscribe(body[0], out);
+                out.println("UNSUBSCRIBED");
+                break;
+        }
+    };
+
+    @Override
+    protected void setUp() {
+        balances.put("100001", 10_000L);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        for (Closeable server : servers) server.close();
+        pool.shutdownNow();
+    }
+
+    private int[] ports() throws IOException {
+        SelectorServer selector = new SelectorServer(0, 1, 4, handler);
+        selector.start();
+        BlockingRequestServer blocking = new BlockingRequestServer(0, pool, handler);
+        blocking.start();
+        servers.add(selector);
+        servers.add(blocking);
+        return new int[]{selector.getPort(), blocking.getPort()};
+    }
+
+    public void testChangesArePushedAfterTheReply() throws Exception {
+        for (int port : ports()) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10_000);
+                DataInputStream in = handshake(socket);
+                OutputStream out = socket.getOutputStream();
+                out.write(BinaryProtocol.encode(1, BinaryProtocol.codeOf("SUBSCRIBE"), "100001\n"));
+                out.flush();
+                BinaryProtocol.Frame reply = BinaryProtocol.read(in);
+                assertEquals(BinaryProtocol.REPLY, reply.code);
+                assertEquals("SUBSCRIBED\n" + Money.format(balances.get("100001")) + "\n", reply.text);
+
+                out.write(BinaryProtocol.encode(2, BinaryProtocol.codeOf("WITHDRAW_DEPOSIT_REQUEST"), "100001 250\n"));
+                out.flush();
+                Map<Byte, BinaryProtocol.Frame> frames = new HashMap<>();
+                for (int i = 0; i < 2; i++) {
+                    BinaryProtocol.Frame frame = BinaryProtocol.read(in);
+                    frames.put(frame.code, frame);
+                }
+                BinaryProtocol.Frame push = frames.get(BinaryProtocol.PUSH);
+                assertEquals("pushed under the SUBSCRIBE's id", 1, push.requestId);
+                assertEquals(Money.format(balances.get("100001")) + "\nType: DEPOSIT,\nAmount: 2.50,\n\n", push.text);
+                assertEquals(2, frames.get(BinaryProtocol.REPLY).requestId);
+
+                out.write(BinaryProtocol.encode(3, BinaryProtocol.codeOf("UNSUBSCRIBE"), "100001\n"));
+                out.flush();
+                Set<String> last = new HashSet<>();
+                for (int i = 0; i < 2; i++) last.add(BinaryProtocol.read(in).text);
+                assertEquals(new HashSet<>(Arrays.asList("UNSUBSCRIBED\n")), last);
+                assertEquals(0, subscriptions.getSubscriberCount());
+            }
+        }
+    }
+
+    public void testClosingTheConnectionEndsItsSubscriptions() throws Exception {
+        for (int port : ports()) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10_000);
+                DataInputStream in = handshake(socket);
+                socket.getOutputStream().write(BinaryProtocol.encode(1, BinaryProtocol.codeOf("SUBSCRIBE"), "100001\n"));
+                socket.getOutputStream().flush();
+                BinaryProtocol.read(in);
+                assertEquals(1, subscriptions.getSubscriberCount());
+            }
+            waitFor(() -> subscriptions.getSubscriberCount() == 0);
+        }
+    }
+
+    public void testSlowSubscriberGetsOneCoalescedPush() {
+        FakeChannel channel = new FakeChannel();
+        subscribe(channel);
+        for (int i = 1; i <= 100; i++) {
+            balances.put("100001", 10_000L + i);
+            subscriptions.publish("100001", "Amount: " + i + ",\n\n");
+        }
+        assertEquals("one push on its way, however many changes", 1, channel.tasks.size());
+        channel.tasks.poll().run();
+
+        assertEquals(1, channel.frames.size());
+        String text = channel.frames.get(0).text;
+        assertTrue(text, text.startsWith(Money.format(10_100) + "\nMISSED_TRANSACTIONS\nAmount: 37,\n\n"));
+        assertTrue(text, text.endsWith("Amount: 100,\n\n"));
+        assertEquals(AccountSubscriptions.MAX_PENDING_TRANSACTIONS, text.split("Amount").length - 1);
+    }
+
+    public void testSubscriberTooFarBehindIsCutOff() {
+        FakeChannel channel = new FakeChannel();
+        channel.behind = true;
+        subscribe(channel);
+        subscriptions.publish("100001", "Amount: 1,\n\n");
+        channel.tasks.poll().run();
+
+        assertEquals(1, channel.frames.size());
+        assertEquals("UNSUBSCRIBED\n", channel.frames.get(0).text);
+        assertEquals(0, subscriptions.getSubscriberCount());
+        subscriptions.publish("100001", "Amount: 2,\n\n");
+        assertTrue(channel.tasks.isEmpty());
+    }
+
+    public void testClientGetsTheReplyAndPushesInOrder() throws Exception {
+        int port = ports()[0];
+        BlockingQueue<String> seen = new LinkedBlockingQueue<>();
+        try (ConnectionManager connections = new ConnectionManager(2000, 10_000, 100, 1000, 2)) {
+            connections.callAsync("127.0.0.1", port, "SUBSCRIBE", "100001\n", new ConnectionManager.PushListener() {
+                @Override
+                public boolean pushed(String text) {
+                    seen.add(text);
+                    return !text.equals("UNSUBSCRIBED\n");
+                }
+
+                @Override
+                public void failed(IOException cause) {
+                    seen.add("failed");
+                }
+            }).get(10, TimeUnit.SECONDS);
+            for (int i = 1; i <= 20; i++) {
+                connections.call("127.0.0.1", port, "WITHDRAW_DEPOSIT_REQUEST", "100001 " + i + "\n");
+            }
+
+            assertEquals("SUBSCRIBED\n100.00\n", seen.poll(10, TimeUnit.SECONDS));
+            long last = 10_000;
+            while (last < 10_000 + 210) { // pushes may coalesce, but never go back
+                String push = seen.poll(10, TimeUnit.SECONDS);
+                assertNotNull("missing pushes", push);
+                long balance = Money.parse(push.substring(0, push.indexOf('\n')));
+                assertTrue(balance > last);
+                last = balance;
+            }
+        }
+        assertEquals("failed", seen.poll(10, TimeUnit.SECONDS)); // closing the manager ends the stream
+    }
+
+    private void subscribe(FakeChannel channel) {
+        FramedReply reply = new FramedReply(7, channel, bytes -> channel.record(bytes));
+        AccountSubscriptions.Subscriber subscriber = subscriptions.subscribe("100001", reply);
+        reply.handled();
+        subscriber.start();
+        channel.frames.clear(); // the reply
+    }
+
+    /** A connection whose pushes run only when the test says so. */
+    private static final class FakeChannel implements PushChannel {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        final List<BinaryProtocol.Frame> frames = new ArrayList<>();
+        boolean behind;
+
+        void record(byte[] bytes) {
+            try {
+                frames.add(BinaryProtocol.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public boolean push(byte[] frame) {
+            if (behind) return false;
+            record(frame);
+            return true;
+        }
+
+        @Override
+        public void pushLast(byte[] frame) {
+            record(frame);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void onClose(Runnable task) {
+        }
+    }
+
+    private static DataInputStream handshake(Socket socket) throws IOException {
+        socket.getOutputStream().write(BinaryProtocol.preamble(BinaryProtocol.VERSION));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        assertEquals(BinaryProtocol.VERSION, BinaryProtocol.readPreamble(in));
+        return in;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package admin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static admin.SeededAccounts.*;
+
+/**
+ * Stress test for {@link AccountTransfers}: many threads cross-transfer random amounts between
+ * a few accounts (so most stripes are contended and many transfers overdraw and must be
+ * rejected), and the total must come out unchanged, with no negative balance, both in memory
+ * and after reopening the storage from disk.
+ */
+public class AccountTransfersTest extends TestCase {
+    private static final int THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 1_500;
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = createDirectory("transfers-test");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        deleteRecursively(dir);
+    }
+
+    public void testJournaledStorageConservesMoney() throws Exception {
+        try (AccountStorage storage = openJournaled()) {
+            stress(storage, new AccountLocks(256));
+            assertConserved(storage);
+        }
+        try (AccountStorage reopened = openJournaled()) {
+            assertConserved(reopened);
+        }
+    }
+
+    public void testMappedStorageConservesMoney() throws Exception {
+        File file = dir.resolve("accounts.dat").toFile();
+        try (AccountStorage storage = MappedAccountStorage.openOrImport(file, usersFile(dir))) {
+            stress(storage, new AccountLocks(256));
+            assertConserved(storage);
+        }
+        try (AccountStorage reopened = MappedAccountStorage.open(file)) {
+            assertConserved(reopened);
+        }
+    }
+
+    /** With two stripes most transfers touch accounts that share one, and many pairs reverse. */
+    public void testFewStripesConserveMoneyWithoutDeadlock() throws Exception {
+        try (AccountStorage storage = openJournaled()) {
+            stress(storage, new AccountLocks(2));
+            assertConserved(storage);
+        }
+    }
+
+    public void testRejectsOverdraftsAndBadAmounts() throws Exception {
+        try (AccountStorage storage = openJournaled()) {
+            AccountTransfers transfers = new AccountTransfers(storage, new AccountLocks(16));
+            assertNull(transfers.transfer(accountNo(0), accountNo(1), OPENING_CENTS + 1));
+            assertNull(transfers.transfer(accountNo(0), accountNo(1), 0));
+            assertNull(transfers.transfer(accountNo(0), accountNo(1), -5));
+            assertNull(transfers.transfer(accountNo(0), accountNo(0), 1));
+            assertNull(transfers.transfer(accountNo(0), "999999", 1));
+            assertNull(transfers.withdraw(accountNo(0), OPENING_CENTS + 1));
+            assertNull(transfers.deposit(accountNo(0), -1));
+
+            assertNotNull(transfers.transfer(accountNo(0), accountNo(1), OPENING_CENTS));
+            assertEquals(0, storage.getBalance(accountNo(0)));
+            assertEquals(2 * OPENING_CENTS, storage.getBalance(accountNo(1)));
+            assertNotNull(transfers.withdraw(accountNo(1), 250));
+            assertNotNull(transfers.deposit(accountNo(0), 250));
+            assertEquals(250, storage.getBalance(accountNo(0)));
+            assertEquals(2 * OPENING_CENTS - 250, storage.getBalance(accountNo(1)));
+        }
+    }
+
+    private void stress(AccountStorage storage, AccountLocks locks) throws Exception {
+        AccountTransfers transfers = new AccountTransfers(storage, locks);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(t);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    // Up to 60% of an opening balance, so overdrafts are frequent.
+                    randomTransfers(random, 0, ACCOUNTS, TRANSFERS_PER_THREAD, (int) (OPENING_CENTS * 6 / 10),
+                            transfers::transfer);
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }, "transfer-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(120_000);
+            assertFalse("Transfers did not finish (deadlock?)", thread.isAlive());
+        }
+        if (!failures.isEmpty()) throw new AssertionError("Transfer thread failed", failures.get(0));
+    }
+
+    private static void assertConserved(AccountStorage storage) {
+        SeededAccounts.assertConserved(storage::getBalance, ACCOUNTS);
+    }
+
+    private AccountStorage openJournaled() throws IOException {
+        return SeededAccounts.openJournaled(dir);
+    }
+}
@@ -0,0 +1,103 @@
+package admin;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static admin.SeededAccounts.*;
+
+/**
+ * What every {@link AsyncLedger} must do, run against each one by a subclass: give every
+ * request one reply, reject overdrafts and bad amounts, and conserve money under concurrent
+ * publishers both in its replies and in what it journaled.
+ */
+public abstract class AsyncLedgerContract extends TestCase {
+    protected Path dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = createDirectory("async-ledger-test");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        deleteRecursively(dir);
+    }
+
+    /** The ledger under test, owning the balances in {@code storage}; its own files go under {@link #dir}. */
+    protected abstract AsyncLedger openLedger(AccountStorage storage) throws IOException;
+
+    protected AccountStorage open() throws IOException {
+        return openJournaled(dir);
+    }
+
+    public void testConcurrentPublishersConserveMoney() throws Exception {
+        int publishers = 8, perPublisher = 1_500;
+        CountDownLatch replies = new CountDownLatch(publishers * perPublisher);
+        AtomicInteger accepted = new AtomicInteger();
+        try (AccountStorage storage = open()) {
+            try (AsyncLedger ledger = openLedger(storage)) {
+                AsyncLedger.Reply reply = (status, account, balance) -> {
+                    if (status == AsyncLedger.Status.ACCEPTED) accepted.incrementAndGet();
+                    replies.countDown();
+                };
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < publishers; t++) {
+                    Random random = new Random(t);
+                    Thread thread = new Thread(() -> {
+                        try {
+                            // Up to 60% of an opening balance, so overdrafts are frequent.
+                            randomTransfers(random, 0, ACCOUNTS, perPublisher, 60_000,
+                                    (from, to, cents) -> ledger.transfer(from, to, cents, reply));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                for (Thread thread : threads) thread.join();
+                assertTrue("Missing replies", replies.await(60, TimeUnit.SECONDS));
+                assertConserved(ledger::getBalance, ACCOUNTS);
+            }
+            assertTrue(accepted.get() > 0);
+            assertConserved(storage::getBalance, ACCOUNTS);
+        }
+        try (AccountStorage reopened = open()) {
+            assertConserved(reopened::getBalance, ACCOUNTS);
+        }
+    }
+
+    public void testRejectsOverdraftsAndBadAmounts() throws Exception {
+        try (AccountStorage storage = open(); AsyncLedger ledger = openLedger(storage)) {
+            assertEquals(AsyncLedger.Status.REJECTED, transfer(ledger, accountNo(0), accountNo(1), OPENING_CENTS + 1));
+            assertEquals(AsyncLedger.Status.REJECTED, transfer(ledger, accountNo(0), accountNo(1), 0));
+            assertEquals(AsyncLedger.Status.REJECTED, transfer(ledger, accountNo(0), accountNo(0), 1));
+            assertEquals(AsyncLedger.Status.REJECTED, transfer(ledger, accountNo(0), "999999", 1));
+            assertEquals(AsyncLedger.Status.ACCEPTED, transfer(ledger, accountNo(0), accountNo(1), OPENING_CENTS));
+            assertEquals(AsyncLedger.Status.REJECTED, transfer(ledger, accountNo(0), accountNo(1), 1));
+            assertEquals(0, ledger.getBalance(accountNo(0)));
+            assertEquals(2 * OPENING_CENTS, ledger.getBalance(accountNo(1)));
+            assertEquals(-1, ledger.getBalance("999999"));
+        }
+    }
+
+    protected static AsyncLedger.Status transfer(AsyncLedger ledger, String from, String to, long cents)
+            throws InterruptedException {
+        AsyncLedger.Status[] result = new AsyncLedger.Status[1];
+        CountDownLatch done = new CountDownLatch(1);
+        ledger.transfer(from, to, cents, (status, account, balance) -> {
+            result[0] = status;
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+}
@@ -0,0 +1,173 @@
+package admin;
+
+import client.BinaryProtocol;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Both servers must tell framed connections from text ones by their first byte, answer
+ * pipelined frames under their request ids as each finishes, and keep serving the line
+ * protocol on the same port.
+ */
+public class BinaryProtocolTest extends TestCase {
+    private final ScheduledExecutorService later = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final List<Closeable> servers = new ArrayList<>();
+
+    /** Echoes the body; "slow" bodies reply after the handler returns, like the async ledger. */
+    private final RequestHandler handler = (request, out) -> {
+        String body = request.body.trim();
+        if (body.startsWith("slow")) {
+            RequestHandler.replyLater(out);
+            later.schedule(() -> {
+                out.println(request.command);
+                out.println(body);
+                RequestHandler.endReply(out);
+            }, 200, TimeUnit.MILLISECONDS);
+            return;
+        }
+        out.println(request.command);
+        out.println(body);
+    };
+
+    @Override
+    protected void tearDown() throws IOException {
+        for (Closeable server : servers) server.close();
+        later.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /** The port of each server kind, both started with {@link #handler}. */
+    private int[] ports() throws IOException {
+        SelectorServer selector = new SelectorServer(0, 1, 4, handler);
+        selector.start();
+        BlockingRequestServer blocking = new BlockingRequestServer(0, pool, handler);
+        blocking.start();
+        servers.add(selector);
+        servers.add(blocking);
+        return new int[]{selector.getPort(), blocking.getPort()};
+    }
+
+    public void testPipelinedRepliesComeBackAsTheyFinish() throws IOException {
+        for (int port : ports()) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10_000);
+                DataInputStream in = handshake(socket);
+                OutputStream out = socket.getOutputStream();
+                out.write(BinaryProtocol.encode(1, BinaryProtocol.codeOf("GET_TRANSACTIONS"), "slow 1\n"));
+                out.write(BinaryProtocol.encode(2, BinaryProtocol.codeOf("GET_BALANCE"), "100001\n"));
+                out.write(BinaryProtocol.encode(3, BinaryProtocol.codeOf("CHECK_DUPLICATE"), "Zoë"));
+                out.flush();
+
+                Map<Integer, String> replies = new LinkedHashMap<>();
+                for (int i = 0; i < 3; i++) {
+                    BinaryProtocol.Frame frame = BinaryProtocol.read(in);
+                    assertEquals(BinaryProtocol.REPLY, frame.code);
+                    replies.put(frame.requestId, frame.text);
+                }
+                assertEquals("the slow request answered last", 1, (int) new ArrayList<>(replies.keySet()).get(2));
+                assertEquals("GET_TRANSACTIONS\nslow 1\n", replies.get(1));
+                assertEquals("GET_BALANCE\n100001\n", replies.get(2));
+                assertEquals("CHECK_DUPLICATE\nZoë\n", replies.get(3));
+            }
+        }
+    }
+
+    public void testManyFramesInFlightOnOneConnection() throws IOException {
+        for (int port : ports()) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10_000);
+                DataInputStream in = handshake(socket);
+                ByteArrayOutputStream all = new ByteArrayOutputStream();
+                int requests = 500;
+                for (int id = 0; id < requests; id++) {
+                    all.write(BinaryProtocol.encode(id, BinaryProtocol.codeOf("GET_BALANCE"), "acc-" + id + "\n"));
+                }
+                socket.getOutputStream().write(all.toByteArray()); // every request before reading any reply
+                socket.getOutputStream().flush();
+
+                Set<Integer> answered = new HashSet<>();
+                for (int i = 0; i < requests; i++) {
+                    BinaryProtocol.Frame frame = BinaryProtocol.read(in);
+                    assertEquals("GET_BALANCE\nacc-" + frame.requestId + "\n", frame.text);
+                    assertTrue(answered.add(frame.requestId));
+                }
+                assertEquals(requests, answered.size());
+            }
+        }
+    }
+
+    public void testTextClientsShareThePort() throws IOException {
+        for (int port : ports()) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10_000);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                out.write("GET_BALANCE\n100001\n\n");
+                out.flush();
+                assertEquals("GET_BALANCE", in.readLine());
+                assertEquals("100001", in.readLine());
+            }
+        }
+    }
+
+    public void testUnknownCommandIsAnError() throws IOException {
+        for (int port : ports()) {
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setSoTimeout(10_000);
+                DataInputStream in = handshake(socket);
+                socket.getOutputStream().write(BinaryProtocol.encode(7, (byte) 99, ""));
+                socket.getOutputStream().write(BinaryProtocol.encode(8, BinaryProtocol.codeOf("GET_BALANCE"), "1\n"));
+                socket.getOutputStream().flush();
+                BinaryProtocol.Frame error = BinaryProtocol.read(in);
+                assertEquals(7, error.requestId);
+                assertEquals(BinaryProtocol.ERROR, error.code);
+                assertEquals(8, BinaryProtocol.read(in).requestId); // the connection carries on
+            }
+        }
+    }
+
+    public void testDecoderTakesFramesInAnyPieces() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(BinaryProtocol.preamble(BinaryProtocol.VERSION));
+        bytes.write(BinaryProtocol.encode(1, BinaryProtocol.codeOf("TRANSFER_REQUEST"), "SenderAccNo: 1\nAmount: 5.00\n"));
+        bytes.write(BinaryProtocol.encode(2, BinaryProtocol.codeOf("REPLICATION_STATUS"), ""));
+
+        List<String> seen = new ArrayList<>();
+        FrameDecoder decoder = new FrameDecoder();
+        FrameDecoder.Listener listener = new FrameDecoder.Listener() {
+            @Override
+            public void preamble(int version) {
+                seen.add("v" + version);
+            }
+
+            @Override
+            public void frame(BinaryProtocol.Frame frame) {
+                seen.add(frame.requestId + ":" + BinaryProtocol.commandOf(frame.code) + ":" + frame.text);
+            }
+        };
+        for (byte b : bytes.toByteArray()) decoder.feed(ByteBuffer.wrap(new byte[]{b}), listener);
+        assertEquals(Arrays.asList("v1", "1:TRANSFER_REQUEST:SenderAccNo: 1\nAmount: 5.00\n", "2:REPLICATION_STATUS:"), seen);
+
+        try {
+            ByteBuffer huge = ByteBuffer.allocate(4).putInt(0, FrameDecoder.MAX_REQUEST_BYTES + 1);
+            decoder.feed(huge, listener);
+            fail("Expected the frame to be rejected");
+        } catch (IOException expected) {
+            // cut off
+        }
+    }
+
+    private static DataInputStream handshake(Socket socket) throws IOException {
+        socket.getOutputStream().write(BinaryProtocol.preamble(BinaryProtocol.VERSION));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        assertEquals(BinaryProtocol.VERSION, BinaryProtocol.readPreamble(in));
+        return in;
+    }
+}
@@ -0,0 +1,324 @@
+package admin;
+
+import client.ClusterMap;
+import client.User;
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static admin.SeededAccounts.*;
+
+/**
+ * Two {@link ClusterNode}s on localhost, each with its own storage and logs, must move money
+ * between their accounts without creating or losing any, must not touch copies of each
+ * other's accounts, must not lock the sender while a peer prepares, must finish a transfer
+ * that a crash left between the decision and the credit, must fence an account whose debit
+ * failed after the decision rather than let money appear, and must compact finished transfers
+ * out of their logs.
+ */
+public class ClusterNodeTest extends TestCase {
+    private static final int PER_NODE = ACCOUNTS / 2;
+
+    private Path dir;
+    private ClusterMap map;
+    private final List<ClusterNode.RemoteTransfer> credited = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("cluster-test");
+        map = ClusterMap.parse("100000-100005@127.0.0.1:" + freePort() + "/" + freePort()
+                + ",100006-100011@127.0.0.1:" + freePort() + "/" + freePort());
+        for (int node = 0; node < 2; node++) seed(nodeDir(node), node * PER_NODE, (node + 1) * PER_NODE);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        deleteRecursively(dir);
+    }
+
+    public void testRoutesAccountsToTheirNodes() {
+        assertEquals(0, map.nodeFor(accountNo(0)).index);
+        assertEquals(0, map.nodeFor(accountNo(5)).index);
+        assertEquals(1, map.nodeFor(accountNo(6)).index);
+        assertEquals(0, map.nodeFor("not-a-number").index);
+        try {
+            ClusterMap.parse("1-10@h:1,5-20@h:2");
+            fail("Overlapping ranges accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testConcurrentCrossNodeTransfersConserveMoney() throws Exception {
+        AtomicInteger accepted = new AtomicInteger();
+        try (AccountStorage s0 = open(0); AccountStorage s1 = open(1)) {
+            AccountLocks l0 = new AccountLocks(16), l1 = new AccountLocks(16);
+            try (ClusterNode n0 = node(0, s0, l0); ClusterNode n1 = node(1, s1, l1)) {
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    int home = t % 2;
+                    ClusterNode node = home == 0 ? n0 : n1;
+                    AccountTransfers local = new AccountTransfers(node.storage(), home == 0 ? l0 : l1, node::held);
+                    Random random = new Random(t);
+                    Thread thread = new Thread(() -> {
+                        try {
+                            randomTransfers(random, home * PER_NODE, PER_NODE, 150, 40_000, (from, to, amount) -> {
+                                User sender = node.owns(to) ? local.transfer(from, to, amount)
+                                        : node.transfer(from, to, amount, "2026-01-01 00:00:00");
+                                if (sender != null) accepted.incrementAndGet();
+                            });
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                for (Thread thread : threads) thread.join();
+                awaitSettled(n0, n1);
+                n0.compactLogs();
+                n1.compactLogs();
+                for (int node = 0; node < 2; node++) {
+                    assertEquals("nothing in flight, nothing kept", 0, Files.size(nodeDir(node).resolve(ClusterNode.COORDINATOR_LOG)));
+                    assertEquals(0, Files.size(nodeDir(node).resolve(ClusterNode.PARTICIPANT_LOG)));
+                }
+            }
+            assertTrue(accepted.get() > 0);
+            assertFalse(credited.isEmpty());
+            assertConserved(s0, s1);
+        }
+        try (AccountStorage s0 = open(0); AccountStorage s1 = open(1)) {
+            assertConserved(s0, s1);
+        }
+    }
+
+    public void testRefusedOrUnreachableParticipantLeavesSenderUntouched() throws Exception {
+        try (AccountStorage s0 = open(0)) {
+            try (ClusterNode n0 = node(0, s0, new AccountLocks(16))) {
+                // node 1 is down
+                assertNull(n0.transfer(accountNo(0), accountNo(7), 500, "2026-01-01 00:00:00"));
+                assertEquals(OPENING_CENTS, s0.getBalance(accountNo(0)));
+            }
+            try (AccountStorage s1 = open(1);
+                 ClusterNode n0 = node(0, s0, new AccountLocks(16)); ClusterNode n1 = node(1, s1, new AccountLocks(16))) {
+                assertNull(n0.transfer(accountNo(0), "100011", OPENING_CENTS + 1, "2026-01-01 00:00:00"));
+                assertNull(n0.transfer(accountNo(0), accountNo(1), 1, "2026-01-01 00:00:00")); // same node
+                assertEquals(OPENING_CENTS, s0.getBalance(accountNo(0)));
+                assertNotNull(n0.transfer(accountNo(0), "100011", 2_500, "2026-01-01 00:00:00"));
+                awaitSettled(n0, n1);
+                assertEquals(OPENING_CENTS - 2_500, s0.getBalance(accountNo(0)));
+                assertEquals(OPENING_CENTS + 2_500, s1.getBalance("100011"));
+            }
+        }
+    }
+
+    public void testSenderIsNotLockedWhileThePeerPrepares() throws Exception {
+        CountDownLatch asked = new CountDownLatch(1), answer = new CountDownLatch(1);
+        // Node 1 is a stand-in that takes its time to vote, then acknowledges the commit.
+        try (ServerSocket peer = new ServerSocket(map.node(1).peerPort);
+             AccountStorage s0 = open(0)) {
+            Thread slowPeer = new Thread(() -> {
+                try {
+                    while (true) {
+                        try (Socket socket = peer.accept()) {
+                            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                            String command = in.readLine();
+                            while (!in.readLine().isEmpty()) {
+                                // the transfer block
+                            }
+                            if (command.equals("PREPARE_CREDIT")) {
+                                asked.countDown();
+                                answer.await();
+                            }
+                            socket.getOutputStream().write(
+                                    (command.equals("PREPARE_CREDIT") ? "PREPARED\n" : "COMMITTED\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                    }
+                } catch (IOException | InterruptedException closed) {
+                    // the test is over
+                }
+            });
+            slowPeer.setDaemon(true);
+            slowPeer.start();
+
+            AccountLocks l0 = new AccountLocks(16);
+            try (ClusterNode n0 = node(0, s0, l0)) {
+                AccountTransfers local = new AccountTransfers(n0.storage(), l0, n0::held);
+                ExecutorService coordinator = Executors.newSingleThreadExecutor();
+                Future<User> remote = coordinator.submit(() -> n0.transfer(accountNo(0), accountNo(6), 60_000, "2026-01-01 00:00:00"));
+                assertTrue(asked.await(10, TimeUnit.SECONDS));
+
+                assertEquals(60_000, n0.held(accountNo(0)));
+                assertNull("the hold cannot be spent", local.withdraw(accountNo(0), 40_001));
+                assertNotNull("the rest can, without waiting for the peer", local.withdraw(accountNo(0), 40_000));
+
+                answer.countDown();
+                assertNotNull(remote.get(10, TimeUnit.SECONDS));
+                coordinator.shutdown();
+                assertEquals(0, n0.held(accountNo(0)));
+                assertEquals(0, s0.getBalance(accountNo(0)));
+            }
+        }
+    }
+
+    public void testForeignSenderIsRefusedByTheRecipientsNode() throws Exception {
+        // Node 1's users.txt still has node 0's accounts, as when one file was split into two.
+        seed(nodeDir(1), 0, ACCOUNTS);
+        try (AccountStorage s0 = open(0); AccountStorage s1 = open(1)) {
+            AccountLocks l1 = new AccountLocks(16);
+            try (ClusterNode n1 = node(1, s1, l1)) {
+                AccountStorage owned = n1.storage();
+                assertNull(new AccountTransfers(owned, l1).transfer(accountNo(0), accountNo(6), 500));
+                assertNull(new AccountTransfers(owned, l1).withdraw(accountNo(0), 500));
+                assertEquals(-1, owned.getBalance(accountNo(0)));
+                assertNull(owned.authenticate("user0", PASSWORD));
+                assertEquals(PER_NODE, owned.size());
+                try {
+                    owned.postBalances(new User[]{s1.findByAccountNo(accountNo(0))}, new long[]{0});
+                    fail("Posted to another node's account");
+                } catch (IOException expected) {
+                }
+                assertEquals(OPENING_CENTS, s1.getBalance(accountNo(0)));
+                assertEquals(OPENING_CENTS, s1.getBalance(accountNo(6)));
+            }
+            assertConserved(s0, s1);
+        }
+    }
+
+    public void testRecoversDecisionCutOffBeforeDebitAndCredit() throws Exception {
+        // Node 0 decided to commit and crashed before posting the debit; node 1 had only prepared.
+        String record = "0-1-1|0|" + accountNo(0) + "|" + accountNo(6) + "|123.00|2026-01-01 00:00:00|user0";
+        write(0, ClusterNode.COORDINATOR_LOG, "COMMIT|877.00|" + record + "\n");
+        write(1, ClusterNode.PARTICIPANT_LOG, "PREPARED|" + record + "\nPREPARED|0-1-2|0|100001|100007|5.00|2026-01-01 00:00:00|user1\n");
+        try (AccountStorage s0 = open(0); AccountStorage s1 = open(1)) {
+            try (ClusterNode n0 = node(0, s0, new AccountLocks(16)); ClusterNode n1 = node(1, s1, new AccountLocks(16))) {
+                assertEquals(87_700, s0.getBalance(accountNo(0)));
+                awaitSettled(n0, n1);
+                assertEquals(112_300, s1.getBalance(accountNo(6)));
+                assertEquals(OPENING_CENTS, s1.getBalance("100007")); // never decided: presumed abort
+                assertEquals(1, credited.size());
+            }
+            assertConserved(s0, s1);
+        }
+    }
+
+    public void testFailedDebitFencesTheSenderUntilItSettles() throws Exception {
+        AtomicBoolean failing = new AtomicBoolean();
+        try (AccountStorage s0 = open(0); AccountStorage s1 = open(1)) {
+            AccountStorage flaky = failingPostings(s0, failing);
+            try (ClusterNode n0 = node(0, flaky, new AccountLocks(16)); ClusterNode n1 = node(1, s1, new AccountLocks(16))) {
+                failing.set(true);
+                try {
+                    n0.transfer(accountNo(0), accountNo(6), 2_500, "2026-01-01 00:00:00");
+                    fail("Debit failure not reported");
+                } catch (IOException expected) {
+                }
+                assertEquals(Collections.singleton(accountNo(0)), n0.fencedAccounts());
+                AccountTransfers local = new AccountTransfers(n0.storage(), new AccountLocks(16));
+                failing.set(false);
+                try {
+                    local.deposit(accountNo(0), 1);
+                    fail("Posted to a fenced account");
+                } catch (IOException expected) {
+                }
+                awaitSettled(n0, n1);
+                long deadline = System.currentTimeMillis() + 30_000;
+                while (!n0.fencedAccounts().isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+                assertTrue("Debit never settled", n0.fencedAccounts().isEmpty());
+                assertEquals(OPENING_CENTS - 2_500, s0.getBalance(accountNo(0)));
+                assertEquals(OPENING_CENTS + 2_500, s1.getBalance(accountNo(6)));
+                assertNotNull(local.deposit(accountNo(0), 1));
+                assertNotNull(local.withdraw(accountNo(0), 1));
+            }
+            assertConserved(s0, s1);
+        }
+        try (AccountStorage s0 = open(0); AccountStorage s1 = open(1)) {
+            assertConserved(s0, s1);
+        }
+    }
+
+    public void testRecoveryNeverWritesAnUnexpectedBalance() throws Exception {
+        // A debit whose balance moved on: neither 1000.00 before 123.00 nor the 500.00 recorded.
+        String debit = "0-1-1|0|" + accountNo(0) + "|" + accountNo(6) + "|123.00|2026-01-01 00:00:00|user0";
+        write(0, ClusterNode.COORDINATOR_LOG, "COMMIT|500.00|" + debit + "\n");
+        // A credit posted before a crash cut off its APPLIED record.
+        String credit = "1-1-1|1|" + accountNo(7) + "|" + accountNo(1) + "|40.00|2026-01-01 00:00:00|user7";
+        write(0, ClusterNode.PARTICIPANT_LOG, "PREPARED|" + credit + "\nAPPLYING|1-1-1|" + accountNo(1) + "|1040.00\n");
+        try (AccountStorage s0 = open(0)) {
+            s0.postBalances(new User[]{s0.findByAccountNo(accountNo(1))}, new long[]{OPENING_CENTS + 4_000});
+            try (ClusterNode n0 = node(0, s0, new AccountLocks(16))) {
+                assertEquals(OPENING_CENTS, s0.getBalance(accountNo(0)));
+                assertEquals(Collections.singleton(accountNo(0)), n0.fencedAccounts());
+                assertEquals(OPENING_CENTS + 4_000, s0.getBalance(accountNo(1))); // not credited twice
+                assertEquals(0, n0.preparedCount());
+                assertEquals(1, credited.size());
+            }
+        }
+    }
+
+    /** {@code storage}, with every posting failing while {@code failing} is set. */
+    private static AccountStorage failingPostings(AccountStorage storage, AtomicBoolean failing) {
+        return (AccountStorage) Proxy.newProxyInstance(AccountStorage.class.getClassLoader(),
+                new Class<?>[]{AccountStorage.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("postBalances") && failing.get()) throw new IOException("disk gone");
+                    try {
+                        return method.invoke(storage, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void awaitSettled(ClusterNode... nodes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            boolean settled = true;
+            for (ClusterNode node : nodes) settled &= node.preparedCount() == 0 && node.unacknowledgedCount() == 0;
+            if (settled) return;
+            Thread.sleep(20);
+        }
+        fail("Cluster did not settle");
+    }
+
+    private void assertConserved(AccountStorage s0, AccountStorage s1) {
+        SeededAccounts.assertConserved(accountNo -> (map.nodeFor(accountNo).index == 0 ? s0 : s1).getBalance(accountNo),
+                ACCOUNTS);
+    }
+
+    private ClusterNode node(int index, AccountStorage storage, AccountLocks locks) throws IOException {
+        return new ClusterNode(map, index, storage, locks, nodeDir(index).toFile(), credited::add);
+    }
+
+    private AccountStorage open(int node) throws IOException {
+        return openJournaled(nodeDir(node));
+    }
+
+    private void write(int node, String name, String text) throws IOException {
+        Files.write(nodeDir(node).resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path nodeDir(int node) {
+        return dir.resolve("node" + node);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
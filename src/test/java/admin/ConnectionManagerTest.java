@@ -0,0 +1,156 @@
+package admin;
+
+import client.ConnectionManager;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The client's shared connections: one per server however many requests go over it,
+ * concurrent requests answered to the right caller, callers failed rather than left hanging
+ * when the server goes away, and a fresh connection once it is back. Async replies complete
+ * on the manager's I/O threads, and late ones time out.
+ */
+public class ConnectionManagerTest extends TestCase {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private ConnectionManager connections;
+    private SelectorServer server;
+
+    /**
+     * Echoes the body; a "hold" body is answered only once the test releases it, even if the
+     * server is closed meanwhile, so a closed server never answers it.
+     */
+    private final RequestHandler handler = (request, out) -> {
+        String body = request.body.trim();
+        boolean interrupted = false;
+        while (body.equals("hold")) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // closing the server: keep holding
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        out.println(request.command + " " + body);
+    };
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new SelectorServer(0, 1, 4, handler);
+        server.start();
+        connections = new ConnectionManager(2000, 10_000, 200, 1000, 2);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        release.countDown();
+        connections.close();
+        server.close();
+        callers.shutdownNow();
+    }
+
+    public void testRequestsShareOneConnection() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            assertEquals("GET_BALANCE " + i + "\n", call("GET_BALANCE", i + "\n"));
+        }
+        assertEquals(1, connections.getOpenConnections());
+        waitFor(() -> server.getConnectionCount() == 1);
+    }
+
+    public void testConcurrentRequestsGetTheirOwnReplies() throws Exception {
+        Future<String> held = callers.submit(() -> call("GET_TRANSACTIONS", "hold\n"));
+        List<Future<String>> quick = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String body = "acc-" + i + "\n";
+            quick.add(callers.submit(() -> call("GET_BALANCE", body)));
+        }
+        for (int i = 0; i < quick.size(); i++) {
+            assertEquals("GET_BALANCE acc-" + i + "\n", quick.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertFalse("the held request does not block the others", held.isDone());
+        release.countDown();
+        assertEquals("GET_TRANSACTIONS hold\n", held.get(10, TimeUnit.SECONDS));
+        waitFor(() -> server.getConnectionCount() == 1);
+    }
+
+    public void testWaitingCallersFailWhenTheServerGoesAway() throws Exception {
+        Future<String> held = callers.submit(() -> call("TRANSFER_REQUEST", "hold\n"));
+        waitFor(() -> server.getConnectionCount() == 1);
+        server.close();
+        try {
+            held.get(10, TimeUnit.SECONDS);
+            fail("Expected the request to fail");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        waitFor(() -> connections.getOpenConnections() == 0);
+    }
+
+    public void testReconnectsAfterBackoff() throws Exception {
+        int port = server.getPort();
+        assertEquals("GET_BALANCE 1\n", call("GET_BALANCE", "1\n"));
+        server.close();
+        waitFor(() -> connections.getOpenConnections() == 0);
+
+        try {
+            call("GET_BALANCE", "1\n");
+            fail("Expected the server to be unreachable");
+        } catch (ConnectException expected) {
+            // starts the backoff
+        }
+        server = new SelectorServer(port, 1, 4, handler);
+        server.start();
+        try {
+            call("GET_BALANCE", "2\n");
+            fail("Expected to fail fast while backing off");
+        } catch (ConnectException expected) {
+            // not yet
+        }
+        Thread.sleep(300);
+        assertEquals("GET_BALANCE 3\n", call("GET_BALANCE", "3\n"));
+        assertEquals(1, connections.getOpenConnections());
+    }
+
+    public void testAsyncRepliesCompleteOnTheIoThreads() throws Exception {
+        CompletableFuture<String> thread = connections.callAsync("127.0.0.1", server.getPort(), "GET_BALANCE", "hold\n")
+                .thenApply(reply -> reply + Thread.currentThread().getName());
+        release.countDown(); // only now, so the reply cannot arrive before thenApply is attached
+        String reply = thread.get(10, TimeUnit.SECONDS);
+        assertTrue(reply, reply.startsWith("GET_BALANCE hold\nclient-io-"));
+    }
+
+    public void testLateRepliesTimeOut() throws Exception {
+        try (ConnectionManager impatient = new ConnectionManager(2000, 200, 200, 1000, 2)) {
+            CompletableFuture<String> held = impatient.callAsync("127.0.0.1", server.getPort(), "GET_TRANSACTIONS", "hold\n");
+            try {
+                held.get(10, TimeUnit.SECONDS);
+                fail("Expected a timeout");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof SocketTimeoutException);
+            }
+            release.countDown();
+            assertEquals("the connection is still usable", "GET_BALANCE 8\n",
+                    impatient.call("127.0.0.1", server.getPort(), "GET_BALANCE", "8\n"));
+        }
+    }
+
+    private String call(String command, String body) throws IOException {
+        return connections.call("127.0.0.1", server.getPort(), command, body);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package admin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transfer throughput of {@link AccountTransfers} against thread count when no two threads
+ * share an account: thread t moves money back and forth between accounts 2t and 2t + 1, so
+ * the stripe locks never contend and whatever stops throughput from scaling is the storage.
+ * Runs over the journaled and the mapped storage with 1 to 64 closed-loop threads. Not a unit
+ * test; run with
+ * {@code java -cp target/classes:target/test-classes admin.DisjointTransferBenchmark [seconds]}
+ * (default 3 seconds per run).
+ */
+public class DisjointTransferBenchmark {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int accounts = 2 * THREADS[THREADS.length - 1];
+
+        Path dir = Files.createTempDirectory("disjoint-bench");
+        try {
+            File userFile = dir.resolve("users.txt").toFile();
+            LedgerBenchmark.generate(accounts).writeTo(userFile);
+            System.out.printf("%-10s %8s %12s %10s %10s%n", "storage", "threads", "ops/s", "p50(us)", "p99(us)");
+            try (JournaledAccountStorage storage = JournaledAccountStorage.open(userFile,
+                    dir.resolve("ledger.journal").toFile(), dir.resolve("accounts.snap").toFile())) {
+                for (int threads : THREADS) {
+                    report("journaled", threads, run(storage, threads, seconds));
+                    storage.checkpoint(); // keep the journal short between runs
+                }
+            }
+            try (MappedAccountStorage storage = MappedAccountStorage.openOrImport(
+                    dir.resolve("accounts.dat").toFile(), userFile)) {
+                for (int threads : THREADS) {
+                    report("mapped", threads, run(storage, threads, seconds));
+                }
+            }
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    private static SequencerBenchmark.Result run(AccountStorage storage, int threads, int seconds)
+            throws InterruptedException {
+        AccountTransfers transfers = new AccountTransfers(storage, new AccountLocks(1024));
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>();
+        PositionList[] samples = new PositionList[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            PositionList latencies = samples[t] = new PositionList();
+            String a = LedgerBenchmark.accountNo(2 * t), b = LedgerBenchmark.accountNo(2 * t + 1);
+            Thread worker = new Thread(() -> {
+                try {
+                    for (boolean forth = true; System.nanoTime() < deadline; forth = !forth) {
+                        long t0 = System.nanoTime();
+                        transfers.transfer(forth ? a : b, forth ? b : a, 1);
+                        latencies.add(System.nanoTime() - t0);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "transfer-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+
+        SequencerBenchmark.Result result = new SequencerBenchmark.Result();
+        result.nanos = System.nanoTime() - start;
+        for (PositionList list : samples) result.ops += list.size();
+        result.latencies = new long[(int) result.ops];
+        int at = 0;
+        for (PositionList list : samples) {
+            list.copyTo(result.latencies, at);
+            at += list.size();
+        }
+        Arrays.sort(result.latencies);
+        return result;
+    }
+
+    private static void report(String storage, int threads, SequencerBenchmark.Result r) {
+        System.out.printf("%-10s %8d %12.0f %10.0f %10.0f%n", storage, threads, r.ops * 1e9 / r.nanos,
+                SequencerBenchmark.percentile(r.latencies, 0.50), SequencerBenchmark.percentile(r.latencies, 0.99));
+    }
+}
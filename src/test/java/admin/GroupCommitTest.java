@@ -0,0 +1,104 @@
+package admin;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link GroupCommit} against a slow pretend force: concurrent writers must all be covered,
+ * share forces rather than take one each, not hold the lock while a force runs, and all fail
+ * once a force has failed.
+ */
+public class GroupCommitTest extends TestCase {
+    private static final int WRITERS = 16;
+    private static final int WRITES_PER_WRITER = 50;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger forces = new AtomicInteger();
+    private volatile boolean failing;
+    private volatile boolean lockHeldDuringForce;
+    private final GroupCommit commits = new GroupCommit(lock, () -> {
+        if (lock.isLocked()) lockHeldDuringForce = true;
+        forces.incrementAndGet();
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failing) throw new IOException("disk gone");
+    });
+
+    public void testConcurrentWritersShareForces() throws Exception {
+        List<Throwable> failures = writeConcurrently();
+        if (!failures.isEmpty()) throw new AssertionError("Writer failed", failures.get(0));
+        assertTrue("Expected shared forces, got " + forces.get(), forces.get() < WRITERS * WRITES_PER_WRITER / 2);
+        assertFalse("A force ran under the lock", lockHeldDuringForce);
+    }
+
+    public void testFailedForceFailsEveryLaterWriter() throws Exception {
+        failing = true;
+        List<Throwable> failures = writeConcurrently();
+        assertEquals(WRITERS, failures.size());
+        for (Throwable failure : failures) assertTrue(failure instanceof IOException);
+        lock.lock();
+        try {
+            commits.check();
+            fail("Storage should stay failed");
+        } catch (IOException expected) {
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void testForceAllKeepsTheLock() throws Exception {
+        lock.lock();
+        try {
+            commits.appended();
+            commits.forceAll();
+        } finally {
+            lock.unlock();
+        }
+        assertEquals(1, forces.get());
+        assertTrue("forceAll runs the force under the caller's lock", lockHeldDuringForce);
+    }
+
+    /** Each writer appends and awaits its ticket repeatedly; returns the first failure of each. */
+    private List<Throwable> writeConcurrently() throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < WRITES_PER_WRITER; i++) {
+                        lock.lock();
+                        try {
+                            commits.check();
+                            commits.await(commits.appended());
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }, "writer-" + w);
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(60_000);
+            assertFalse("Writers did not finish", thread.isAlive());
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,98 @@
+package admin;
+
+import client.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Per-transfer latency of the account storage back ends. Not a unit test; run with
+ * {@code java -cp target/classes:target/test-classes admin.LedgerBenchmark [accounts...]}.
+ *
+ * "rewrite" is the original behaviour of rewriting users.txt for every transfer.
+ */
+public class LedgerBenchmark {
+    public static void main(String[] args) throws IOException {
+        int[] sizes = args.length == 0
+                ? new int[]{10_000, 100_000, 1_000_000}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        System.out.printf("%-10s %-10s %8s %12s %12s%n", "accounts", "storage", "ops", "mean(us)", "p99(us)");
+        for (int n : sizes) {
+            Path dir = Files.createTempDirectory("ledger-bench");
+            try {
+                runStorages(dir, n);
+            } finally {
+                SeededAccounts.deleteRecursively(dir);
+            }
+        }
+    }
+
+    private static void runStorages(Path dir, int n) throws IOException {
+        File userFile = dir.resolve("users.txt").toFile();
+        AccountStore seed = generate(n);
+        seed.writeTo(userFile);
+
+        int rewriteOps = Math.max(5, Math.min(200, 2_000_000 / n));
+        AccountStore rewrite = AccountStore.load(userFile);
+        report(n, "rewrite", transfers(rewriteOps, n, (a, b) -> {
+            User from = rewrite.findByAccountNo(a), to = rewrite.findByAccountNo(b);
+            rewrite.setBalance(from, from.balanceCents - 1);
+            rewrite.setBalance(to, to.balanceCents + 1);
+            rewrite.writeTo(userFile);
+        }));
+
+        try (JournaledAccountStorage journaled = JournaledAccountStorage.open(userFile,
+                dir.resolve("ledger.journal").toFile(), dir.resolve("accounts.snap").toFile())) {
+            report(n, "journal", transfers(2_000, n, (a, b) -> post(journaled, a, b)));
+        }
+
+        try (MappedAccountStorage mapped = MappedAccountStorage.openOrImport(dir.resolve("accounts.dat").toFile(), userFile)) {
+            report(n, "mapped", transfers(2_000, n, (a, b) -> post(mapped, a, b)));
+        }
+    }
+
+    static AccountStore generate(int n) {
+        AccountStore store = new AccountStore();
+        for (int i = 0; i < n; i++) {
+            store.add(new User(accountNo(i), "user", "user" + i, SeededAccounts.PASSWORD, "Bench User " + i, 100_000_000));
+        }
+        return store;
+    }
+
+    static String accountNo(int i) {
+        return String.valueOf(100000 + i);
+    }
+
+    private static void post(AccountStorage storage, String a, String b) throws IOException {
+        User from = storage.findByAccountNo(a), to = storage.findByAccountNo(b);
+        storage.postBalances(new User[]{from, to}, new long[]{from.balanceCents - 1, to.balanceCents + 1});
+    }
+
+    interface Transfer {
+        void apply(String from, String to) throws IOException;
+    }
+
+    private static long[] transfers(int ops, int n, Transfer transfer) throws IOException {
+        Random random = new Random(42);
+        long[] nanos = new long[ops];
+        for (int i = 0; i < ops; i++) {
+            int a = random.nextInt(n), b = (a + 1 + random.nextInt(n - 1)) % n;
+            long start = System.nanoTime();
+            transfer.apply(accountNo(a), accountNo(b));
+            nanos[i] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+
+    static void report(int n, String name, long[] nanos) {
+        Arrays.sort(nanos);
+        double mean = Arrays.stream(nanos).average().orElse(0) / 1_000.0;
+        double p99 = nanos[Math.min(nanos.length - 1, (int) (nanos.length * 0.99))] / 1_000.0;
+        System.out.printf("%-10d %-10s %8d %12.1f %12.1f%n", n, name, nanos.length, mean, p99);
+    }
+}
@@ -0,0 +1,56 @@
+package admin;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static admin.SeededAccounts.*;
+
+/**
+ * {@link LedgerSequencer} must keep the {@link AsyncLedger} contract with a ring small enough
+ * for publishers to wait on, post a balance before replying with it, and park its threads
+ * when idle.
+ */
+public class LedgerSequencerTest extends AsyncLedgerContract {
+    @Override
+    protected AsyncLedger openLedger(AccountStorage storage) {
+        return new LedgerSequencer(storage, 64); // small ring: publishers wait on it
+    }
+
+    public void testWithdrawPostsBeforeReplying() throws Exception {
+        try (AccountStorage storage = open(); LedgerSequencer sequencer = new LedgerSequencer(storage, 16)) {
+            long[] balance = new long[1];
+            CountDownLatch done = new CountDownLatch(1);
+            sequencer.withdraw(accountNo(1), 250, (status, account, cents) -> {
+                balance[0] = storage.getBalance(accountNo(1)); // already in storage when the reply comes
+                done.countDown();
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(OPENING_CENTS - 250, balance[0]);
+            assertEquals(OPENING_CENTS - 250, storage.getBalance(accountNo(1)));
+        }
+    }
+
+    public void testIdleStagesParkUntilWoken() throws Exception {
+        try (AccountStorage storage = open(); LedgerSequencer sequencer = new LedgerSequencer(storage, 16)) {
+            assertEquals(AsyncLedger.Status.ACCEPTED, transfer(sequencer, accountNo(0), accountNo(1), 1));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!allStagesParked()) {
+                if (System.currentTimeMillis() > deadline) fail("Idle stages still running or polling");
+                Thread.sleep(10);
+            }
+            assertEquals("woken by the next request", AsyncLedger.Status.ACCEPTED,
+                    transfer(sequencer, accountNo(1), accountNo(0), 1));
+        }
+    }
+
+    /** Parked without a timeout, rather than spinning or waking up to poll. */
+    private static boolean allStagesParked() {
+        int parked = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!thread.getName().startsWith("ledger-")) continue;
+            if (thread.getState() != Thread.State.WAITING) return false;
+            parked++;
+        }
+        return parked == 3;
+    }
+}
@@ -0,0 +1,59 @@
+package admin;
+
+import client.User;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The mapped account table refuses what it cannot store whole: a field wider than its slot,
+ * or an import with a bad row anywhere in it.
+ */
+public class MappedAccountStorageTest extends TestCase {
+    private static final String PASSWORD = "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8";
+
+    private File file;
+    private MappedAccountStorage storage;
+
+    @Override
+    protected void setUp() throws IOException {
+        file = File.createTempFile("accounts", ".dat");
+        file.delete();
+        storage = MappedAccountStorage.open(file);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        storage.close();
+        file.delete();
+    }
+
+    public void testOverWideFieldsAreRefused() throws IOException {
+        String longName = "a-username-that-is-exactly-32-ch";
+        assertTrue(storage.register(new User("100001", "user", longName, PASSWORD, "Alice", 0)));
+        try {
+            storage.register(new User("100002", "user", longName + "-and-more", PASSWORD, "Bob", 0));
+            fail("Expected the username to be refused");
+        } catch (IOException expected) {
+            // not truncated onto the first user's index entry
+        }
+        assertEquals(1, storage.size());
+        assertNotNull(storage.authenticate(longName, PASSWORD));
+        assertFalse(storage.usernameExists("a-username-that-is-exactly-32-ch-and-more"));
+    }
+
+    public void testImportWithABadRowImportsNothing() {
+        AccountStore store = new AccountStore();
+        store.add(new User("100001", "user", "alice", PASSWORD, "Alice", 100));
+        store.add(new User("100002", "user", "bob", "not-a-digest", "Bob", 200));
+        try {
+            storage.importFrom(store);
+            fail("Expected the import to be refused");
+        } catch (IOException expected) {
+            // the whole import, not just the bad row
+        }
+        assertEquals(0, storage.size());
+        assertNull(storage.findByAccountNo("100001"));
+    }
+}
@@ -0,0 +1,98 @@
+package admin;
+
+import client.Money;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Time and allocation per amount of the old double path ({@code String.format("%.2f")} and
+ * {@code Double.parseDouble}) against {@link Money}, plus a whole transaction block built with
+ * the old string concatenation and with {@link TransactionText#format}. Not a unit test; run with
+ * {@code java -cp target/classes:target/test-classes admin.MoneyFormatBenchmark [amounts]}
+ * (default 2,000,000).
+ */
+public class MoneyFormatBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Random random = new Random(7);
+        long[] cents = new long[n];
+        String[] text = new String[n];
+        for (int i = 0; i < n; i++) {
+            cents[i] = random.nextInt(100_000_000);
+            text[i] = Money.format(cents[i]);
+        }
+
+        System.out.printf("%-22s %10s %12s%n", "operation", "ns/op", "bytes/op");
+        StringBuilder sb = new StringBuilder(32);
+        report("format %.2f", n, () -> {
+            long sum = 0;
+            for (long c : cents) sum += String.format("%.2f", c / 100.0).length();
+            return sum;
+        });
+        report("format Money", n, () -> {
+            long sum = 0;
+            for (long c : cents) {
+                sb.setLength(0);
+                sum += Money.appendTo(sb, c).length();
+            }
+            return sum;
+        });
+        report("parse Double", n, () -> {
+            long sum = 0;
+            for (String s : text) sum += Math.round(Double.parseDouble(s) * 100);
+            return sum;
+        });
+        report("parse Money", n, () -> {
+            long sum = 0;
+            for (String s : text) sum += Money.parse(s);
+            return sum;
+        });
+
+        int blocks = n / 10;
+        report("block concat+%.2f", blocks, () -> {
+            long sum = 0;
+            for (int i = 0; i < blocks; i++) sum += oldFormat(cents[i] / 100.0).length();
+            return sum;
+        });
+        report("block TransactionText", blocks, () -> {
+            long sum = 0;
+            for (int i = 0; i < blocks; i++) {
+                sum += TransactionText.format("user100001", "100001", "100002", "TRANSFER", "Success",
+                        "2024-01-01 12:00:00", cents[i], "pool-1-thread-1").length();
+            }
+            return sum;
+        });
+    }
+
+    /** TransactionText.format as it was before amounts became cents. */
+    private static String oldFormat(double amount) {
+        return "SenderName: " + "user100001" + ",\n" +
+                "SenderAccNo: " + "100001" + ",\n" +
+                "ReceiverAccNo: " + "100002" + ",\n" +
+                "Type: " + "TRANSFER" + ",\n" +
+                "Status: " + "Success" + ",\n" +
+                "DateTime: " + "2024-01-01 12:00:00" + ",\n" +
+                "Amount: " + String.format("%.2f", amount) + ",\n" +
+                "Thread: " + "pool-1-thread-1" + ",\n\n";
+    }
+
+    interface Run {
+        long run();
+    }
+
+    private static long sink;
+
+    private static void report(String name, int ops, Run run) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        sink += run.run(); // warm up
+        long allocated = threads.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        sink += run.run();
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(id) - allocated;
+        System.out.printf("%-22s %10.1f %12.1f%n", name, (double) nanos / ops, (double) allocated / ops);
+    }
+}
@@ -0,0 +1,87 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Text log parse throughput of {@link ParallelTransactionLoader} as the pool grows, against a
+ * single-threaded streaming parse, checking that every run returns the same records in the
+ * same order. Not a unit test; run with
+ * {@code java -Xmx4g -cp target/classes:target/test-classes admin.ParallelLoadBenchmark [megabytes] [maxThreads]}
+ * (defaults 512 MB and the available processors).
+ */
+public class ParallelLoadBenchmark {
+    private static final int BYTES_PER_RECORD = 190;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Path dir = Files.createTempDirectory("parallel-load-bench");
+        try {
+            File text = dir.resolve("transactions.txt").toFile();
+            TransactionFormatBenchmark.generate(text, (int) ((long) megabytes * 1024 * 1024 / BYTES_PER_RECORD));
+
+            List<Transaction> expected = sequential(text);
+            long baseline = time(() -> sequential(text), expected);
+            System.out.printf("%-12s %8s %10s %10s %8s%n", "loader", "threads", "parse(ms)", "MB/s", "speedup");
+            System.out.printf("%-12s %8d %10d %10.0f %8.2f%n", "sequential", 1, baseline, mbPerSecond(text, baseline), 1.0);
+
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                ParallelTransactionLoader loader = new ParallelTransactionLoader(pool);
+                long millis = time(() -> loader.loadText(text), expected);
+                pool.shutdown();
+                System.out.printf("%-12s %8d %10d %10.0f %8.2f%n", "fork-join", threads, millis,
+                        mbPerSecond(text, millis), (double) baseline / millis);
+            }
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    private static List<Transaction> sequential(File file) throws IOException {
+        List<Transaction> result = new ArrayList<>();
+        try (Reader reader = new FileReader(file)) {
+            TransactionText.readBlocks(reader, result::add);
+        }
+        return result;
+    }
+
+    interface Load {
+        List<Transaction> run() throws IOException;
+    }
+
+    private static long time(Load load, List<Transaction> expected) throws IOException {
+        check(load.run(), expected); // warm up
+        long start = System.nanoTime();
+        List<Transaction> result = load.run();
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        check(result, expected);
+        return millis;
+    }
+
+    private static void check(List<Transaction> actual, List<Transaction> expected) {
+        if (actual.size() != expected.size()) {
+            throw new IllegalStateException("Expected " + expected.size() + " records, got " + actual.size());
+        }
+        for (int i = 0; i < actual.size(); i++) {
+            if (!TransactionText.format(actual.get(i)).equals(TransactionText.format(expected.get(i)))) {
+                throw new IllegalStateException("Record " + i + " differs");
+            }
+        }
+    }
+
+    private static double mbPerSecond(File file, long millis) {
+        return file.length() / 1048576.0 / (millis / 1000.0);
+    }
+}
@@ -0,0 +1,177 @@
+package admin;
+
+import client.User;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static admin.SeededAccounts.*;
+
+/**
+ * A {@link ReplicationStandby} following a {@link ReplicationSource} must end up with the
+ * primary's balances, accounts and transaction records, resume from its saved position, fall
+ * back to a reset when the backlog no longer covers it, and promote itself when the primary
+ * goes away, but only where automatic failover is turned on.
+ */
+public class ReplicationTest extends TestCase {
+    private Path dir;
+    private final List<String> shipped = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("replication-test");
+        seed(dir.resolve("primary"), 0, ACCOUNTS);
+        seed(dir.resolve("standby"), 0, ACCOUNTS);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        deleteRecursively(dir);
+    }
+
+    public void testStandbyFollowsResumesAndResets() throws Exception {
+        int port = freePort();
+        try (AccountStorage primaryStorage = open("primary"); AccountStorage standbyStorage = open("standby")) {
+            ReplicationSource source = new ReplicationSource(primaryStorage, port, 64);
+            try {
+                AccountStorage primary = new ReplicatedAccountStorage(primaryStorage, source);
+                AccountTransfers transfers = new AccountTransfers(primary, new AccountLocks(16));
+
+                ReplicationStandby standby = standby(standbyStorage, port, 0, null);
+                standby.start();
+                awaitFirstReset(standby); // history published before a standby connects is not resent
+                transfer(transfers, 200, 1);
+                primary.register(new User("100100", "user", "late", PASSWORD, "Late User", 5_000));
+                transfers.deposit("100100", 1_000);
+                source.appended(0, TransactionText.format("user0", accountNo(0), accountNo(1), "TRANSFER", "Success",
+                        "2026-01-01 00:00:00", 1_234, "t").getBytes());
+                awaitCaughtUp(standby, source);
+                assertSameBalances(primary, standbyStorage);
+                assertEquals(6_000, standbyStorage.getBalance("100100"));
+                assertEquals(1, shipped.size());
+                assertTrue(shipped.get(0).contains("Amount: 12.34,") && shipped.get(0).endsWith(",\n\n"));
+                assertEquals(1, standby.getResets()); // its first contact with this primary
+                standby.close();
+
+                // A restart within the backlog resumes from the saved position.
+                transfer(transfers, 20, 2);
+                ReplicationStandby resumed = standby(standbyStorage, port, 0, null);
+                resumed.start();
+                awaitCaughtUp(resumed, source);
+                assertEquals(0, resumed.getResets());
+                assertSameBalances(primary, standbyStorage);
+                resumed.close();
+
+                // Beyond the backlog it gets every account again.
+                transfer(transfers, 500, 3);
+                ReplicationStandby reset = standby(standbyStorage, port, 0, null);
+                reset.start();
+                awaitCaughtUp(reset, source);
+                assertEquals(1, reset.getResets());
+                assertSameBalances(primary, standbyStorage);
+                reset.close();
+            } finally {
+                source.close();
+            }
+        }
+    }
+
+    public void testStandbyPromotesWhenPrimaryGoesAway() throws Exception {
+        int port = freePort();
+        CountDownLatch promoted = new CountDownLatch(1);
+        try (AccountStorage primaryStorage = open("primary"); AccountStorage standbyStorage = open("standby")) {
+            ReplicationSource source = new ReplicationSource(primaryStorage, port, 1_000);
+            ReplicationStandby standby = standby(standbyStorage, port, 1_000, promoted::countDown);
+            try {
+                standby.start();
+                transfer(new AccountTransfers(new ReplicatedAccountStorage(primaryStorage, source), new AccountLocks(16)), 50, 4);
+                awaitCaughtUp(standby, source);
+                assertFalse(standby.isPromoted());
+                long stopped = System.nanoTime();
+                source.close();
+                assertTrue("Standby did not take over", promoted.await(10, TimeUnit.SECONDS));
+                assertTrue(standby.isPromoted());
+                assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopped) < 5_000);
+                assertSameBalances(primaryStorage, standbyStorage);
+            } finally {
+                standby.close();
+                source.close();
+            }
+        }
+    }
+
+    public void testStandbyWaitsForPromotionWithoutFailover() throws Exception {
+        int port = freePort();
+        CountDownLatch promoted = new CountDownLatch(1);
+        try (AccountStorage primaryStorage = open("primary"); AccountStorage standbyStorage = open("standby")) {
+            ReplicationSource source = new ReplicationSource(primaryStorage, port, 1_000);
+            ReplicationStandby standby = standby(standbyStorage, port, 0, promoted::countDown);
+            try {
+                standby.start();
+                transfer(new AccountTransfers(new ReplicatedAccountStorage(primaryStorage, source), new AccountLocks(16)), 20, 5);
+                awaitCaughtUp(standby, source);
+                source.close();
+                assertFalse("Promoted with failover off", promoted.await(1_500, TimeUnit.MILLISECONDS));
+                assertFalse(standby.isPromoted());
+                standby.promote();
+                assertTrue(standby.isPromoted());
+                assertEquals(0, promoted.getCount());
+            } finally {
+                standby.close();
+                source.close();
+            }
+        }
+    }
+
+    private ReplicationStandby standby(AccountStorage storage, int port, long failoverMillis, Runnable onPromote)
+            throws IOException {
+        return new ReplicationStandby(storage, "127.0.0.1", port, dir.resolve("standby").resolve("replication.pos").toFile(),
+                shipped::add, failoverMillis, onPromote);
+    }
+
+    private static void transfer(AccountTransfers transfers, int count, long seed) throws IOException {
+        randomTransfers(new Random(seed), 0, ACCOUNTS, count, 5_000, transfers::transfer);
+    }
+
+    private static void awaitFirstReset(ReplicationStandby standby) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (standby.getResets() == 0) {
+            if (System.currentTimeMillis() > deadline) fail("Standby never connected");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitCaughtUp(ReplicationStandby standby, ReplicationSource source) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (standby.getAppliedSeq() < source.getLastSeq()) {
+            if (System.currentTimeMillis() > deadline) fail("Standby stuck at " + standby.getAppliedSeq() + " of " + source.getLastSeq());
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertSameBalances(AccountStorage primary, AccountStorage standby) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            assertEquals(accountNo(i), primary.getBalance(accountNo(i)), standby.getBalance(accountNo(i)));
+        }
+        assertConserved(standby::getBalance, ACCOUNTS);
+    }
+
+    private AccountStorage open(String side) throws IOException {
+        return openJournaled(dir.resolve(side));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package admin;
+
+import client.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * The accounts the ledger tests move money between: numbered from 100000, every one opening
+ * with {@link #OPENING_CENTS}, written to a users.txt in a temporary directory. Also the
+ * random transfers the stress tests make between them, and what the tests and benchmarks
+ * clean those directories up with.
+ */
+final class SeededAccounts {
+    static final int ACCOUNTS = 12;
+    static final long OPENING_CENTS = 100_000;
+    static final String PASSWORD = "fbb4a8a163ffa958b4f02bf9cabb30cfefb40de803f2c4c346a9d39b3be1b544";
+
+    /** One transfer of a stress run, made however the test under way moves money. */
+    interface Transfer {
+        void transfer(String from, String to, long cents) throws IOException;
+    }
+
+    private SeededAccounts() {
+    }
+
+    static String accountNo(int i) {
+        return String.valueOf(100000 + i);
+    }
+
+    /** A new temporary directory holding accounts 0 to {@link #ACCOUNTS} - 1. */
+    static Path createDirectory(String prefix) throws IOException {
+        Path dir = Files.createTempDirectory(prefix);
+        seed(dir, 0, ACCOUNTS);
+        return dir;
+    }
+
+    /** Writes accounts {@code from} to {@code to} - 1 to {@code dir}/users.txt, creating {@code dir}. */
+    static void seed(Path dir, int from, int to) throws IOException {
+        AccountStore seed = new AccountStore();
+        for (int i = from; i < to; i++) {
+            seed.add(new User(accountNo(i), "user", "user" + i, PASSWORD, "Test User " + i, OPENING_CENTS));
+        }
+        Files.createDirectories(dir);
+        seed.writeTo(usersFile(dir));
+    }
+
+    static File usersFile(Path dir) {
+        return dir.resolve("users.txt").toFile();
+    }
+
+    /** The journaled storage over {@code dir}/users.txt, as the server opens it. */
+    static AccountStorage openJournaled(Path dir) throws IOException {
+        return JournaledAccountStorage.open(usersFile(dir), dir.resolve("ledger.journal").toFile(),
+                dir.resolve("accounts.snap").toFile());
+    }
+
+    /** No account overdrawn and no money made or lost across accounts 0 to {@code accounts} - 1. */
+    static void assertConserved(ToLongFunction<String> balances, int accounts) {
+        long total = 0;
+        for (int i = 0; i < accounts; i++) {
+            long balance = balances.applyAsLong(accountNo(i));
+            assertTrue("Negative balance in " + accountNo(i) + ": " + balance, balance >= 0);
+            total += balance;
+        }
+        assertEquals(accounts * OPENING_CENTS, total);
+    }
+
+    /**
+     * Makes {@code count} transfers of 1 to {@code maxCents} cents, each from a random one of
+     * the {@code senders} accounts starting at {@code firstSender} to a random other account.
+     */
+    static void randomTransfers(Random random, int firstSender, int senders, int count, int maxCents,
+                                Transfer transfer) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int from = firstSender + random.nextInt(senders);
+            int to = random.nextInt(ACCOUNTS - 1);
+            if (to >= from) to++;
+            transfer.transfer(accountNo(from), accountNo(to), 1 + random.nextInt(maxCents));
+        }
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
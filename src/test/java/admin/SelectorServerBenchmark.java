@@ -0,0 +1,157 @@
+package admin;
+
+import client.Money;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Memory, thread count and GET_BALANCE latency of the {@link BlockingRequestServer} against
+ * the {@link SelectorServer} with many idle connections (default 10,000) held open while
+ * fewer active ones (default 1,000) send requests in a closed loop. Each server runs in a
+ * child JVM so both sides stay under the per-process descriptor limit, and its resident set
+ * and thread count are read from /proc after a GC. Not a unit test; run with
+ * {@code java -cp target/classes:target/test-classes admin.SelectorServerBenchmark [idle] [active] [requests]}
+ * (requests per active connection, default 50). Linux only.
+ */
+public class SelectorServerBenchmark {
+    private static final int ACCOUNTS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args[1]);
+            return;
+        }
+        int idle = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int active = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+        System.out.printf("%-9s %8s %8s %10s %10s %9s %9s %9s %10s%n", "server", "idle", "active",
+                "rss(MB)", "threads", "p50(us)", "p99(us)", "max(us)", "req/s");
+        for (String mode : new String[]{"blocking", "nio"}) run(mode, idle, active, requests);
+    }
+
+    private static void run(String mode, int idle, int active, int requests) throws Exception {
+        Process server = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx2g", "-cp", System.getProperty("java.class.path"), SelectorServerBenchmark.class.getName(), "serve", mode)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader control = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter command = new PrintWriter(new OutputStreamWriter(server.getOutputStream(), StandardCharsets.UTF_8), true);
+        int port = Integer.parseInt(control.readLine().substring("PORT ".length()));
+
+        List<Socket> open = new ArrayList<>(idle + active);
+        try {
+            for (int i = 0; i < idle; i++) open.add(new Socket("127.0.0.1", port));
+            command.println("STATS");
+            String[] idleStats = control.readLine().split(" ");
+
+            // Active connections: each sends GET_BALANCE and waits for the answer, `requests` times.
+            ExecutorService clients = Executors.newFixedThreadPool(active);
+            long[] latencies = new long[active * requests];
+            List<Future<?>> done = new ArrayList<>(active);
+            CountDownLatch connected = new CountDownLatch(active);
+            CountDownLatch go = new CountDownLatch(1);
+            for (int c = 0; c < active; c++) {
+                int client = c;
+                done.add(clients.submit(() -> {
+                    try (Socket socket = new Socket("127.0.0.1", port)) {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                        connected.countDown();
+                        go.await();
+                        for (int r = 0; r < requests; r++) {
+                            long start = System.nanoTime();
+                            out.write("GET_BALANCE\n" + (100000 + (client * 31 + r) % ACCOUNTS) + "\n\n");
+                            out.flush();
+                            if (in.readLine() == null) throw new EOFException("Server closed the connection");
+                            latencies[client * requests + r] = System.nanoTime() - start;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            connected.await();
+            long begin = System.nanoTime();
+            go.countDown();
+            for (Future<?> f : done) f.get();
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            clients.shutdown();
+
+            command.println("STATS");
+            String[] busyStats = control.readLine().split(" ");
+            Arrays.sort(latencies);
+            System.out.printf("%-9s %8d %8d %10s %10s %9.0f %9.0f %9.0f %10.0f%n", mode, idle, active,
+                    idleStats[1] + "/" + busyStats[1], idleStats[2] + "/" + busyStats[2],
+                    SequencerBenchmark.percentile(latencies, 0.50), SequencerBenchmark.percentile(latencies, 0.99),
+                    latencies[latencies.length - 1] / 1_000.0, latencies.length / seconds);
+        } finally {
+            for (Socket socket : open) socket.close();
+            command.close();
+            server.waitFor(10, TimeUnit.SECONDS);
+            server.destroyForcibly();
+        }
+    }
+
+    /** Child side: a server answering GET_BALANCE from memory, reporting STATS on request until stdin closes. */
+    private static void serve(String mode) throws IOException {
+        Map<String, Long> balances = new ConcurrentHashMap<>();
+        for (int i = 0; i < ACCOUNTS; i++) balances.put(String.valueOf(100000 + i), 100_000L + i);
+        // GET_BALANCE is quick, as in AdminPanel; with -Dbench.slow it goes to the workers instead.
+        boolean quick = !Boolean.getBoolean("bench.slow");
+        RequestHandler handler = new RequestHandler() {
+            @Override
+            public void handle(RequestDecoder.Request request, PrintWriter out) {
+                Long balance = balances.get(request.body.trim());
+                out.println(balance != null ? Money.format(balance) : "NOT_FOUND");
+            }
+
+            @Override
+            public boolean isQuick(RequestDecoder.Request request) {
+                return quick;
+            }
+        };
+
+        Closeable server;
+        int port;
+        if (mode.equals("blocking")) {
+            BlockingRequestServer blocking = new BlockingRequestServer(0, Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }), handler);
+            blocking.start();
+            server = blocking;
+            port = blocking.getPort();
+        } else {
+            SelectorServer selector = SelectorServer.fromSystemProperties(0, handler);
+            selector.start();
+            server = selector;
+            port = selector.getPort();
+        }
+        System.out.println("PORT " + port);
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (String line; (line = commands.readLine()) != null; ) {
+            if (!line.equals("STATS")) continue;
+            System.gc();
+            System.out.println("STATS " + status("VmRSS") / 1024 + " " + status("Threads"));
+        }
+        server.close();
+    }
+
+    /** A numeric field of /proc/self/status (kB for sizes). */
+    private static long status(String field) throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith(field + ":")) return Long.parseLong(line.substring(field.length() + 1).trim().split("\\s+")[0]);
+        }
+        return -1;
+    }
+}
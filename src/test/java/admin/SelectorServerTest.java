@@ -0,0 +1,211 @@
+package admin;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * {@link SelectorServer} must frame the text protocol exactly like the blocking server,
+ * whatever pieces the bytes arrive in, answer each connection's requests in order, and
+ * deliver replies written after the handler returned. Both servers hold a text connection's
+ * next request while the ledger finishes the reply before it.
+ */
+public class SelectorServerTest extends TestCase {
+    private final ScheduledExecutorService later = Executors.newSingleThreadScheduledExecutor();
+    private SelectorServer server;
+
+    @Override
+    protected void setUp() throws IOException {
+        server = new SelectorServer(0, 2, 4, (request, out) -> {
+            if (request.command.equals("GET_BALANCE") && request.body.startsWith("later")) {
+                // Like the async ledger: the reply comes from another thread once the handler has returned.
+                later.schedule(() -> out.println("LATE " + request.body.trim()), 50, TimeUnit.MILLISECONDS);
+                return;
+            }
+            out.println(request.command);
+            for (String line : request.body.split("\n")) {
+                if (!line.isEmpty()) out.println(line);
+            }
+            out.println("END");
+        });
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        server.close();
+        later.shutdownNow();
+    }
+
+    public void testRequestsSplitAcrossWritesAndPipelined() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            BufferedReader in = reader(socket);
+            OutputStream out = socket.getOutputStream();
+
+            byte[] auth = "AUTHENTICATE_USER\r\nalice\r\nfbb4a8\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+            for (byte b : auth) {
+                out.write(b);
+                out.flush();
+            }
+            assertEquals("AUTHENTICATE_USER", in.readLine());
+            assertEquals("alice", in.readLine());
+            assertEquals("fbb4a8", in.readLine());
+            assertEquals("END", in.readLine());
+
+            out.write(("GET_BALANCE\n100001\n\nCHECK_DUPLICATE\nbob\n\nREPLICATION_STATUS\n"
+                    + "GET_RECIPIENT_NAME\nZoë\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("GET_BALANCE", in.readLine());
+            assertEquals("100001", in.readLine());
+            assertEquals("END", in.readLine());
+            assertEquals("CHECK_DUPLICATE", in.readLine());
+            assertEquals("bob", in.readLine());
+            assertEquals("END", in.readLine());
+            assertEquals("REPLICATION_STATUS", in.readLine());
+            assertEquals("END", in.readLine());
+            assertEquals("GET_RECIPIENT_NAME", in.readLine());
+            assertEquals("Zoë", in.readLine());
+            assertEquals("END", in.readLine());
+        }
+    }
+
+    public void testReplyWrittenAfterTheHandlerReturns() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            BufferedReader in = reader(socket);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            out.print("GET_BALANCE\nlater 1\n\n");
+            out.flush();
+            assertEquals("LATE later 1", in.readLine());
+        }
+    }
+
+    public void testManyConnectionsAnsweredInOrder() throws Exception {
+        int clients = 200, requests = 20;
+        ExecutorService pool = Executors.newFixedThreadPool(50);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                done.add(pool.submit(() -> {
+                    try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                        BufferedReader in = reader(socket);
+                        Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                        StringBuilder all = new StringBuilder();
+                        for (int r = 0; r < requests; r++) all.append("GET_BALANCE\n").append(client).append('-').append(r).append("\n\n");
+                        out.write(all.toString()); // every request before reading any reply
+                        out.flush();
+                        for (int r = 0; r < requests; r++) {
+                            assertEquals("GET_BALANCE", in.readLine());
+                            assertEquals(client + "-" + r, in.readLine());
+                            assertEquals("END", in.readLine());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) f.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (server.getConnectionCount() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(0, server.getConnectionCount());
+    }
+
+    public void testPipelinedLedgerRepliesKeepTheirOrder() throws Exception {
+        Path dir = Files.createTempDirectory("pipelined-ledger");
+        try {
+            SeededAccounts.seed(dir, 0, 2);
+            try (AccountStorage storage = SeededAccounts.openJournaled(dir);
+                 LedgerSequencer ledger = new LedgerSequencer(storage, 64)) {
+                try (SelectorServer selector = new SelectorServer(0, 1, 2, ledgerHandler(ledger))) {
+                    selector.start();
+                    transferAndRead(selector.getPort(), 0);
+                }
+                ExecutorService threads = Executors.newCachedThreadPool();
+                try (BlockingRequestServer blocking = new BlockingRequestServer(0, threads, ledgerHandler(ledger))) {
+                    blocking.start();
+                    transferAndRead(blocking.getPort(), 50);
+                } finally {
+                    threads.shutdownNow();
+                }
+            }
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    /** Like AdminPanel with -Dpayment.ledger=sequencer: transfers reply from the ledger, balances are quick. */
+    private static RequestHandler ledgerHandler(AsyncLedger ledger) {
+        return new RequestHandler() {
+            @Override
+            public void handle(RequestDecoder.Request request, PrintWriter out) {
+                String[] lines = request.body.split("\n");
+                if (!request.command.equals("TRANSFER_REQUEST")) {
+                    out.println(ledger.getBalance(lines[0]));
+                    return;
+                }
+                RequestHandler.replyLater(out);
+                ledger.transfer(lines[0], lines[1], Long.parseLong(lines[2]), (status, account, balance) -> {
+                    out.println(status == AsyncLedger.Status.ACCEPTED ? "TRANSFER_SUCCESS" : "TRANSFER_FAILED");
+                    out.println(balance);
+                    RequestHandler.endReply(out);
+                });
+            }
+
+            @Override
+            public boolean isQuick(RequestDecoder.Request request) {
+                return request.command.equals("GET_BALANCE");
+            }
+        };
+    }
+
+    /**
+     * Pipelines transfers of one cent, each followed by a balance read, after {@code done}
+     * earlier ones, and checks every reply is in its place.
+     */
+    private static void transferAndRead(int port, int done) throws IOException {
+        int rounds = 50;
+        try (Socket socket = new Socket("127.0.0.1", port)) {
+            BufferedReader in = reader(socket);
+            StringBuilder all = new StringBuilder();
+            for (int i = 0; i < rounds; i++) {
+                all.append("TRANSFER_REQUEST\n100000\n100001\n1\n\nGET_BALANCE\n100001\n\n");
+            }
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            out.write(all.toString()); // every request before reading any reply
+            out.flush();
+            for (int i = 1; i <= rounds; i++) {
+                assertEquals("TRANSFER_SUCCESS", in.readLine());
+                assertEquals(String.valueOf(SeededAccounts.OPENING_CENTS - done - i), in.readLine());
+                assertEquals(String.valueOf(SeededAccounts.OPENING_CENTS + done + i), in.readLine());
+            }
+        }
+    }
+
+    public void testDecoderRejectsEndlessLine() {
+        RequestDecoder decoder = new RequestDecoder();
+        ByteBuffer junk = ByteBuffer.allocate(RequestDecoder.MAX_LINE_BYTES + 1);
+        while (junk.hasRemaining()) junk.put((byte) 'x');
+        junk.flip();
+        try {
+            decoder.feed(junk, r -> fail("No request expected"));
+            fail("Expected the line to be rejected");
+        } catch (IOException expected) {
+            // cut off
+        }
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        socket.setSoTimeout(10_000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,131 @@
+package admin;
+
+import client.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transfer throughput and latency of the lock-based {@link AccountTransfers} path against the
+ * {@link LedgerSequencer}, with 1, 8 and 64 closed-loop clients (each waits for its reply
+ * before sending the next transfer) over the journaled storage. Not a unit test; run with
+ * {@code java -cp target/classes:target/test-classes admin.SequencerBenchmark [seconds] [accounts]}
+ * (defaults 3 seconds per run and 10,000 accounts).
+ */
+public class SequencerBenchmark {
+    private static final int[] CLIENTS = {1, 8, 64};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        Path dir = Files.createTempDirectory("sequencer-bench");
+        try {
+            File userFile = dir.resolve("users.txt").toFile();
+            LedgerBenchmark.generate(accounts).writeTo(userFile);
+            try (JournaledAccountStorage storage = JournaledAccountStorage.open(userFile,
+                    dir.resolve("ledger.journal").toFile(), dir.resolve("accounts.snap").toFile())) {
+                System.out.printf("%-10s %8s %12s %10s %10s %10s%n", "mode", "clients", "ops/s", "p50(us)", "p99(us)", "p99.9(us)");
+                for (int clients : CLIENTS) {
+                    AccountTransfers transfers = new AccountTransfers(storage, new AccountLocks(256));
+                    report("locks", clients, run(clients, seconds, accounts, (from, to, amount) -> {
+                        transfers.transfer(from, to, amount);
+                    }));
+
+                    try (LedgerSequencer sequencer = new LedgerSequencer(storage, 4096)) {
+                        report("sequencer", clients, run(clients, seconds, accounts, (from, to, amount) -> {
+                            Waiter waiter = new Waiter();
+                            sequencer.transfer(from, to, amount, waiter);
+                            waiter.await();
+                        }));
+                    }
+                    storage.checkpoint(); // keep the journal short between runs
+                }
+            }
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    interface Transfer {
+        void run(String from, String to, long amountCents) throws IOException;
+    }
+
+    /** Parks the client until the reply thread reports its transfer. */
+    static final class Waiter implements AsyncLedger.Reply {
+        private final Thread thread = Thread.currentThread();
+        private volatile boolean done;
+
+        @Override
+        public void completed(AsyncLedger.Status status, User account, long balanceCents) {
+            done = true;
+            LockSupport.unpark(thread);
+        }
+
+        void await() {
+            while (!done) LockSupport.park(this);
+        }
+    }
+
+    static final class Result {
+        long ops;
+        long nanos;
+        long[] latencies;
+    }
+
+    static Result run(int clients, int seconds, int accounts, Transfer transfer) throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        PositionList[] samples = new PositionList[clients];
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            PositionList latencies = samples[c] = new PositionList();
+            Random random = new Random(c);
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        String from = LedgerBenchmark.accountNo(random.nextInt(accounts));
+                        String to = LedgerBenchmark.accountNo(random.nextInt(accounts));
+                        long t0 = System.nanoTime();
+                        transfer.run(from, to, 1 + random.nextInt(100));
+                        latencies.add(System.nanoTime() - t0);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "client-" + c);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        Result result = new Result();
+        result.nanos = System.nanoTime() - start;
+        for (PositionList list : samples) result.ops += list.size();
+        result.latencies = new long[(int) result.ops];
+        int at = 0;
+        for (PositionList list : samples) {
+            list.copyTo(result.latencies, at);
+            at += list.size();
+        }
+        Arrays.sort(result.latencies);
+        return result;
+    }
+
+    private static void report(String mode, int clients, Result r) {
+        System.out.printf("%-10s %8d %12.0f %10.0f %10.0f %10.0f%n", mode, clients, r.ops * 1e9 / r.nanos,
+                percentile(r.latencies, 0.50), percentile(r.latencies, 0.99), percentile(r.latencies, 0.999));
+    }
+
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1_000.0;
+    }
+}
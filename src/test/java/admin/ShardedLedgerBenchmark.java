@@ -0,0 +1,74 @@
+package admin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Transfer throughput of {@link ShardedLedger} with 1 to 16 shards, 64 closed-loop clients and
+ * random account pairs over the journaled storage, next to the {@link LedgerSequencer} as the
+ * single-writer baseline. Reports the fraction of transfers that cross shards, since those
+ * take two journal forces and a handoff. Not a unit test; run with
+ * {@code java -cp target/classes:target/test-classes admin.ShardedLedgerBenchmark [seconds] [accounts] [clients]}
+ * (defaults 3 seconds per run, 10,000 accounts, 64 clients).
+ */
+public class ShardedLedgerBenchmark {
+    private static final int[] SHARDS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        Path dir = Files.createTempDirectory("shards-bench");
+        try {
+            File userFile = dir.resolve("users.txt").toFile();
+            LedgerBenchmark.generate(accounts).writeTo(userFile);
+            try (JournaledAccountStorage storage = JournaledAccountStorage.open(userFile,
+                    dir.resolve("ledger.journal").toFile(), dir.resolve("accounts.snap").toFile())) {
+                System.out.printf("%-10s %7s %12s %10s %10s %8s%n", "mode", "shards", "ops/s", "p50(us)", "p99(us)", "cross");
+                try (LedgerSequencer sequencer = new LedgerSequencer(storage, 4096)) {
+                    report("sequencer", 1, 0, SequencerBenchmark.run(clients, seconds, accounts, (from, to, amount) -> {
+                        SequencerBenchmark.Waiter waiter = new SequencerBenchmark.Waiter();
+                        sequencer.transfer(from, to, amount, waiter);
+                        waiter.await();
+                    }));
+                }
+                storage.checkpoint();
+
+                for (int shards : SHARDS) {
+                    try (ShardedLedger ledger = ShardedLedger.open(storage, dir.resolve("shards").toFile(), shards)) {
+                        report("shards", shards, crossFraction(ledger, accounts),
+                                SequencerBenchmark.run(clients, seconds, accounts, (from, to, amount) -> {
+                                    SequencerBenchmark.Waiter waiter = new SequencerBenchmark.Waiter();
+                                    ledger.transfer(from, to, amount, waiter);
+                                    waiter.await();
+                                }));
+                    }
+                    storage.checkpoint(); // keep the journal short between runs
+                }
+            }
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    /** Share of random account pairs whose accounts live on different shards. */
+    private static double crossFraction(ShardedLedger ledger, int accounts) {
+        Random random = new Random(42);
+        int samples = 100_000, cross = 0;
+        for (int i = 0; i < samples; i++) {
+            String from = LedgerBenchmark.accountNo(random.nextInt(accounts));
+            String to = LedgerBenchmark.accountNo(random.nextInt(accounts));
+            if (ledger.shardOf(from) != ledger.shardOf(to)) cross++;
+        }
+        return (double) cross / samples;
+    }
+
+    private static void report(String mode, int shards, double cross, SequencerBenchmark.Result r) {
+        System.out.printf("%-10s %7d %12.0f %10.0f %10.0f %7.0f%%%n", mode, shards, r.ops * 1e9 / r.nanos,
+                SequencerBenchmark.percentile(r.latencies, 0.50), SequencerBenchmark.percentile(r.latencies, 0.99),
+                cross * 100);
+    }
+}
@@ -0,0 +1,60 @@
+package admin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static admin.SeededAccounts.*;
+
+/**
+ * {@link ShardedLedger} must keep the {@link AsyncLedger} contract while cross-shard handoffs
+ * are in flight, and recovery must finish handoffs a crash left open.
+ */
+public class ShardedLedgerTest extends AsyncLedgerContract {
+    @Override
+    protected AsyncLedger openLedger(AccountStorage storage) throws IOException {
+        return ShardedLedger.open(storage, shardDir(), 4);
+    }
+
+    public void testTransfersReachEveryShard() throws Exception {
+        try (AccountStorage storage = open(); ShardedLedger ledger = ShardedLedger.open(storage, shardDir(), 3)) {
+            for (int i = 1; i < ACCOUNTS; i++) {
+                assertEquals(AsyncLedger.Status.ACCEPTED, transfer(ledger, accountNo(0), accountNo(i), OPENING_CENTS / 20));
+            }
+            assertEquals(OPENING_CENTS - 11 * (OPENING_CENTS / 20), ledger.getBalance(accountNo(0)));
+            assertEquals(OPENING_CENTS + OPENING_CENTS / 20, ledger.getBalance(accountNo(5)));
+        }
+    }
+
+    public void testRecoveryCreditsPendingDebits() throws Exception {
+        Files.createDirectories(shardDir().toPath());
+        // Shard 0 debited account 0 twice; only the first credit reached account 1 before the crash.
+        write("shard-00.journal", "D|7|" + accountNo(0) + "|900.00|" + accountNo(1) + "|100.00\n"
+                + "D|8|" + accountNo(0) + "|850.00|" + accountNo(2) + "|50.00\n");
+        write("shard-01.journal", "C|7|" + accountNo(1) + "|1100.00\n"
+                + "C|8|" + accountNo(2) + "|10"); // torn, never acknowledged
+        // A debit carried over a checkpoint to an account that does not exist is refunded.
+        write("shard-02.journal", "B|" + accountNo(3) + "|700.00\n"
+                + "P|9|" + accountNo(3) + "|999999|300.00\n");
+
+        try (AccountStorage storage = open()) {
+            ShardedLedger.open(storage, shardDir(), 2).close();
+            assertEquals(85_000, storage.getBalance(accountNo(0)));
+            assertEquals(110_000, storage.getBalance(accountNo(1)));
+            assertEquals(105_000, storage.getBalance(accountNo(2)));
+            assertEquals(OPENING_CENTS, storage.getBalance(accountNo(3)));
+        }
+        try (AccountStorage reopened = open()) {
+            assertConserved(reopened::getBalance, ACCOUNTS);
+        }
+    }
+
+    private void write(String name, String text) throws IOException {
+        Files.write(shardDir().toPath().resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File shardDir() {
+        return dir.resolve("shards").toFile();
+    }
+}
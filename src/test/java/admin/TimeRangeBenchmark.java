@@ -0,0 +1,106 @@
+package admin;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One-day query latency through {@link TimeBucketIndex} against a full scan as the history
+ * grows. Every generated day holds the same 2,880 records, so a flat indexed column is the
+ * expected result. Not a unit test; run with
+ * {@code java -Xmx6g -cp target/classes:target/test-classes admin.TimeRangeBenchmark [maxRecords]}
+ * (default 1,000,000; pass 10000000 for the full range).
+ */
+public class TimeRangeBenchmark {
+    private static final int RECORDS_PER_SEGMENT = 200_000;
+    private static final long SPACING_MILLIS = 30_000;
+    private static final long START = BinaryTransactionLog.toEpochMillis("2024-01-01 00:00:00");
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    public static void main(String[] args) throws IOException {
+        int maxRecords = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        System.out.printf("%12s %10s %12s %12s %12s%n", "records", "segments", "open(ms)", "index(ms)", "scan(ms)");
+        for (int n = 10_000; n <= maxRecords; n *= 10) {
+            Path dir = Files.createTempDirectory("timerange-bench");
+            try {
+                run(dir, n);
+            } finally {
+                SeededAccounts.deleteRecursively(dir);
+            }
+        }
+    }
+
+    private static void run(Path dir, int records) throws IOException {
+        File active = dir.resolve("transactions.txt").toFile();
+        File segments = dir.resolve("segments").toFile();
+
+        SegmentedTransactionLog log = new SegmentedTransactionLog(active, segments, Long.MAX_VALUE, Long.MAX_VALUE);
+        log.open();
+        for (int from = 0; from < records; from += RECORDS_PER_SEGMENT) {
+            write(active, from, Math.min(records, from + RECORDS_PER_SEGMENT));
+            log.roll();
+        }
+
+        long begin = System.nanoTime();
+        log = new SegmentedTransactionLog(active, segments, Long.MAX_VALUE, Long.MAX_VALUE);
+        log.open();
+        long openMillis = (System.nanoTime() - begin) / 1_000_000;
+
+        // Query the middle day of the history, which is always full.
+        long day = START + (records * SPACING_MILLIS / 2) / DAY * DAY;
+        SegmentedTransactionLog queried = log;
+        double indexed = median(() -> {
+            int[] n = {0};
+            queried.forRange(day, day + DAY, t -> n[0]++);
+            return n[0];
+        });
+        double scanned = records > 1_000_000 ? Double.NaN : median(() -> {
+            int[] n = {0};
+            queried.scan(summary -> true, t -> {
+                long millis = BinaryTransactionLog.toEpochMillis(t.timestamp);
+                if (millis >= day && millis < day + DAY) n[0]++;
+            });
+            return n[0];
+        });
+
+        System.out.printf("%12d %10d %12d %12.2f %12.1f%n", records, log.getSegments().size(), openMillis, indexed, scanned);
+    }
+
+    static void write(File file, int from, int to) throws IOException {
+        Random random = new Random(from);
+        String[] types = {"TRANSFER", "DEPOSIT", "WITHDRAW"};
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = from; i < to; i++) {
+                String sender = String.valueOf(100000 + random.nextInt(10_000));
+                String receiver = String.valueOf(100000 + random.nextInt(10_000));
+                writer.write(TransactionText.format("user" + sender, sender, receiver, types[i % 3], "Success",
+                        BinaryTransactionLog.formatEpochMillis(START + i * SPACING_MILLIS),
+                        random.nextInt(100_000), "pool-1-thread-" + random.nextInt(16)));
+            }
+        }
+    }
+
+    interface Query {
+        int run() throws IOException;
+    }
+
+    /** Median of several runs in milliseconds, after a few warm-up runs. */
+    private static double median(Query query) throws IOException {
+        int expected = query.run();
+        for (int i = 0; i < 5; i++) query.run();
+        long[] nanos = new long[15];
+        for (int i = 0; i < nanos.length; i++) {
+            long begin = System.nanoTime();
+            if (query.run() != expected) throw new IllegalStateException("Query results differ between runs");
+            nanos[i] = System.nanoTime() - begin;
+        }
+        Arrays.sort(nanos);
+        return nanos[nanos.length / 2] / 1e6;
+    }
+}
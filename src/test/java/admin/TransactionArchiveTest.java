@@ -0,0 +1,163 @@
+package admin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compacting old segments into {@link TransactionArchive}s must not change what account and
+ * time-range queries return, must survive a restart and a crash halfway through, and must
+ * not hold up appends to the active file.
+ */
+public class TransactionArchiveTest extends TestCase {
+    private static final long START = BinaryTransactionLog.toEpochMillis("2024-01-01 00:00:00");
+    private static final long SPACING_MILLIS = 60_000;
+    private static final int RECORDS_PER_SEGMENT = 3_000;
+    private static final int SEGMENTS = 4;
+    private static final int ACCOUNTS = 50;
+
+    private Path dir;
+    private File active, segmentDir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("archive-test");
+        active = dir.resolve("transactions.txt").toFile();
+        segmentDir = dir.resolve("segments").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        SeededAccounts.deleteRecursively(dir);
+    }
+
+    public void testArchivedHistoryAnswersTheSameQueries() throws IOException {
+        SegmentedTransactionLog log = populate();
+        List<List<String>> before = queries(log);
+        long segmentBytes = 0;
+        for (SegmentedTransactionLog.Segment segment : log.getSegments()) segmentBytes += segment.file.length();
+
+        // Everything but the newest segment is older than the cutoff.
+        assertEquals(SEGMENTS - 1, log.archiveOlderThan(START + SEGMENTS * RECORDS_PER_SEGMENT * SPACING_MILLIS));
+        assertEquals(1, log.getSegments().size());
+        assertEquals(SEGMENTS - 1, log.getArchives().size());
+        assertEquals(before, queries(log));
+
+        long archiveBytes = 0;
+        for (TransactionArchive archive : log.getArchives()) archiveBytes += archive.length();
+        long keptBytes = log.getSegments().get(0).file.length();
+        assertTrue("Archives are not smaller: " + archiveBytes, archiveBytes < segmentBytes - keptBytes);
+
+        // Hot scans skip the archives.
+        int[] hot = {0};
+        log.scan(summary -> true, t -> hot[0]++);
+        assertEquals(RECORDS_PER_SEGMENT + 10, hot[0]);
+
+        SegmentedTransactionLog reopened = new SegmentedTransactionLog(active, segmentDir, Long.MAX_VALUE, Long.MAX_VALUE);
+        reopened.open();
+        assertEquals(SEGMENTS - 1, reopened.getArchives().size());
+        assertEquals(before, queries(reopened));
+        assertEquals(0, reopened.archiveOlderThan(Long.MAX_VALUE)); // the newest segment stays hot
+    }
+
+    public void testOpenFinishesAnInterruptedCompaction() throws IOException {
+        SegmentedTransactionLog log = populate();
+        List<List<String>> before = queries(log);
+        SegmentedTransactionLog.Segment oldest = log.getSegments().get(0);
+        byte[] bytes = Files.readAllBytes(oldest.file.toPath());
+        log.archiveOlderThan(START + SPACING_MILLIS * RECORDS_PER_SEGMENT);
+        assertFalse(oldest.file.exists());
+        Files.write(oldest.file.toPath(), bytes); // as if the process died before deleting it
+
+        SegmentedTransactionLog reopened = new SegmentedTransactionLog(active, segmentDir, Long.MAX_VALUE, Long.MAX_VALUE);
+        reopened.open();
+        assertFalse(oldest.file.exists());
+        assertEquals(SEGMENTS - 1, reopened.getSegments().size());
+        assertEquals(before, queries(reopened));
+    }
+
+    public void testAppendsContinueDuringCompaction() throws Exception {
+        SegmentedTransactionLog log = populate();
+        try (TransactionLogWriter writer = new TransactionLogWriter(active, TransactionLogWriter.Durability.GROUP, 500)) {
+            writer.setAppendListener(log);
+            Thread compactor = new Thread(() -> {
+                try {
+                    log.archiveOlderThan(Long.MAX_VALUE);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            compactor.start();
+            for (int i = 0; i < 200; i++) {
+                writer.append(TransactionText.format("late", "999999", accountNo(i % ACCOUNTS), "DEPOSIT", "Success",
+                        "2025-06-01 00:00:00", 100, "t"));
+            }
+            compactor.join();
+        }
+        assertEquals(SEGMENTS - 1, log.getArchives().size());
+        int[] late = {0};
+        log.forAccount("999999", t -> late[0]++);
+        assertEquals(200, late[0]);
+    }
+
+    /** Four sealed segments of a minute-spaced history plus a few records in the active file. */
+    private SegmentedTransactionLog populate() throws IOException {
+        SegmentedTransactionLog log = new SegmentedTransactionLog(active, segmentDir, Long.MAX_VALUE, Long.MAX_VALUE);
+        log.open();
+        Random random = new Random(7);
+        int n = 0;
+        for (int s = 0; s < SEGMENTS; s++) {
+            write(random, n, RECORDS_PER_SEGMENT);
+            n += RECORDS_PER_SEGMENT;
+            log.roll();
+        }
+        write(random, n, 10);
+        log.open(); // index the active file
+        return log;
+    }
+
+    private void write(Random random, int from, int count) throws IOException {
+        try (Writer writer = new FileWriter(active, true)) {
+            for (int i = from; i < from + count; i++) {
+                int sender = random.nextInt(ACCOUNTS);
+                writer.write(TransactionText.format("User " + sender, accountNo(sender), accountNo(random.nextInt(ACCOUNTS)),
+                        "TRANSFER", "Success", BinaryTransactionLog.formatEpochMillis(START + i * SPACING_MILLIS),
+                        1 + random.nextInt(100_000), "pool-1-thread-" + random.nextInt(4)));
+            }
+        }
+    }
+
+    /** Every account's history plus a few time ranges, some across segment edges. */
+    private static List<List<String>> queries(SegmentedTransactionLog log) throws IOException {
+        List<List<String>> results = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            List<String> history = new ArrayList<>();
+            log.forAccount(accountNo(i), t -> history.add(TransactionText.format(t)));
+            assertFalse(history.isEmpty());
+            results.add(history);
+        }
+        long[][] ranges = {
+                {START, START + 60 * 60 * 1000L},
+                {START + 2_990 * SPACING_MILLIS + 7, START + 3_010 * SPACING_MILLIS},
+                {START + 5_000 * SPACING_MILLIS, START + 9_500 * SPACING_MILLIS}};
+        for (long[] range : ranges) {
+            List<String> found = new ArrayList<>();
+            log.forRange(range[0], range[1], t -> found.add(TransactionText.format(t)));
+            assertFalse(found.isEmpty());
+            results.add(found);
+        }
+        return results;
+    }
+
+    private static String accountNo(int i) {
+        return String.valueOf(200000 + i);
+    }
+}
@@ -0,0 +1,81 @@
+package admin;
+
+import admin.AdminPanel.Transaction;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Parse time and size of the transaction history in the text and binary formats. Not a unit
+ * test; run with {@code java -cp target/classes:target/test-classes admin.TransactionFormatBenchmark [records]}.
+ */
+public class TransactionFormatBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        Path dir = Files.createTempDirectory("txformat-bench");
+        try {
+            File text = dir.resolve("transactions.txt").toFile();
+            File binary = dir.resolve("transactions.bin").toFile();
+            generate(text, records);
+            BinaryTransactionLog.main(new String[]{text.getPath(), binary.getPath()});
+
+            System.out.printf("%-10s %14s %10s%n", "format", "bytes", "parse(ms)");
+            System.out.printf("%-10s %14d %10d%n", "text", text.length(), time(() -> parseText(text)));
+            System.out.printf("%-10s %14d %10d%n", "binary", binary.length(), time(() -> parseBinary(binary)));
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    static void generate(File file, int records) throws IOException {
+        Random random = new Random(7);
+        String[] types = {"TRANSFER", "DEPOSIT", "WITHDRAW"};
+        long start = BinaryTransactionLog.toEpochMillis("2024-01-01 00:00:00");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < records; i++) {
+                String sender = String.valueOf(100000 + random.nextInt(10_000));
+                String receiver = String.valueOf(100000 + random.nextInt(10_000));
+                writer.write(TransactionText.format("user" + sender, sender, receiver, types[i % 3], "Success",
+                        BinaryTransactionLog.formatEpochMillis(start + i * 30_000L),
+                        random.nextInt(100_000), "pool-1-thread-" + random.nextInt(16)));
+            }
+        }
+    }
+
+    /** The original AdminPanel path: materialize, join, regex split, parse each block. */
+    static int parseText(File file) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            List<String> lines = br.lines().collect(Collectors.toList());
+            return (int) Arrays.stream(String.join("\n", lines).split("\\n\\s*\\n"))
+                    .map(String::trim)
+                    .filter(block -> !block.isEmpty())
+                    .map(TransactionText::parseBlock)
+                    .count();
+        }
+    }
+
+    static int parseBinary(File file) throws IOException {
+        int n = 0;
+        try (BinaryTransactionLog.Reader reader = new BinaryTransactionLog.Reader(new FileInputStream(file))) {
+            for (Transaction t = reader.next(); t != null; t = reader.next()) n++;
+        }
+        return n;
+    }
+
+    interface Parse {
+        int run() throws IOException;
+    }
+
+    static long time(Parse parse) throws IOException {
+        parse.run(); // warm up
+        long start = System.nanoTime();
+        parse.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,70 @@
+package admin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Append throughput and latency of {@link TransactionLogWriter} in each durability mode
+ * with concurrent writers. Not a unit test; run with
+ * {@code java -cp target/classes:target/test-classes admin.TransactionLogBenchmark [threads] [recordsPerThread]}.
+ */
+public class TransactionLogBenchmark {
+    static final String RECORD = "SenderName: bench,\nSenderAccNo: 100001,\nReceiverAccNo: 100002,\n" +
+            "Type: TRANSFER,\nStatus: Success,\nDateTime: 2025-06-01 12:00:00,\nAmount: 10.00,\nThread: bench,\n\n";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        Path dir = Files.createTempDirectory("txlog-bench");
+        try {
+            System.out.printf("%-8s %8s %10s %12s %12s%n", "mode", "threads", "records", "ops/s", "p99(us)");
+            for (TransactionLogWriter.Durability mode : TransactionLogWriter.Durability.values()) {
+                File file = dir.resolve(mode + ".txt").toFile();
+                try (TransactionLogWriter writer = new TransactionLogWriter(file, mode, 2_000)) {
+                    run(mode.name(), threads, perThread, writer);
+                }
+            }
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    private static void run(String name, int threads, int perThread, TransactionLogWriter writer) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> results = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(() -> {
+                long[] nanos = new long[perThread];
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    long begin = System.nanoTime();
+                    writer.append(RECORD);
+                    nanos[i] = System.nanoTime() - begin;
+                }
+                return nanos;
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        long[] all = new long[threads * perThread];
+        int k = 0;
+        for (Future<long[]> f : results) {
+            for (long n : f.get()) all[k++] = n;
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+
+        Arrays.sort(all);
+        double p99 = all[(int) (all.length * 0.99)] / 1_000.0;
+        System.out.printf("%-8s %8d %10d %12.0f %12.1f%n", name, threads, all.length, all.length * 1e9 / elapsed, p99);
+    }
+}
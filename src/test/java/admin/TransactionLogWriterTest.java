@@ -0,0 +1,51 @@
+package admin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Closing the transaction log while records are still being appended: every caller either
+ * gets its record written or an IOException, and none is left waiting.
+ */
+public class TransactionLogWriterTest extends TestCase {
+    public void testAppendsRacingCloseNeverHang() throws Exception {
+        File file = File.createTempFile("transactions", ".txt");
+        ExecutorService appenders = Executors.newFixedThreadPool(8);
+        try {
+            int total = 0;
+            for (int round = 0; round < 20; round++) {
+                TransactionLogWriter log = new TransactionLogWriter(file, TransactionLogWriter.Durability.GROUP, 200);
+                CountDownLatch started = new CountDownLatch(8);
+                List<Future<Integer>> written = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    written.add(appenders.submit(() -> {
+                        started.countDown();
+                        int count = 0;
+                        try {
+                            while (true) {
+                                log.append(TransactionLogBenchmark.RECORD);
+                                count++;
+                            }
+                        } catch (IOException closed) {
+                            return count;
+                        }
+                    }));
+                }
+                started.await();
+                log.close();
+                for (Future<Integer> f : written) total += f.get(10, TimeUnit.SECONDS);
+            }
+            long records = Files.readAllLines(file.toPath()).stream().filter(line -> line.startsWith("Thread:")).count();
+            assertEquals("every append that returned was written", total, records);
+        } finally {
+            appenders.shutdownNow();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
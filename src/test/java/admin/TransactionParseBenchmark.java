@@ -0,0 +1,60 @@
+package admin;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Time and allocation of the original whole-file parse (materialize lines, join, regex split,
+ * split each block) against the streaming {@link client.TransactionBlockParser}, over a
+ * generated log of the given size. Not a unit test; run with
+ * {@code java -Xmx4g -cp target/classes:target/test-classes admin.TransactionParseBenchmark [megabytes]}
+ * (default 256; pass 1024 for a 1 GB log).
+ */
+public class TransactionParseBenchmark {
+    private static final int BYTES_PER_RECORD = 190;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+
+        Path dir = Files.createTempDirectory("txparse-bench");
+        try {
+            File text = dir.resolve("transactions.txt").toFile();
+            TransactionFormatBenchmark.generate(text, (int) ((long) megabytes * 1024 * 1024 / BYTES_PER_RECORD));
+
+            System.out.printf("%-10s %12s %12s %10s%n", "parser", "bytes", "alloc(MB)", "parse(ms)");
+            report("streaming", text, () -> stream(text));
+            report("original", text, () -> TransactionFormatBenchmark.parseText(text));
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    static int stream(File file) throws IOException {
+        int[] n = {0};
+        try (Reader reader = new FileReader(file)) {
+            TransactionText.readBlocks(reader, t -> n[0]++);
+        }
+        return n[0];
+    }
+
+    private static void report(String name, File file, TransactionFormatBenchmark.Parse parse) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        try {
+            parse.run(); // warm up
+            long allocated = threads.getThreadAllocatedBytes(id);
+            long start = System.nanoTime();
+            parse.run();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            allocated = threads.getThreadAllocatedBytes(id) - allocated;
+            System.out.printf("%-10s %12d %12d %10d%n", name, file.length(), allocated >> 20, millis);
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-10s %12d %12s %10s%n", name, file.length(), "-", "OOM");
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package admin;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Throughput and memory of the thread-per-connection {@link BlockingRequestServer} on the
+ * cached thread pool against the same server on {@link VirtualThreads}, with many clients
+ * (default 5,000) connected at once. Every request is a GET_TRANSACTIONS answered by
+ * {@link SegmentedTransactionLog#forAccount}, the blocking file reads AdminPanel does for it,
+ * over a 500,000 record history; the reply is the record count. Each server runs in a child
+ * JVM, and after the last request, with every client still connected, its anonymous resident
+ * memory (heap and thread stacks, not the page cache of the mapped segment) and OS thread
+ * count are read from /proc after a GC. Not a unit test; run with
+ * {@code java -cp target/classes:target/test-classes admin.VirtualThreadBenchmark [clients] [requests]}
+ * (requests per client, default 10) on Java 21 or later; older JVMs report the virtual row
+ * as unavailable. Linux only.
+ */
+public class VirtualThreadBenchmark {
+    private static final int RECORDS = 500_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args[1], new File(args[2]));
+            return;
+        }
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Path dir = Files.createTempDirectory("virtual-bench");
+        try {
+            SegmentedTransactionLog log = new SegmentedTransactionLog(dir.resolve("transactions.txt").toFile(),
+                    dir.resolve("segments").toFile(), Long.MAX_VALUE, Long.MAX_VALUE);
+            log.open();
+            TimeRangeBenchmark.write(log.getActiveFile(), 0, RECORDS);
+            log.roll();
+
+            System.out.printf("%-8s %8s %10s %8s %9s %9s %10s%n", "server", "clients",
+                    "anon(MB)", "threads", "p50(us)", "p99(us)", "req/s");
+            for (String mode : new String[]{"cached", "virtual"}) run(mode, dir, clients, requests);
+        } finally {
+            SeededAccounts.deleteRecursively(dir);
+        }
+    }
+
+    private static void run(String mode, Path dir, int clients, int requests) throws Exception {
+        Process server = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-XX:+UseSerialGC", "-Xmx512m", "-cp", System.getProperty("java.class.path"), VirtualThreadBenchmark.class.getName(),
+                "serve", mode, dir.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        BufferedReader control = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter command = new PrintWriter(new OutputStreamWriter(server.getOutputStream(), StandardCharsets.UTF_8), true);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            String ready = control.readLine();
+            if (!ready.startsWith("PORT ")) {
+                System.out.printf("%-8s %8d  %s%n", mode, clients, ready);
+                return;
+            }
+            int port = Integer.parseInt(ready.substring("PORT ".length()));
+
+            // Each client connects, waits for the rest, sends its requests one at a time and
+            // stays connected until the server's busy stats are taken.
+            long[] latencies = new long[clients * requests];
+            List<Future<?>> done = new ArrayList<>(clients);
+            CountDownLatch connected = new CountDownLatch(clients);
+            CountDownLatch go = new CountDownLatch(1);
+            CountDownLatch finished = new CountDownLatch(clients);
+            CountDownLatch release = new CountDownLatch(1);
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                done.add(pool.submit(() -> {
+                    try (Socket socket = new Socket("127.0.0.1", port)) {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                        connected.countDown();
+                        go.await();
+                        try {
+                            for (int r = 0; r < requests; r++) {
+                                long start = System.nanoTime();
+                                out.write("GET_TRANSACTIONS\n" + (100000 + (client * 31 + r) % 10_000) + "\n\n");
+                                out.flush();
+                                if (in.readLine() == null) throw new EOFException("Server closed the connection");
+                                latencies[client * requests + r] = System.nanoTime() - start;
+                            }
+                        } finally {
+                            finished.countDown();
+                        }
+                        release.await();
+                    }
+                    return null;
+                }));
+            }
+            connected.await();
+            long begin = System.nanoTime();
+            go.countDown();
+            finished.await();
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            command.println("STATS");
+            String[] stats = control.readLine().split(" ");
+            release.countDown();
+            for (Future<?> f : done) f.get();
+
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %8d %10s %8s %9.0f %9.0f %10.0f%n", mode, clients, stats[1], stats[2],
+                    SequencerBenchmark.percentile(latencies, 0.50), SequencerBenchmark.percentile(latencies, 0.99),
+                    latencies.length / seconds);
+        } finally {
+            pool.shutdownNow();
+            command.close();
+            server.waitFor(10, TimeUnit.SECONDS);
+            server.destroyForcibly();
+        }
+    }
+
+    /** Child side: a thread-per-connection server over the history in {@code dir}, reporting STATS until stdin closes. */
+    private static void serve(String mode, File dir) throws IOException {
+        ExecutorService executor;
+        if (mode.equals("virtual")) {
+            executor = VirtualThreads.newPerTaskExecutor();
+            if (executor == null) {
+                System.out.println("virtual threads unavailable on Java " + System.getProperty("java.specification.version"));
+                return;
+            }
+        } else {
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        SegmentedTransactionLog log = new SegmentedTransactionLog(new File(dir, "transactions.txt"),
+                new File(dir, "segments"), Long.MAX_VALUE, Long.MAX_VALUE);
+        log.open();
+        BlockingRequestServer server = new BlockingRequestServer(0, executor, (request, out) -> {
+            int[] count = {0};
+            try {
+                log.forAccount(request.body.trim(), t -> count[0]++);
+                out.println(count[0]);
+            } catch (IOException e) {
+                out.println("ERROR_READING_TRANSACTIONS");
+            }
+        });
+        server.start();
+        System.out.println("PORT " + server.getPort());
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (String line; (line = commands.readLine()) != null; ) {
+            if (!line.equals("STATS")) continue;
+            System.gc();
+            System.out.println("STATS " + status("RssAnon") / 1024 + " " + status("Threads"));
+        }
+        server.close();
+        executor.shutdownNow();
+    }
+
+    /** A numeric field of /proc/self/status (kB for sizes). */
+    private static long status(String field) throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith(field + ":")) return Long.parseLong(line.substring(field.length() + 1).trim().split("\\s+")[0]);
+        }
+        return -1;
+    }
+}